@@ -0,0 +1,127 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+import org.jetbrains.kotlin.gradle.tasks.KotlinCompile
+
+@Suppress("DSL_SCOPE_VIOLATION") // https://youtrack.jetbrains.com/issue/KTIJ-19369
+plugins {
+    id("org.jetbrains.kotlin.jvm")
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+tasks.withType<KotlinCompile> {
+    kotlinOptions {
+        jvmTarget = "11"
+    }
+}
+
+// Benchmarks run on the desktop JVM. Editor sources are compiled into this module directly, so they
+// are measured exactly as they are shipped. The few framework classes they touch (GetChars, Parcel
+// and so on) come from Robolectric's android-all jar, none of which is native on benchmarked paths.
+val benchmarkedSourceDirs = listOf(
+    rootProject.file("editor/src/main/java"),
+    rootProject.file("language-java/src/main/java"),
+    rootProject.file("language-textmate/src/main/java")
+)
+val benchmarkedSources = listOf(
+    // Fuzzy scoring
+    "io/github/rosemoe/sora/lang/completion/filters.kt",
+    "io/github/rosemoe/sora/lang/completion/FuzzyScoreCalculator.kt",
+    "io/github/rosemoe/sora/util/CharCode.kt",
+    "io/github/rosemoe/sora/util/MyCharacter.java",
+    // Text model
+    "io/github/rosemoe/sora/annotations/UnsupportedUserUsage.java",
+    "io/github/rosemoe/sora/text/CachedIndexer.java",
+    "io/github/rosemoe/sora/text/CharArrayWrapper.java",
+    "io/github/rosemoe/sora/text/CharPosition.java",
+    "io/github/rosemoe/sora/text/CompactText.java",
+    "io/github/rosemoe/sora/text/Content.java",
+    "io/github/rosemoe/sora/text/ContentIO.java",
+    "io/github/rosemoe/sora/text/ContentLine.java",
+    "io/github/rosemoe/sora/text/ContentListener.java",
+    "io/github/rosemoe/sora/text/Cursor.java",
+    "io/github/rosemoe/sora/text/Indexer.java",
+    "io/github/rosemoe/sora/text/InsertTextHelper.java",
+    "io/github/rosemoe/sora/text/LineDiff.java",
+    "io/github/rosemoe/sora/text/LineRemoveListener.java",
+    "io/github/rosemoe/sora/text/LineSeparator.java",
+    "io/github/rosemoe/sora/text/TextLayoutHelper.java",
+    "io/github/rosemoe/sora/text/TextUtils.java",
+    "io/github/rosemoe/sora/text/UndoManager.java",
+    "io/github/rosemoe/sora/text/UndoSpillFile.java",
+    "io/github/rosemoe/sora/text/bidi/*.java",
+    "io/github/rosemoe/sora/util/IntPair.java",
+    "io/github/rosemoe/sora/util/Logger.java",
+    "io/github/rosemoe/sora/util/TemporaryCharBuffer.java",
+    "io/github/rosemoe/sora/util/TrieTree.java",
+    // Analyzers
+    "io/github/rosemoe/sora/langs/java/JavaTextTokenizer.java",
+    "io/github/rosemoe/sora/langs/java/Tokens.java",
+    "org/eclipse/tm4e/core/**"
+)
+
+sourceSets.main {
+    java.srcDirs(benchmarkedSourceDirs)
+    java.include(benchmarkedSources)
+    // Stand-in for the class generated by Android builds, in src/main/java
+    java.include("io/github/rosemoe/sora/langs/textmate/BuildConfig.java")
+}
+
+kotlin.sourceSets.main {
+    kotlin.srcDirs(benchmarkedSourceDirs)
+    kotlin.include(benchmarkedSources)
+}
+
+sourceSets.named("jmh") {
+    // Datasets: sample files and bundled grammars of the demo app
+    resources.srcDir(rootProject.file("app/src/main/assets"))
+    resources.include("samples/**", "textmate/**")
+}
+
+dependencies {
+    implementation(libs.androidx.annotation)
+    implementation(libs.tests.android.all)
+    implementation(libs.gson)
+    implementation(libs.jcodings)
+    implementation(libs.joni)
+    implementation(libs.snakeyaml)
+    implementation(libs.jdt.annotation)
+    implementation(libs.guava)
+}
+
+jmh {
+    jmhVersion.set("1.36")
+    // Machine readable results for trend tracking, in build/results/jmh/results.json
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+    // Select benchmarks by regular expressions, for example -Pjmh.includes=Content,Indexer
+    (project.findProperty("jmh.includes") as String?)?.let {
+        includes.set(it.split(','))
+    }
+}
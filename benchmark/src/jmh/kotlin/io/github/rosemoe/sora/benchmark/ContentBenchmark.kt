@@ -0,0 +1,96 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.benchmark
+
+import io.github.rosemoe.sora.text.Content
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.util.Random
+import java.util.concurrent.TimeUnit
+
+/**
+ * Edits at random positions of a large document. Every edit is reverted right away, so that the
+ * document keeps its size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class ContentBenchmark {
+
+    @Param("1", "4")
+    var copies = 1
+
+    @Param("true", "false")
+    var undoEnabled = true
+
+    private lateinit var content: Content
+    private lateinit var lines: IntArray
+    private lateinit var columns: IntArray
+    private var next = 0
+
+    @Setup
+    fun setup() {
+        content = Content(Samples.viewJava(copies))
+        content.isUndoEnabled = undoEnabled
+        val random = Random(0)
+        lines = IntArray(4096) { random.nextInt(content.lineCount) }
+        columns = IntArray(lines.size) { random.nextInt(content.getColumnCount(lines[it]) + 1) }
+    }
+
+    private fun nextPosition(): Int {
+        next = (next + 1) and (lines.size - 1)
+        return next
+    }
+
+    @Benchmark
+    fun insertDelete() {
+        val i = nextPosition()
+        val line = lines[i]
+        val column = columns[i]
+        content.insert(line, column, "text")
+        content.delete(line, column, line, column + 4)
+    }
+
+    @Benchmark
+    fun insertDeleteLines() {
+        val i = nextPosition()
+        val line = lines[i]
+        val column = columns[i]
+        content.insert(line, column, "a\nb\n")
+        content.delete(line, column, line + 2, 0)
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.benchmark
+
+import io.github.rosemoe.sora.text.Content
+import io.github.rosemoe.sora.text.ContentIO
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.util.concurrent.TimeUnit
+
+/**
+ * Reading and writing files through [ContentIO]
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class ContentIOBenchmark {
+
+    @Param("1", "4")
+    var copies = 1
+
+    private lateinit var text: String
+    private lateinit var bytes: ByteArray
+    private lateinit var content: Content
+    private lateinit var output: ByteArrayOutputStream
+
+    @Setup
+    fun setup() {
+        text = Samples.viewJava(copies)
+        bytes = text.toByteArray()
+        content = Content(text)
+        output = ByteArrayOutputStream(bytes.size)
+    }
+
+    /**
+     * Create from a string already in memory, without decoding
+     */
+    @Benchmark
+    fun createFromString(): Content {
+        return Content(text)
+    }
+
+    @Benchmark
+    fun createFrom(): Content {
+        return ContentIO.createFrom(ByteArrayInputStream(bytes))
+    }
+
+    @Benchmark
+    fun writeTo(): Int {
+        output.reset()
+        ContentIO.writeTo(content, output, false)
+        return output.size()
+    }
+
+}
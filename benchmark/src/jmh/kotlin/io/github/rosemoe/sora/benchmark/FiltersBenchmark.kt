@@ -0,0 +1,116 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.benchmark
+
+import io.github.rosemoe.sora.lang.completion.FuzzyScoreCalculator
+import io.github.rosemoe.sora.lang.completion.FuzzyScoreOptions
+import io.github.rosemoe.sora.lang.completion.fuzzyScoreGracefulAggressive
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Threads
+import org.openjdk.jmh.annotations.Warmup
+import org.openjdk.jmh.infra.Blackhole
+import java.util.Random
+import java.util.concurrent.TimeUnit
+
+/**
+ * Scores a fixed set of identifiers against one completion prefix, as completion filtering does
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class FiltersBenchmark {
+
+    @Param("c", "gCP", "setOnClick")
+    lateinit var pattern: String
+
+    private lateinit var lowPattern: String
+    private lateinit var words: List<String>
+    private lateinit var lowWords: List<String>
+    private lateinit var scores: IntArray
+
+    @Setup
+    fun setup() {
+        val random = Random(0)
+        val parts = arrayOf("get", "set", "on", "Click", "Listener", "Char", "Position", "Text", "Editor", "Line", "Count", "_", "Span")
+        words = List(2000) {
+            buildString {
+                repeat(1 + random.nextInt(5)) {
+                    append(parts[random.nextInt(parts.size)])
+                }
+            }
+        }
+        lowPattern = pattern.lowercase()
+        lowWords = words.map { it.lowercase() }
+        scores = IntArray(words.size)
+    }
+
+    /**
+     * Top level functions, with lower case words computed per candidate as current callers do
+     */
+    @Benchmark
+    fun filtersPerWord(blackhole: Blackhole) {
+        for (word in words) {
+            blackhole.consume(fuzzyScoreGracefulAggressive(pattern, lowPattern, 0, word, word.lowercase(), 0, FuzzyScoreOptions.default))
+        }
+    }
+
+    /**
+     * Top level functions, with lower case words prepared in advance
+     */
+    @Benchmark
+    fun filtersPerWordPrepared(blackhole: Blackhole) {
+        for (i in words.indices) {
+            blackhole.consume(fuzzyScoreGracefulAggressive(pattern, lowPattern, 0, words[i], lowWords[i], 0, FuzzyScoreOptions.default))
+        }
+    }
+
+    @Benchmark
+    fun calculatorBatch(): IntArray {
+        FuzzyScoreCalculator.current().scoreAll(pattern, words, scores)
+        return scores
+    }
+
+    /**
+     * Batch scoring from several threads, each of them using its own calculator
+     */
+    @Benchmark
+    @Threads(4)
+    fun calculatorBatchConcurrent(blackhole: Blackhole) {
+        val scores = IntArray(words.size)
+        blackhole.consume(FuzzyScoreCalculator.current().scoreAll(pattern, words, scores))
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.benchmark
+
+import io.github.rosemoe.sora.text.CharPosition
+import io.github.rosemoe.sora.text.Content
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import org.openjdk.jmh.infra.Blackhole
+import java.util.Random
+import java.util.concurrent.TimeUnit
+
+/**
+ * Index and position conversions of [io.github.rosemoe.sora.text.CachedIndexer]. Each invocation
+ * runs 1024 queries.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class IndexerBenchmark {
+
+    @Param("1", "4")
+    var copies = 1
+
+    private lateinit var content: Content
+    private lateinit var randomIndices: IntArray
+    private lateinit var nearbyIndices: IntArray
+    private lateinit var lines: IntArray
+    private lateinit var columns: IntArray
+    private val position = CharPosition()
+
+    @Setup
+    fun setup() {
+        content = Content(Samples.viewJava(copies))
+        content.isUndoEnabled = false
+        val random = Random(0)
+        randomIndices = IntArray(1024) { random.nextInt(content.length + 1) }
+        // Queries around a moving point, like the editor does for cursors and visible region
+        var index = content.length / 2
+        nearbyIndices = IntArray(1024) {
+            index = (index + random.nextInt(2000) - 1000).coerceIn(0, content.length)
+            index
+        }
+        lines = IntArray(1024) { random.nextInt(content.lineCount) }
+        columns = IntArray(lines.size) { random.nextInt(content.getColumnCount(lines[it]) + 1) }
+    }
+
+    @Benchmark
+    fun charPositionRandom(blackhole: Blackhole) {
+        val indexer = content.indexer
+        for (index in randomIndices) {
+            indexer.getCharPosition(index, position)
+            blackhole.consume(position.line)
+        }
+    }
+
+    @Benchmark
+    fun charPositionNearby(blackhole: Blackhole) {
+        val indexer = content.indexer
+        for (index in nearbyIndices) {
+            indexer.getCharPosition(index, position)
+            blackhole.consume(position.line)
+        }
+    }
+
+    @Benchmark
+    fun charIndexRandom(blackhole: Blackhole) {
+        val indexer = content.indexer
+        for (i in lines.indices) {
+            blackhole.consume(indexer.getCharIndex(lines[i], columns[i]))
+        }
+    }
+
+    /**
+     * Queries after an edit in the middle of text, which invalidates part of the cache
+     */
+    @Benchmark
+    fun charPositionAfterEdit(blackhole: Blackhole) {
+        val line = content.lineCount / 2
+        content.insert(line, 0, "\n")
+        content.delete(line, 0, line + 1, 0)
+        charPositionRandom(blackhole)
+    }
+
+}
@@ -0,0 +1,52 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.benchmark
+
+/**
+ * Datasets of benchmarks, loaded from the sample files of the demo app
+ */
+object Samples {
+
+    private val cache = HashMap<String, String>()
+
+    /**
+     * Read a resource as text
+     */
+    @Synchronized
+    fun read(path: String): String {
+        return cache.getOrPut(path) {
+            val stream = Samples::class.java.classLoader!!.getResourceAsStream(path)
+                ?: throw IllegalArgumentException("resource $path not found")
+            stream.bufferedReader().use { it.readText() }
+        }
+    }
+
+    /**
+     * Source of Android's View.java (about 32k lines), repeated the given times
+     */
+    fun viewJava(copies: Int = 1): String {
+        return read("samples/View.java").repeat(copies)
+    }
+
+}
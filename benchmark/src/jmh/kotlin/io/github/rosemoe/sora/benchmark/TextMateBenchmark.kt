@@ -0,0 +1,80 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.benchmark
+
+import org.eclipse.tm4e.core.grammar.IGrammar
+import org.eclipse.tm4e.core.grammar.IStateStack
+import org.eclipse.tm4e.core.registry.IGrammarSource
+import org.eclipse.tm4e.core.registry.Registry
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+
+/**
+ * Tokenizing View.java line by line with bundled TextMate grammars, like the TextMate analyzer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+open class TextMateBenchmark {
+
+    @Param("java/syntaxes/java.tmLanguage.json", "javascript/syntaxes/JavaScript.tmLanguage.json")
+    lateinit var grammarPath: String
+
+    private lateinit var grammar: IGrammar
+    private lateinit var lines: List<String>
+
+    @Setup
+    fun setup() {
+        val path = "textmate/$grammarPath"
+        val stream = TextMateBenchmark::class.java.classLoader!!.getResourceAsStream(path)
+        grammar = Registry().addGrammar(IGrammarSource.fromInputStream(stream, path, Charsets.UTF_8))
+        lines = Samples.viewJava().lines()
+    }
+
+    @Benchmark
+    fun tokenizeLine2(): Int {
+        var state: IStateStack? = null
+        var tokens = 0
+        for (line in lines) {
+            val result = grammar.tokenizeLine2(line, state, null)
+            state = result.ruleStack
+            tokens += result.tokens.size
+        }
+        return tokens
+    }
+
+}
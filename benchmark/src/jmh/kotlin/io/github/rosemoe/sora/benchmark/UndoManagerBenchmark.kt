@@ -0,0 +1,91 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.benchmark
+
+import io.github.rosemoe.sora.text.Content
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+
+/**
+ * Undo history while typing. Typed characters are merged into the previous insertion by
+ * [io.github.rosemoe.sora.text.UndoManager].
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class UndoManagerBenchmark {
+
+    private lateinit var content: Content
+    private var line = 0
+    private var column = 0
+
+    @Setup(Level.Iteration)
+    fun setup() {
+        content = Content(Samples.viewJava())
+        line = 0
+        column = 0
+    }
+
+    /**
+     * Type a character, moving to next line every 80 characters
+     */
+    @Benchmark
+    fun typeCharacter() {
+        if (column == 80) {
+            line = (line + 1) % content.lineCount
+            column = 0
+        }
+        content.insert(line, column++, "a")
+    }
+
+    /**
+     * Type a word in batch edits, then undo and redo it
+     */
+    @Benchmark
+    fun typeUndoRedo() {
+        val line = content.lineCount / 2
+        content.beginBatchEdit()
+        for (i in 0 until 8) {
+            content.insert(line, i, "a")
+        }
+        content.endBatchEdit()
+        content.undo()
+        content.redo()
+        content.undo()
+    }
+
+}
@@ -31,7 +31,7 @@ plugins {
 dependencies {
     constraints {
         project.rootProject.subprojects.forEach { subproject ->
-            if (subproject.name != "bom") {
+            if (subproject.name != "bom" && subproject.name != "benchmark") {
                 api(subproject)
             }
         }
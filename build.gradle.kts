@@ -83,7 +83,7 @@ tasks.register<Delete>("clean").configure {
     delete(rootProject.buildDir)
 }
 
-val excludeProjectName = arrayOf("app", "buildSrc")
+val excludeProjectName = arrayOf("app", "benchmark", "buildSrc")
 
 tasks.register("bundleAll") {
     group = "Rosemoe"
@@ -46,9 +46,25 @@ android {
     kotlinOptions {
         jvmTarget = "11"
     }
+    testOptions {
+        unitTests.isIncludeAndroidResources = true
+    }
+}
+
+tasks.withType<Test>().configureEach {
+    // Settings of ProviderLoadBenchmark, for example -Psora.benchmark.lsp.requests=100
+    listOf("sora.benchmark.lsp.requests", "sora.benchmark.lsp.latency").forEach { name ->
+        project.findProperty(name)?.let {
+            systemProperty(name, it)
+        }
+    }
 }
 
 dependencies {
     compileOnly(projects.editor)
     implementation(libs.lsp4j)
+    testImplementation(projects.editor)
+    testImplementation(libs.junit)
+    testImplementation(libs.tests.google.truth)
+    testImplementation(libs.tests.robolectric)
 }
@@ -30,6 +30,7 @@ import org.eclipse.lsp4j.ApplyWorkspaceEditResponse;
 import org.eclipse.lsp4j.ConfigurationParams;
 import org.eclipse.lsp4j.MessageActionItem;
 import org.eclipse.lsp4j.MessageParams;
+import org.eclipse.lsp4j.ProgressParams;
 import org.eclipse.lsp4j.PublishDiagnosticsParams;
 import org.eclipse.lsp4j.RegistrationParams;
 import org.eclipse.lsp4j.ShowMessageRequestParams;
@@ -100,7 +101,8 @@ public class DefaultLanguageClient implements LanguageClient {
 
         LspEditor editor = manager.getEditor(publishDiagnosticsParams.getUri());
 
-        manager.diagnosticsContainer.addDiagnostics(
+        // Published diagnostics replace previous ones of the document
+        manager.diagnosticsContainer.setDiagnostics(
                 publishDiagnosticsParams.getUri(),
                 publishDiagnosticsParams.getDiagnostics());
 
@@ -111,6 +113,11 @@ public class DefaultLanguageClient implements LanguageClient {
         editor.onDiagnosticsUpdate();
     }
 
+    @Override
+    public void notifyProgress(ProgressParams params) {
+        PartialResultDispatcher.dispatch(params);
+    }
+
     @Override
     public void showMessage(MessageParams messageParams) {
         context.getEventListener().onShowMessage(messageParams);
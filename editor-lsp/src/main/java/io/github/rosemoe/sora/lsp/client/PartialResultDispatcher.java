@@ -0,0 +1,86 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.client;
+
+import androidx.annotation.NonNull;
+
+import org.eclipse.lsp4j.ProgressParams;
+import org.eclipse.lsp4j.jsonrpc.messages.Either;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Routes partial results sent by {@code $/progress} notifications to the requests that asked
+ * for them.
+ * <p>
+ * A request registers a listener to get a token, sets the token as its partial result token,
+ * and removes the listener after the response is received.
+ */
+public class PartialResultDispatcher {
+
+    private final static Map<String, Consumer<Object>> listeners = new ConcurrentHashMap<>();
+    private final static AtomicLong nextToken = new AtomicLong();
+
+    /**
+     * Register a listener for partial results
+     *
+     * @param listener Receives the partial result values, which are usually json elements
+     * @return The token to be used as partial result token of the request
+     */
+    @NonNull
+    public static String register(@NonNull Consumer<Object> listener) {
+        var token = "sora-partial-" + nextToken.incrementAndGet();
+        listeners.put(token, listener);
+        return token;
+    }
+
+    /**
+     * Remove the listener of the given token
+     */
+    public static void unregister(@NonNull String token) {
+        listeners.remove(token);
+    }
+
+    /**
+     * Dispatch the progress notification to its listener
+     *
+     * @return Whether the notification is a partial result of a registered request
+     */
+    public static boolean dispatch(@NonNull ProgressParams params) {
+        Either<String, Integer> token = params.getToken();
+        var value = params.getValue();
+        if (token == null || !token.isLeft() || value == null || !value.isRight()) {
+            return false;
+        }
+        var listener = listeners.get(token.getLeft());
+        if (listener == null) {
+            return false;
+        }
+        listener.accept(value.getRight());
+        return true;
+    }
+}
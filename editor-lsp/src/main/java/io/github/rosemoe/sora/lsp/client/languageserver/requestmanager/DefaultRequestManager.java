@@ -73,6 +73,12 @@ import org.eclipse.lsp4j.PublishDiagnosticsParams;
 import org.eclipse.lsp4j.ReferenceParams;
 import org.eclipse.lsp4j.RegistrationParams;
 import org.eclipse.lsp4j.RenameParams;
+import org.eclipse.lsp4j.SemanticTokens;
+import org.eclipse.lsp4j.SemanticTokensDelta;
+import org.eclipse.lsp4j.SemanticTokensDeltaParams;
+import org.eclipse.lsp4j.SemanticTokensParams;
+import org.eclipse.lsp4j.SemanticTokensRangeParams;
+import org.eclipse.lsp4j.SemanticTokensWithRegistrationOptions;
 import org.eclipse.lsp4j.ServerCapabilities;
 import org.eclipse.lsp4j.ShowMessageRequestParams;
 import org.eclipse.lsp4j.SignatureHelp;
@@ -99,6 +105,7 @@ import java.util.concurrent.CompletableFuture;
 
 import io.github.rosemoe.sora.lsp.client.languageserver.ServerStatus;
 import io.github.rosemoe.sora.lsp.client.languageserver.wrapper.LanguageServerWrapper;
+import io.github.rosemoe.sora.lsp.requests.Timeouts;
 
 /**
  * Default implementation for LSP requests/notifications handling.
@@ -141,10 +148,16 @@ public class DefaultRequestManager implements RequestManager {
         return server;
     }
 
+    @Override
     public ServerCapabilities getServerCapabilities() {
         return serverCapabilities;
     }
 
+    @Override
+    public int getTimeout(Timeouts type) {
+        return wrapper.getRequestMetrics().getTimeout(type);
+    }
+
     // Client
     @Override
     public void showMessage(MessageParams messageParams) {
@@ -441,7 +454,7 @@ public class DefaultRequestManager implements RequestManager {
     public CompletableFuture<Hover> hover(HoverParams params) {
         if (checkStatus()) {
             try {
-                return serverCapabilities.getHoverProvider().getRight() != null ? textDocumentService.hover(params) : null;
+                return checkProvider(serverCapabilities.getHoverProvider()) ? textDocumentService.hover(params) : null;
             } catch (Exception e) {
                 crashed(e);
                 return null;
@@ -503,7 +516,7 @@ public class DefaultRequestManager implements RequestManager {
     public CompletableFuture<List<Either<SymbolInformation, DocumentSymbol>>> documentSymbol(DocumentSymbolParams params) {
         if (checkStatus()) {
             try {
-                return (serverCapabilities.getDocumentSymbolProvider() != null) ? textDocumentService.documentSymbol(params) : null;
+                return checkProvider(serverCapabilities.getDocumentSymbolProvider()) ? textDocumentService.documentSymbol(params) : null;
             } catch (Exception e) {
                 crashed(e);
                 return null;
@@ -692,6 +705,52 @@ public class DefaultRequestManager implements RequestManager {
         return null;
     }
 
+    @Override
+    public CompletableFuture<SemanticTokens> semanticTokensFull(SemanticTokensParams params) {
+        if (checkStatus()) {
+            try {
+                return (serverCapabilities.getSemanticTokensProvider() != null) ?
+                        textDocumentService.semanticTokensFull(params) :
+                        null;
+            } catch (Exception e) {
+                crashed(e);
+                return null;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public CompletableFuture<Either<SemanticTokens, SemanticTokensDelta>> semanticTokensFullDelta(SemanticTokensDeltaParams params) {
+        if (checkStatus()) {
+            try {
+                return checkSemanticTokensDeltaProvider(serverCapabilities.getSemanticTokensProvider()) ?
+                        textDocumentService.semanticTokensFullDelta(params) :
+                        null;
+            } catch (Exception e) {
+                crashed(e);
+                return null;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public CompletableFuture<SemanticTokens> semanticTokensRange(SemanticTokensRangeParams params) {
+        if (checkStatus()) {
+            try {
+                var provider = serverCapabilities.getSemanticTokensProvider();
+                return (provider != null && provider.getRange() != null) ?
+                        textDocumentService.semanticTokensRange(params) :
+                        null;
+            } catch (Exception e) {
+                crashed(e);
+                return null;
+            }
+        }
+        return null;
+    }
+
     public boolean checkStatus() {
         return wrapper.getStatus() == ServerStatus.INITIALIZED;
     }
@@ -705,4 +764,14 @@ public class DefaultRequestManager implements RequestManager {
         return provider != null && ((provider.isLeft() && provider.getLeft()) || (provider.isRight()
                 && provider.getRight() != null));
     }
-}
\ No newline at end of file
+
+    private boolean checkProvider(Either<Boolean, ?> provider) {
+        return provider != null && ((provider.isLeft() && provider.getLeft()) || (provider.isRight()
+                && provider.getRight() != null));
+    }
+
+    private boolean checkSemanticTokensDeltaProvider(SemanticTokensWithRegistrationOptions provider) {
+        return provider != null && provider.getFull() != null && provider.getFull().isRight()
+                && Boolean.TRUE.equals(provider.getFull().getRight().getDelta());
+    }
+}
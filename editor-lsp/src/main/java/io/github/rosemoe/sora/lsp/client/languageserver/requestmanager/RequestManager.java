@@ -75,6 +75,7 @@ import org.eclipse.lsp4j.SemanticTokensDelta;
 import org.eclipse.lsp4j.SemanticTokensDeltaParams;
 import org.eclipse.lsp4j.SemanticTokensParams;
 import org.eclipse.lsp4j.SemanticTokensRangeParams;
+import org.eclipse.lsp4j.ServerCapabilities;
 import org.eclipse.lsp4j.ShowMessageRequestParams;
 import org.eclipse.lsp4j.SignatureHelp;
 import org.eclipse.lsp4j.SignatureHelpParams;
@@ -94,6 +95,9 @@ import org.eclipse.lsp4j.services.WorkspaceService;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
+import io.github.rosemoe.sora.lsp.requests.Timeout;
+import io.github.rosemoe.sora.lsp.requests.Timeouts;
+
 /**
  * Base representation of currently supported LSP-based requests and notifications.
  */
@@ -139,6 +143,20 @@ public interface RequestManager extends LanguageClient, TextDocumentService, Wor
         return TextDocumentService.super.semanticTokensRange(params);
     }
 
+    /**
+     * Get capabilities of the server, or null if unknown
+     */
+    default ServerCapabilities getServerCapabilities() {
+        return null;
+    }
+
+    /**
+     * Get the timeout for requests of the given kind, in milliseconds
+     */
+    default int getTimeout(Timeouts type) {
+        return Timeout.getTimeout(type);
+    }
+
 
     //--------------------------------------Client2Server-------------------------------------------------------------//
 
@@ -0,0 +1,252 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.client.languageserver.wrapper;
+
+import android.util.Log;
+import android.util.Pair;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.rosemoe.sora.lsp.client.languageserver.serverdefinition.LanguageServerDefinition;
+import io.github.rosemoe.sora.lsp.editor.LspEditor;
+
+/**
+ * Shares running language servers among {@link LspEditor}s.
+ * <p>
+ * There is one {@link LanguageServerWrapper} for each (server definition, project root). Editors
+ * acquire the wrapper when they connect, and release it when they are closed. A wrapper without
+ * editors is stopped after the idle timeout ({@link #setIdleTimeout(long)}), so that reopening a file
+ * shortly does not initialize the server again.
+ * <p>
+ * Messages from all servers are read by threads of one bounded executor ({@link #getExecutor()}),
+ * each connection taking one thread.
+ */
+public class LanguageServerPool {
+
+    private static final String TAG = "LanguageServerPool";
+
+    /**
+     * Default time to keep a server without editors running, in milliseconds
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 60_000;
+
+    /**
+     * Max count of threads reading from language servers
+     */
+    public static final int MAX_THREADS = 32;
+
+    private static final Map<Pair<LanguageServerDefinition, String>, Entry> entries = new HashMap<>();
+
+    private static final ScheduledExecutorService scheduler;
+
+    private static final ExecutorService executor;
+
+    private static volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+    static {
+        var scheduledExecutor = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("LanguageServerPool-Idle"));
+        scheduledExecutor.setRemoveOnCancelPolicy(true);
+        scheduler = scheduledExecutor;
+        // Listening threads block on reading, so they can not be queued
+        executor = new ThreadPoolExecutor(0, MAX_THREADS, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                new NamedThreadFactory("LanguageServer"));
+    }
+
+    private LanguageServerPool() {
+    }
+
+    private static class Entry {
+
+        final LanguageServerWrapper wrapper;
+        final Set<LspEditor> holders = new HashSet<>();
+        ScheduledFuture<?> idleShutdown;
+
+        Entry(LanguageServerWrapper wrapper) {
+            this.wrapper = wrapper;
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            var thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Get the wrapper of the given server and project, and hold it for the editor. The wrapper is
+     * created if there is no such wrapper. Acquiring a wrapper held by the editor has no effect.
+     */
+    @NonNull
+    public static LanguageServerWrapper acquire(@NonNull LanguageServerDefinition serverDefinition, @NonNull String projectRootPath,
+                                                @NonNull LspEditor editor) {
+        synchronized (entries) {
+            var key = new Pair<>(serverDefinition, projectRootPath);
+            var entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry(new LanguageServerWrapper(serverDefinition, projectRootPath));
+                entries.put(key, entry);
+            }
+            entry.holders.add(editor);
+            if (entry.idleShutdown != null) {
+                entry.idleShutdown.cancel(false);
+                entry.idleShutdown = null;
+            }
+            return entry.wrapper;
+        }
+    }
+
+    /**
+     * Release the wrapper held by the editor. When no editor holds it, the server is stopped after
+     * the idle timeout.
+     */
+    public static void release(@NonNull LanguageServerWrapper wrapper, @NonNull LspEditor editor) {
+        synchronized (entries) {
+            var key = new Pair<>(wrapper.getServerDefinition(), wrapper.getProjectRootPath());
+            var entry = entries.get(key);
+            if (entry == null || entry.wrapper != wrapper || !entry.holders.remove(editor) || !entry.holders.isEmpty()) {
+                return;
+            }
+            if (entry.idleShutdown != null) {
+                entry.idleShutdown.cancel(false);
+            }
+            var shutdownEntry = entry;
+            entry.idleShutdown = scheduler.schedule(() -> stopIfIdle(key, shutdownEntry), idleTimeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void stopIfIdle(Pair<LanguageServerDefinition, String> key, Entry entry) {
+        synchronized (entries) {
+            if (!entry.holders.isEmpty() || entries.get(key) != entry) {
+                return;
+            }
+            entries.remove(key);
+        }
+        Log.i(TAG, "Stopping idle " + entry.wrapper.getServerDefinition() + " ; " + entry.wrapper.getProjectRootPath());
+        entry.wrapper.stop(true);
+    }
+
+    /**
+     * Stop all servers held by no editor now, for scenarios where the application is closed
+     */
+    public static void stopIdleServers() {
+        var idle = new ArrayList<Pair<Pair<LanguageServerDefinition, String>, Entry>>();
+        synchronized (entries) {
+            for (var mapEntry : entries.entrySet()) {
+                var entry = mapEntry.getValue();
+                if (entry.holders.isEmpty()) {
+                    if (entry.idleShutdown != null) {
+                        entry.idleShutdown.cancel(false);
+                        entry.idleShutdown = null;
+                    }
+                    idle.add(new Pair<>(mapEntry.getKey(), entry));
+                }
+            }
+        }
+        for (var pair : idle) {
+            stopIfIdle(pair.first, pair.second);
+        }
+    }
+
+    /**
+     * Get the running wrapper of the given server and project, or null if there is no such wrapper
+     */
+    @Nullable
+    public static LanguageServerWrapper get(@NonNull LanguageServerDefinition serverDefinition, @NonNull String projectRootPath) {
+        synchronized (entries) {
+            var entry = entries.get(new Pair<>(serverDefinition, projectRootPath));
+            return entry == null ? null : entry.wrapper;
+        }
+    }
+
+    /**
+     * Get a running wrapper of any server for the given project, or null if there is no such wrapper
+     */
+    @Nullable
+    static LanguageServerWrapper findByProject(@NonNull String projectRootPath) {
+        synchronized (entries) {
+            for (var entry : entries.values()) {
+                if (entry.wrapper.getProjectRootPath().equals(projectRootPath)) {
+                    return entry.wrapper;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Get count of editors holding the wrapper
+     */
+    public static int getHolderCount(@NonNull LanguageServerWrapper wrapper) {
+        synchronized (entries) {
+            var entry = entries.get(new Pair<>(wrapper.getServerDefinition(), wrapper.getProjectRootPath()));
+            return entry == null || entry.wrapper != wrapper ? 0 : entry.holders.size();
+        }
+    }
+
+    /**
+     * Set the time to keep a server without editors running, in milliseconds
+     */
+    public static void setIdleTimeout(long idleTimeout) {
+        LanguageServerPool.idleTimeout = Math.max(0, idleTimeout);
+    }
+
+    public static long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Executor shared by all launchers of language servers
+     */
+    @NonNull
+    public static ExecutorService getExecutor() {
+        return executor;
+    }
+}
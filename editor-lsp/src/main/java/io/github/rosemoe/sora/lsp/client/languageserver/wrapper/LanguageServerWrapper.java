@@ -28,7 +28,6 @@ import static io.github.rosemoe.sora.lsp.client.languageserver.ServerStatus.STAR
 import static io.github.rosemoe.sora.lsp.client.languageserver.ServerStatus.STARTING;
 import static io.github.rosemoe.sora.lsp.client.languageserver.ServerStatus.STOPPED;
 import static io.github.rosemoe.sora.lsp.client.languageserver.ServerStatus.STOPPING;
-import static io.github.rosemoe.sora.lsp.requests.Timeout.getTimeout;
 import static io.github.rosemoe.sora.lsp.requests.Timeouts.INIT;
 import static io.github.rosemoe.sora.lsp.requests.Timeouts.SHUTDOWN;
 
@@ -55,6 +54,11 @@ import org.eclipse.lsp4j.OnTypeFormattingCapabilities;
 import org.eclipse.lsp4j.RangeFormattingCapabilities;
 import org.eclipse.lsp4j.ReferencesCapabilities;
 import org.eclipse.lsp4j.RenameCapabilities;
+import org.eclipse.lsp4j.SemanticTokenModifiers;
+import org.eclipse.lsp4j.SemanticTokenTypes;
+import org.eclipse.lsp4j.SemanticTokensCapabilities;
+import org.eclipse.lsp4j.SemanticTokensClientCapabilitiesRequests;
+import org.eclipse.lsp4j.SemanticTokensClientCapabilitiesRequestsFull;
 import org.eclipse.lsp4j.ServerCapabilities;
 import org.eclipse.lsp4j.SignatureHelpCapabilities;
 import org.eclipse.lsp4j.SignatureHelpOptions;
@@ -63,6 +67,7 @@ import org.eclipse.lsp4j.SynchronizationCapabilities;
 import org.eclipse.lsp4j.TextDocumentClientCapabilities;
 import org.eclipse.lsp4j.TextDocumentSyncKind;
 import org.eclipse.lsp4j.TextDocumentSyncOptions;
+import org.eclipse.lsp4j.TokenFormat;
 import org.eclipse.lsp4j.WorkspaceClientCapabilities;
 import org.eclipse.lsp4j.WorkspaceEditCapabilities;
 import org.eclipse.lsp4j.WorkspaceFolder;
@@ -84,9 +89,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
@@ -99,6 +103,7 @@ import io.github.rosemoe.sora.lsp.client.languageserver.requestmanager.RequestMa
 import io.github.rosemoe.sora.lsp.client.languageserver.serverdefinition.LanguageServerDefinition;
 import io.github.rosemoe.sora.lsp.editor.LspEditor;
 import io.github.rosemoe.sora.lsp.editor.LspEditorManager;
+import io.github.rosemoe.sora.lsp.requests.RequestMetrics;
 import io.github.rosemoe.sora.lsp.utils.LSPException;
 import io.github.rosemoe.sora.lsp.utils.URIUtils;
 
@@ -130,17 +135,17 @@ public class LanguageServerWrapper {
     private static final Map<Pair<String, String>, LanguageServerWrapper> uriToLanguageServerWrapper =
             new ConcurrentHashMap<>();
     private final HashSet<LspEditor> toConnect = new HashSet<>();
-    private static final Map<String, LanguageServerWrapper> projectToLanguageServerWrapper = new ConcurrentHashMap<>();
 
     private EventHandler eventHandler;
 
+    private final RequestMetrics requestMetrics = new RequestMetrics();
+
     public LanguageServerWrapper(@NotNull LanguageServerDefinition serverDefinition, @NotNull String projectRootPath) {
         this.serverDefinition = serverDefinition;
 
         // We need to keep the project rootPath in addition to the project instance, since we cannot get the project
         // base path if the project is disposed.
         this.projectRootPath = projectRootPath;
-        projectToLanguageServerWrapper.put(projectRootPath, this);
     }
 
 
@@ -163,9 +168,15 @@ public class LanguageServerWrapper {
         return uriToLanguageServerWrapper.get(new Pair<>(editor.getCurrentFileUri(), editor.getCurrentFileUri()));
     }
 
+    /**
+     * @return A running wrapper for the given project, of any server definition, or None
+     * @deprecated There can be wrappers of several servers for one project. Use
+     * {@link LanguageServerPool#get(LanguageServerDefinition, String)} instead.
+     */
     @Nullable
+    @Deprecated
     public static LanguageServerWrapper forProject(String projectRootPath) {
-        return projectToLanguageServerWrapper.get(projectRootPath);
+        return LanguageServerPool.findByProject(projectRootPath);
     }
 
     public LanguageServerDefinition getServerDefinition() {
@@ -197,11 +208,11 @@ public class LanguageServerWrapper {
             try {
                 start();
                 if (initializeFuture != null) {
-                    initializeFuture.get((capabilitiesAlreadyRequested ? 0 : getTimeout(INIT)), TimeUnit.MILLISECONDS);
+                    initializeFuture.get((capabilitiesAlreadyRequested ? 0 : requestMetrics.getTimeout(INIT)), TimeUnit.MILLISECONDS);
                 }
             } catch (TimeoutException e) {
                 String msg = String.format("%s \n is not initialized after %d seconds",
-                        serverDefinition.toString(), getTimeout(INIT) / 1000);
+                        serverDefinition.toString(), requestMetrics.getTimeout(INIT) / 1000);
                 Log.w(TAG, msg);
                 serverDefinition.getEventListener().onHandlerException(new LSPException(msg));
                 stop(false);
@@ -232,16 +243,15 @@ public class LanguageServerWrapper {
             setStatus(STARTING);
             try {
                 Pair<InputStream, OutputStream> streams = serverDefinition.start(projectRootPath);
-                InputStream inputStream = streams.first;
-                OutputStream outputStream = streams.second;
+                InputStream inputStream = requestMetrics.wrapInputStream(streams.first);
+                OutputStream outputStream = requestMetrics.wrapOutputStream(streams.second);
                 InitializeParams initParams = getInitParams();
-                ExecutorService executorService = Executors.newCachedThreadPool();
                 eventHandler = new EventHandler(serverDefinition.getEventListener(), () -> getStatus() != STOPPED);
 
                 client = new DefaultLanguageClient(new ServerWrapperBaseClientContext(this));
                 Launcher<LanguageServer> launcher = LSPLauncher
-                        .createClientLauncher(client, inputStream, outputStream, executorService,
-                                eventHandler);
+                        .createClientLauncher(client, inputStream, outputStream, LanguageServerPool.getExecutor(),
+                                consumer -> eventHandler.apply(requestMetrics.apply(consumer)));
                 languageServer = launcher.getRemoteProxy();
                 launcherFuture = launcher.startListening();
 
@@ -259,9 +269,7 @@ public class LanguageServerWrapper {
                     setStatus(INITIALIZED);
                     return res;
                 });
-            } catch (IOException e) {
-
-
+            } catch (IOException | RejectedExecutionException e) {
                 Log.w(TAG, "Failed to start " + serverDefinition + " ; " + projectRootPath, e);
                 serverDefinition.getEventListener().onHandlerException(new LSPException("Failed to start " +
                         serverDefinition + " ; " + projectRootPath, e));
@@ -294,7 +302,7 @@ public class LanguageServerWrapper {
         try {
             if (languageServer != null) {
                 CompletableFuture<Object> shutdown = languageServer.shutdown();
-                shutdown.get(getTimeout(SHUTDOWN), TimeUnit.MILLISECONDS);
+                shutdown.get(requestMetrics.getTimeout(SHUTDOWN), TimeUnit.MILLISECONDS);
                 if (exit && serverDefinition.callExitForLanguageServer()) {
                     languageServer.exit();
                 }
@@ -307,6 +315,7 @@ public class LanguageServerWrapper {
             if (launcherFuture != null) {
                 launcherFuture.cancel(true);
             }
+            requestMetrics.onDisconnected();
             if (serverDefinition != null) {
                 serverDefinition.stop(projectRootPath);
             }
@@ -342,9 +351,7 @@ public class LanguageServerWrapper {
 
         editor.close();
 
-        if (connectedEditors.isEmpty()) {
-            stop(false);
-        }
+        // The server is stopped by LanguageServerPool when it is idle
     }
 
     private InitializeParams getInitParams() {
@@ -386,6 +393,22 @@ public class LanguageServerWrapper {
         textDocumentClientCapabilities.setRename(new RenameCapabilities());
         textDocumentClientCapabilities.setSignatureHelp(new SignatureHelpCapabilities());
         textDocumentClientCapabilities.setSynchronization(new SynchronizationCapabilities(true, true, true));
+        var semanticTokensCapabilities = new SemanticTokensCapabilities(
+                new SemanticTokensClientCapabilitiesRequests(new SemanticTokensClientCapabilitiesRequestsFull(true), false),
+                List.of(SemanticTokenTypes.Namespace, SemanticTokenTypes.Type, SemanticTokenTypes.Class, SemanticTokenTypes.Enum,
+                        SemanticTokenTypes.Interface, SemanticTokenTypes.Struct, SemanticTokenTypes.TypeParameter,
+                        SemanticTokenTypes.Parameter, SemanticTokenTypes.Variable, SemanticTokenTypes.Property,
+                        SemanticTokenTypes.EnumMember, SemanticTokenTypes.Event, SemanticTokenTypes.Function,
+                        SemanticTokenTypes.Method, SemanticTokenTypes.Macro, SemanticTokenTypes.Keyword,
+                        SemanticTokenTypes.Modifier, SemanticTokenTypes.Comment, SemanticTokenTypes.String,
+                        SemanticTokenTypes.Number, SemanticTokenTypes.Regexp, SemanticTokenTypes.Operator,
+                        SemanticTokenTypes.Decorator),
+                List.of(SemanticTokenModifiers.Deprecated),
+                List.of(TokenFormat.Relative));
+        // Tokens are stored per line without overlapping
+        semanticTokensCapabilities.setOverlappingTokenSupport(false);
+        semanticTokensCapabilities.setMultilineTokenSupport(false);
+        textDocumentClientCapabilities.setSemanticTokens(semanticTokensCapabilities);
         initParams.setCapabilities(
                 new ClientCapabilities(workspaceClientCapabilities, textDocumentClientCapabilities, null));
         initParams.setInitializationOptions(
@@ -467,6 +490,7 @@ public class LanguageServerWrapper {
                         editor.setCompletionTriggers(completionTriggers);
 
                         editor.installFeatures();
+                        editor.onServerCapabilitiesKnown();
 
                         editor.open();
 
@@ -543,8 +567,12 @@ public class LanguageServerWrapper {
         start();
     }
 
+    /**
+     * @deprecated Wrappers are tracked by {@link LanguageServerPool}, and they are removed from it
+     * when they are stopped. This does nothing.
+     */
+    @Deprecated
     public void unregister() {
-        projectToLanguageServerWrapper.remove(projectRootPath);
     }
 
     private void connect(String uri) {
@@ -556,6 +584,13 @@ public class LanguageServerWrapper {
     }
 
 
+    /**
+     * @return Metrics of requests to the server, which also decide the timeouts of requests
+     */
+    public RequestMetrics getRequestMetrics() {
+        return requestMetrics;
+    }
+
     /**
      * @return The request manager for this wrapper
      */
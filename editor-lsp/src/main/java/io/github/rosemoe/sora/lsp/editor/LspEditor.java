@@ -36,8 +36,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Supplier;
 
@@ -46,11 +48,13 @@ import io.github.rosemoe.sora.event.ContentChangeEvent;
 import io.github.rosemoe.sora.lang.Language;
 import io.github.rosemoe.sora.lsp.client.languageserver.requestmanager.RequestManager;
 import io.github.rosemoe.sora.lsp.client.languageserver.serverdefinition.LanguageServerDefinition;
+import io.github.rosemoe.sora.lsp.client.languageserver.wrapper.LanguageServerPool;
 import io.github.rosemoe.sora.lsp.client.languageserver.wrapper.LanguageServerWrapper;
 import io.github.rosemoe.sora.lsp.editor.event.LspEditorContentChangeEventReceiver;
 import io.github.rosemoe.sora.lsp.editor.signature.SignatureHelpWindow;
 import io.github.rosemoe.sora.lsp.operations.Provider;
 import io.github.rosemoe.sora.lsp.operations.completion.CompletionProvider;
+import io.github.rosemoe.sora.lsp.operations.completion.CompletionResolveProvider;
 import io.github.rosemoe.sora.lsp.operations.diagnostics.PublishDiagnosticsProvider;
 import io.github.rosemoe.sora.lsp.operations.diagnostics.QueryDocumentDiagnosticsProvider;
 import io.github.rosemoe.sora.lsp.operations.document.ApplyEditsProvider;
@@ -60,7 +64,10 @@ import io.github.rosemoe.sora.lsp.operations.document.DocumentOpenProvider;
 import io.github.rosemoe.sora.lsp.operations.document.DocumentSaveProvider;
 import io.github.rosemoe.sora.lsp.operations.format.FullFormattingProvider;
 import io.github.rosemoe.sora.lsp.operations.format.RangeFormattingProvider;
+import io.github.rosemoe.sora.lsp.operations.hover.HoverProvider;
+import io.github.rosemoe.sora.lsp.operations.semantic.SemanticTokensProvider;
 import io.github.rosemoe.sora.lsp.operations.signature.SignatureHelpProvider;
+import io.github.rosemoe.sora.lsp.operations.symbol.DocumentSymbolProvider;
 import io.github.rosemoe.sora.lsp.requests.Timeout;
 import io.github.rosemoe.sora.lsp.requests.Timeouts;
 import io.github.rosemoe.sora.widget.CodeEditor;
@@ -131,6 +138,8 @@ public class LspEditor {
             unsubscribeFunction.run();
         }
         currentEditor.setEditorLanguage(currentLanguage);
+        // Versions of the text in another editor are not comparable
+        getProviderManager().getResponseCache().clear();
         signatureHelpWindowWeakReference = new WeakReference<>(new SignatureHelpWindow(currentEditor));
 
         var subscriptionReceipt = currentEditor.subscribeEvent(ContentChangeEvent.class, editorContentChangeEventReceiver);
@@ -139,11 +148,35 @@ public class LspEditor {
 
     }
 
+    /**
+     * Update the language for capabilities of the server, after they are known
+     */
+    public void onServerCapabilitiesKnown() {
+        var editor = getEditor();
+        if (editor != null) {
+            editor.post(() -> {
+                if (editor.getEditorLanguage() == currentLanguage) {
+                    currentLanguage.updateSemanticTokensSupport();
+                }
+            });
+        }
+    }
+
     @Nullable
     public CodeEditor getEditor() {
         return currentEditor.get();
     }
 
+    /**
+     * Get the version of the text in editor, or -1 if no editor is attached
+     *
+     * @see io.github.rosemoe.sora.text.Content#getDocumentVersion()
+     */
+    public long getDocumentVersion() {
+        var editor = getEditor();
+        return editor == null ? -1 : editor.getText().getDocumentVersion();
+    }
+
     public LspLanguage getLanguage() {
         return currentLanguage;
     }
@@ -225,7 +258,8 @@ public class LspEditor {
 
         //features
         providerManager.addProviders(RangeFormattingProvider::new, DocumentOpenProvider::new, DocumentSaveProvider::new, DocumentChangeProvider::new, DocumentCloseProvider::new, PublishDiagnosticsProvider::new, CompletionProvider::new, FullFormattingProvider::new, ApplyEditsProvider::new,
-                QueryDocumentDiagnosticsProvider::new, SignatureHelpProvider::new);
+                QueryDocumentDiagnosticsProvider::new, SignatureHelpProvider::new, CompletionResolveProvider::new, SemanticTokensProvider::new,
+                HoverProvider::new, DocumentSymbolProvider::new);
 
         //options
 
@@ -249,10 +283,8 @@ public class LspEditor {
 
 
     private void setupLanguageServerWrapper() {
-        var languageServerWrapper = LanguageServerWrapper.forProject(projectPath);
-        languageServerWrapper = languageServerWrapper != null ? languageServerWrapper : new LanguageServerWrapper(serverDefinition, projectPath);
-        languageServerWrapper.serverDefinition = serverDefinition;
-        this.languageServerWrapper = languageServerWrapper;
+        // Editors of the same server and project share one running server
+        this.languageServerWrapper = LanguageServerPool.acquire(serverDefinition, projectPath, this);
     }
 
     /**
@@ -340,6 +372,42 @@ public class LspEditor {
     }
 
 
+    /**
+     * Send pending document changes to the language server now.
+     * Requests depending on the latest text should be sent after the returned future completes.
+     */
+    public CompletableFuture<Void> flushDocumentChanges() {
+        return getProviderManager().safeUseProvider(DocumentChangeProvider.class)
+                .map(DocumentChangeProvider::flush)
+                .orElseGet(() -> CompletableFuture.completedFuture(null));
+    }
+
+    /**
+     * Get the timeout for requests of the given kind, in milliseconds. It adapts to the latencies
+     * of the connected server.
+     *
+     * @see RequestManager#getTimeout(Timeouts)
+     */
+    public int getTimeout(Timeouts type) {
+        var manager = getRequestManager();
+        return manager == null ? Timeout.getTimeout(type) : manager.getTimeout(type);
+    }
+
+    /**
+     * Wait for pending document changes to be sent, at most for {@link Timeouts#DID_CHANGE}
+     *
+     * @return Whether the changes are sent in time
+     */
+    @WorkerThread
+    public boolean awaitDocumentChanges() {
+        try {
+            flushDocumentChanges().get(getTimeout(Timeouts.DID_CHANGE), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (ExecutionException | InterruptedException | TimeoutException ignored) {
+            return false;
+        }
+    }
+
     /**
      * Notify language servers to save document
      */
@@ -353,7 +421,7 @@ public class LspEditor {
      */
     @Nullable
     public RequestManager getRequestManager() {
-        LanguageServerWrapper serverWrapper = LanguageServerWrapper.forProject(projectPath);
+        LanguageServerWrapper serverWrapper = languageServerWrapper;
         return serverWrapper != null ? serverWrapper.getRequestManager() : null;
     }
 
@@ -397,7 +465,7 @@ public class LspEditor {
 
     private void dispose() {
         if (languageServerWrapper != null) {
-            languageServerWrapper.unregister();
+            LanguageServerPool.release(languageServerWrapper, this);
         }
         providerManager.dispose();
 
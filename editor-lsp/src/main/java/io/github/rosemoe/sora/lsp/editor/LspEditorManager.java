@@ -29,6 +29,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import io.github.rosemoe.sora.lsp.client.languageserver.serverdefinition.LanguageServerDefinition;
+import io.github.rosemoe.sora.lsp.client.languageserver.wrapper.LanguageServerPool;
 import io.github.rosemoe.sora.lsp.editor.diagnostics.DiagnosticsContainer;
 import io.github.rosemoe.sora.lsp.utils.LspUtils;
 
@@ -100,6 +101,9 @@ public class LspEditorManager {
         managers.values().forEach(LspEditorManager::closeAllEditor);
         managers.clear();
 
+        // Servers are kept running for a while after their editors are closed
+        LanguageServerPool.stopIdleServers();
+
         // Maybe the user should be allowed to call the method themselves
         LspUtils.clearVersions();
 
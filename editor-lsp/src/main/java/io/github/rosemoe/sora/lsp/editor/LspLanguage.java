@@ -29,12 +29,13 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import org.eclipse.lsp4j.CompletionList;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 import io.github.rosemoe.sora.annotations.Experimental;
 import io.github.rosemoe.sora.lang.EmptyLanguage;
@@ -45,15 +46,18 @@ import io.github.rosemoe.sora.lang.completion.CompletionCancelledException;
 import io.github.rosemoe.sora.lang.completion.CompletionHelper;
 import io.github.rosemoe.sora.lang.completion.CompletionItem;
 import io.github.rosemoe.sora.lang.completion.CompletionPublisher;
+import io.github.rosemoe.sora.lang.completion.FuzzyCompletionFilter;
 import io.github.rosemoe.sora.lang.format.Formatter;
 import io.github.rosemoe.sora.lang.smartEnter.NewlineHandler;
 import io.github.rosemoe.sora.lsp.editor.completion.CompletionItemProvider;
+import io.github.rosemoe.sora.lsp.editor.completion.LazyCompletionItem;
 import io.github.rosemoe.sora.lsp.editor.completion.LspCompletionItem;
 import io.github.rosemoe.sora.lsp.editor.format.LspFormatter;
+import io.github.rosemoe.sora.lsp.editor.semantic.SemanticTokensAnalyzeManager;
 import io.github.rosemoe.sora.lsp.operations.completion.CompletionProvider;
+import io.github.rosemoe.sora.lsp.operations.completion.CompletionResolveProvider;
 import io.github.rosemoe.sora.lsp.operations.document.ApplyEditsProvider;
-import io.github.rosemoe.sora.lsp.operations.document.DocumentChangeProvider;
-import io.github.rosemoe.sora.lsp.requests.Timeout;
+import io.github.rosemoe.sora.lsp.operations.semantic.SemanticTokensProvider;
 import io.github.rosemoe.sora.lsp.requests.Timeouts;
 import io.github.rosemoe.sora.lsp.utils.LSPException;
 import io.github.rosemoe.sora.text.CharPosition;
@@ -64,6 +68,13 @@ import io.github.rosemoe.sora.widget.SymbolPairMatch;
 @Experimental
 public class LspLanguage implements Language {
 
+    /**
+     * Marks the end of results in the queue of completion results
+     */
+    private final static CompletionList END_OF_RESULTS = new CompletionList();
+
+    private final static long RESULT_POLL_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(50);
+
     private LspEditor currentEditor;
 
     private LspFormatter lspFormatter;
@@ -72,6 +83,10 @@ public class LspLanguage implements Language {
 
     private CompletionItemProvider<?> completionItemProvider;
 
+    private AnalyzeManager baseManager;
+
+    private SemanticTokensAnalyzeManager analyzeManager;
+
     public LspLanguage(LspEditor editor) {
         this.currentEditor = editor;
         this.lspFormatter = new LspFormatter(this);
@@ -83,7 +98,40 @@ public class LspLanguage implements Language {
     @NonNull
     @Override
     public AnalyzeManager getAnalyzeManager() {
-        return wrapperLanguage != null ? wrapperLanguage.getAnalyzeManager() : EmptyLanguage.EmptyAnalyzeManager.INSTANCE;
+        var baseManager = wrapperLanguage != null ? wrapperLanguage.getAnalyzeManager() : EmptyLanguage.EmptyAnalyzeManager.INSTANCE;
+        if (baseManager != this.baseManager) {
+            this.baseManager = baseManager;
+            // Semantic tokens are displayed over the styles of wrapped language
+            analyzeManager = isSemanticTokensSupported() ? new SemanticTokensAnalyzeManager(baseManager, () -> {
+                var editor = currentEditor;
+                return editor == null ? null : editor.getProviderManager().useProvider(SemanticTokensProvider.class);
+            }) : null;
+        }
+        return analyzeManager != null ? analyzeManager : baseManager;
+    }
+
+    /**
+     * Send styles of wrapped language to editor directly if the server turns out not to provide
+     * semantic tokens. Called on UI thread after capabilities of the server are known.
+     */
+    public void updateSemanticTokensSupport() {
+        var manager = analyzeManager;
+        if (manager == null || isSemanticTokensSupported()) {
+            return;
+        }
+        analyzeManager = null;
+        var receiver = manager.detach();
+        if (receiver != null) {
+            baseManager.setReceiver(receiver);
+            baseManager.rerun();
+        }
+    }
+
+    private boolean isSemanticTokensSupported() {
+        var editor = currentEditor;
+        // Assume so until the server is connected
+        return editor == null || editor.getProviderManager().safeUseProvider(SemanticTokensProvider.class)
+                .map(SemanticTokensProvider::isSupported).orElse(true);
     }
 
     @Override
@@ -104,38 +152,89 @@ public class LspLanguage implements Language {
 
         var prefixLength = prefix.length();
 
-        currentEditor.getProviderManager().safeUseProvider(DocumentChangeProvider.class).ifPresent(documentChangeFeature -> {
-            var documentChangeFuture = documentChangeFeature.getFuture();
-            if (!documentChangeFuture.isDone() || !documentChangeFuture.isCompletedExceptionally() || !documentChangeFuture.isCancelled()) {
-                try {
-                    documentChangeFuture.get(1000, TimeUnit.MILLISECONDS);
-                } catch (ExecutionException | InterruptedException | TimeoutException ignored) {
+        currentEditor.awaitDocumentChanges();
 
-                }
+        var providerManager = currentEditor.getProviderManager();
+        var completionFeature = providerManager.useProvider(CompletionProvider.class);
+
+        if (completionFeature == null) {
+            return;
+        }
+
+        // Partial results and the final response are queued in order, and published on this thread
+        var results = new LinkedBlockingQueue<CompletionList>();
+        var failure = new Throwable[1];
+        var future = completionFeature.execute(position, results::add);
+
+        if (future == null) {
+            return;
+        }
+
+        future.whenComplete((list, throwable) -> {
+            if (list != null) {
+                results.add(list);
             }
+            failure[0] = throwable;
+            results.add(END_OF_RESULTS);
         });
 
-        var completionList = new ArrayList<CompletionItem>();
+        var applyEditsFeature = providerManager.useProvider(ApplyEditsProvider.class);
+        var resolveFeature = providerManager.useProvider(CompletionResolveProvider.class);
+        var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(currentEditor.getTimeout(Timeouts.COMPLETION));
+        var incomplete = false;
+        var comparatorSet = false;
 
         try {
-            var completionFeature = currentEditor.getProviderManager().useProvider(CompletionProvider.class);
+            while (true) {
+                publisher.checkCancelled();
+                var remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new LSPException("Completion timeout");
+                }
+                var list = results.poll(Math.min(remaining, RESULT_POLL_INTERVAL_NS), TimeUnit.NANOSECONDS);
+                if (list == null) {
+                    continue;
+                }
+                if (list == END_OF_RESULTS) {
+                    break;
+                }
+                incomplete |= list.isIncomplete();
+                var lspItems = list.getItems();
+                if (lspItems == null || lspItems.isEmpty()) {
+                    continue;
+                }
 
-            if (completionFeature == null) {
-                return;
-            }
+                // Actual items are created by the provider when they are displayed or committed
+                var items = new ArrayList<CompletionItem>(lspItems.size());
+                for (var completionItem : lspItems) {
+                    items.add(new LazyCompletionItem(completionItem, completionItemProvider, applyEditsFeature, resolveFeature, prefixLength));
+                }
 
-            completionFeature.execute(position).thenAccept(completions -> completions.forEach(completionItem -> completionList.add(completionItemProvider.createCompletionItem(completionItem, currentEditor.getProviderManager().useProvider(ApplyEditsProvider.class), prefixLength)))).exceptionally(throwable -> {
-                publisher.cancel();
-                throw new CompletionCancelledException(throwable.getMessage());
-            }).get(Timeout.getTimeout(Timeouts.COMPLETION), TimeUnit.MILLISECONDS);
-        } catch (Exception e) {
-            throw new LSPException(e);
+                // Scores the new items. The comparator does not depend on the given items
+                var comparator = Comparators.getCompletionItemComparator(content, position, items);
+                if (!comparatorSet) {
+                    publisher.setComparator(comparator);
+                    comparatorSet = true;
+                }
+                publisher.addItems(items);
+                publisher.updateList();
+            }
+        } catch (InterruptedException e) {
+            publisher.cancel();
+            throw new CompletionCancelledException();
+        } finally {
+            if (!future.isDone()) {
+                future.cancel(true);
+            }
         }
 
+        if (failure[0] != null) {
+            publisher.cancel();
+            throw new LSPException(failure[0]);
+        }
 
-        publisher.setComparator(Comparators.getCompletionItemComparator(content, position, completionList));
-
-        publisher.addItems(completionList);
+        // Complete lists can be refiltered by the editor when the prefix is extended
+        publisher.setCompletionFilter(incomplete ? null : FuzzyCompletionFilter.ANY_MATCH);
 
         publisher.updateList();
     }
@@ -208,6 +307,8 @@ public class LspLanguage implements Language {
 
         currentEditor = null;
         lspFormatter = null;
+        analyzeManager = null;
+        baseManager = null;
 
 
     }
@@ -42,6 +42,8 @@ public class LspProviderManager {
 
     private final List<Object> options = new ArrayList<>();
 
+    private final LspResponseCache responseCache = new LspResponseCache();
+
     private LspEditor editor;
 
     protected LspProviderManager(LspEditor currentEditor) {
@@ -103,6 +105,13 @@ public class LspProviderManager {
     }
 
 
+    /**
+     * Get the cache of responses from language server, which is shared by providers of this editor
+     */
+    public LspResponseCache getResponseCache() {
+        return responseCache;
+    }
+
     /**
      * For language server, some option need to be set, you can get the relevant option and set the values freely by this
      */
@@ -125,6 +134,7 @@ public class LspProviderManager {
         supportedProviders.forEach(provider -> provider.dispose(editor));
         supportedProviders.clear();
         options.clear();
+        responseCache.clear();
     }
 
     public void addOption(Object object) {
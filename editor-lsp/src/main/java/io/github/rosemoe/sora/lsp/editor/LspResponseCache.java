@@ -0,0 +1,226 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.editor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Cache of responses to read-only requests, such as hover, signature help and document symbols.
+ * <p>
+ * Responses are keyed by (method, uri, document version, location), where the location is the
+ * position or range in request. Identical requests share one in-flight request to the server. All
+ * responses of older versions are dropped once a request at a newer document version is made, so
+ * the cache never returns responses for outdated text. Requests at older versions, which are made
+ * before the text is changed but arrive later, are sent without the cache. Failed and cancelled
+ * requests are not cached, and in-flight requests are no longer shared after
+ * {@link #MAX_PENDING_MILLIS}, in case the server never answers them.
+ * <p>
+ * Document versions start again when the text is replaced, and {@link #clear()} should be called
+ * then.
+ *
+ * @see io.github.rosemoe.sora.text.Content#getDocumentVersion()
+ */
+public class LspResponseCache {
+
+    /**
+     * Max count of cached responses, which are usually at different positions of one version
+     */
+    public final static int MAX_ENTRIES = 32;
+
+    /**
+     * Max time that an in-flight request is shared with identical requests
+     */
+    public final static long MAX_PENDING_MILLIS = 30_000;
+
+    private final Map<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private final LongSupplier clock;
+    private long currentVersion = Long.MIN_VALUE;
+    private long hitCount;
+    private long requestCount;
+
+    public LspResponseCache() {
+        this(System::nanoTime);
+    }
+
+    LspResponseCache(@NonNull LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Get the cached response of the given request, or send the request by the given supplier.
+     *
+     * @param method   Protocol method of the request
+     * @param uri      Document of the request
+     * @param version  Document version that the request is made at
+     * @param location Position or range of the request, which must implement equals and hashCode.
+     *                 Null if the request is for the whole document.
+     * @param request  Sends the request. It may return null if the request can not be sent.
+     * @return Future of the response, or null if the request can not be sent. Cancelling the
+     * returned future does not cancel the request shared with other callers.
+     */
+    @Nullable
+    public <T> CompletableFuture<T> get(@NonNull String method, @NonNull String uri, long version,
+                                        @Nullable Object location, @NonNull Supplier<CompletableFuture<T>> request) {
+        var key = new Key(method, uri, version, location);
+        CompletableFuture<T> future;
+        synchronized (this) {
+            if (version < currentVersion) {
+                // Responses of the current version are kept for other requests
+                future = request.get();
+                if (future != null) {
+                    requestCount++;
+                }
+                return future;
+            }
+            if (version > currentVersion) {
+                invalidate(version);
+            }
+            var now = clock.getAsLong();
+            var cached = entries.get(key);
+            if (cached != null && (cached.future.isDone() || now - cached.sendTime <= TimeUnit.MILLISECONDS.toNanos(MAX_PENDING_MILLIS))) {
+                hitCount++;
+                @SuppressWarnings("unchecked")
+                var cachedFuture = (CompletableFuture<T>) cached.future;
+                return cachedFuture.thenApply(Function.identity());
+            }
+            // Send the request with the lock held, so that identical requests are not sent twice
+            future = request.get();
+            if (future == null) {
+                return null;
+            }
+            requestCount++;
+            entries.put(key, new Entry(future, now));
+        }
+        var shared = future;
+        shared.whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                synchronized (this) {
+                    var entry = entries.get(key);
+                    if (entry != null && entry.future == shared) {
+                        entries.remove(key);
+                    }
+                }
+            }
+        });
+        return shared.thenApply(Function.identity());
+    }
+
+    /**
+     * Drop responses that are not at the given version
+     */
+    private void invalidate(long version) {
+        currentVersion = version;
+        Iterator<Key> iterator = entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().version != version) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Drop all cached responses, and accept any version in next request
+     */
+    public synchronized void clear() {
+        entries.clear();
+        currentVersion = Long.MIN_VALUE;
+    }
+
+    /**
+     * Count of requests answered by cached or in-flight responses
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Count of requests actually sent to the server
+     */
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * Count of cached responses
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static class Entry {
+
+        final CompletableFuture<?> future;
+        final long sendTime;
+
+        Entry(CompletableFuture<?> future, long sendTime) {
+            this.future = future;
+            this.sendTime = sendTime;
+        }
+    }
+
+    private static class Key {
+
+        final String method;
+        final String uri;
+        final long version;
+        final Object location;
+
+        Key(String method, String uri, long version, Object location) {
+            this.method = method;
+            this.uri = uri;
+            this.version = version;
+            this.location = location;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            var key = (Key) o;
+            return version == key.version && method.equals(key.method) && uri.equals(key.uri)
+                    && Objects.equals(location, key.location);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(method, uri, version, location);
+        }
+    }
+}
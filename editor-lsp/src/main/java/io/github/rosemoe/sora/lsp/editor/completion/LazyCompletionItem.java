@@ -0,0 +1,120 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.editor.completion;
+
+import android.graphics.drawable.Drawable;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import io.github.rosemoe.sora.lang.completion.CompletionItem;
+import io.github.rosemoe.sora.lsp.operations.completion.CompletionResolveProvider;
+import io.github.rosemoe.sora.lsp.operations.document.ApplyEditsProvider;
+import io.github.rosemoe.sora.text.CharPosition;
+import io.github.rosemoe.sora.text.Content;
+import io.github.rosemoe.sora.widget.CodeEditor;
+
+/**
+ * Completion item published for an item from language server. Servers can return thousands of
+ * items, of which only a few are displayed. So the item only keeps the fields for sorting and
+ * filtering, and the actual item is created by the {@link CompletionItemProvider} when it is
+ * displayed, highlighted or committed.
+ * <p>
+ * The label is kept as given by the server, and the description is replaced by the one of the
+ * actual item once it is created.
+ */
+public class LazyCompletionItem extends CompletionItem {
+
+    private final org.eclipse.lsp4j.CompletionItem completionItem;
+
+    private final CompletionItemProvider<?> provider;
+
+    private final ApplyEditsProvider applyEditsFeature;
+
+    private final CompletionResolveProvider resolveFeature;
+
+    private CompletionItem item;
+
+    public LazyCompletionItem(@NonNull org.eclipse.lsp4j.CompletionItem completionItem, @NonNull CompletionItemProvider<?> provider,
+                              @Nullable ApplyEditsProvider applyEditsFeature, @Nullable CompletionResolveProvider resolveFeature, int prefixLength) {
+        super(completionItem.getLabel(), LspCompletionItem.getDescription(completionItem));
+        this.completionItem = completionItem;
+        this.provider = provider;
+        this.applyEditsFeature = applyEditsFeature;
+        this.resolveFeature = resolveFeature;
+        this.prefixLength = prefixLength;
+        this.kind = LspCompletionItem.getKind(completionItem);
+        this.sortText = completionItem.getSortText();
+        this.filterText = completionItem.getFilterText();
+    }
+
+    /**
+     * Get the item from server
+     */
+    @NonNull
+    public org.eclipse.lsp4j.CompletionItem getCompletionItem() {
+        return completionItem;
+    }
+
+    /**
+     * Get the actual item, which is created on first call. This should be called on UI thread.
+     */
+    @NonNull
+    public CompletionItem getItem() {
+        if (item == null) {
+            item = provider.createCompletionItem(completionItem, applyEditsFeature, prefixLength);
+            if (item instanceof LspCompletionItem) {
+                ((LspCompletionItem) item).setResolveFeature(resolveFeature);
+            }
+            desc = item.desc;
+        }
+        return item;
+    }
+
+    @Nullable
+    @Override
+    public Drawable getIcon() {
+        return getItem().getIcon();
+    }
+
+    @Override
+    public void onHighlighted(@NonNull CodeEditor editor, @NonNull Runnable onUpdate) {
+        var item = getItem();
+        item.onHighlighted(editor, () -> {
+            desc = item.desc;
+            onUpdate.run();
+        });
+    }
+
+    @Override
+    public void performCompletion(@NonNull CodeEditor editor, @NonNull Content text, @NonNull CharPosition position) {
+        getItem().performCompletion(editor, text, position);
+    }
+
+    @Override
+    public void performCompletion(@NonNull CodeEditor editor, @NonNull Content text, int line, int column) {
+        getItem().performCompletion(editor, text, line, column);
+    }
+
+}
@@ -23,50 +23,195 @@
  */
  package io.github.rosemoe.sora.lsp.editor.completion;
 
+ import android.graphics.drawable.Drawable;
+ import android.util.Log;
  import android.util.Pair;
 
  import androidx.annotation.NonNull;
+ import androidx.annotation.Nullable;
 
  import org.eclipse.lsp4j.InsertTextFormat;
+ import org.eclipse.lsp4j.Position;
  import org.eclipse.lsp4j.TextEdit;
 
  import java.util.List;
+ import java.util.concurrent.CancellationException;
+ import java.util.concurrent.CompletableFuture;
+ import java.util.concurrent.CompletionException;
 
  import io.github.rosemoe.sora.lang.completion.CompletionItem;
  import io.github.rosemoe.sora.lang.completion.CompletionItemKind;
  import io.github.rosemoe.sora.lang.completion.SimpleCompletionIconDrawer;
  import io.github.rosemoe.sora.lang.completion.snippet.parser.CodeSnippetParser;
+ import io.github.rosemoe.sora.lsp.operations.completion.CompletionResolveProvider;
  import io.github.rosemoe.sora.lsp.operations.document.ApplyEditsProvider;
  import io.github.rosemoe.sora.lsp.utils.LspUtils;
  import io.github.rosemoe.sora.text.CharPosition;
  import io.github.rosemoe.sora.text.Content;
+ import io.github.rosemoe.sora.text.ContentListener;
  import io.github.rosemoe.sora.widget.CodeEditor;
 
  public class LspCompletionItem extends CompletionItem {
 
-     private org.eclipse.lsp4j.CompletionItem commitItem;
+     private static final String TAG = "LspCompletionItem";
+
+     private volatile org.eclipse.lsp4j.CompletionItem commitItem;
 
      private ApplyEditsProvider applyEditsFeature;
 
+     private CompletionResolveProvider resolveFeature;
+
+     private CompletableFuture<org.eclipse.lsp4j.CompletionItem> resolveFuture;
+
 
      public LspCompletionItem(org.eclipse.lsp4j.CompletionItem completionItem, ApplyEditsProvider applyEditsFeature, int prefixLength) {
          super(completionItem.getLabel(), completionItem.getDetail());
          this.commitItem = completionItem;
          this.prefixLength = prefixLength;
          this.applyEditsFeature = applyEditsFeature;
-         this.kind = completionItem.getKind() == null ? CompletionItemKind.Text : CompletionItemKind.valueOf(completionItem.getKind().name());
+         this.kind = getKind(completionItem);
          this.sortText = completionItem.getSortText();
-         var labelDetails = commitItem.getLabelDetails();
+         this.filterText = completionItem.getFilterText();
+         updateDescription();
+     }
+
+     @NonNull
+     static CompletionItemKind getKind(@NonNull org.eclipse.lsp4j.CompletionItem completionItem) {
+         return completionItem.getKind() == null ? CompletionItemKind.Text : CompletionItemKind.valueOf(completionItem.getKind().name());
+     }
+
+     /**
+      * Get the text displayed as description of the item from server
+      */
+     @Nullable
+     static String getDescription(@NonNull org.eclipse.lsp4j.CompletionItem completionItem) {
+         var labelDetails = completionItem.getLabelDetails();
          if (labelDetails != null && labelDetails.getDescription() != null) {
-             this.desc = labelDetails.getDescription();
+             return labelDetails.getDescription();
+         }
+         return completionItem.getDetail();
+     }
+
+     /**
+      * The icon is created when the item is displayed, as lists from servers can be large
+      */
+     @Nullable
+     @Override
+     public Drawable getIcon() {
+         if (icon == null) {
+             icon = SimpleCompletionIconDrawer.draw(kind);
+         }
+         return icon;
+     }
+
+     /**
+      * Set the provider for resolving details of this item. The item is resolved when it is
+      * highlighted, or before it is committed.
+      */
+     public void setResolveFeature(@Nullable CompletionResolveProvider resolveFeature) {
+         this.resolveFeature = resolveFeature;
+     }
+
+     private void updateDescription() {
+         var description = getDescription(commitItem);
+         if (description != null) {
+             this.desc = description;
+         }
+     }
+
+     /**
+      * Start resolving this item if not started
+      *
+      * @return The future of resolving, or null if the item can not be resolved
+      */
+     @Nullable
+     private CompletableFuture<org.eclipse.lsp4j.CompletionItem> resolve() {
+         if (resolveFuture == null && resolveFeature != null) {
+             resolveFuture = resolveFeature.execute(commitItem);
+             // Never resolve again, even if the server does not support it
+             resolveFeature = null;
+         }
+         return resolveFuture;
+     }
+
+     @Override
+     public void onHighlighted(@NonNull CodeEditor editor, @NonNull Runnable onUpdate) {
+         if (resolveFuture != null) {
+             return;
+         }
+         var future = resolve();
+         if (future == null) {
+             return;
+         }
+         future.thenAccept(resolved -> editor.post(() -> {
+             if (resolved != null) {
+                 commitItem = resolved;
+                 updateDescription();
+                 onUpdate.run();
+             }
+         }));
+     }
+
+     /**
+      * Get the resolving of additional edits, which are often imports that the server only
+      * computes on resolve. If it is already done, the resolved item is used directly.
+      *
+      * @return The future of resolving, or null if there is nothing to wait for
+      */
+     @Nullable
+     private CompletableFuture<org.eclipse.lsp4j.CompletionItem> resolveAdditionalEdits() {
+         if (commitItem.getAdditionalTextEdits() != null) {
+             return null;
          }
-         this.icon = SimpleCompletionIconDrawer.draw(kind);
+         var future = resolve();
+         if (future == null || !future.isDone()) {
+             return future;
+         }
+         try {
+             var resolved = future.getNow(null);
+             if (resolved != null) {
+                 commitItem = resolved;
+             }
+         } catch (CompletionException | CancellationException ignored) {
+
+         }
+         return null;
      }
 
+     /**
+      * Apply additional edits once the item is resolved. If the text is modified after the
+      * completion, the edits are still applied when they are all before the modified region, whose
+      * positions are not changed by the modifications. Otherwise, they are dropped.
+      */
+     private void applyAdditionalEditsLater(@NonNull CodeEditor editor, @NonNull Content text,
+                                            @NonNull CompletableFuture<org.eclipse.lsp4j.CompletionItem> future) {
+         var modifications = new ModifiedRegion();
+         text.addContentListener(modifications);
+         future.whenComplete((resolved, throwable) -> editor.post(() -> {
+             text.removeContentListener(modifications);
+             if (resolved == null) {
+                 return;
+             }
+             commitItem = resolved;
+             var edits = resolved.getAdditionalTextEdits();
+             if (edits == null || edits.isEmpty()) {
+                 return;
+             }
+             if (editor.getText() == text && modifications.isAfter(edits)) {
+                 applyEditsFeature.execute(new Pair<>(edits, text));
+             } else {
+                 Log.w(TAG, "Additional edits of '" + label + "' are dropped, as the text is modified around them");
+             }
+         }));
+     }
 
      @Override
      public void performCompletion(@NonNull CodeEditor editor, @NonNull Content text, CharPosition position) {
 
+         // Never wait for the server here, as this is called on UI thread
+         var pendingResolve = resolveAdditionalEdits();
+
+         var commitItem = this.commitItem;
          var textEdit = new TextEdit();
 
 
@@ -128,6 +273,8 @@
 
          if (commitItem.getAdditionalTextEdits() != null) {
              applyEditsFeature.execute(new Pair<>(commitItem.getAdditionalTextEdits(), text));
+         } else if (pendingResolve != null) {
+             applyAdditionalEditsLater(editor, text, pendingResolve);
          }
 
 
@@ -138,6 +285,51 @@
          // do nothing
      }
 
+     /**
+      * Tracks the start of text modified since it is created. Each modification only moves the
+      * positions after its own start, so text before the earliest start is left as is.
+      */
+     private static class ModifiedRegion implements ContentListener {
+
+         private int startLine = Integer.MAX_VALUE;
+         private int startColumn = Integer.MAX_VALUE;
+
+         private void onModified(int line, int column) {
+             if (line < startLine || (line == startLine && column < startColumn)) {
+                 startLine = line;
+                 startColumn = column;
+             }
+         }
+
+         /**
+          * Check whether the given edits all end before the modified region
+          */
+         boolean isAfter(@NonNull List<TextEdit> edits) {
+             for (var edit : edits) {
+                 Position end = edit.getRange().getEnd();
+                 if (end.getLine() > startLine || (end.getLine() == startLine && end.getCharacter() >= startColumn)) {
+                     return false;
+                 }
+             }
+             return true;
+         }
+
+         @Override
+         public void beforeReplace(@NonNull Content content) {
+
+         }
+
+         @Override
+         public void afterInsert(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn, @NonNull CharSequence insertedContent) {
+             onModified(startLine, startColumn);
+         }
+
+         @Override
+         public void afterDelete(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn, @NonNull CharSequence deletedContent) {
+             onModified(startLine, startColumn);
+         }
+     }
+
 
  }
 
@@ -24,63 +24,188 @@
 package io.github.rosemoe.sora.lsp.editor.diagnostics
 
 import org.eclipse.lsp4j.Diagnostic
+import java.util.concurrent.ConcurrentHashMap
 
+/**
+ * Diagnostics published by language servers, grouped by document uri.
+ *
+ * Diagnostics of each document are kept in an immutable [Snapshot] sorted by range, which is
+ * replaced as a whole on modification. Modifications may come from any thread, and readers get
+ * consistent snapshots without locking.
+ */
 class DiagnosticsContainer {
 
-    private val diagnosticsMap by lazy(
-        LazyThreadSafetyMode.NONE
-    ) {
-        HashMap<String, MutableList<Diagnostic>>()
-    }
+    private val snapshots = ConcurrentHashMap<String, Snapshot>()
 
-    fun setDiagnostics(uri: String, diagnostics: MutableList<Diagnostic>) {
-        diagnosticsMap[uri] = diagnostics
+    /**
+     * Replace diagnostics of the document
+     */
+    fun setDiagnostics(uri: String, diagnostics: List<Diagnostic>) {
+        snapshots[uri] = Snapshot(diagnostics.sortedWith(RANGE_COMPARATOR).toTypedArray())
     }
 
+    /**
+     * Add diagnostics to the document. A new diagnostic replaces existing empty diagnostics at its
+     * start position.
+     */
     fun addDiagnostics(uri: String, diagnostics: List<Diagnostic>) {
-        diagnostics.forEach {
-            findOrReplaceDiagnostic(uri, it)
+        if (diagnostics.isEmpty()) {
+            return
         }
-    }
+        // Later diagnostics in the list also replace earlier ones, as if they are added one by one
+        val added = arrayOfNulls<Diagnostic>(diagnostics.size)
+        val emptyAt = HashMap<Long, Int>()
+        diagnostics.forEachIndexed { index, diagnostic ->
+            val start = diagnostic.range.start.let { pack(it.line, it.character) }
+            emptyAt.remove(start)?.let { added[it] = null }
+            added[index] = diagnostic
+            if (isEmptyRange(diagnostic)) {
+                emptyAt[start] = index
+            }
+        }
+        val starts = HashSet<Long>(diagnostics.size * 2)
+        diagnostics.forEach { starts.add(it.range.start.let { start -> pack(start.line, start.character) }) }
+        val sortedAdded = added.filterNotNull().sortedWith(RANGE_COMPARATOR)
 
-    private fun findDiagnostic(uri: String, line: Int, column: Int): Diagnostic? {
-        return diagnosticsMap[uri]?.find {
-            it.range.start.line == line &&
-                    it.range.start.character == column &&
-                    it.range.end.line == line &&
-                    it.range.end.character == column
+        snapshots.compute(uri) { _, previous ->
+            val kept = previous?.items?.filter {
+                !isEmptyRange(it) || !starts.contains(it.range.start.let { start -> pack(start.line, start.character) })
+            } ?: emptyList()
+            Snapshot(merge(kept, sortedAdded))
         }
     }
 
-    private fun findOrReplaceDiagnostic(uri: String, newDiagnostic: Diagnostic) {
-        val diagnostics = diagnosticsMap[uri] ?: mutableListOf()
-        findDiagnostic(
-            uri,
-            newDiagnostic.range.start.line,
-            newDiagnostic.range.start.character
-        )?.let { removeDiagnostic(uri, it) }
-        diagnostics.add(newDiagnostic)
-        diagnosticsMap[uri] = diagnostics
+    fun addDiagnostic(uri: String, diagnostic: Diagnostic) {
+        addDiagnostics(uri, listOf(diagnostic))
     }
 
     fun removeDiagnostic(uri: String, diagnostic: Diagnostic) {
-        diagnosticsMap[uri]?.remove(diagnostic)
+        snapshots.computeIfPresent(uri) { _, previous ->
+            val index = previous.items.indexOf(diagnostic)
+            if (index == -1) {
+                previous
+            } else {
+                Snapshot(previous.items.copyOfRange(0, index) + previous.items.copyOfRange(index + 1, previous.items.size))
+            }
+        }
     }
 
-    fun addDiagnostic(uri: String, diagnostic: Diagnostic) {
-        val diagnostics = diagnosticsMap[uri] ?: mutableListOf()
-        findOrReplaceDiagnostic(uri, diagnostic)
-        diagnosticsMap[uri] = diagnostics
+    /**
+     * Get diagnostics of the document, sorted by their ranges
+     */
+    fun getDiagnostics(uri: String): Snapshot {
+        return snapshots[uri] ?: Snapshot.EMPTY
     }
 
-
-    fun getDiagnostics(uri: String): List<Diagnostic> {
-        return diagnosticsMap.getOrPut(uri) { mutableListOf() }
+    fun clear() {
+        snapshots.clear()
     }
 
-    fun clear() {
-        diagnosticsMap.clear()
+    /**
+     * Immutable diagnostics of one document, sorted by their ranges and indexed by lines
+     */
+    class Snapshot internal constructor(internal val items: Array<Diagnostic>) : AbstractList<Diagnostic>(), RandomAccess {
+
+        /**
+         * Max end line of diagnostics in [0, i], for finding diagnostics that span a line
+         */
+        private val maxEndLines = IntArray(items.size).also {
+            var max = -1
+            for (i in items.indices) {
+                max = maxOf(max, items[i].range.end.line)
+                it[i] = max
+            }
+        }
+
+        override val size: Int
+            get() = items.size
+
+        override fun get(index: Int) = items[index]
+
+        /**
+         * Get diagnostics intersecting with lines in [startLine, endLine], in the order of ranges
+         */
+        fun getDiagnosticsInLines(startLine: Int, endLine: Int): List<Diagnostic> {
+            // Diagnostics at and after end start after endLine
+            val end = findFirst(items.size) { items[it].range.start.line > endLine }
+            // Diagnostics before the first one ending at or after startLine can not intersect.
+            // maxEndLines is non-decreasing, so it is found by binary search as well.
+            val first = findFirst(end) { maxEndLines[it] >= startLine }
+            val result = ArrayList<Diagnostic>(end - first)
+            for (i in first until end) {
+                if (items[i].range.end.line >= startLine) {
+                    result.add(items[i])
+                }
+            }
+            return result
+        }
+
+        /**
+         * Find the first index in [0, size) that matches the predicate, or size if none matches.
+         * Indices after a matched one must match as well.
+         */
+        private inline fun findFirst(size: Int, predicate: (Int) -> Boolean): Int {
+            var low = 0
+            var high = size
+            while (low < high) {
+                val mid = (low + high) ushr 1
+                if (predicate(mid)) {
+                    high = mid
+                } else {
+                    low = mid + 1
+                }
+            }
+            return low
+        }
+
+        /**
+         * Get diagnostics intersecting with the given line
+         */
+        fun getDiagnosticsOnLine(line: Int) = getDiagnosticsInLines(line, line)
+
+        companion object {
+            @JvmField
+            val EMPTY = Snapshot(emptyArray())
+        }
     }
 
+    companion object {
+
+        private val RANGE_COMPARATOR = Comparator<Diagnostic> { a, b ->
+            val x = a.range
+            val y = b.range
+            var cmp = x.start.line.compareTo(y.start.line)
+            if (cmp == 0) cmp = x.start.character.compareTo(y.start.character)
+            if (cmp == 0) cmp = x.end.line.compareTo(y.end.line)
+            if (cmp == 0) cmp = x.end.character.compareTo(y.end.character)
+            cmp
+        }
+
+        private fun pack(line: Int, column: Int) = (line.toLong() shl 32) or (column.toLong() and 0xffffffffL)
+
+        private fun isEmptyRange(diagnostic: Diagnostic): Boolean {
+            val range = diagnostic.range
+            return range.start.line == range.end.line && range.start.character == range.end.character
+        }
+
+        /**
+         * Merge two sorted lists. Existing items go before new ones with equal ranges.
+         */
+        private fun merge(kept: List<Diagnostic>, added: List<Diagnostic>): Array<Diagnostic> {
+            val result = ArrayList<Diagnostic>(kept.size + added.size)
+            var i = 0
+            var j = 0
+            while (i < kept.size && j < added.size) {
+                if (RANGE_COMPARATOR.compare(added[j], kept[i]) < 0) {
+                    result.add(added[j++])
+                } else {
+                    result.add(kept[i++])
+                }
+            }
+            while (i < kept.size) result.add(kept[i++])
+            while (j < added.size) result.add(added[j++])
+            return result.toTypedArray()
+        }
+    }
 
-}
\ No newline at end of file
+}
@@ -26,7 +26,10 @@ package io.github.rosemoe.sora.lsp.editor.event;
 
 import androidx.annotation.NonNull;
 
-import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import io.github.rosemoe.sora.event.ContentChangeEvent;
 import io.github.rosemoe.sora.event.EventReceiver;
@@ -34,17 +37,43 @@ import io.github.rosemoe.sora.event.Unsubscribe;
 import io.github.rosemoe.sora.lsp.editor.LspEditor;
 import io.github.rosemoe.sora.lsp.operations.document.DocumentChangeProvider;
 import io.github.rosemoe.sora.lsp.operations.signature.SignatureHelpProvider;
+import io.github.rosemoe.sora.text.CharPosition;
 
 public class LspEditorContentChangeEventReceiver implements EventReceiver<ContentChangeEvent> {
 
+    /**
+     * Signature help waits for the server, so it has its own threads, created on demand
+     */
+    private final static ThreadPoolExecutor signatureHelpExecutor = new ThreadPoolExecutor(2, 2,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+        var thread = new Thread(runnable, "LspSignatureHelp");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        signatureHelpExecutor.allowCoreThreadTimeOut(true);
+    }
+
     private final LspEditor editor;
 
+    /**
+     * Position of the signature help request waiting in the queue of executor
+     */
+    private final AtomicReference<CharPosition> pendingSignatureHelp = new AtomicReference<>();
+
+    private final Runnable signatureHelpAction = this::requestSignatureHelp;
+
     public LspEditorContentChangeEventReceiver(LspEditor editor) {
         this.editor = editor;
     }
 
     @Override
     public void onReceive(@NonNull ContentChangeEvent event, @NonNull Unsubscribe unsubscribe) {
+        if (event.getAction() == ContentChangeEvent.ACTION_SET_NEW_TEXT) {
+            // Versions start again for the new text
+            editor.getProviderManager().getResponseCache().clear();
+        }
         // send to server
         editor.getProviderManager().safeUseProvider(DocumentChangeProvider.class)
                 .ifPresent(documentChangeFeature -> documentChangeFeature.execute(event));
@@ -57,10 +86,18 @@ public class LspEditorContentChangeEventReceiver implements EventReceiver<Conten
         }
 
 
-        ForkJoinPool.commonPool().execute(() ->
-                editor.getProviderManager().safeUseProvider(SignatureHelpProvider.class)
-                        .ifPresent(feature -> feature.execute(event.getChangeStart()))
-        );
+        // Only the latest change needs signature help, replace the previous request if it is not started yet
+        if (pendingSignatureHelp.getAndSet(event.getChangeStart()) == null) {
+            signatureHelpExecutor.execute(signatureHelpAction);
+        }
 
     }
+
+    private void requestSignatureHelp() {
+        var position = pendingSignatureHelp.getAndSet(null);
+        if (position != null) {
+            editor.getProviderManager().safeUseProvider(SignatureHelpProvider.class)
+                    .ifPresent(feature -> feature.execute(position));
+        }
+    }
 }
@@ -0,0 +1,254 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.editor.semantic;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import io.github.rosemoe.sora.lang.styling.EmptyReader;
+import io.github.rosemoe.sora.lang.styling.Span;
+import io.github.rosemoe.sora.lang.styling.Spans;
+import io.github.rosemoe.sora.lang.styling.TextStyle;
+import io.github.rosemoe.sora.text.CharPosition;
+import io.github.rosemoe.sora.widget.schemes.EditorColorScheme;
+
+/**
+ * Spans that display semantic tokens over the spans of another language.
+ * <p>
+ * A token replaces the foreground color of the text it covers, and also its background color if
+ * the token has one. Font style bits of the token are added to the original style.
+ */
+public class LayeredSpans implements Spans {
+
+    private final Spans base;
+    private final SemanticTokensStore tokens;
+
+    public LayeredSpans(@Nullable Spans base, @NonNull SemanticTokensStore tokens) {
+        this.base = base;
+        this.tokens = tokens;
+    }
+
+    /**
+     * Get the spans from wrapped language
+     */
+    @Nullable
+    public Spans getBase() {
+        return base;
+    }
+
+    @Override
+    public void adjustOnInsert(CharPosition start, CharPosition end) {
+        if (base != null) {
+            base.adjustOnInsert(start, end);
+        }
+        tokens.adjustOnInsert(start, end);
+    }
+
+    @Override
+    public void adjustOnDelete(CharPosition start, CharPosition end) {
+        if (base != null) {
+            base.adjustOnDelete(start, end);
+        }
+        tokens.adjustOnDelete(start, end);
+    }
+
+    @Override
+    public Reader read() {
+        return new LayeredReader(base == null ? new EmptyReader() : base.read());
+    }
+
+    @Override
+    public boolean supportsModify() {
+        return base != null && base.supportsModify();
+    }
+
+    @Override
+    public Modifier modify() {
+        return base == null ? null : base.modify();
+    }
+
+    @Override
+    public int getLineCount() {
+        return base == null ? tokens.getLineCount() : base.getLineCount();
+    }
+
+    static long mergeStyle(long baseStyle, long tokenStyle) {
+        var background = TextStyle.getBackgroundColorId(tokenStyle) != 0 ? tokenStyle & TextStyle.BACKGROUND_BITS
+                : baseStyle & TextStyle.BACKGROUND_BITS;
+        return (tokenStyle & TextStyle.FOREGROUND_BITS) | background
+                | TextStyle.getStyleBits(baseStyle) | TextStyle.getStyleBits(tokenStyle)
+                | (baseStyle & TextStyle.NO_COMPLETION_BIT);
+    }
+
+    /**
+     * Merge tokens on a line into the base spans
+     */
+    @NonNull
+    static List<Span> merge(@NonNull List<Span> baseSpans, @NonNull long[] lineTokens) {
+        var result = new ArrayList<Span>(baseSpans.size() + SemanticTokensStore.getTokenCount(lineTokens) * 2 + 1);
+        var baseIndex = 0;
+        var cursor = 0;
+        for (int i = 0; i < SemanticTokensStore.getTokenCount(lineTokens); i++) {
+            var start = Math.max(cursor, SemanticTokensStore.getColumn(lineTokens, i));
+            var end = SemanticTokensStore.getColumn(lineTokens, i) + SemanticTokensStore.getLength(lineTokens, i);
+            if (end <= start) {
+                continue;
+            }
+            baseIndex = appendBase(result, baseSpans, baseIndex, cursor, start, 0, false);
+            baseIndex = appendBase(result, baseSpans, baseIndex, start, end, SemanticTokensStore.getStyle(lineTokens, i), true);
+            cursor = end;
+        }
+        appendBase(result, baseSpans, baseIndex, cursor, Integer.MAX_VALUE, 0, false);
+        return result;
+    }
+
+    /**
+     * Append base spans in column range [from, to)
+     *
+     * @return Index of the base span at {@code to}
+     */
+    private static int appendBase(List<Span> result, List<Span> baseSpans, int index, int from, int to,
+                                  long tokenStyle, boolean layered) {
+        if (from >= to) {
+            return index;
+        }
+        if (baseSpans.isEmpty()) {
+            var style = TextStyle.makeStyle(EditorColorScheme.TEXT_NORMAL);
+            result.add(Span.obtain(from, layered ? mergeStyle(style, tokenStyle) : style));
+            return index;
+        }
+        while (index + 1 < baseSpans.size() && baseSpans.get(index + 1).column <= from) {
+            index++;
+        }
+        while (index < baseSpans.size()) {
+            var span = baseSpans.get(index);
+            var copy = span.copy();
+            copy.column = Math.max(from, span.column);
+            if (layered) {
+                copy.style = mergeStyle(span.style, tokenStyle);
+            }
+            copy.extra = span.extra;
+            result.add(copy);
+            if (index + 1 >= baseSpans.size() || baseSpans.get(index + 1).column >= to) {
+                break;
+            }
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Spans merged with tokens on a line, and the inputs of the merge
+     */
+    static class MergedLine {
+
+        private final long[] lineTokens;
+        private final Span[] baseSpans;
+        final List<Span> spans;
+
+        MergedLine(@NonNull long[] lineTokens, @NonNull List<Span> baseSpans, @NonNull List<Span> spans) {
+            this.lineTokens = lineTokens;
+            this.baseSpans = new Span[baseSpans.size()];
+            for (int i = 0; i < this.baseSpans.length; i++) {
+                var span = baseSpans.get(i);
+                var copy = span.copy();
+                copy.extra = span.extra;
+                this.baseSpans[i] = copy;
+            }
+            this.spans = spans;
+        }
+
+        /**
+         * Check whether the merged spans are still the result of the given tokens and spans in
+         * base reader
+         */
+        boolean matches(@NonNull long[] lineTokens, @NonNull Reader baseReader) {
+            if (this.lineTokens != lineTokens || baseReader.getSpanCount() != baseSpans.length) {
+                return false;
+            }
+            for (int i = 0; i < baseSpans.length; i++) {
+                var span = baseReader.getSpanAt(i);
+                if (!baseSpans[i].equals(span) || baseSpans[i].extra != span.extra) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private class LayeredReader implements Reader {
+
+        private final Reader baseReader;
+        private List<Span> spans = Collections.emptyList();
+        private boolean layered;
+
+        LayeredReader(@NonNull Reader baseReader) {
+            this.baseReader = baseReader;
+        }
+
+        @Override
+        public void moveToLine(int line) {
+            baseReader.moveToLine(line);
+            var lineTokens = tokens.getTokensOnLine(line);
+            layered = lineTokens != null;
+            if (layered) {
+                var merged = tokens.getMergedLine(line);
+                if (merged == null || !merged.matches(lineTokens, baseReader)) {
+                    var count = baseReader.getSpanCount();
+                    var baseSpans = new ArrayList<Span>(count);
+                    for (int i = 0; i < count; i++) {
+                        baseSpans.add(baseReader.getSpanAt(i));
+                    }
+                    // Cached spans are shared by readers, so they are not recycled
+                    merged = new MergedLine(lineTokens, baseSpans, merge(baseSpans, lineTokens));
+                    tokens.setMergedLine(line, merged);
+                }
+                spans = merged.spans;
+            } else {
+                spans = Collections.emptyList();
+            }
+        }
+
+        @Override
+        public int getSpanCount() {
+            return layered ? spans.size() : baseReader.getSpanCount();
+        }
+
+        @Override
+        public Span getSpanAt(int index) {
+            return layered ? spans.get(index) : baseReader.getSpanAt(index);
+        }
+
+        @Override
+        public List<Span> getSpansOnLine(int line) {
+            var baseSpans = baseReader.getSpansOnLine(line);
+            var lineTokens = tokens.getTokensOnLine(line);
+            return lineTokens == null ? baseSpans : merge(baseSpans, lineTokens);
+        }
+    }
+}
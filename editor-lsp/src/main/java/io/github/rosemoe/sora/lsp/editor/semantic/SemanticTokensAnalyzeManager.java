@@ -0,0 +1,475 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.editor.semantic;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.eclipse.lsp4j.SemanticTokens;
+import org.eclipse.lsp4j.SemanticTokensDelta;
+import org.eclipse.lsp4j.SemanticTokensLegend;
+import org.eclipse.lsp4j.jsonrpc.messages.Either;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import io.github.rosemoe.sora.lang.analysis.AnalyzeManager;
+import io.github.rosemoe.sora.lang.analysis.SequenceUpdateRange;
+import io.github.rosemoe.sora.lang.analysis.StyleReceiver;
+import io.github.rosemoe.sora.lang.analysis.StyleUpdateRange;
+import io.github.rosemoe.sora.lang.brackets.BracketsProvider;
+import io.github.rosemoe.sora.lang.diagnostic.DiagnosticsContainer;
+import io.github.rosemoe.sora.lang.styling.Styles;
+import io.github.rosemoe.sora.lsp.operations.semantic.SemanticTokensProvider;
+import io.github.rosemoe.sora.text.CharPosition;
+import io.github.rosemoe.sora.text.ContentReference;
+
+/**
+ * Highlights the document with semantic tokens from the language server, over the styles
+ * produced by the wrapped analyze manager.
+ * <p>
+ * Tokens of the whole document are requested once by {@code semanticTokens/full}, and after that
+ * only deltas are requested by {@code semanticTokens/full/delta} if the server supports it. Edits
+ * are applied to the previous integer array directly, and the result is decoded into a
+ * {@link SemanticTokensStore}. Only lines whose tokens are changed are refreshed in editor.
+ * <p>
+ * Before a result arrives, tokens are shifted locally as the text is edited. Results for a stale
+ * document version only update the base of next delta, and another request is sent for the
+ * latest text.
+ */
+public class SemanticTokensAnalyzeManager implements AnalyzeManager {
+
+    private final static String TAG = "SemanticTokens";
+
+    /**
+     * Default delay before requesting tokens after text changes, in milliseconds
+     */
+    public final static long DEFAULT_REQUEST_DELAY = 100;
+
+    private final AnalyzeManager baseManager;
+    private final Supplier<SemanticTokensProvider> providerSupplier;
+    private final SemanticTokensStore store = new SemanticTokensStore();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable requestAction = this::requestTokens;
+    private volatile StyleReceiver receiver;
+    private volatile SemanticTokensTheme theme = SemanticTokensTheme.DEFAULT;
+    private long requestDelay = DEFAULT_REQUEST_DELAY;
+    private ContentReference content;
+
+    /**
+     * Styles sent by the base manager, and the styles sent to editor for them
+     */
+    private Styles baseStyles;
+    private volatile Styles layeredStyles;
+
+    // Tokens known by server, guarded by this
+    private int[] data;
+    private String resultId;
+    private CompletableFuture<?> pendingRequest;
+    private boolean requestAgain;
+    private int generation;
+    private int requestCount;
+    private int deltaCount;
+
+    /**
+     * @param baseManager      Analyze manager of the wrapped language
+     * @param providerSupplier Provides the {@link SemanticTokensProvider} to use when requesting
+     */
+    public SemanticTokensAnalyzeManager(@NonNull AnalyzeManager baseManager, @NonNull Supplier<SemanticTokensProvider> providerSupplier) {
+        this.baseManager = baseManager;
+        this.providerSupplier = providerSupplier;
+    }
+
+    @NonNull
+    public AnalyzeManager getBaseManager() {
+        return baseManager;
+    }
+
+    public void setTheme(@NonNull SemanticTokensTheme theme) {
+        this.theme = theme;
+        rerun();
+    }
+
+    @NonNull
+    public SemanticTokensTheme getTheme() {
+        return theme;
+    }
+
+    /**
+     * Set delay before requesting tokens after text changes
+     */
+    public void setRequestDelay(long requestDelay) {
+        this.requestDelay = requestDelay;
+    }
+
+    public long getRequestDelay() {
+        return requestDelay;
+    }
+
+    /**
+     * Count of token results received
+     */
+    public synchronized int getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * Count of results received as deltas
+     */
+    public synchronized int getDeltaCount() {
+        return deltaCount;
+    }
+
+    /**
+     * Get decoded tokens. Only accessed on UI thread.
+     */
+    @NonNull
+    public SemanticTokensStore getStore() {
+        return store;
+    }
+
+    @Override
+    public void setReceiver(@Nullable StyleReceiver receiver) {
+        this.receiver = receiver;
+        baseManager.setReceiver(receiver == null ? null : new LayeringReceiver());
+    }
+
+    @Override
+    public void reset(@NonNull ContentReference content, @NonNull Bundle extraArguments) {
+        synchronized (this) {
+            generation++;
+            data = null;
+            resultId = null;
+            cancelPendingRequest();
+        }
+        this.content = content;
+        store.clear();
+        baseManager.reset(content, extraArguments);
+        scheduleRequest(0);
+    }
+
+    @Override
+    public void insert(@NonNull CharPosition start, @NonNull CharPosition end, @NonNull CharSequence insertedContent) {
+        baseManager.insert(start, end, insertedContent);
+        scheduleRequest(requestDelay);
+    }
+
+    @Override
+    public void delete(@NonNull CharPosition start, @NonNull CharPosition end, @NonNull CharSequence deletedContent) {
+        baseManager.delete(start, end, deletedContent);
+        scheduleRequest(requestDelay);
+    }
+
+    @Override
+    public void rerun() {
+        synchronized (this) {
+            generation++;
+            data = null;
+            resultId = null;
+            cancelPendingRequest();
+        }
+        baseManager.rerun();
+        scheduleRequest(0);
+    }
+
+    @Override
+    public void destroy() {
+        detach();
+        baseManager.destroy();
+    }
+
+    /**
+     * Stop requesting and layering tokens, without destroying the base manager
+     *
+     * @return The receiver set to this manager
+     */
+    @Nullable
+    public StyleReceiver detach() {
+        handler.removeCallbacks(requestAction);
+        synchronized (this) {
+            generation++;
+            cancelPendingRequest();
+        }
+        var receiver = this.receiver;
+        this.receiver = null;
+        content = null;
+        return receiver;
+    }
+
+    private void cancelPendingRequest() {
+        if (pendingRequest != null) {
+            pendingRequest.cancel(true);
+            pendingRequest = null;
+        }
+        requestAgain = false;
+    }
+
+    private void scheduleRequest(long delay) {
+        handler.removeCallbacks(requestAction);
+        handler.postDelayed(requestAction, delay);
+    }
+
+    /**
+     * Send request for current text. Called on UI thread.
+     * <p>
+     * Only one request is sent at a time, so that each delta is computed from the result applied
+     * before. Changes during a request cause another request after it finishes.
+     */
+    private void requestTokens() {
+        var content = this.content;
+        var provider = providerSupplier.get();
+        if (content == null || provider == null || !provider.isSupported()) {
+            return;
+        }
+        var legend = provider.getLegend();
+        var version = content.getDocumentVersion();
+        String previousResultId;
+        int generation;
+        synchronized (this) {
+            if (pendingRequest != null) {
+                requestAgain = true;
+                return;
+            }
+            previousResultId = data == null ? null : resultId;
+            generation = this.generation;
+        }
+        var future = provider.execute(previousResultId);
+        if (future == null) {
+            return;
+        }
+        synchronized (this) {
+            pendingRequest = future;
+        }
+        future.thenAccept(result -> onResult(result, legend, generation, version))
+                .whenComplete((unused, e) -> {
+                    var cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (cause != null && !(cause instanceof CancellationException)) {
+                        Log.w(TAG, "Failed to request semantic tokens", cause);
+                    }
+                    handler.post(() -> onRequestFinished(future));
+                });
+    }
+
+    private void onRequestFinished(CompletableFuture<?> request) {
+        boolean again;
+        synchronized (this) {
+            if (pendingRequest != request) {
+                return;
+            }
+            pendingRequest = null;
+            again = requestAgain;
+            requestAgain = false;
+        }
+        if (again) {
+            scheduleRequest(0);
+        }
+    }
+
+    /**
+     * Update tokens known by server and decode them. Called on the thread receiving the result.
+     */
+    private void onResult(@Nullable Either<SemanticTokens, SemanticTokensDelta> result, SemanticTokensLegend legend,
+                          int generation, long version) {
+        if (result == null) {
+            return;
+        }
+        int[] newData;
+        synchronized (this) {
+            if (generation != this.generation) {
+                return;
+            }
+            requestCount++;
+            if (result.isLeft()) {
+                newData = toIntArray(result.getLeft().getData());
+                resultId = result.getLeft().getResultId();
+            } else {
+                deltaCount++;
+                try {
+                    if (data == null) {
+                        throw new IllegalArgumentException("no previous semantic tokens");
+                    }
+                    newData = SemanticTokensStore.applyEdits(data, result.getRight().getEdits());
+                } catch (IllegalArgumentException e) {
+                    // Request full tokens again
+                    Log.w(TAG, "Unable to apply semantic tokens delta", e);
+                    data = null;
+                    resultId = null;
+                    requestAgain = true;
+                    return;
+                }
+                resultId = result.getRight().getResultId();
+            }
+            data = newData;
+        }
+        var lines = SemanticTokensStore.decode(newData, createResolver(legend));
+        handler.post(() -> applyTokens(lines, generation, version));
+    }
+
+    /**
+     * Show decoded tokens in editor. Called on UI thread.
+     */
+    private void applyTokens(long[][] lines, int generation, long version) {
+        var content = this.content;
+        var receiver = this.receiver;
+        synchronized (this) {
+            if (generation != this.generation) {
+                return;
+            }
+        }
+        if (content == null || receiver == null || content.getDocumentVersion() != version) {
+            // Tokens are for an old text. A new request is already scheduled for the changes.
+            return;
+        }
+        var range = store.setLines(lines);
+        if (range == null) {
+            return;
+        }
+        var styles = layeredStyles;
+        if (styles == null) {
+            styles = new Styles(new LayeredSpans(null, store));
+            layeredStyles = styles;
+            receiver.setStyles(this, styles);
+        } else {
+            receiver.updateStyles(this, styles, new SequenceUpdateRange(range[0], range[1]));
+        }
+    }
+
+    @NonNull
+    private SemanticTokensStore.StyleResolver createResolver(@Nullable SemanticTokensLegend legend) {
+        var theme = this.theme;
+        List<String> types = legend == null || legend.getTokenTypes() == null ? List.of() : legend.getTokenTypes();
+        List<String> modifiers = legend == null || legend.getTokenModifiers() == null ? List.of() : legend.getTokenModifiers();
+        var cache = new HashMap<Long, Long>();
+        return (tokenType, tokenModifiers) -> {
+            if (tokenType < 0 || tokenType >= types.size()) {
+                return 0;
+            }
+            var key = ((long) tokenType << 32) | (tokenModifiers & 0xffffffffL);
+            var style = cache.get(key);
+            if (style == null) {
+                var names = new ArrayList<String>();
+                for (int i = 0; i < modifiers.size() && i < 32; i++) {
+                    if ((tokenModifiers & (1 << i)) != 0) {
+                        names.add(modifiers.get(i));
+                    }
+                }
+                style = theme.getStyle(types.get(tokenType), names);
+                cache.put(key, style);
+            }
+            return style;
+        };
+    }
+
+    private static int[] toIntArray(@Nullable List<Integer> list) {
+        if (list == null) {
+            return new int[0];
+        }
+        var result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Get styles to send to editor for the given styles of base manager
+     */
+    @Nullable
+    private synchronized Styles layer(@Nullable Styles styles) {
+        if (styles == null) {
+            baseStyles = null;
+            return layeredStyles = store.getLineCount() == 0 ? null : new Styles(new LayeredSpans(null, store));
+        }
+        var layered = layeredStyles;
+        if (styles != baseStyles || layered == null) {
+            layered = new Styles(new LayeredSpans(styles.spans, store), false);
+            baseStyles = styles;
+        } else if (!(layered.spans instanceof LayeredSpans) || ((LayeredSpans) layered.spans).getBase() != styles.spans) {
+            layered.spans = new LayeredSpans(styles.spans, store);
+        }
+        layered.blocks = styles.blocks;
+        layered.lineStyles = styles.lineStyles;
+        layered.styleTypeCount = styles.styleTypeCount;
+        layered.suppressSwitch = styles.suppressSwitch;
+        layered.indentCountMode = styles.indentCountMode;
+        layeredStyles = layered;
+        return layered;
+    }
+
+    /**
+     * Receives results of base manager and sends them to editor as results of this manager
+     */
+    private class LayeringReceiver implements StyleReceiver {
+
+        @Override
+        public void setStyles(@NonNull AnalyzeManager sourceManager, @Nullable Styles styles) {
+            setStyles(sourceManager, styles, null);
+        }
+
+        @Override
+        public void setStyles(@NonNull AnalyzeManager sourceManager, @Nullable Styles styles, @Nullable Runnable action) {
+            var receiver = SemanticTokensAnalyzeManager.this.receiver;
+            if (receiver != null) {
+                receiver.setStyles(SemanticTokensAnalyzeManager.this, layer(styles), action);
+            }
+        }
+
+        @Override
+        public void updateStyles(@NonNull AnalyzeManager sourceManager, @NonNull Styles styles, @NonNull StyleUpdateRange range) {
+            var receiver = SemanticTokensAnalyzeManager.this.receiver;
+            if (receiver != null) {
+                var layered = layer(styles);
+                if (layered != null) {
+                    receiver.updateStyles(SemanticTokensAnalyzeManager.this, layered, range);
+                }
+            }
+        }
+
+        @Override
+        public void setDiagnostics(@NonNull AnalyzeManager sourceManager, @Nullable DiagnosticsContainer diagnostics) {
+            var receiver = SemanticTokensAnalyzeManager.this.receiver;
+            if (receiver != null) {
+                receiver.setDiagnostics(SemanticTokensAnalyzeManager.this, diagnostics);
+            }
+        }
+
+        @Override
+        public void updateBracketProvider(@NonNull AnalyzeManager sourceManager, @Nullable BracketsProvider provider) {
+            var receiver = SemanticTokensAnalyzeManager.this.receiver;
+            if (receiver != null) {
+                receiver.updateBracketProvider(SemanticTokensAnalyzeManager.this, provider);
+            }
+        }
+    }
+}
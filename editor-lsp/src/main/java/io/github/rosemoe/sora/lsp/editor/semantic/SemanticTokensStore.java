@@ -0,0 +1,387 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.editor.semantic;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.eclipse.lsp4j.SemanticTokensEdit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.github.rosemoe.sora.text.CharPosition;
+
+/**
+ * Stores decoded semantic tokens by line.
+ * <p>
+ * Tokens on a line are kept in one {@code long} array, two elements for each token: the first one
+ * packs the start column (high 32 bits) and the length (low 32 bits), and the second one is the
+ * editor style of the token. Tokens on a line are sorted by column and do not overlap.
+ * <p>
+ * Spans merged with tokens by {@link LayeredSpans} are cached here for each line, and they are
+ * dropped when tokens are set or adjusted.
+ * <p>
+ * Methods of this class except static ones are called on UI thread.
+ */
+public class SemanticTokensStore {
+
+    private final static long[][] EMPTY_LINES = new long[0][];
+
+    /**
+     * Max count of lines with cached merged spans
+     */
+    private final static int MAX_MERGED_LINES = 512;
+
+    private long[][] lines = EMPTY_LINES;
+    private int lineCount;
+    private LayeredSpans.MergedLine[] mergedLines = new LayeredSpans.MergedLine[0];
+    /**
+     * Lines whose merged spans are cached, in the order of caching
+     */
+    private final int[] mergedLineQueue = new int[MAX_MERGED_LINES];
+    private int mergedLineQueueHead;
+    private int mergedLineCount;
+
+    /**
+     * Get style of a token
+     */
+    public interface StyleResolver {
+
+        /**
+         * @param tokenType      Index of token type in the legend
+         * @param tokenModifiers Bit set of token modifiers in the legend
+         * @return Style of the token, or 0 if the token should not be displayed
+         */
+        long getStyle(int tokenType, int tokenModifiers);
+
+    }
+
+    public static int getColumn(long[] tokens, int index) {
+        return (int) (tokens[index * 2] >>> 32);
+    }
+
+    public static int getLength(long[] tokens, int index) {
+        return (int) tokens[index * 2];
+    }
+
+    public static long getStyle(long[] tokens, int index) {
+        return tokens[index * 2 + 1];
+    }
+
+    public static int getTokenCount(long[] tokens) {
+        return tokens.length / 2;
+    }
+
+    private static long pack(int column, int length) {
+        return ((long) column << 32) | (length & 0xffffffffL);
+    }
+
+    /**
+     * Apply edits of a semantic tokens delta to the previous data
+     *
+     * @throws IllegalArgumentException if the edits do not match the data
+     */
+    @NonNull
+    public static int[] applyEdits(@NonNull int[] data, @NonNull List<SemanticTokensEdit> edits) {
+        var sorted = new ArrayList<>(edits);
+        sorted.sort((a, b) -> Integer.compare(a.getStart(), b.getStart()));
+        var size = data.length;
+        for (var edit : sorted) {
+            size += (edit.getData() == null ? 0 : edit.getData().size()) - edit.getDeleteCount();
+        }
+        if (size < 0) {
+            throw new IllegalArgumentException("invalid semantic tokens edits");
+        }
+        var result = new int[size];
+        int position = 0, resultPosition = 0;
+        for (var edit : sorted) {
+            var start = edit.getStart();
+            var deleteCount = edit.getDeleteCount();
+            if (start < position || deleteCount < 0 || start + deleteCount > data.length) {
+                throw new IllegalArgumentException("invalid semantic tokens edit at " + start);
+            }
+            System.arraycopy(data, position, result, resultPosition, start - position);
+            resultPosition += start - position;
+            if (edit.getData() != null) {
+                for (var value : edit.getData()) {
+                    result[resultPosition++] = value;
+                }
+            }
+            position = start + deleteCount;
+        }
+        System.arraycopy(data, position, result, resultPosition, data.length - position);
+        return result;
+    }
+
+    /**
+     * Decode semantic tokens in relative format into lines
+     *
+     * @param data     Token data, five integers for each token
+     * @param resolver Resolves token styles
+     * @return Tokens by line. Lines without tokens are null
+     */
+    @NonNull
+    public static long[][] decode(@NonNull int[] data, @NonNull StyleResolver resolver) {
+        var tokenCount = data.length / 5;
+        var lastLine = 0;
+        for (int i = 0; i < tokenCount; i++) {
+            lastLine += data[i * 5];
+        }
+        var result = new long[tokenCount == 0 ? 0 : lastLine + 1][];
+        var buffer = new long[16];
+        int bufferSize = 0;
+        int line = 0, column = 0, currentLine = -1;
+        for (int i = 0; i < tokenCount; i++) {
+            var offset = i * 5;
+            var deltaLine = data[offset];
+            line += deltaLine;
+            column = deltaLine == 0 ? column + data[offset + 1] : data[offset + 1];
+            var length = data[offset + 2];
+            var style = resolver.getStyle(data[offset + 3], data[offset + 4]);
+            if (style == 0 || length <= 0) {
+                continue;
+            }
+            if (line != currentLine) {
+                if (bufferSize > 0) {
+                    result[currentLine] = Arrays.copyOf(buffer, bufferSize);
+                }
+                bufferSize = 0;
+                currentLine = line;
+            }
+            if (bufferSize + 2 > buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[bufferSize++] = pack(column, length);
+            buffer[bufferSize++] = style;
+        }
+        if (bufferSize > 0) {
+            result[currentLine] = Arrays.copyOf(buffer, bufferSize);
+        }
+        return result;
+    }
+
+    /**
+     * Get tokens on the given line, or null if there is no token
+     */
+    @Nullable
+    public long[] getTokensOnLine(int line) {
+        return line >= 0 && line < lineCount ? lines[line] : null;
+    }
+
+    /**
+     * Count of lines that may have tokens
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public void clear() {
+        lines = EMPTY_LINES;
+        lineCount = 0;
+        invalidateMergedLines(0);
+    }
+
+    /**
+     * Get cached spans merged with tokens on the given line
+     */
+    @Nullable
+    LayeredSpans.MergedLine getMergedLine(int line) {
+        return line >= 0 && line < mergedLines.length ? mergedLines[line] : null;
+    }
+
+    /**
+     * Cache spans merged with tokens on the given line. The line cached earliest is dropped when
+     * there are too many lines cached.
+     */
+    void setMergedLine(int line, @NonNull LayeredSpans.MergedLine merged) {
+        if (line >= mergedLines.length) {
+            mergedLines = Arrays.copyOf(mergedLines, Math.max(line + 1, lineCount));
+        }
+        if (mergedLines[line] == null) {
+            if (mergedLineCount == MAX_MERGED_LINES) {
+                // The eldest line may have been moved by adjustments, which only costs a merge
+                var eldest = mergedLineQueue[mergedLineQueueHead];
+                if (eldest < mergedLines.length) {
+                    mergedLines[eldest] = null;
+                }
+                mergedLineQueue[mergedLineQueueHead] = line;
+                mergedLineQueueHead = (mergedLineQueueHead + 1) % MAX_MERGED_LINES;
+            } else {
+                mergedLineQueue[(mergedLineQueueHead + mergedLineCount) % MAX_MERGED_LINES] = line;
+                mergedLineCount++;
+            }
+        }
+        mergedLines[line] = merged;
+    }
+
+    /**
+     * Drop merged spans of lines from the given line
+     */
+    private void invalidateMergedLines(int fromLine) {
+        if (fromLine == 0) {
+            mergedLines = new LayeredSpans.MergedLine[0];
+            mergedLineQueueHead = mergedLineCount = 0;
+        } else if (fromLine < mergedLines.length) {
+            Arrays.fill(mergedLines, fromLine, mergedLines.length, null);
+        }
+    }
+
+    /**
+     * Replace all tokens
+     *
+     * @param newLines Tokens by line, which are not copied
+     * @return Changed line range, or null if nothing is changed
+     */
+    @Nullable
+    public int[] setLines(@NonNull long[][] newLines) {
+        var oldLines = lines;
+        var oldCount = lineCount;
+        lines = newLines;
+        lineCount = newLines.length;
+        invalidateMergedLines(0);
+        var first = 0;
+        var common = Math.min(oldCount, newLines.length);
+        while (first < common && Arrays.equals(oldLines[first], newLines[first])) {
+            first++;
+        }
+        if (first == common && oldCount == newLines.length) {
+            return null;
+        }
+        if (oldCount != newLines.length) {
+            return new int[]{first, Integer.MAX_VALUE};
+        }
+        var last = newLines.length - 1;
+        while (last > first && Arrays.equals(oldLines[last], newLines[last])) {
+            last--;
+        }
+        return new int[]{first, last};
+    }
+
+    /**
+     * Shift tokens after text is inserted
+     */
+    public void adjustOnInsert(@NonNull CharPosition start, @NonNull CharPosition end) {
+        if (start.line >= lineCount) {
+            return;
+        }
+        invalidateMergedLines(start.line);
+        var tokens = lines[start.line];
+        if (start.line == end.line) {
+            if (tokens != null) {
+                var length = end.column - start.column;
+                for (int i = 0; i < getTokenCount(tokens); i++) {
+                    var column = getColumn(tokens, i);
+                    var tokenEnd = column + getLength(tokens, i);
+                    column = column < start.column ? column : column + length;
+                    tokenEnd = tokenEnd <= start.column ? tokenEnd : tokenEnd + length;
+                    tokens[i * 2] = pack(column, tokenEnd - column);
+                }
+            }
+            return;
+        }
+        var lineDelta = end.line - start.line;
+        ensureCapacity(lineCount + lineDelta);
+        System.arraycopy(lines, start.line + 1, lines, end.line + 1, lineCount - start.line - 1);
+        Arrays.fill(lines, start.line + 1, end.line + 1, null);
+        lineCount += lineDelta;
+        if (tokens != null) {
+            // Text after the insertion point is moved to the last inserted line
+            lines[start.line] = slice(tokens, 0, start.column, 0);
+            lines[end.line] = slice(tokens, start.column, Integer.MAX_VALUE, end.column - start.column);
+        }
+    }
+
+    /**
+     * Shift tokens after text is deleted
+     */
+    public void adjustOnDelete(@NonNull CharPosition start, @NonNull CharPosition end) {
+        if (start.line >= lineCount) {
+            return;
+        }
+        invalidateMergedLines(start.line);
+        var tokens = lines[start.line];
+        if (start.line == end.line) {
+            if (tokens != null) {
+                var before = slice(tokens, 0, start.column, 0);
+                var after = slice(tokens, end.column, Integer.MAX_VALUE, start.column - end.column);
+                lines[start.line] = concat(before, after);
+            }
+            return;
+        }
+        var endTokens = end.line < lineCount ? lines[end.line] : null;
+        var before = tokens == null ? null : slice(tokens, 0, start.column, 0);
+        var after = endTokens == null ? null : slice(endTokens, end.column, Integer.MAX_VALUE, start.column - end.column);
+        lines[start.line] = concat(before, after);
+        var removeEnd = Math.min(end.line + 1, lineCount);
+        System.arraycopy(lines, removeEnd, lines, start.line + 1, lineCount - removeEnd);
+        var newCount = lineCount - (removeEnd - start.line - 1);
+        Arrays.fill(lines, newCount, lineCount, null);
+        lineCount = newCount;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (lines.length < capacity) {
+            lines = Arrays.copyOf(lines, Math.max(capacity, lines.length + (lines.length >> 1)));
+        }
+    }
+
+    /**
+     * Get parts of tokens in column range [from, to), and move them by {@code shift} columns
+     *
+     * @return The tokens, or null if there is no token in range
+     */
+    @Nullable
+    private static long[] slice(long[] tokens, int from, int to, int shift) {
+        long[] result = null;
+        int size = 0;
+        for (int i = 0; i < getTokenCount(tokens); i++) {
+            var column = Math.max(from, getColumn(tokens, i));
+            var tokenEnd = Math.min(to, getColumn(tokens, i) + getLength(tokens, i));
+            if (tokenEnd <= column) {
+                continue;
+            }
+            if (result == null) {
+                result = new long[tokens.length];
+            }
+            result[size++] = pack(column + shift, tokenEnd - column);
+            result[size++] = getStyle(tokens, i);
+        }
+        return result == null ? null : size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    @Nullable
+    private static long[] concat(@Nullable long[] a, @Nullable long[] b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        var result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
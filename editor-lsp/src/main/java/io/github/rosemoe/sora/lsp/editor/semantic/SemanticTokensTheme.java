@@ -0,0 +1,104 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.editor.semantic;
+
+import androidx.annotation.NonNull;
+
+import org.eclipse.lsp4j.SemanticTokenModifiers;
+import org.eclipse.lsp4j.SemanticTokenTypes;
+
+import java.util.List;
+
+import io.github.rosemoe.sora.lang.styling.TextStyle;
+import io.github.rosemoe.sora.widget.schemes.EditorColorScheme;
+
+/**
+ * Maps semantic token types and modifiers to editor styles
+ */
+public interface SemanticTokensTheme {
+
+    /**
+     * Default theme, which uses colors in {@link EditorColorScheme}
+     */
+    SemanticTokensTheme DEFAULT = SemanticTokensTheme::getDefaultStyle;
+
+    /**
+     * Get the style for a token
+     *
+     * @param tokenType      Type of the token, see {@link SemanticTokenTypes}
+     * @param tokenModifiers Modifiers of the token, see {@link SemanticTokenModifiers}
+     * @return Style made by {@link TextStyle}, or 0 to keep the original style of the text
+     */
+    long getStyle(@NonNull String tokenType, @NonNull List<String> tokenModifiers);
+
+    static long getDefaultStyle(@NonNull String tokenType, @NonNull List<String> tokenModifiers) {
+        int color;
+        switch (tokenType) {
+            case SemanticTokenTypes.Keyword:
+            case SemanticTokenTypes.Modifier:
+                color = EditorColorScheme.KEYWORD;
+                break;
+            case SemanticTokenTypes.Comment:
+                color = EditorColorScheme.COMMENT;
+                break;
+            case SemanticTokenTypes.String:
+            case SemanticTokenTypes.Number:
+            case SemanticTokenTypes.Regexp:
+                color = EditorColorScheme.LITERAL;
+                break;
+            case SemanticTokenTypes.Operator:
+                color = EditorColorScheme.OPERATOR;
+                break;
+            case SemanticTokenTypes.Function:
+            case SemanticTokenTypes.Method:
+            case SemanticTokenTypes.Macro:
+                color = EditorColorScheme.FUNCTION_NAME;
+                break;
+            case SemanticTokenTypes.Decorator:
+                color = EditorColorScheme.ANNOTATION;
+                break;
+            case SemanticTokenTypes.Class:
+            case SemanticTokenTypes.Interface:
+            case SemanticTokenTypes.Enum:
+            case SemanticTokenTypes.Struct:
+            case SemanticTokenTypes.Type:
+            case SemanticTokenTypes.TypeParameter:
+            case SemanticTokenTypes.Namespace:
+                color = EditorColorScheme.IDENTIFIER_NAME;
+                break;
+            case SemanticTokenTypes.Variable:
+            case SemanticTokenTypes.Parameter:
+            case SemanticTokenTypes.Property:
+            case SemanticTokenTypes.EnumMember:
+            case SemanticTokenTypes.Event:
+                color = EditorColorScheme.IDENTIFIER_VAR;
+                break;
+            default:
+                return 0;
+        }
+        var deprecated = tokenModifiers.contains(SemanticTokenModifiers.Deprecated);
+        return TextStyle.makeStyle(color, 0, false, false, deprecated);
+    }
+
+}
@@ -23,19 +23,34 @@
  */
 package io.github.rosemoe.sora.lsp.operations.completion;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+
 import org.eclipse.lsp4j.CompletionItem;
+import org.eclipse.lsp4j.CompletionList;
+import org.eclipse.lsp4j.jsonrpc.json.MessageJsonHandler;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
+import io.github.rosemoe.sora.lsp.client.PartialResultDispatcher;
 import io.github.rosemoe.sora.lsp.editor.LspEditor;
 import io.github.rosemoe.sora.lsp.operations.Provider;
 import io.github.rosemoe.sora.lsp.utils.LspUtils;
 import io.github.rosemoe.sora.text.CharPosition;
 
-public class CompletionProvider implements Provider<CharPosition, CompletableFuture<List<CompletionItem>>> {
+public class CompletionProvider implements Provider<CharPosition, CompletableFuture<CompletionList>> {
 
-    private CompletableFuture<List<CompletionItem>> future;
+    private final static Gson gson = new MessageJsonHandler(Collections.emptyMap()).getGson();
+
+    private CompletableFuture<CompletionList> future;
     private LspEditor editor;
 
 
@@ -54,7 +69,18 @@ public class CompletionProvider implements Provider<CharPosition, CompletableFut
     }
 
     @Override
-    public CompletableFuture<List<CompletionItem>> execute(CharPosition data) {
+    public CompletableFuture<CompletionList> execute(CharPosition data) {
+        return execute(data, null);
+    }
+
+    /**
+     * Request completion items.
+     *
+     * @param partialResultConsumer If not null, partial results are requested from the server and
+     *                              given to the consumer on the thread receiving server messages.
+     *                              The returned list then only contains items not given as partial results.
+     */
+    public CompletableFuture<CompletionList> execute(CharPosition data, @Nullable Consumer<CompletionList> partialResultConsumer) {
         if (future != null) {
             future.cancel(true);
             future = null;
@@ -66,12 +92,59 @@ public class CompletionProvider implements Provider<CharPosition, CompletableFut
             return null;
         }
 
-        future = editor.getRequestManager()
-                .completion(
-                        LspUtils.createCompletionParams(
-                                editor, LspUtils.createPosition(data))
-                ).thenApply(listCompletionListEither -> listCompletionListEither.isLeft() ? listCompletionListEither.getLeft() : listCompletionListEither.getRight().getItems());
+        var params = LspUtils.createCompletionParams(editor, LspUtils.createPosition(data));
+        String token = null;
+        if (partialResultConsumer != null) {
+            token = PartialResultDispatcher.register(value -> {
+                var list = parsePartialResult(value);
+                if (list != null) {
+                    partialResultConsumer.accept(list);
+                }
+            });
+            params.setPartialResultToken(token);
+        }
+
+        var request = manager.completion(params);
+
+        if (request == null) {
+            if (token != null) {
+                PartialResultDispatcher.unregister(token);
+            }
+            return null;
+        }
+
+        var partialResultToken = token;
+        future = request.thenApply(listCompletionListEither -> listCompletionListEither == null ? new CompletionList(List.of()) :
+                listCompletionListEither.isLeft() ? new CompletionList(listCompletionListEither.getLeft()) : listCompletionListEither.getRight());
+        future.whenComplete((result, throwable) -> {
+            if (throwable instanceof CancellationException) {
+                // Let the server stop computing
+                request.cancel(true);
+            }
+            if (partialResultToken != null) {
+                PartialResultDispatcher.unregister(partialResultToken);
+            }
+        });
 
         return future;
     }
+
+    /**
+     * Parse a partial result, which is either an array of items or a completion list
+     */
+    @Nullable
+    private static CompletionList parsePartialResult(@NonNull Object value) {
+        if (value instanceof CompletionList) {
+            return (CompletionList) value;
+        }
+        if (value instanceof JsonElement) {
+            var json = (JsonElement) value;
+            if (json.isJsonArray()) {
+                return new CompletionList(Arrays.asList(gson.fromJson(json, CompletionItem[].class)));
+            } else if (json.isJsonObject()) {
+                return gson.fromJson(json, CompletionList.class);
+            }
+        }
+        return null;
+    }
 }
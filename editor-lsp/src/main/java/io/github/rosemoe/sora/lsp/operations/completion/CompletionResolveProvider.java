@@ -0,0 +1,62 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.operations.completion;
+
+import org.eclipse.lsp4j.CompletionItem;
+
+import java.util.concurrent.CompletableFuture;
+
+import io.github.rosemoe.sora.lsp.editor.LspEditor;
+import io.github.rosemoe.sora.lsp.operations.Provider;
+
+/**
+ * Resolves additional information of a completion item by {@code completionItem/resolve}.
+ * Returns null if the server does not resolve completion items.
+ */
+public class CompletionResolveProvider implements Provider<CompletionItem, CompletableFuture<CompletionItem>> {
+
+    private LspEditor editor;
+
+    @Override
+    public void init(LspEditor editor) {
+        this.editor = editor;
+    }
+
+    @Override
+    public void dispose(LspEditor editor) {
+        this.editor = null;
+    }
+
+    @Override
+    public CompletableFuture<CompletionItem> execute(CompletionItem data) {
+        var editor = this.editor;
+        var manager = editor == null ? null : editor.getRequestManager();
+
+        if (manager == null) {
+            return null;
+        }
+
+        return manager.resolveCompletionItem(data);
+    }
+}
@@ -23,16 +23,16 @@
  */
 package io.github.rosemoe.sora.lsp.operations.diagnostics;
 
-import android.util.Log;
+import android.os.Looper;
 
 import org.eclipse.lsp4j.Diagnostic;
-import org.eclipse.lsp4j.DiagnosticSeverity;
-import org.eclipse.lsp4j.Position;
-import org.eclipse.lsp4j.PublishDiagnosticsParams;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.github.rosemoe.sora.lang.diagnostic.DiagnosticRegion;
 import io.github.rosemoe.sora.lang.diagnostic.DiagnosticsContainer;
@@ -40,9 +40,29 @@ import io.github.rosemoe.sora.lsp.editor.LspEditor;
 import io.github.rosemoe.sora.lsp.operations.RunOnlyProvider;
 import io.github.rosemoe.sora.lsp.utils.LspUtils;
 
+/**
+ * Shows diagnostics published by the server in the editor.
+ * <p>
+ * Diagnostics are converted off the UI thread, and compared with the diagnostics in the editor so
+ * that unchanged regions are kept. The new container is then set to the editor on UI thread, or
+ * nothing happens if no diagnostic is changed.
+ */
 public class PublishDiagnosticsProvider extends RunOnlyProvider<List<Diagnostic>> {
 
-    private LspEditor editor;
+    private final static Comparator<DiagnosticRegion> REGION_COMPARATOR = (a, b) -> {
+        var cmp = Integer.compare(a.startIndex, b.startIndex);
+        if (cmp == 0) {
+            cmp = Integer.compare(a.endIndex, b.endIndex);
+        }
+        if (cmp == 0) {
+            cmp = Short.compare(a.severity, b.severity);
+        }
+        return cmp;
+    };
+
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicLong generation = new AtomicLong();
+    private volatile LspEditor editor;
 
     @Override
     public void init(LspEditor editor) {
@@ -57,24 +77,78 @@ public class PublishDiagnosticsProvider extends RunOnlyProvider<List<Diagnostic>
 
     @Override
     public void run(List<Diagnostic> data) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            ForkJoinPool.commonPool().execute(() -> run(data));
+            return;
+        }
 
-        var currentEditor = editor.getEditor();
+        var lspEditor = editor;
+        var currentEditor = lspEditor == null ? null : lspEditor.getEditor();
 
         if (currentEditor == null) {
             return;
         }
 
-        var diagnosticsContainer = currentEditor.getDiagnostics() != null ? currentEditor.getDiagnostics() : new DiagnosticsContainer();
+        var requestGeneration = generation.incrementAndGet();
+        var text = currentEditor.getText();
+        var documentVersion = text.getDocumentVersion();
+        var diagnostics = data == null ? List.<Diagnostic>of() : data;
 
-        diagnosticsContainer.reset();
+        var regions = LspUtils.transformToEditorDiagnostics(text, diagnostics, nextId.getAndAdd(diagnostics.size()));
+        regions.sort(REGION_COMPARATOR);
 
-        diagnosticsContainer.addDiagnostics(
-                LspUtils.transformToEditorDiagnostics(editor.getEditor(),data)
-        );
+        var previousContainer = currentEditor.getDiagnostics();
+        var previous = previousContainer == null ? new ArrayList<DiagnosticRegion>() : previousContainer.getAllDiagnostics();
+        previous.sort(REGION_COMPARATOR);
 
-        currentEditor.setDiagnostics(diagnosticsContainer);
+        var kept = keepUnchangedRegions(previous, regions);
+        if (previousContainer != null && kept == previous.size() && kept == regions.size()) {
+            return;
+        }
 
+        var diagnosticsContainer = new DiagnosticsContainer(previousContainer == null || previousContainer.isShiftEnabled());
+        diagnosticsContainer.addDiagnostics(regions);
+
+        currentEditor.post(() -> {
+            if (generation.get() != requestGeneration || editor != lspEditor) {
+                // Outdated by newer diagnostics
+                return;
+            }
+            if (text != currentEditor.getText() || text.getDocumentVersion() != documentVersion) {
+                // Text is modified during the conversion, positions must be computed again
+                run(data);
+                return;
+            }
+            currentEditor.setDiagnostics(diagnosticsContainer);
+        });
     }
 
+    /**
+     * Replace regions in {@code regions} with equal ones in {@code previous}. Both lists are
+     * sorted by {@link #REGION_COMPARATOR}.
+     *
+     * @return Count of kept regions
+     */
+    static int keepUnchangedRegions(List<DiagnosticRegion> previous, List<DiagnosticRegion> regions) {
+        int i = 0, j = 0, kept = 0;
+        while (i < previous.size() && j < regions.size()) {
+            var old = previous.get(i);
+            var region = regions.get(j);
+            var cmp = REGION_COMPARATOR.compare(old, region);
+            if (cmp < 0) {
+                i++;
+            } else if (cmp > 0) {
+                j++;
+            } else if (Objects.equals(old.detail, region.detail)) {
+                regions.set(j, old);
+                kept++;
+                i++;
+                j++;
+            } else {
+                j++;
+            }
+        }
+        return kept;
+    }
 
 }
@@ -25,8 +25,11 @@ package io.github.rosemoe.sora.lsp.operations.document;
 
 import android.util.Pair;
 
+import androidx.annotation.NonNull;
+
 import org.eclipse.lsp4j.TextEdit;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import io.github.rosemoe.sora.lsp.operations.RunOnlyProvider;
@@ -34,33 +37,119 @@ import io.github.rosemoe.sora.text.Content;
 import io.github.rosemoe.sora.util.Logger;
 
 /**
- *
+ * Apply text edits from language server to the content.
+ * <p>
+ * Like the protocol requires, ranges of all edits refer to the text before any of them is applied.
+ * Edits are sorted once and applied from the end of text to the start in one batch edit, so that
+ * positions of remaining edits are not changed, and the modification is undone at once. When there
+ * are more than {@link #DIFF_THRESHOLD} edits, such as formatting a large file, the new text is
+ * built in memory and applied by {@link Content#replaceByDiff(CharSequence)} instead, which only
+ * edits the changed lines.
  */
 public class ApplyEditsProvider extends RunOnlyProvider<Pair<List<? extends TextEdit>, Content>> {
 
+    /**
+     * Edit count to apply edits by diff
+     */
+    public final static int DIFF_THRESHOLD = 256;
+
     @Override
     public void run(Pair<List<? extends TextEdit>, Content> contentPair) {
+        applyEdits(contentPair.second, contentPair.first);
+    }
 
-        var editList = contentPair.first;
-        var content = contentPair.second;
-
-        editList.forEach(textEdit -> {
+    /**
+     * Apply the edits to the content
+     *
+     * @return Count of edits applied. Edits overlapping with others are skipped.
+     */
+    public static int applyEdits(@NonNull Content content, @NonNull List<? extends TextEdit> editList) {
+        if (editList.isEmpty()) {
+            return 0;
+        }
+        var edits = new ArrayList<Edit>(editList.size());
+        for (int i = 0; i < editList.size(); i++) {
+            var textEdit = editList.get(i);
             var range = textEdit.getRange();
-            var text = textEdit.getNewText();
-            var startIndex = content.getCharIndex(range.getStart().getLine(), range.getStart().getCharacter());
-            var endIndex = content.getCharIndex(range.getEnd().getLine(), range.getEnd().getCharacter());
+            var start = range.getStart();
+            var end = range.getEnd();
+            var startIndex = content.getCharIndex(start.getLine(), start.getCharacter());
+            var endIndex = content.getCharIndex(end.getLine(), end.getCharacter());
 
             if (endIndex < startIndex) {
-                Logger.instance(this.getClass().getName())
-                        .w("Invalid location information found applying edits from %s to %s", range.getStart(), range.getEnd());
+                Logger.instance(ApplyEditsProvider.class.getName())
+                        .w("Invalid location information found applying edits from %d:%d to %d:%d",
+                                start.getLine(), start.getCharacter(), end.getLine(), end.getCharacter());
                 var diff = startIndex - endIndex;
                 endIndex = startIndex;
                 startIndex = endIndex - diff;
+                start = range.getEnd();
+                end = range.getStart();
+            }
+            edits.add(new Edit(startIndex, endIndex, start.getLine(), start.getCharacter(), end.getLine(), end.getCharacter(),
+                    textEdit.getNewText(), i));
+        }
+        // Edits at the same position are applied in the order of the list
+        edits.sort((a, b) -> a.start != b.start ? Integer.compare(a.start, b.start) : Integer.compare(a.order, b.order));
+
+        var applied = new ArrayList<Edit>(edits.size());
+        var lastEnd = 0;
+        for (var edit : edits) {
+            if (edit.start < lastEnd) {
+                Logger.instance(ApplyEditsProvider.class.getName())
+                        .w("Overlapping edit is ignored: [%d, %d)", edit.start, edit.end);
+                continue;
             }
+            applied.add(edit);
+            lastEnd = edit.end;
+        }
 
-            content.replace(startIndex, endIndex, text);
-        });
+        if (applied.size() > DIFF_THRESHOLD) {
+            var text = content.toStringBuilder();
+            var newText = new StringBuilder(text.length());
+            var position = 0;
+            for (var edit : applied) {
+                newText.append(text, position, edit.start).append(edit.text);
+                position = edit.end;
+            }
+            newText.append(text, position, text.length());
+            content.replaceByDiff(newText);
+            return applied.size();
+        }
 
+        content.beginBatchEdit();
+        try {
+            for (int i = applied.size() - 1; i >= 0; i--) {
+                var edit = applied.get(i);
+                // Text before the edit is not changed yet, so the positions are still valid
+                content.replace(edit.startLine, edit.startColumn, edit.endLine, edit.endColumn, edit.text);
+            }
+        } finally {
+            content.endBatchEdit();
+        }
+        return applied.size();
     }
-}
 
+    private static class Edit {
+
+        final int start;
+        final int end;
+        final int startLine;
+        final int startColumn;
+        final int endLine;
+        final int endColumn;
+        final String text;
+        final int order;
+
+        Edit(int start, int end, int startLine, int startColumn, int endLine, int endColumn, String text, int order) {
+            this.start = start;
+            this.end = end;
+            this.startLine = startLine;
+            this.startColumn = startColumn;
+            this.endLine = endLine;
+            this.endColumn = endColumn;
+            this.text = text == null ? "" : text;
+            this.order = order;
+        }
+    }
+}
@@ -23,24 +23,72 @@
  */
 package io.github.rosemoe.sora.lsp.operations.document;
 
-import org.eclipse.lsp4j.DidChangeTextDocumentParams;
+import androidx.annotation.NonNull;
+
 import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
 import org.eclipse.lsp4j.TextDocumentSyncKind;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.github.rosemoe.sora.event.ContentChangeEvent;
 import io.github.rosemoe.sora.lsp.editor.LspEditor;
 import io.github.rosemoe.sora.lsp.operations.RunOnlyProvider;
 import io.github.rosemoe.sora.lsp.utils.LspUtils;
 
+/**
+ * Sends document changes to the language server.
+ * <p>
+ * Changes are queued and sent in one didChange notification after a short debounce delay
+ * ({@link #setDebounceDelay(long)}), and consecutive typing or deleting is merged into a single
+ * change. Notifications of all documents are sent in order by one shared thread. For servers
+ * requiring full text, the text is only read when the notification is actually sent.
+ * <p>
+ * Requests that depend on the latest document state should call {@link #flush()} and wait
+ * for it before being sent.
+ */
 public class DocumentChangeProvider extends RunOnlyProvider<ContentChangeEvent> {
 
-    private volatile CompletableFuture<Void> future;
-    private LspEditor editor;
+    /**
+     * Default delay before pending changes are sent, in milliseconds
+     */
+    public final static long DEFAULT_DEBOUNCE_DELAY = 50;
+
+    private final static ScheduledThreadPoolExecutor syncExecutor;
+
+    static {
+        syncExecutor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            var thread = new Thread(runnable, "LspDocumentSync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncExecutor.setKeepAliveTime(30, TimeUnit.SECONDS);
+        syncExecutor.allowCoreThreadTimeOut(true);
+        syncExecutor.setRemoveOnCancelPolicy(true);
+    }
+
+    private final List<PendingChange> pendingChanges = new ArrayList<>();
+    private final AtomicLong changeCount = new AtomicLong();
+    private final AtomicLong notificationCount = new AtomicLong();
+    private boolean fullTextPending;
+    private ScheduledFuture<?> scheduledSend;
+    private volatile long debounceDelay = DEFAULT_DEBOUNCE_DELAY;
+    private volatile LspEditor editor;
+
+    /**
+     * Get the executor that document notifications are sent on. Tasks submitted to it run after
+     * all notifications that have been sent before.
+     */
+    @NonNull
+    public static Executor getSyncExecutor() {
+        return syncExecutor;
+    }
 
     @Override
     public void init(LspEditor editor) {
@@ -50,48 +98,209 @@ public class DocumentChangeProvider extends RunOnlyProvider<ContentChangeEvent>
     @Override
     public void dispose(LspEditor editor) {
         this.editor = null;
-        if (future != null) {
-            future.cancel(true);
-            future = null;
+        synchronized (pendingChanges) {
+            if (scheduledSend != null) {
+                scheduledSend.cancel(false);
+                scheduledSend = null;
+            }
+            pendingChanges.clear();
+            fullTextPending = false;
         }
     }
 
-
-    public CompletableFuture<Void> getFuture() {
-        return Optional.ofNullable(future).orElse(CompletableFuture.completedFuture(null));
+    /**
+     * Set the delay before pending changes are sent. Zero or negative value sends every change
+     * without waiting.
+     */
+    public void setDebounceDelay(long debounceDelay) {
+        this.debounceDelay = debounceDelay;
     }
 
-    @Override
-    public void run(ContentChangeEvent data) {
-
-        var params = createDidChangeTextDocumentParams(data);
+    public long getDebounceDelay() {
+        return debounceDelay;
+    }
 
-        editor.getRequestManagerOfOptional().ifPresent(requestManager -> {
-            future = CompletableFuture.runAsync(() -> requestManager.didChange(params));
-            ForkJoinPool.commonPool().execute(() -> {
-                future.join();
-            });
+    /**
+     * Count of changes received from the editor
+     */
+    public long getChangeCount() {
+        return changeCount.get();
+    }
 
-        });
+    /**
+     * Count of didChange notifications sent to the server
+     */
+    public long getNotificationCount() {
+        return notificationCount.get();
+    }
 
+    /**
+     * Send pending changes now.
+     *
+     * @return Future completed when all changes received before this call have been sent
+     */
+    @NonNull
+    public CompletableFuture<Void> flush() {
+        synchronized (pendingChanges) {
+            if (scheduledSend != null) {
+                scheduledSend.cancel(false);
+                scheduledSend = null;
+            }
+        }
+        return CompletableFuture.runAsync(this::sendPendingChanges, syncExecutor);
+    }
 
+    /**
+     * @deprecated Use {@link #flush()}, which also sends the pending changes
+     */
+    @Deprecated
+    public CompletableFuture<Void> getFuture() {
+        return flush();
     }
 
-    private List<TextDocumentContentChangeEvent> createFullTextDocumentContentChangeEvent() {
-        return List.of(LspUtils.createTextDocumentContentChangeEvent(editor.getEditorContent()));
+    @Override
+    public void run(ContentChangeEvent data) {
+        var editor = this.editor;
+        if (editor == null) {
+            return;
+        }
+        changeCount.incrementAndGet();
+        var kind = editor.getSyncOptions();
+        var isFullSync = kind == TextDocumentSyncKind.None || kind == TextDocumentSyncKind.Full;
+        synchronized (pendingChanges) {
+            if (isFullSync) {
+                pendingChanges.clear();
+                fullTextPending = true;
+            } else if (data.getAction() == ContentChangeEvent.ACTION_SET_NEW_TEXT) {
+                // Earlier changes are replaced. The text is read now, as later changes are queued after it
+                pendingChanges.clear();
+                pendingChanges.add(new PendingChange(data.getChangedText().toString()));
+            } else {
+                addIncrementalChange(data);
+            }
+            var delay = debounceDelay;
+            if (delay <= 0) {
+                syncExecutor.execute(this::sendPendingChanges);
+            } else if (scheduledSend == null) {
+                scheduledSend = syncExecutor.schedule(this::sendPendingChanges, delay, TimeUnit.MILLISECONDS);
+            }
+        }
     }
 
-    private List<TextDocumentContentChangeEvent> createIncrementTextDocumentContentChangeEvent(ContentChangeEvent data) {
+    private void addIncrementalChange(ContentChangeEvent data) {
+        var start = data.getChangeStart();
+        var end = data.getChangeEnd();
         var text = data.getChangedText().toString();
-        return List.of(LspUtils.createTextDocumentContentChangeEvent(LspUtils.createRange(data.getChangeStart(), data.getChangeEnd()), data.getAction() == ContentChangeEvent.ACTION_DELETE ? text.length() : 0, data.getAction() == ContentChangeEvent.ACTION_DELETE ? "" : text));
+        var last = pendingChanges.isEmpty() ? null : pendingChanges.get(pendingChanges.size() - 1);
+        if (data.getAction() == ContentChangeEvent.ACTION_INSERT) {
+            if (last != null && last.insertion && last.endLine == start.line && last.endColumn == start.column) {
+                // Continue typing after the last insertion
+                last.text.append(text);
+                last.endLine = end.line;
+                last.endColumn = end.column;
+                return;
+            }
+            var change = new PendingChange(start.line, start.column, start.line, start.column, 0, text);
+            change.insertion = true;
+            change.endLine = end.line;
+            change.endColumn = end.column;
+            pendingChanges.add(change);
+        } else {
+            if (last != null && last.isDeletion()) {
+                if (last.startLine == end.line && last.startColumn == end.column) {
+                    // Backspace before the last deletion
+                    last.startLine = start.line;
+                    last.startColumn = start.column;
+                    last.rangeLength += text.length();
+                    return;
+                }
+                if (last.startLine == start.line && last.startColumn == start.column && start.line == end.line
+                        && last.rangeEndLine == last.startLine) {
+                    // Forward deletion in the same line
+                    last.rangeEndColumn += end.column - start.column;
+                    last.rangeLength += text.length();
+                    return;
+                }
+            }
+            pendingChanges.add(new PendingChange(start.line, start.column, end.line, end.column, text.length(), ""));
+        }
     }
 
+    /**
+     * Send pending changes. Only called on the sync thread, so notifications are sent in order.
+     */
+    private void sendPendingChanges() {
+        List<TextDocumentContentChangeEvent> events;
+        boolean fullText;
+        synchronized (pendingChanges) {
+            scheduledSend = null;
+            fullText = fullTextPending;
+            if (!fullText && pendingChanges.isEmpty()) {
+                return;
+            }
+            fullTextPending = false;
+            events = new ArrayList<>(pendingChanges.size());
+            for (var change : pendingChanges) {
+                events.add(change.toEvent());
+            }
+            pendingChanges.clear();
+        }
+        var editor = this.editor;
+        if (editor == null) {
+            return;
+        }
+        var requestManager = editor.getRequestManager();
+        if (requestManager == null) {
+            return;
+        }
+        if (fullText) {
+            events = List.of(LspUtils.createTextDocumentContentChangeEvent(editor.getEditorContent()));
+        }
+        notificationCount.incrementAndGet();
+        requestManager.didChange(LspUtils.createDidChangeTextDocumentParams(editor.getCurrentFileUri(), events));
+    }
 
-    private DidChangeTextDocumentParams createDidChangeTextDocumentParams(ContentChangeEvent data) {
-        var kind = editor.getSyncOptions();
+    /**
+     * A change not sent yet. Insertions and deletions can be extended by later changes.
+     */
+    private static class PendingChange {
 
-        var isFullSync = kind == TextDocumentSyncKind.None || kind == TextDocumentSyncKind.Full;
+        final String fullText;
+        final StringBuilder text;
+        int startLine, startColumn;
+        int rangeEndLine, rangeEndColumn;
+        int rangeLength;
+        /**
+         * For insertions, the position after inserted text
+         */
+        int endLine, endColumn;
+        boolean insertion;
+
+        PendingChange(String fullText) {
+            this.fullText = fullText;
+            this.text = null;
+        }
 
-        return LspUtils.createDidChangeTextDocumentParams(editor.getCurrentFileUri(), isFullSync ? createFullTextDocumentContentChangeEvent() : createIncrementTextDocumentContentChangeEvent(data));
+        PendingChange(int startLine, int startColumn, int rangeEndLine, int rangeEndColumn, int rangeLength, String text) {
+            this.fullText = null;
+            this.text = new StringBuilder(text);
+            this.startLine = startLine;
+            this.startColumn = startColumn;
+            this.rangeEndLine = rangeEndLine;
+            this.rangeEndColumn = rangeEndColumn;
+            this.rangeLength = rangeLength;
+        }
+
+        boolean isDeletion() {
+            return fullText == null && !insertion;
+        }
+
+        TextDocumentContentChangeEvent toEvent() {
+            if (fullText != null) {
+                return LspUtils.createTextDocumentContentChangeEvent(fullText);
+            }
+            return LspUtils.createTextDocumentContentChangeEvent(LspUtils.createRange(LspUtils.createPosition(startLine, startColumn),
+                    LspUtils.createPosition(rangeEndLine, rangeEndColumn)), rangeLength, text.toString());
+        }
     }
 }
@@ -24,7 +24,6 @@
 package io.github.rosemoe.sora.lsp.operations.document;
 
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ForkJoinPool;
 
 import io.github.rosemoe.sora.lsp.editor.LspEditor;
 import io.github.rosemoe.sora.lsp.operations.VoidProvider;
@@ -53,11 +52,11 @@ public class DocumentSaveProvider extends VoidProvider {
 
     @Override
     public void run() {
-
-        editor.getRequestManagerOfOptional().ifPresent(requestManager -> future = CompletableFuture.runAsync(() -> requestManager.didSave(LspUtils.createDidSaveTextDocumentParams(editor.getCurrentFileUri(), editor.getEditorContent()))));
-
-        ForkJoinPool.commonPool().execute(future::join);
-
+        var editor = this.editor;
+        // Pending changes are sent first, and didSave follows them on the same thread
+        future = editor.flushDocumentChanges().thenRunAsync(() -> editor.getRequestManagerOfOptional().ifPresent(requestManager ->
+                requestManager.didSave(LspUtils.createDidSaveTextDocumentParams(editor.getCurrentFileUri(), editor.getEditorContent()))),
+                DocumentChangeProvider.getSyncExecutor());
     }
 
 
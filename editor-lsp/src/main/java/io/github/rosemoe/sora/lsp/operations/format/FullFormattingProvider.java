@@ -39,7 +39,6 @@ import io.github.rosemoe.sora.lsp.client.languageserver.requestmanager.RequestMa
 import io.github.rosemoe.sora.lsp.editor.LspEditor;
 import io.github.rosemoe.sora.lsp.operations.RunOnlyProvider;
 import io.github.rosemoe.sora.lsp.operations.document.ApplyEditsProvider;
-import io.github.rosemoe.sora.lsp.requests.Timeout;
 import io.github.rosemoe.sora.lsp.requests.Timeouts;
 import io.github.rosemoe.sora.lsp.utils.LSPException;
 import io.github.rosemoe.sora.lsp.utils.LspUtils;
@@ -73,6 +72,8 @@ public class FullFormattingProvider extends RunOnlyProvider<Content> {
             return;
         }
 
+        editor.awaitDocumentChanges();
+
         var formattingParams = new DocumentFormattingParams();
         formattingParams.setOptions(editor.getProviderManager().getOption(FormattingOptions.class));
 
@@ -93,7 +94,7 @@ public class FullFormattingProvider extends RunOnlyProvider<Content> {
 
 
         try {
-            future.get(Timeout.getTimeout(Timeouts.FORMATTING), TimeUnit.MILLISECONDS);
+            future.get(manager.getTimeout(Timeouts.FORMATTING), TimeUnit.MILLISECONDS);
         } catch (Exception exception) {
             throw new LSPException("Formatting code timeout");
         }
@@ -39,7 +39,6 @@ import io.github.rosemoe.sora.lsp.client.languageserver.requestmanager.RequestMa
 import io.github.rosemoe.sora.lsp.editor.LspEditor;
 import io.github.rosemoe.sora.lsp.operations.RunOnlyProvider;
 import io.github.rosemoe.sora.lsp.operations.document.ApplyEditsProvider;
-import io.github.rosemoe.sora.lsp.requests.Timeout;
 import io.github.rosemoe.sora.lsp.requests.Timeouts;
 import io.github.rosemoe.sora.lsp.utils.LSPException;
 import io.github.rosemoe.sora.lsp.utils.LspUtils;
@@ -74,6 +73,8 @@ public class RangeFormattingProvider extends RunOnlyProvider<Pair<Content, TextR
             return;
         }
 
+        editor.awaitDocumentChanges();
+
         var formattingParams = new DocumentRangeFormattingParams();
         formattingParams.setOptions(editor.getProviderManager().getOption(FormattingOptions.class));
 
@@ -90,7 +91,7 @@ public class RangeFormattingProvider extends RunOnlyProvider<Pair<Content, TextR
             return;
         }
 
-        future = manager.rangeFormatting(formattingParams).thenApply(list -> Optional.ofNullable(list).orElse(List.of())).thenAccept(list -> {
+        future = formattingFuture.thenApply(list -> Optional.ofNullable(list).orElse(List.of())).thenAccept(list -> {
             editor.getProviderManager().safeUseProvider(ApplyEditsProvider.class)
                     .ifPresent(applyEditsFeature -> applyEditsFeature
                             .execute(new Pair<>(list, content)));
@@ -99,7 +100,7 @@ public class RangeFormattingProvider extends RunOnlyProvider<Pair<Content, TextR
 
 
         try {
-            future.get(Timeout.getTimeout(Timeouts.FORMATTING), TimeUnit.MILLISECONDS);
+            future.get(manager.getTimeout(Timeouts.FORMATTING), TimeUnit.MILLISECONDS);
         } catch (Exception exception) {
             throw new LSPException("Formatting code timeout");
 
@@ -0,0 +1,78 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.operations.hover;
+
+import org.eclipse.lsp4j.Hover;
+import org.eclipse.lsp4j.HoverParams;
+
+import java.util.concurrent.CompletableFuture;
+
+import io.github.rosemoe.sora.lsp.editor.LspEditor;
+import io.github.rosemoe.sora.lsp.operations.Provider;
+import io.github.rosemoe.sora.lsp.utils.LspUtils;
+import io.github.rosemoe.sora.text.CharPosition;
+
+/**
+ * Requests hover information at the given position.
+ * <p>
+ * Responses are cached until the document is changed, so moving the caret back and forth does not
+ * request the server again. The result future is completed with null if the request can not be sent.
+ *
+ * @see io.github.rosemoe.sora.lsp.editor.LspResponseCache
+ */
+public class HoverProvider implements Provider<CharPosition, CompletableFuture<Hover>> {
+
+    private LspEditor editor;
+
+    @Override
+    public void init(LspEditor editor) {
+        this.editor = editor;
+    }
+
+    @Override
+    public void dispose(LspEditor editor) {
+        this.editor = null;
+    }
+
+    @Override
+    public CompletableFuture<Hover> execute(CharPosition position) {
+        var editor = this.editor;
+        var manager = editor == null ? null : editor.getRequestManager();
+
+        if (manager == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        var uri = editor.getCurrentFileUri();
+        var params = new HoverParams(LspUtils.createTextDocumentIdentifier(uri), LspUtils.createPosition(position));
+        var cache = editor.getProviderManager().getResponseCache();
+
+        return editor.flushDocumentChanges().thenCompose(unused -> {
+            // The version known by server, after the changes are sent
+            var version = editor.getDocumentVersion();
+            var future = cache.get("textDocument/hover", uri, version, params.getPosition(), () -> manager.hover(params));
+            return future == null ? CompletableFuture.completedFuture(null) : future;
+        });
+    }
+}
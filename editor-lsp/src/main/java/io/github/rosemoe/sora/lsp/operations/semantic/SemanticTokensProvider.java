@@ -0,0 +1,166 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.operations.semantic;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.eclipse.lsp4j.SemanticTokens;
+import org.eclipse.lsp4j.SemanticTokensDelta;
+import org.eclipse.lsp4j.SemanticTokensDeltaParams;
+import org.eclipse.lsp4j.SemanticTokensLegend;
+import org.eclipse.lsp4j.SemanticTokensParams;
+import org.eclipse.lsp4j.SemanticTokensWithRegistrationOptions;
+import org.eclipse.lsp4j.jsonrpc.messages.Either;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import io.github.rosemoe.sora.lsp.editor.LspEditor;
+import io.github.rosemoe.sora.lsp.operations.Provider;
+import io.github.rosemoe.sora.lsp.utils.LspUtils;
+
+/**
+ * Requests semantic tokens of the document.
+ * <p>
+ * The argument is the result id of previous tokens. When it is not null and the server supports
+ * {@code semanticTokens/full/delta}, only the edits to previous tokens are requested. Otherwise,
+ * {@code semanticTokens/full} is requested. The result future is completed with null if the
+ * request can not be sent.
+ */
+public class SemanticTokensProvider implements Provider<String, CompletableFuture<Either<SemanticTokens, SemanticTokensDelta>>> {
+
+    private LspEditor editor;
+
+    @Override
+    public void init(LspEditor editor) {
+        this.editor = editor;
+    }
+
+    @Override
+    public void dispose(LspEditor editor) {
+        this.editor = null;
+    }
+
+    @Nullable
+    private SemanticTokensWithRegistrationOptions getOptions() {
+        var editor = this.editor;
+        var manager = editor == null ? null : editor.getRequestManager();
+        var capabilities = manager == null ? null : manager.getServerCapabilities();
+        return capabilities == null ? null : capabilities.getSemanticTokensProvider();
+    }
+
+    /**
+     * Check whether semantic tokens of full document can be requested now
+     */
+    public boolean isSupported() {
+        var options = getOptions();
+        if (options == null || options.getLegend() == null || options.getFull() == null) {
+            return false;
+        }
+        var full = options.getFull();
+        return full.isRight() ? full.getRight() != null : Boolean.TRUE.equals(full.getLeft());
+    }
+
+    /**
+     * Check whether the server computes deltas of semantic tokens
+     */
+    public boolean isDeltaSupported() {
+        var options = getOptions();
+        var full = options == null ? null : options.getFull();
+        return full != null && full.isRight() && full.getRight() != null
+                && Boolean.TRUE.equals(full.getRight().getDelta());
+    }
+
+    /**
+     * Get the legend to decode tokens
+     */
+    @Nullable
+    public SemanticTokensLegend getLegend() {
+        var options = getOptions();
+        return options == null ? null : options.getLegend();
+    }
+
+    @Override
+    public CompletableFuture<Either<SemanticTokens, SemanticTokensDelta>> execute(@Nullable String previousResultId) {
+        var editor = this.editor;
+        var manager = editor == null ? null : editor.getRequestManager();
+
+        if (manager == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        var document = LspUtils.createTextDocumentIdentifier(editor.getCurrentFileUri());
+        var delta = previousResultId != null && isDeltaSupported();
+
+        // The server must have received all changes before computing tokens
+        var flush = editor.flushDocumentChanges();
+        if (delta) {
+            return sendAfter(flush, () -> manager.semanticTokensFullDelta(new SemanticTokensDeltaParams(document, previousResultId)), Function.identity());
+        }
+        return sendAfter(flush, () -> manager.semanticTokensFull(new SemanticTokensParams(document)), Either::forLeft);
+    }
+
+    /**
+     * Send a request once the given future completes, and map its result. The result future is
+     * completed with null if the request can not be sent.
+     * <p>
+     * Unlike futures derived by {@link CompletableFuture#thenCompose}, cancelling the result
+     * cancels the sent request as well, so that the server is notified by {@code $/cancelRequest}.
+     */
+    @NonNull
+    protected static <T, R> CompletableFuture<R> sendAfter(@NonNull CompletableFuture<?> before, @NonNull Supplier<CompletableFuture<T>> request,
+                                                          @NonNull Function<T, R> mapper) {
+        var result = new CompletableFuture<R>();
+        before.whenComplete((unused, throwable) -> {
+            if (throwable != null) {
+                result.completeExceptionally(throwable);
+                return;
+            }
+            // Cancelled before sending
+            if (result.isDone()) {
+                return;
+            }
+            var future = request.get();
+            if (future == null) {
+                result.complete(null);
+                return;
+            }
+            future.whenComplete((value, e) -> {
+                if (e != null) {
+                    result.completeExceptionally(e);
+                } else {
+                    result.complete(mapper.apply(value));
+                }
+            });
+            result.whenComplete((value, e) -> {
+                if (result.isCancelled()) {
+                    future.cancel(true);
+                }
+            });
+        });
+        return result;
+    }
+}
@@ -27,8 +27,6 @@ import android.util.Log;
 
 import androidx.annotation.WorkerThread;
 
-import com.google.gson.Gson;
-
 import org.eclipse.lsp4j.SignatureHelpParams;
 
 import java.util.concurrent.CompletableFuture;
@@ -37,7 +35,6 @@ import java.util.concurrent.TimeUnit;
 import io.github.rosemoe.sora.lsp.client.languageserver.requestmanager.RequestManager;
 import io.github.rosemoe.sora.lsp.editor.LspEditor;
 import io.github.rosemoe.sora.lsp.operations.RunOnlyProvider;
-import io.github.rosemoe.sora.lsp.requests.Timeout;
 import io.github.rosemoe.sora.lsp.requests.Timeouts;
 import io.github.rosemoe.sora.lsp.utils.LSPException;
 import io.github.rosemoe.sora.lsp.utils.LspUtils;
@@ -70,22 +67,25 @@ public class SignatureHelpProvider extends RunOnlyProvider<CharPosition> {
             return;
         }
 
+        // The response is only cached for the version known by server
+        var flushed = editor.awaitDocumentChanges();
+        var version = editor.getDocumentVersion();
+
+        var uri = editor.getCurrentFileUri();
         var signatureHelpParams = new SignatureHelpParams(
-                LspUtils.createTextDocumentIdentifier(editor.getCurrentFileUri()),
+                LspUtils.createTextDocumentIdentifier(uri),
                 LspUtils.createPosition(position)
         );
 
-        var future = manager.signatureHelp(signatureHelpParams);
-
-
-        future = future.thenApply(signatureHelp -> {
-            System.out.println(new Gson().toJson(signatureHelp));
-            return signatureHelp;
-        });
-
+        var future = flushed ? editor.getProviderManager().getResponseCache().get("textDocument/signatureHelp", uri, version,
+                signatureHelpParams.getPosition(), () -> manager.signatureHelp(signatureHelpParams))
+                : manager.signatureHelp(signatureHelpParams);
+        if (future == null) {
+            return;
+        }
 
         try {
-            var signatureHelp = future.get(Timeout.getTimeout(Timeouts.SIGNATURE), TimeUnit.MILLISECONDS);
+            var signatureHelp = future.get(manager.getTimeout(Timeouts.SIGNATURE), TimeUnit.MILLISECONDS);
             editor.showSignatureHelp(signatureHelp);
         } catch (Exception exception) {
             // throw?
@@ -0,0 +1,156 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.requests;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accumulated metrics of one protocol method
+ */
+public class MethodMetrics {
+
+    private final String method;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong inFlight = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong cancellations = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong notifications = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    MethodMetrics(@NonNull String method) {
+        this.method = method;
+    }
+
+    void onRequestSent() {
+        requests.incrementAndGet();
+        inFlight.incrementAndGet();
+    }
+
+    void onBytesSent(long bytes) {
+        bytesSent.addAndGet(bytes);
+    }
+
+    void onRequestFinished(@NonNull RequestRecord record) {
+        bytesReceived.addAndGet(record.getResponseBytes());
+        switch (record.getOutcome()) {
+            case ERROR:
+                errors.incrementAndGet();
+                break;
+            case CANCELLED:
+                cancellations.incrementAndGet();
+                break;
+        }
+        if (record.isTimedOut()) {
+            timeouts.incrementAndGet();
+        }
+        // Latencies of cancelled requests are only known to be longer than the elapsed time, so
+        // they are recorded when they have been timed out to avoid underestimating slow servers
+        if (record.getOutcome() != RequestRecord.Outcome.CANCELLED || record.isTimedOut()) {
+            latency.record(record.getLatencyNanos(), TimeUnit.NANOSECONDS);
+        }
+        // Last, so that other counters are up-to-date once the request is no longer in flight
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * The request will never be answered, as the connection is closed
+     */
+    void onRequestAbandoned() {
+        inFlight.decrementAndGet();
+    }
+
+    void onNotification(boolean incoming, long bytes) {
+        notifications.incrementAndGet();
+        (incoming ? bytesReceived : bytesSent).addAndGet(bytes);
+    }
+
+    @NonNull
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Latencies of finished requests
+     */
+    @NonNull
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getInFlightCount() {
+        return inFlight.get();
+    }
+
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    public long getCancellationCount() {
+        return cancellations.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    public long getNotificationCount() {
+        return notifications.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "MethodMetrics{" +
+                "method='" + method + '\'' +
+                ", requests=" + requests +
+                ", inFlight=" + inFlight +
+                ", errors=" + errors +
+                ", cancellations=" + cancellations +
+                ", timeouts=" + timeouts +
+                ", notifications=" + notifications +
+                ", bytesSent=" + bytesSent +
+                ", bytesReceived=" + bytesReceived +
+                ", p50=" + latency.getPercentile(50) + "us" +
+                ", p99=" + latency.getPercentile(99) + "us" +
+                '}';
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.requests;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.eclipse.lsp4j.jsonrpc.MessageConsumer;
+import org.eclipse.lsp4j.jsonrpc.RemoteEndpoint;
+import org.eclipse.lsp4j.jsonrpc.messages.CancelParams;
+import org.eclipse.lsp4j.jsonrpc.messages.Message;
+import org.eclipse.lsp4j.jsonrpc.messages.NotificationMessage;
+import org.eclipse.lsp4j.jsonrpc.messages.RequestMessage;
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseMessage;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Records metrics of the messages exchanged with one language server, and computes adaptive
+ * timeouts from them.
+ * <p>
+ * It is installed as the message wrapper of the launcher, and the streams to the server should be
+ * wrapped by {@link #wrapInputStream(InputStream)} and {@link #wrapOutputStream(OutputStream)} to
+ * measure payload sizes. The latency of a request is measured from sending it to receiving its
+ * response, and it is split into the time to send, the time in server and the time to receive.
+ */
+public class RequestMetrics implements Function<MessageConsumer, MessageConsumer> {
+
+    private final static String CANCEL_METHOD = "$/cancelRequest";
+
+    /**
+     * Count of latencies needed before a timeout is adapted
+     */
+    public final static int ADAPTIVE_MIN_SAMPLES = 20;
+
+    /**
+     * Adaptive timeouts are this times the 99th percentile latency
+     */
+    public final static int ADAPTIVE_FACTOR = 2;
+
+    /**
+     * Adaptive timeouts are within [configured, configured * LIMIT]. They never get shorter than
+     * the configured value, as latencies of requests cancelled before response are not known.
+     */
+    public final static int ADAPTIVE_LIMIT = 4;
+
+    private final Map<String, MethodMetrics> methods = new ConcurrentHashMap<>();
+    private final Map<String, PendingRequest> pendingRequests = new ConcurrentHashMap<>();
+    private final List<RequestMetricsListener> listeners = new CopyOnWriteArrayList<>();
+    private final Object sendLock = new Object();
+    private final LongSupplier clock;
+    private volatile boolean adaptiveTimeouts = true;
+
+    // Streams are read by one thread and written with sendLock held
+    private long bytesRead;
+    private long messageStartTime = -1;
+    private long bytesWritten;
+
+    public RequestMetrics() {
+        this(System::nanoTime);
+    }
+
+    RequestMetrics(@NonNull LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    private static class PendingRequest {
+
+        final String method;
+        final long startTime;
+        // Set after the request is written, the response may arrive before that
+        volatile long sendNanos;
+        volatile long requestBytes;
+
+        PendingRequest(String method, long startTime) {
+            this.method = method;
+            this.startTime = startTime;
+        }
+    }
+
+    public void addListener(@NonNull RequestMetricsListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(@NonNull RequestMetricsListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Get metrics of the given method, or null if no message of the method is exchanged
+     */
+    @Nullable
+    public MethodMetrics getMethodMetrics(@NonNull String method) {
+        return methods.get(method);
+    }
+
+    /**
+     * Get metrics of all methods
+     */
+    @NonNull
+    public Collection<MethodMetrics> getAllMethodMetrics() {
+        return new ArrayList<>(methods.values());
+    }
+
+    /**
+     * Count of requests waiting for response
+     */
+    public long getInFlightCount() {
+        long count = 0;
+        for (var metrics : methods.values()) {
+            count += metrics.getInFlightCount();
+        }
+        return count;
+    }
+
+    public void setAdaptiveTimeoutsEnabled(boolean enabled) {
+        this.adaptiveTimeouts = enabled;
+    }
+
+    public boolean isAdaptiveTimeoutsEnabled() {
+        return adaptiveTimeouts;
+    }
+
+    /**
+     * Get the timeout for requests of the given kind, in milliseconds.
+     * <p>
+     * When enough requests of the kind have finished, the timeout is {@link #ADAPTIVE_FACTOR}
+     * times their 99th percentile latency, limited to at least the configured value in
+     * {@link Timeout} and at most {@link #ADAPTIVE_LIMIT} times of it. Otherwise, the configured
+     * value is returned.
+     */
+    public int getTimeout(@NonNull Timeouts type) {
+        var configured = Timeout.getTimeout(type);
+        if (!adaptiveTimeouts) {
+            return configured;
+        }
+        long p99 = -1;
+        for (var method : type.getMethods()) {
+            var metrics = methods.get(method);
+            if (metrics != null && metrics.getLatency().getCount() >= ADAPTIVE_MIN_SAMPLES) {
+                p99 = Math.max(p99, metrics.getLatency().getPercentile(99));
+            }
+        }
+        if (p99 < 0) {
+            return configured;
+        }
+        var adaptive = TimeUnit.MICROSECONDS.toMillis(p99) * ADAPTIVE_FACTOR;
+        return (int) Math.max(configured, Math.min((long) configured * ADAPTIVE_LIMIT, adaptive));
+    }
+
+    /**
+     * Wrap the stream from server, so that sizes of incoming messages are measured
+     */
+    @NonNull
+    public InputStream wrapInputStream(@NonNull InputStream stream) {
+        return new FilterInputStream(stream) {
+            @Override
+            public int read() throws IOException {
+                var result = super.read();
+                if (result != -1) {
+                    onRead(1);
+                }
+                return result;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                var result = super.read(b, off, len);
+                if (result > 0) {
+                    onRead(result);
+                }
+                return result;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                var result = super.skip(n);
+                onRead(result);
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Wrap the stream to server, so that sizes of outgoing messages are measured
+     */
+    @NonNull
+    public OutputStream wrapOutputStream(@NonNull OutputStream stream) {
+        return new FilterOutputStream(stream) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytesWritten++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                bytesWritten += len;
+            }
+        };
+    }
+
+    private void onRead(long count) {
+        if (messageStartTime == -1) {
+            messageStartTime = clock.getAsLong();
+        }
+        bytesRead += count;
+    }
+
+    @Override
+    public MessageConsumer apply(MessageConsumer consumer) {
+        // Incoming messages are delivered to the remote endpoint, and outgoing ones are written
+        // to the stream
+        if (consumer instanceof RemoteEndpoint) {
+            return message -> {
+                onMessageReceived(message);
+                consumer.consume(message);
+            };
+        }
+        return message -> {
+            // Listeners are called after the lock is released, so that they can send messages
+            RequestRecord cancelled = null;
+            long notificationBytes = -1;
+            synchronized (sendLock) {
+                var startTime = clock.getAsLong();
+                var startBytes = bytesWritten;
+                PendingRequest pending = null;
+                if (message instanceof RequestMessage) {
+                    var request = (RequestMessage) message;
+                    pending = new PendingRequest(request.getMethod(), startTime);
+                    getOrCreateMetrics(request.getMethod()).onRequestSent();
+                    pendingRequests.put(request.getId(), pending);
+                } else if (message instanceof NotificationMessage) {
+                    // Before the server can answer the cancelled request with an error
+                    cancelled = onCancel((NotificationMessage) message);
+                }
+                consumer.consume(message);
+                var sendNanos = clock.getAsLong() - startTime;
+                var bytes = bytesWritten - startBytes;
+                if (pending != null) {
+                    pending.sendNanos = sendNanos;
+                    pending.requestBytes = bytes;
+                    getOrCreateMetrics(pending.method).onBytesSent(bytes);
+                } else if (message instanceof NotificationMessage) {
+                    getOrCreateMetrics(((NotificationMessage) message).getMethod()).onNotification(false, bytes);
+                    notificationBytes = bytes;
+                }
+            }
+            if (cancelled != null) {
+                dispatchRequestFinished(cancelled);
+            }
+            if (notificationBytes != -1) {
+                dispatchNotification(((NotificationMessage) message).getMethod(), false, notificationBytes);
+            }
+        };
+    }
+
+    /**
+     * Forget requests waiting for response, as the connection to the server is closed and they
+     * will never be answered
+     */
+    public void onDisconnected() {
+        for (var id : pendingRequests.keySet()) {
+            var pending = pendingRequests.remove(id);
+            if (pending != null) {
+                getOrCreateMetrics(pending.method).onRequestAbandoned();
+            }
+        }
+    }
+
+    @NonNull
+    private MethodMetrics getOrCreateMetrics(@NonNull String method) {
+        var metrics = methods.get(method);
+        if (metrics == null) {
+            metrics = methods.computeIfAbsent(method, MethodMetrics::new);
+        }
+        return metrics;
+    }
+
+    /**
+     * Finish the request cancelled by the notification
+     *
+     * @return The record of the cancelled request, or null if the notification does not cancel a
+     * pending request
+     */
+    @Nullable
+    private RequestRecord onCancel(NotificationMessage notification) {
+        if (CANCEL_METHOD.equals(notification.getMethod()) && notification.getParams() instanceof CancelParams) {
+            var id = ((CancelParams) notification.getParams()).getId();
+            var pending = pendingRequests.remove(id);
+            if (pending != null) {
+                return finish(id, pending, RequestRecord.Outcome.CANCELLED, 0, 0);
+            }
+        }
+        return null;
+    }
+
+    private void onMessageReceived(Message message) {
+        var bytes = bytesRead;
+        var receiveNanos = messageStartTime == -1 ? 0 : clock.getAsLong() - messageStartTime;
+        bytesRead = 0;
+        messageStartTime = -1;
+        if (message instanceof ResponseMessage) {
+            var response = (ResponseMessage) message;
+            var pending = response.getId() == null ? null : pendingRequests.remove(response.getId());
+            if (pending != null) {
+                // A fast server may respond before the request is completely written, so wait
+                // for the sender to record the request size
+                RequestRecord record;
+                synchronized (sendLock) {
+                    record = finish(response.getId(), pending, response.getError() == null ? RequestRecord.Outcome.SUCCESS : RequestRecord.Outcome.ERROR,
+                            receiveNanos, bytes);
+                }
+                dispatchRequestFinished(record);
+            }
+        } else if (message instanceof NotificationMessage) {
+            var method = ((NotificationMessage) message).getMethod();
+            getOrCreateMetrics(method).onNotification(true, bytes);
+            dispatchNotification(method, true, bytes);
+        }
+    }
+
+    /**
+     * Record the finished request. Listeners are not called here, as this can be called with
+     * sendLock held.
+     */
+    @NonNull
+    private RequestRecord finish(String id, PendingRequest pending, RequestRecord.Outcome outcome, long receiveNanos, long responseBytes) {
+        var latency = clock.getAsLong() - pending.startTime;
+        var type = Timeouts.forMethod(pending.method);
+        var timedOut = type != null && latency > TimeUnit.MILLISECONDS.toNanos(getTimeout(type));
+        var record = new RequestRecord(pending.method, id, outcome, timedOut, latency, pending.sendNanos, receiveNanos,
+                pending.requestBytes, responseBytes);
+        getOrCreateMetrics(pending.method).onRequestFinished(record);
+        return record;
+    }
+
+    private void dispatchRequestFinished(@NonNull RequestRecord record) {
+        for (var listener : listeners) {
+            listener.onRequestFinished(record);
+        }
+    }
+
+    private void dispatchNotification(@NonNull String method, boolean incoming, long bytes) {
+        for (var listener : listeners) {
+            listener.onNotification(method, incoming, bytes);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.requests;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Receives metrics of the messages exchanged with a language server.
+ * <p>
+ * Methods are called on the threads sending and receiving messages, so they should return quickly.
+ *
+ * @see RequestMetrics#addListener(RequestMetricsListener)
+ */
+public interface RequestMetricsListener {
+
+    /**
+     * Called when a request gets its response or is cancelled
+     */
+    void onRequestFinished(@NonNull RequestRecord record);
+
+    /**
+     * Called when a notification is sent or received
+     *
+     * @param incoming     Whether the notification is sent by the server
+     * @param payloadBytes Size of the message in bytes, including headers
+     */
+    default void onNotification(@NonNull String method, boolean incoming, long payloadBytes) {
+    }
+
+}
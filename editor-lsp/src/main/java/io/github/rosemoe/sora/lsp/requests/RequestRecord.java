@@ -0,0 +1,150 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.requests;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A finished request to the language server
+ */
+public class RequestRecord {
+
+    public enum Outcome {
+        /**
+         * The server responded with a result
+         */
+        SUCCESS,
+        /**
+         * The server responded with an error
+         */
+        ERROR,
+        /**
+         * The client cancelled the request before response
+         */
+        CANCELLED
+    }
+
+    private final String method;
+    private final String id;
+    private final Outcome outcome;
+    private final boolean timedOut;
+    private final long latencyNanos;
+    private final long sendNanos;
+    private final long receiveNanos;
+    private final long requestBytes;
+    private final long responseBytes;
+
+    RequestRecord(@NonNull String method, @NonNull String id, @NonNull Outcome outcome, boolean timedOut, long latencyNanos,
+                  long sendNanos, long receiveNanos, long requestBytes, long responseBytes) {
+        this.method = method;
+        this.id = id;
+        this.outcome = outcome;
+        this.timedOut = timedOut;
+        this.latencyNanos = latencyNanos;
+        this.sendNanos = sendNanos;
+        this.receiveNanos = receiveNanos;
+        this.requestBytes = requestBytes;
+        this.responseBytes = responseBytes;
+    }
+
+    @NonNull
+    public String getMethod() {
+        return method;
+    }
+
+    @NonNull
+    public String getId() {
+        return id;
+    }
+
+    @NonNull
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * Whether the request took longer than the timeout of its kind when it finished
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * Time from sending the request to receiving the response or cancelling it
+     */
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    /**
+     * Time to serialize and write the request
+     */
+    public long getSendNanos() {
+        return sendNanos;
+    }
+
+    /**
+     * Time to read and parse the response, 0 for cancelled requests
+     */
+    public long getReceiveNanos() {
+        return receiveNanos;
+    }
+
+    /**
+     * Time spent by the server and the connection, excluding sending and receiving in client
+     */
+    public long getServerNanos() {
+        return Math.max(0, latencyNanos - sendNanos - receiveNanos);
+    }
+
+    /**
+     * Size of the request message in bytes, including headers
+     */
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    /**
+     * Size of the response message in bytes, including headers. 0 for cancelled requests
+     */
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "RequestRecord{" +
+                "method='" + method + '\'' +
+                ", id='" + id + '\'' +
+                ", outcome=" + outcome +
+                ", timedOut=" + timedOut +
+                ", latencyNanos=" + latencyNanos +
+                ", sendNanos=" + sendNanos +
+                ", receiveNanos=" + receiveNanos +
+                ", requestBytes=" + requestBytes +
+                ", responseBytes=" + responseBytes +
+                '}';
+    }
+}
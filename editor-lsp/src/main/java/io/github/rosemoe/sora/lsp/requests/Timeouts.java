@@ -23,20 +23,57 @@
  */
 package io.github.rosemoe.sora.lsp.requests;
 
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 public enum Timeouts {
-    CODEACTION(2000), CODELENS(2000), COMPLETION(3000),
-    DEFINITION(2000), DOC_HIGHLIGHT(1000),
-    EXECUTE_COMMAND(2000), FORMATTING(5000), HOVER(2000),
-    INIT(10000), REFERENCES(2000), SIGNATURE(5000),
-    SHUTDOWN(5000), SYMBOLS(2000), WILLSAVE(2000);
+    CODEACTION(2000, "textDocument/codeAction"), CODELENS(2000, "textDocument/codeLens"),
+    COMPLETION(3000, "textDocument/completion"), COMPLETION_RESOLVE(500, "completionItem/resolve"),
+    DEFINITION(2000, "textDocument/definition"), DID_CHANGE(1000), DOC_HIGHLIGHT(1000, "textDocument/documentHighlight"),
+    EXECUTE_COMMAND(2000, "workspace/executeCommand"),
+    FORMATTING(5000, "textDocument/formatting", "textDocument/rangeFormatting"), HOVER(2000, "textDocument/hover"),
+    INIT(10000, "initialize"), REFERENCES(2000, "textDocument/references"), SIGNATURE(5000, "textDocument/signatureHelp"),
+    SHUTDOWN(5000, "shutdown"), SYMBOLS(2000, "textDocument/documentSymbol", "workspace/symbol"),
+    WILLSAVE(2000, "textDocument/willSaveWaitUntil");
+
+    private final static Map<String, Timeouts> methodToTimeout = new HashMap<>();
+
+    static {
+        for (var type : values()) {
+            for (var method : type.methods) {
+                methodToTimeout.put(method, type);
+            }
+        }
+    }
 
     private final int defaultTimeout;
 
-    Timeouts(final int defaultTimeout) {
+    private final List<String> methods;
+
+    Timeouts(final int defaultTimeout, final String... methods) {
         this.defaultTimeout = defaultTimeout;
+        this.methods = List.of(methods);
     }
 
     public int getDefaultTimeout() {
         return defaultTimeout;
     }
+
+    /**
+     * Get the protocol methods limited by this timeout
+     */
+    public List<String> getMethods() {
+        return methods;
+    }
+
+    /**
+     * Get the timeout kind of the given protocol method, or null if the method has no timeout
+     */
+    @Nullable
+    public static Timeouts forMethod(String method) {
+        return methodToTimeout.get(method);
+    }
 }
@@ -23,7 +23,6 @@
  */
 package io.github.rosemoe.sora.lsp.utils;
 
-import android.util.Log;
 
 import org.eclipse.lsp4j.CompletionContext;
 import org.eclipse.lsp4j.CompletionParams;
@@ -44,6 +43,7 @@ import org.eclipse.lsp4j.TextDocumentIdentifier;
 import org.eclipse.lsp4j.TextDocumentItem;
 import org.eclipse.lsp4j.VersionedTextDocumentIdentifier;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -53,6 +53,7 @@ import io.github.rosemoe.sora.lang.diagnostic.DiagnosticDetail;
 import io.github.rosemoe.sora.lang.diagnostic.DiagnosticRegion;
 import io.github.rosemoe.sora.lsp.editor.LspEditor;
 import io.github.rosemoe.sora.text.CharPosition;
+import io.github.rosemoe.sora.text.Content;
 import io.github.rosemoe.sora.text.TextRange;
 import io.github.rosemoe.sora.util.ArrayList;
 import io.github.rosemoe.sora.widget.CodeEditor;
@@ -183,6 +184,9 @@ public class LspUtils {
     }
 
     public static short transformToEditorDiagnosticSeverity(DiagnosticSeverity severity) {
+        if (severity == null) {
+            return DiagnosticRegion.SEVERITY_ERROR;
+        }
         switch (severity) {
             case Hint:
             case Information:
@@ -196,16 +200,52 @@ public class LspUtils {
     }
 
     public static List<DiagnosticRegion> transformToEditorDiagnostics(CodeEditor editor, List<Diagnostic> diagnostics) {
-        var result = new ArrayList<DiagnosticRegion>();
-        var id = 0;
-        for (var diagnosticSource : diagnostics) {
-            Log.w("diagnostic message", "diagnostic: " + diagnosticSource.getMessage());
-
-            var diagnostic = new DiagnosticRegion(getIndexForPosition(editor, diagnosticSource.getRange().getStart()),
-                    getIndexForPosition(editor, diagnosticSource.getRange().getEnd()),
-                    transformToEditorDiagnosticSeverity(diagnosticSource.getSeverity()), id++,
+        return transformToEditorDiagnostics(editor.getText(), diagnostics, 0);
+    }
+
+    /**
+     * Transform LSP diagnostics to editor diagnostics.
+     * <p>
+     * Positions of all diagnostics are sorted by line and converted to indices in one pass over
+     * the lines, holding the read lock of the text. Positions out of the text are moved to the
+     * nearest valid index.
+     *
+     * @param startId Id of the first region. Ids are increased by one for each diagnostic.
+     * @return Regions in the same order as given diagnostics
+     */
+    public static List<DiagnosticRegion> transformToEditorDiagnostics(Content text, List<Diagnostic> diagnostics, long startId) {
+        var count = diagnostics.size();
+        var positionCount = count * 2;
+        // Line in high bits, and position slot in low bits
+        var order = new long[positionCount];
+        var columns = new int[positionCount];
+        var maxLine = 0;
+        for (int i = 0; i < count; i++) {
+            var range = diagnostics.get(i).getRange();
+            maxLine = Math.max(maxLine, putPosition(order, columns, i * 2, range.getStart()));
+            maxLine = Math.max(maxLine, putPosition(order, columns, i * 2 + 1, range.getEnd()));
+        }
+        Arrays.sort(order);
+        var indices = new int[positionCount];
+        if (positionCount > 0) {
+            while (true) {
+                try {
+                    sweepPositions(text, order, columns, indices, maxLine);
+                    break;
+                } catch (IndexOutOfBoundsException e) {
+                    // Lines are removed meanwhile, try again with current line count
+                }
+            }
+        }
+
+        var result = new ArrayList<DiagnosticRegion>(count);
+        for (int i = 0; i < count; i++) {
+            var diagnosticSource = diagnostics.get(i);
+            var severity = diagnosticSource.getSeverity();
+            var diagnostic = new DiagnosticRegion(indices[i * 2], Math.max(indices[i * 2], indices[i * 2 + 1]),
+                    transformToEditorDiagnosticSeverity(severity), startId + i,
                     new DiagnosticDetail(
-                            diagnosticSource.getSeverity().name(),
+                            severity == null ? DiagnosticSeverity.Error.name() : severity.name(),
                             diagnosticSource.getMessage(),
                             null,
                             null
@@ -215,6 +255,34 @@ public class LspUtils {
         return result;
     }
 
+    private static int putPosition(long[] order, int[] columns, int slot, Position position) {
+        var line = Math.max(0, position.getLine());
+        order[slot] = ((long) line << 32) | slot;
+        columns[slot] = Math.max(0, position.getCharacter());
+        return line;
+    }
+
+    private static void sweepPositions(Content text, long[] order, int[] columns, int[] indices, int maxLine) {
+        var state = new int[2]; // sorted position pointer, start index of current line
+        var lastLine = Math.min(maxLine, text.getLineCount() - 1);
+        text.runReadActionsOnLines(0, lastLine, (Content.ContentLineConsumer2) (lineIndex, line, flag) -> {
+            var p = state[0];
+            var length = line.length();
+            while (p < order.length && (int) (order[p] >>> 32) == lineIndex) {
+                var slot = (int) order[p];
+                indices[slot] = state[1] + Math.min(columns[slot], length);
+                p++;
+            }
+            state[0] = p;
+            state[1] += length + line.getLineSeparator().getLength();
+            flag.set = p == order.length;
+        });
+        // Positions after the last line
+        for (int p = state[0]; p < order.length; p++) {
+            indices[(int) order[p]] = state[1];
+        }
+    }
+
     public static int getIndexForPosition(CodeEditor editor, Position position) {
         if (editor == null) {
             return 0;
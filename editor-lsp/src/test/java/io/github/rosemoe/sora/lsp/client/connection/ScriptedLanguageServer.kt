@@ -0,0 +1,479 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.client.connection
+
+import android.util.Pair
+import io.github.rosemoe.sora.lsp.client.languageserver.serverdefinition.CustomLanguageServerDefinition
+import io.github.rosemoe.sora.text.Content
+import org.eclipse.lsp4j.CompletionItem
+import org.eclipse.lsp4j.CompletionItemKind
+import org.eclipse.lsp4j.CompletionList
+import org.eclipse.lsp4j.CompletionOptions
+import org.eclipse.lsp4j.CompletionParams
+import org.eclipse.lsp4j.Diagnostic
+import org.eclipse.lsp4j.DiagnosticSeverity
+import org.eclipse.lsp4j.DidChangeConfigurationParams
+import org.eclipse.lsp4j.DidChangeTextDocumentParams
+import org.eclipse.lsp4j.DidChangeWatchedFilesParams
+import org.eclipse.lsp4j.DidCloseTextDocumentParams
+import org.eclipse.lsp4j.DidOpenTextDocumentParams
+import org.eclipse.lsp4j.DidSaveTextDocumentParams
+import org.eclipse.lsp4j.DocumentFormattingParams
+import org.eclipse.lsp4j.DocumentRangeFormattingParams
+import org.eclipse.lsp4j.DocumentSymbol
+import org.eclipse.lsp4j.DocumentSymbolParams
+import org.eclipse.lsp4j.Hover
+import org.eclipse.lsp4j.HoverParams
+import org.eclipse.lsp4j.InitializeParams
+import org.eclipse.lsp4j.InitializeResult
+import org.eclipse.lsp4j.MarkupContent
+import org.eclipse.lsp4j.MarkupKind
+import org.eclipse.lsp4j.ParameterInformation
+import org.eclipse.lsp4j.Position
+import org.eclipse.lsp4j.PublishDiagnosticsParams
+import org.eclipse.lsp4j.Range
+import org.eclipse.lsp4j.SemanticTokens
+import org.eclipse.lsp4j.SemanticTokensLegend
+import org.eclipse.lsp4j.SemanticTokensParams
+import org.eclipse.lsp4j.SemanticTokensServerFull
+import org.eclipse.lsp4j.SemanticTokensWithRegistrationOptions
+import org.eclipse.lsp4j.ServerCapabilities
+import org.eclipse.lsp4j.SignatureHelp
+import org.eclipse.lsp4j.SignatureHelpOptions
+import org.eclipse.lsp4j.SignatureHelpParams
+import org.eclipse.lsp4j.SignatureInformation
+import org.eclipse.lsp4j.SymbolInformation
+import org.eclipse.lsp4j.SymbolKind
+import org.eclipse.lsp4j.TextDocumentSyncKind
+import org.eclipse.lsp4j.TextEdit
+import org.eclipse.lsp4j.jsonrpc.ResponseErrorException
+import org.eclipse.lsp4j.jsonrpc.messages.Either
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseError
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseErrorCode
+import org.eclipse.lsp4j.launch.LSPLauncher
+import org.eclipse.lsp4j.services.LanguageClient
+import org.eclipse.lsp4j.services.LanguageClientAware
+import org.eclipse.lsp4j.services.LanguageServer
+import org.eclipse.lsp4j.services.TextDocumentService
+import org.eclipse.lsp4j.services.WorkspaceService
+import java.io.Closeable
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.nio.channels.Channels
+import java.nio.channels.Pipe
+import java.util.Random
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Future
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Language server in the same process, answering requests with generated payloads of configurable
+ * sizes after a configurable latency. Failures can be injected: requests can be answered with
+ * errors or never answered, and the connection can be broken by [crash].
+ *
+ * Clients connect to it by [connectProvider], which starts the server over pipes for each
+ * connection. NIO pipes are used rather than piped streams, which break once a thread that wrote
+ * to them has exited, while clients send requests from short-lived threads as well. Texts of
+ * opened documents are kept, so that generated ranges are valid in the text of the client.
+ * Responses and notifications are sent from a single thread, in the order they are scheduled.
+ */
+class ScriptedLanguageServer(seed: Long = 0) : LanguageServer, TextDocumentService, WorkspaceService,
+    LanguageClientAware, AutoCloseable {
+
+    val legend = SemanticTokensLegend(listOf("keyword", "variable", "function", "type"), listOf("deprecated"))
+
+    /**
+     * Delay of responses in milliseconds, unless set for the method in [methodLatencies]
+     */
+    @Volatile
+    var latency = 0L
+
+    /**
+     * A random delay up to this value in milliseconds is added to each response
+     */
+    @Volatile
+    var latencyJitter = 0L
+
+    /**
+     * Delay of responses by method names, in milliseconds
+     */
+    val methodLatencies: MutableMap<String, Long> = ConcurrentHashMap()
+
+    @Volatile
+    var completionItemCount = 100
+
+    /**
+     * Whether completion lists are marked as incomplete
+     */
+    @Volatile
+    var completionIncomplete = false
+
+    /**
+     * Text inserted at the start of document by additional edits of resolved completion items,
+     * like an import. Resolved items have no additional edits when it is null.
+     */
+    @Volatile
+    var resolveImport: String? = null
+
+    /**
+     * Count of diagnostics published after each opening and change of documents. 0 for not
+     * publishing diagnostics.
+     */
+    @Volatile
+    var diagnosticCount = 0
+
+    /**
+     * Count of semantic tokens in each response, at most two tokens per line are generated
+     */
+    @Volatile
+    var semanticTokenCount = 1000
+
+    @Volatile
+    var symbolCount = 100
+
+    @Volatile
+    var formattingEditCount = 10
+
+    @Volatile
+    var hoverLength = 200
+
+    /**
+     * Probability of answering a request with an error
+     */
+    @Volatile
+    var errorRate = 0.0
+
+    /**
+     * Probability of never answering a request
+     */
+    @Volatile
+    var dropRate = 0.0
+
+    /**
+     * Provider of connections to this server, for [CustomLanguageServerDefinition]
+     */
+    val connectProvider = CustomLanguageServerDefinition.ConnectProvider {
+        CustomConnectProvider { openStreams() }
+    }
+
+    private val random = Random(seed)
+    private val scheduler = ScheduledThreadPoolExecutor(1) { runnable ->
+        Thread(runnable, "ScriptedLanguageServer").also { it.isDaemon = true }
+    }
+    private val documents = ConcurrentHashMap<String, Content>()
+    private val requestCounts = ConcurrentHashMap<String, AtomicInteger>()
+    private val errors = AtomicInteger()
+    private val drops = AtomicInteger()
+    private val changes = AtomicInteger()
+
+    @Volatile
+    private var client: LanguageClient? = null
+    @Volatile
+    private var listening: Future<Void>? = null
+    @Volatile
+    private var streams: List<Closeable> = emptyList()
+
+    val injectedErrorCount: Int
+        get() = errors.get()
+
+    val droppedRequestCount: Int
+        get() = drops.get()
+
+    /**
+     * Count of received didChange notifications
+     */
+    val changeCount: Int
+        get() = changes.get()
+
+    fun getRequestCount(method: String) = requestCounts[method]?.get() ?: 0
+
+    /**
+     * Current text of the given document as the server knows it, or null if it is not opened
+     */
+    fun getText(uri: String): String? = documents[uri]?.let { synchronized(it) { it.toString() } }
+
+    private fun openStreams(): Pair<InputStream, OutputStream> {
+        val toServer = Pipe.open()
+        val toClient = Pipe.open()
+        val serverInput = Channels.newInputStream(toServer.source())
+        val serverOutput = Channels.newOutputStream(toClient.sink())
+        val launcher = LSPLauncher.createServerLauncher(this, serverInput, serverOutput)
+        connect(launcher.remoteProxy)
+        streams = listOf(serverInput, serverOutput)
+        listening = launcher.startListening()
+        return Pair(Channels.newInputStream(toClient.source()), Channels.newOutputStream(toServer.sink()))
+    }
+
+    /**
+     * Break the current connection, as if the server process died
+     */
+    fun crash() {
+        listening?.cancel(true)
+        for (stream in streams) {
+            try {
+                stream.close()
+            } catch (ignored: IOException) {
+            }
+        }
+        client = null
+    }
+
+    override fun close() {
+        crash()
+        scheduler.shutdownNow()
+    }
+
+    override fun connect(client: LanguageClient) {
+        this.client = client
+    }
+
+    private fun latencyOf(method: String): Long {
+        val jitter = latencyJitter
+        return (methodLatencies[method] ?: latency) + if (jitter > 0) random.nextInt(jitter.toInt() + 1) else 0
+    }
+
+    /**
+     * Answer a request with the result computed after the latency, unless a failure is injected
+     */
+    private fun <T> respond(method: String, result: () -> T): CompletableFuture<T> {
+        requestCounts.computeIfAbsent(method) { AtomicInteger() }.incrementAndGet()
+        val future = CompletableFuture<T>()
+        val roll = random.nextDouble()
+        if (roll < dropRate) {
+            drops.incrementAndGet()
+            return future
+        }
+        val fail = roll < dropRate + errorRate
+        scheduler.schedule({
+            if (fail) {
+                errors.incrementAndGet()
+                future.completeExceptionally(ResponseErrorException(ResponseError(ResponseErrorCode.InternalError,
+                    "Injected failure of $method", null)))
+            } else {
+                try {
+                    future.complete(result())
+                } catch (e: Exception) {
+                    future.completeExceptionally(e)
+                }
+            }
+        }, latencyOf(method), TimeUnit.MILLISECONDS)
+        return future
+    }
+
+    private inline fun <T> withDocument(uri: String, action: (Content) -> T): T {
+        val content = documents[uri] ?: Content()
+        return synchronized(content) { action(content) }
+    }
+
+    override fun initialize(params: InitializeParams): CompletableFuture<InitializeResult> {
+        val capabilities = ServerCapabilities()
+        capabilities.setTextDocumentSync(TextDocumentSyncKind.Incremental)
+        capabilities.completionProvider = CompletionOptions(true, listOf("."))
+        capabilities.signatureHelpProvider = SignatureHelpOptions(listOf("("))
+        capabilities.setHoverProvider(true)
+        capabilities.setDocumentSymbolProvider(true)
+        capabilities.setDocumentFormattingProvider(true)
+        capabilities.setDocumentRangeFormattingProvider(true)
+        capabilities.semanticTokensProvider = SemanticTokensWithRegistrationOptions(legend, SemanticTokensServerFull(false))
+        return CompletableFuture.completedFuture(InitializeResult(capabilities))
+    }
+
+    override fun shutdown(): CompletableFuture<Any> = CompletableFuture.completedFuture(null)
+
+    override fun exit() {}
+
+    override fun getTextDocumentService() = this
+
+    override fun getWorkspaceService() = this
+
+    override fun didChangeConfiguration(params: DidChangeConfigurationParams) {}
+
+    override fun didChangeWatchedFiles(params: DidChangeWatchedFilesParams) {}
+
+    override fun didOpen(params: DidOpenTextDocumentParams) {
+        val uri = params.textDocument.uri
+        // History of the server's copy is not needed
+        documents[uri] = Content(params.textDocument.text).also { it.setUndoEnabled(false) }
+        onDocumentChanged(uri)
+    }
+
+    override fun didChange(params: DidChangeTextDocumentParams) {
+        val uri = params.textDocument.uri
+        changes.incrementAndGet()
+        val content = documents[uri] ?: return
+        synchronized(content) {
+            for (change in params.contentChanges) {
+                val range = change.range
+                if (range == null) {
+                    content.replace(0, content.length, change.text)
+                } else {
+                    content.replace(range.start.line, range.start.character, range.end.line, range.end.character, change.text)
+                }
+            }
+        }
+        onDocumentChanged(uri)
+    }
+
+    override fun didClose(params: DidCloseTextDocumentParams) {
+        documents.remove(params.textDocument.uri)
+    }
+
+    override fun didSave(params: DidSaveTextDocumentParams) {}
+
+    private fun onDocumentChanged(uri: String) {
+        val count = diagnosticCount
+        if (count > 0) {
+            publishDiagnostics(uri, count)
+        }
+    }
+
+    /**
+     * Publish the given count of diagnostics for the document, spread over its lines
+     */
+    fun publishDiagnostics(uri: String, count: Int) {
+        scheduler.execute {
+            val diagnostics = withDocument(uri) { content ->
+                List(count) {
+                    val line = (it.toLong() * content.lineCount / count).toInt()
+                    val severity = DiagnosticSeverity.values()[it % DiagnosticSeverity.values().size]
+                    Diagnostic(lineRange(content, line), "Diagnostic $it", severity, "scripted")
+                }
+            }
+            client?.publishDiagnostics(PublishDiagnosticsParams(uri, diagnostics))
+        }
+    }
+
+    private fun lineRange(content: Content, line: Int) =
+        Range(Position(line, 0), Position(line, content.getColumnCount(line)))
+
+    override fun completion(params: CompletionParams): CompletableFuture<Either<List<CompletionItem>, CompletionList>> =
+        respond("textDocument/completion") {
+            val kinds = CompletionItemKind.values()
+            val items = List(completionItemCount) {
+                CompletionItem("item$it").apply {
+                    kind = kinds[it % kinds.size]
+                    detail = "Detail of item $it"
+                    sortText = "%08d".format(it)
+                    insertText = "item$it"
+                }
+            }
+            Either.forRight(CompletionList(completionIncomplete, items))
+        }
+
+    override fun resolveCompletionItem(unresolved: CompletionItem): CompletableFuture<CompletionItem> =
+        respond("completionItem/resolve") {
+            unresolved.apply {
+                setDocumentation(MarkupContent(MarkupKind.MARKDOWN, "Documentation of $label"))
+                resolveImport?.let { additionalTextEdits = listOf(TextEdit(Range(Position(0, 0), Position(0, 0)), it)) }
+            }
+        }
+
+    override fun hover(params: HoverParams): CompletableFuture<Hover> = respond("textDocument/hover") {
+        val position = params.position
+        Hover(MarkupContent(MarkupKind.MARKDOWN, "Hover at ${position.line}:${position.character} ".padEnd(hoverLength, '.')))
+    }
+
+    override fun signatureHelp(params: SignatureHelpParams): CompletableFuture<SignatureHelp> =
+        respond("textDocument/signatureHelp") {
+            val parameters = listOf(ParameterInformation("first: Int"), ParameterInformation("second: String"))
+            SignatureHelp(listOf(SignatureInformation("call(first: Int, second: String)", "Scripted signature", parameters)), 0, 0)
+        }
+
+    override fun documentSymbol(params: DocumentSymbolParams): CompletableFuture<List<Either<SymbolInformation, DocumentSymbol>>> =
+        respond("textDocument/documentSymbol") {
+            withDocument(params.textDocument.uri) { content ->
+                val count = symbolCount
+                List(count) {
+                    val range = lineRange(content, (it.toLong() * content.lineCount / count).toInt())
+                    Either.forRight<SymbolInformation, DocumentSymbol>(DocumentSymbol("symbol$it", SymbolKind.Function, range, range))
+                }
+            }
+        }
+
+    override fun semanticTokensFull(params: SemanticTokensParams): CompletableFuture<SemanticTokens> =
+        respond("textDocument/semanticTokens/full") {
+            withDocument(params.textDocument.uri) { content ->
+                val count = semanticTokenCount
+                val data = ArrayList<Int>(count * 5)
+                var previousLine = 0
+                var line = 0
+                var tokens = 0
+                while (tokens < count && line < content.lineCount) {
+                    // One token at the start of the line, another at its middle
+                    val columns = content.getColumnCount(line)
+                    var previousColumn = 0
+                    for (column in intArrayOf(0, columns / 2)) {
+                        if (tokens >= count || column >= columns || (column > 0 && column == previousColumn)) {
+                            continue
+                        }
+                        data.add(line - previousLine)
+                        data.add(if (line == previousLine) column - previousColumn else column)
+                        data.add(1)
+                        data.add(tokens % legend.tokenTypes.size)
+                        data.add(0)
+                        previousLine = line
+                        previousColumn = column
+                        tokens++
+                    }
+                    line++
+                }
+                SemanticTokens(data)
+            }
+        }
+
+    override fun formatting(params: DocumentFormattingParams): CompletableFuture<List<TextEdit>> =
+        respond("textDocument/formatting") {
+            withDocument(params.textDocument.uri) { content -> formattingEdits(content, 0, content.lineCount - 1) }
+        }
+
+    override fun rangeFormatting(params: DocumentRangeFormattingParams): CompletableFuture<List<TextEdit>> =
+        respond("textDocument/rangeFormatting") {
+            withDocument(params.textDocument.uri) { content ->
+                formattingEdits(content, params.range.start.line, minOf(params.range.end.line, content.lineCount - 1))
+            }
+        }
+
+    /**
+     * Edits replacing the indentation of lines spread in the given range, so that repeated
+     * formatting keeps the text
+     */
+    private fun formattingEdits(content: Content, startLine: Int, endLine: Int): List<TextEdit> {
+        val lines = endLine - startLine + 1
+        val count = minOf(formattingEditCount, lines)
+        return List(count) {
+            val line = startLine + (it.toLong() * lines / count).toInt()
+            val text = content.getLine(line)
+            var indent = 0
+            while (indent < text.length && text[indent] == ' ') {
+                indent++
+            }
+            TextEdit(Range(Position(line, 0), Position(line, indent)), " ".repeat(indent))
+        }
+    }
+
+}
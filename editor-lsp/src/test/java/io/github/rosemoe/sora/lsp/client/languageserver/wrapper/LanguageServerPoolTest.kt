@@ -0,0 +1,183 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.client.languageserver.wrapper
+
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.lsp.client.connection.StreamConnectionProvider
+import io.github.rosemoe.sora.lsp.client.languageserver.ServerStatus
+import io.github.rosemoe.sora.lsp.client.languageserver.serverdefinition.CustomLanguageServerDefinition
+import io.github.rosemoe.sora.lsp.editor.LspEditor
+import io.github.rosemoe.sora.lsp.editor.LspEditorManager
+import io.github.rosemoe.sora.lsp.editor.semantic.MockSemanticTokensServer
+import org.eclipse.lsp4j.launch.LSPLauncher
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.InputStream
+import java.io.OutputStream
+import java.io.PipedInputStream
+import java.io.PipedOutputStream
+import java.util.concurrent.Future
+import java.util.concurrent.atomic.AtomicInteger
+
+@RunWith(RobolectricTestRunner::class)
+class LanguageServerPoolTest {
+
+    private val project = "/project"
+
+    private val starts = AtomicInteger()
+
+    private val closes = AtomicInteger()
+
+    private val connectProvider = CustomLanguageServerDefinition.ConnectProvider { MockConnection() }
+
+    private val definition = CustomLanguageServerDefinition(".txt", connectProvider)
+
+    private val editors = mutableListOf<LspEditor>()
+
+    /**
+     * Starts a mock server in the same process for each connection
+     */
+    private inner class MockConnection : StreamConnectionProvider {
+
+        private val serverInput = PipedInputStream()
+        private val clientOutput = PipedOutputStream(serverInput)
+        private val clientInput = PipedInputStream()
+        private val serverOutput = PipedOutputStream(clientInput)
+        private var listening: Future<Void>? = null
+
+        override fun start() {
+            starts.incrementAndGet()
+            listening = LSPLauncher.createServerLauncher(MockSemanticTokensServer(), serverInput, serverOutput).startListening()
+        }
+
+        override fun getInputStream(): InputStream = clientInput
+
+        override fun getOutputStream(): OutputStream = clientOutput
+
+        override fun close() {
+            closes.incrementAndGet()
+            listening?.cancel(true)
+            clientOutput.close()
+            serverOutput.close()
+        }
+    }
+
+    private fun editor(file: String, projectPath: String = project) =
+        LspEditor(projectPath, "file://$projectPath/$file", definition, LspEditorManager.getOrCreateEditorManager(projectPath))
+            .also { editors.add(it) }
+
+    private fun awaitUntil(condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + 10000
+        while (!condition()) {
+            check(System.currentTimeMillis() < deadline) { "condition is not met in time" }
+            Thread.sleep(5)
+        }
+    }
+
+    @Before
+    fun setup() {
+        LanguageServerPool.setIdleTimeout(200)
+    }
+
+    @After
+    fun teardown() {
+        for (editor in editors) {
+            LanguageServerPool.get(definition, editor.projectPath)?.let { LanguageServerPool.release(it, editor) }
+        }
+        LanguageServerPool.stopIdleServers()
+        LanguageServerPool.setIdleTimeout(LanguageServerPool.DEFAULT_IDLE_TIMEOUT)
+    }
+
+    @Test
+    fun `test editors share servers of the same definition and project`() {
+        val first = editor("a.txt")
+        val second = editor("b.txt")
+        val wrapper = LanguageServerPool.acquire(definition, project, first)
+        assertThat(LanguageServerPool.acquire(definition, project, first)).isSameInstanceAs(wrapper)
+        // Definitions are compared by equals
+        val sameDefinition = CustomLanguageServerDefinition(".txt", connectProvider)
+        assertThat(LanguageServerPool.acquire(sameDefinition, project, second)).isSameInstanceAs(wrapper)
+        assertThat(LanguageServerPool.getHolderCount(wrapper)).isEqualTo(2)
+
+        val other = editor("c.txt", "/other")
+        assertThat(LanguageServerPool.acquire(definition, "/other", other)).isNotSameInstanceAs(wrapper)
+
+        wrapper.start()
+        assertThat(wrapper.server).isNotNull()
+        wrapper.start()
+        assertThat(LanguageServerPool.acquire(definition, project, second).server).isNotNull()
+        assertThat(starts.get()).isEqualTo(1)
+    }
+
+    @Test
+    fun `test idle servers are stopped after timeout`() {
+        val first = editor("a.txt")
+        val second = editor("b.txt")
+        val wrapper = LanguageServerPool.acquire(definition, project, first)
+        LanguageServerPool.acquire(definition, project, second)
+        wrapper.start()
+        assertThat(wrapper.server).isNotNull()
+
+        LanguageServerPool.release(wrapper, first)
+        LanguageServerPool.release(wrapper, second)
+        assertThat(LanguageServerPool.getHolderCount(wrapper)).isEqualTo(0)
+        assertThat(wrapper.status).isEqualTo(ServerStatus.INITIALIZED)
+
+        // Reopened before the timeout, the server is reused
+        assertThat(LanguageServerPool.acquire(definition, project, first)).isSameInstanceAs(wrapper)
+        Thread.sleep(400)
+        assertThat(wrapper.status).isEqualTo(ServerStatus.INITIALIZED)
+        assertThat(starts.get()).isEqualTo(1)
+
+        LanguageServerPool.release(wrapper, first)
+        awaitUntil { wrapper.status == ServerStatus.STOPPED }
+        assertThat(LanguageServerPool.get(definition, project)).isNull()
+        assertThat(closes.get()).isEqualTo(1)
+
+        // A new server is started for later editors
+        val restarted = LanguageServerPool.acquire(definition, project, second)
+        assertThat(restarted).isNotSameInstanceAs(wrapper)
+        restarted.start()
+        assertThat(restarted.server).isNotNull()
+        assertThat(starts.get()).isEqualTo(2)
+    }
+
+    @Test
+    @Suppress("DEPRECATION")
+    fun `test wrappers are found by project through the pool`() {
+        val first = editor("a.txt")
+        val wrapper = LanguageServerPool.acquire(definition, project, first)
+        // Wrappers created out of the pool do not replace the pooled one
+        LanguageServerWrapper(CustomLanguageServerDefinition(".md", connectProvider), project)
+        assertThat(LanguageServerWrapper.forProject(project)).isSameInstanceAs(wrapper)
+
+        LanguageServerPool.release(wrapper, first)
+        awaitUntil { LanguageServerPool.get(definition, project) == null }
+        assertThat(LanguageServerWrapper.forProject(project)).isNull()
+    }
+
+}
@@ -0,0 +1,189 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.editor
+
+import android.app.Activity
+import android.os.Bundle
+import android.os.Handler
+import android.os.Looper
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.lang.completion.CompletionPublisher
+import io.github.rosemoe.sora.lang.completion.FuzzyCompletionFilter
+import io.github.rosemoe.sora.lsp.client.connection.ScriptedLanguageServer
+import io.github.rosemoe.sora.lsp.client.languageserver.serverdefinition.CustomLanguageServerDefinition
+import io.github.rosemoe.sora.lsp.client.languageserver.wrapper.LanguageServerPool
+import io.github.rosemoe.sora.lsp.editor.completion.CompletionItemProvider
+import io.github.rosemoe.sora.lsp.editor.completion.LazyCompletionItem
+import io.github.rosemoe.sora.lsp.editor.completion.LspCompletionItem
+import io.github.rosemoe.sora.text.ContentReference
+import io.github.rosemoe.sora.widget.CodeEditor
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import java.util.concurrent.TimeUnit
+
+@RunWith(RobolectricTestRunner::class)
+class LspLanguageCompletionTest {
+
+    companion object {
+        const val PROJECT = "/completion"
+        const val URI = "file:///completion/Main.kt"
+    }
+
+    private val server = ScriptedLanguageServer()
+
+    private val definition = CustomLanguageServerDefinition(".kt", server.connectProvider)
+
+    private lateinit var codeEditor: CodeEditor
+
+    private lateinit var lspEditor: LspEditor
+
+    private fun awaitUntil(condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10)
+        while (!condition()) {
+            check(System.currentTimeMillis() < deadline) { "condition is not met in time" }
+            shadowOf(Looper.getMainLooper()).idle()
+            Thread.sleep(1)
+        }
+    }
+
+    @Before
+    fun setup() {
+        server.completionItemCount = 20
+        val activity = Robolectric.buildActivity(Activity::class.java).setup().get()
+        codeEditor = CodeEditor(activity)
+        activity.setContentView(codeEditor)
+        codeEditor.setText("val value = it")
+        lspEditor = LspEditorManager.getOrCreateEditorManager(PROJECT).createEditor(URI, definition)
+        lspEditor.setEditor(codeEditor)
+        lspEditor.connect()
+        awaitUntil { server.getText(URI) != null }
+    }
+
+    @After
+    fun teardown() {
+        LspEditorManager.closeAllManager()
+        LanguageServerPool.get(definition, PROJECT)?.let { LanguageServerPool.release(it, lspEditor) }
+        LanguageServerPool.stopIdleServers()
+        server.close()
+    }
+
+    private fun requireCompletion(): CompletionPublisher {
+        val publisher = CompletionPublisher(Handler(Looper.getMainLooper()), {}, 0)
+        val text = codeEditor.text
+        val position = text.indexer.getCharPosition(0, text.getColumnCount(0))
+        var failure: Throwable? = null
+        val thread = Thread {
+            try {
+                lspEditor.language.requireAutoComplete(ContentReference(text), position, publisher, Bundle())
+            } catch (e: Throwable) {
+                failure = e
+            }
+        }
+        thread.start()
+        awaitUntil { !thread.isAlive }
+        failure?.let { throw it }
+        return publisher
+    }
+
+    private fun firstItem(publisher: CompletionPublisher): LazyCompletionItem {
+        awaitUntil { publisher.items.isNotEmpty() }
+        return publisher.items.first() as LazyCompletionItem
+    }
+
+    @Test
+    fun `items are created when they are used`() {
+        var created = 0
+        lspEditor.language.setCompletionItemProvider(CompletionItemProvider { item, applyEdits, prefixLength ->
+            created++
+            LspCompletionItem(item, applyEdits, prefixLength)
+        })
+        val publisher = requireCompletion()
+        val item = firstItem(publisher)
+        assertThat(publisher.items).hasSize(20)
+        assertThat(created).isEqualTo(0)
+        item.icon
+        assertThat(item.item).isInstanceOf(LspCompletionItem::class.java)
+        assertThat(created).isEqualTo(1)
+    }
+
+    @Test
+    fun `commit does not wait for resolving`() {
+        server.resolveImport = "import item0\n"
+        server.methodLatencies["completionItem/resolve"] = 500L
+        val item = firstItem(requireCompletion())
+        val text = codeEditor.text
+        val start = System.nanoTime()
+        item.performCompletion(codeEditor, text, text.indexer.getCharPosition(0, text.getColumnCount(0)))
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(250L)
+        assertThat(text.toString()).isEqualTo("val value = ${item.label}")
+        // Additional edits are applied after resolving
+        awaitUntil { text.toString() == "import item0\nval value = ${item.label}" }
+    }
+
+    @Test
+    fun `late additional edits before text changes are applied`() {
+        server.resolveImport = "import item0\n"
+        server.methodLatencies["completionItem/resolve"] = 300L
+        val item = firstItem(requireCompletion())
+        val text = codeEditor.text
+        item.performCompletion(codeEditor, text, text.indexer.getCharPosition(0, text.getColumnCount(0)))
+        text.insert(0, text.getColumnCount(0), "()")
+        awaitUntil { text.toString() == "import item0\nval value = ${item.label}()" }
+    }
+
+    @Test
+    fun `late additional edits are skipped after text changes around them`() {
+        server.resolveImport = "import item0\n"
+        server.methodLatencies["completionItem/resolve"] = 300L
+        val item = firstItem(requireCompletion())
+        val text = codeEditor.text
+        item.performCompletion(codeEditor, text, text.indexer.getCharPosition(0, text.getColumnCount(0)))
+        text.insert(0, 0, "// ")
+        awaitUntil { server.getRequestCount("completionItem/resolve") == 1 }
+        // Let the resolved item arrive
+        Thread.sleep(600)
+        shadowOf(Looper.getMainLooper()).idle()
+        assertThat(text.toString()).isEqualTo("// val value = ${item.label}")
+    }
+
+    @Test
+    fun `complete lists can be refiltered`() {
+        val publisher = requireCompletion()
+        assertThat(publisher.hasData()).isTrue()
+        assertThat(publisher.completionFilter).isSameInstanceAs(FuzzyCompletionFilter.ANY_MATCH)
+    }
+
+    @Test
+    fun `incomplete lists are requested again`() {
+        server.completionIncomplete = true
+        val publisher = requireCompletion()
+        assertThat(publisher.hasData()).isTrue()
+        assertThat(publisher.completionFilter).isNull()
+    }
+}
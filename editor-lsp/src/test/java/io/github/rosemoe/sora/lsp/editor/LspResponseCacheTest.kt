@@ -0,0 +1,144 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.editor
+
+import com.google.common.truth.Truth.assertThat
+import org.eclipse.lsp4j.Position
+import org.junit.Test
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+
+class LspResponseCacheTest {
+
+    private val uri = "file:///test.txt"
+
+    private var now = 0L
+
+    private val cache = LspResponseCache { now }
+
+    private val requests = mutableListOf<CompletableFuture<String>>()
+
+    private fun request(version: Long, position: Position?, method: String = "textDocument/hover") =
+        cache.get(method, uri, version, position) {
+            CompletableFuture<String>().also { requests.add(it) }
+        }!!
+
+    @Test
+    fun `test identical requests share one request`() {
+        val first = request(1, Position(0, 1))
+        val second = request(1, Position(0, 1))
+        assertThat(requests).hasSize(1)
+        assertThat(cache.hitCount).isEqualTo(1)
+
+        // Callers giving up do not affect each other
+        first.cancel(true)
+        requests[0].complete("hover")
+        assertThat(second.get()).isEqualTo("hover")
+        assertThat(request(1, Position(0, 1)).get()).isEqualTo("hover")
+        assertThat(requests).hasSize(1)
+        assertThat(cache.requestCount).isEqualTo(1)
+    }
+
+    @Test
+    fun `test different requests are not shared`() {
+        request(1, Position(0, 1))
+        request(1, Position(0, 2))
+        request(1, Position(0, 1), "textDocument/signatureHelp")
+        request(1, null, "textDocument/documentSymbol")
+        assertThat(requests).hasSize(4)
+        assertThat(cache.size()).isEqualTo(4)
+    }
+
+    @Test
+    fun `test new version invalidates responses`() {
+        request(1, Position(0, 1))
+        request(1, Position(0, 2))
+        requests.forEach { it.complete("v1") }
+
+        val response = request(2, Position(0, 1))
+        assertThat(requests).hasSize(3)
+        assertThat(cache.size()).isEqualTo(1)
+        requests[2].complete("v2")
+        assertThat(response.get()).isEqualTo("v2")
+
+        // Versions start again from 1 when the text is replaced
+        cache.clear()
+        request(1, Position(0, 1))
+        request(1, Position(0, 1))
+        assertThat(requests).hasSize(4)
+    }
+
+    @Test
+    fun `test older version bypasses the cache`() {
+        request(2, Position(0, 1))
+        requests[0].complete("v2")
+
+        // Made before the text is changed, but arrives later
+        request(1, Position(0, 1))
+        request(1, Position(0, 1))
+        assertThat(requests).hasSize(3)
+        assertThat(cache.size()).isEqualTo(1)
+        assertThat(request(2, Position(0, 1)).get()).isEqualTo("v2")
+        assertThat(requests).hasSize(3)
+    }
+
+    @Test
+    fun `test unanswered requests are not shared forever`() {
+        request(1, Position(0, 1))
+        now += TimeUnit.MILLISECONDS.toNanos(LspResponseCache.MAX_PENDING_MILLIS)
+        request(1, Position(0, 1))
+        assertThat(requests).hasSize(1)
+
+        now += 1
+        val response = request(1, Position(0, 1))
+        assertThat(requests).hasSize(2)
+        requests[1].complete("hover")
+        assertThat(response.get()).isEqualTo("hover")
+        // Answered requests are cached regardless of their age
+        now += TimeUnit.MILLISECONDS.toNanos(LspResponseCache.MAX_PENDING_MILLIS * 2)
+        assertThat(request(1, Position(0, 1)).get()).isEqualTo("hover")
+        assertThat(requests).hasSize(2)
+    }
+
+    @Test
+    fun `test failed requests are not cached`() {
+        val failed = request(1, Position(0, 1))
+        requests[0].completeExceptionally(IllegalStateException())
+        assertThat(failed.isCompletedExceptionally).isTrue()
+        request(1, Position(0, 1))
+        assertThat(requests).hasSize(2)
+
+        assertThat(cache.get<String>("textDocument/hover", uri, 1, Position(1, 1)) { null }).isNull()
+        assertThat(cache.size()).isEqualTo(1)
+    }
+
+    @Test
+    fun `test cache size is limited`() {
+        repeat(LspResponseCache.MAX_ENTRIES * 2) {
+            request(1, Position(it, 0))
+        }
+        assertThat(cache.size()).isEqualTo(LspResponseCache.MAX_ENTRIES)
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.editor.diagnostics
+
+import com.google.common.truth.Truth.assertThat
+import org.eclipse.lsp4j.Diagnostic
+import org.eclipse.lsp4j.Position
+import org.eclipse.lsp4j.Range
+import org.junit.Test
+import java.util.Random
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class DiagnosticsContainerTest {
+
+    private val uri = "file:///test.txt"
+
+    private fun diagnostic(startLine: Int, startColumn: Int, endLine: Int, endColumn: Int, message: String = "") =
+        Diagnostic(Range(Position(startLine, startColumn), Position(endLine, endColumn)), message)
+
+    private fun randomDiagnostics(random: Random, count: Int, lines: Int) = List(count) {
+        val startLine = random.nextInt(lines)
+        val startColumn = random.nextInt(4)
+        if (random.nextBoolean()) {
+            diagnostic(startLine, startColumn, startLine, startColumn, "empty $it")
+        } else {
+            diagnostic(startLine, startColumn, startLine + random.nextInt(3), random.nextInt(8), "range $it")
+        }
+    }
+
+    /**
+     * Previous implementation, adding diagnostics one by one with linear search
+     */
+    private fun MutableList<Diagnostic>.addLikeBefore(diagnostic: Diagnostic) {
+        val start = diagnostic.range.start
+        find {
+            it.range.start.line == start.line && it.range.start.character == start.character &&
+                    it.range.end.line == start.line && it.range.end.character == start.character
+        }?.let { remove(it) }
+        add(diagnostic)
+    }
+
+    private fun List<Diagnostic>.describe() = map { "${it.range.start.line}:${it.range.start.character}-" +
+            "${it.range.end.line}:${it.range.end.character} ${it.message}" }
+
+    @Test
+    fun `test added diagnostics match previous behavior`() {
+        val random = Random(0)
+        val container = DiagnosticsContainer()
+        val expected = mutableListOf<Diagnostic>()
+        repeat(20) {
+            val batch = randomDiagnostics(random, 1 + random.nextInt(50), 30)
+            batch.forEach { expected.addLikeBefore(it) }
+            if (it % 2 == 0) {
+                container.addDiagnostics(uri, batch)
+            } else {
+                batch.forEach { diagnostic -> container.addDiagnostic(uri, diagnostic) }
+            }
+            assertThat(container.getDiagnostics(uri).describe()).containsExactlyElementsIn(expected.describe())
+        }
+        val snapshot = container.getDiagnostics(uri)
+        for (i in 1 until snapshot.size) {
+            assertThat(snapshot[i - 1].range.start.line).isAtMost(snapshot[i].range.start.line)
+        }
+
+        val removed = snapshot[snapshot.size / 2]
+        container.removeDiagnostic(uri, removed)
+        expected.remove(removed)
+        assertThat(container.getDiagnostics(uri).describe()).containsExactlyElementsIn(expected.describe())
+        // Snapshots are not modified
+        assertThat(snapshot).contains(removed)
+    }
+
+    @Test
+    fun `test diagnostics in lines`() {
+        val random = Random(1)
+        val container = DiagnosticsContainer()
+        val diagnostics = randomDiagnostics(random, 500, 100)
+        container.setDiagnostics(uri, diagnostics)
+        val snapshot = container.getDiagnostics(uri)
+        for (startLine in 0 until 105) {
+            for (endLine in startLine until startLine + 3) {
+                val expected = diagnostics.filter { it.range.start.line <= endLine && it.range.end.line >= startLine }
+                assertThat(snapshot.getDiagnosticsInLines(startLine, endLine)).containsExactlyElementsIn(expected)
+            }
+        }
+        assertThat(container.getDiagnostics("file:///other.txt")).isEmpty()
+        assertThat(container.getDiagnostics("file:///other.txt").getDiagnosticsOnLine(0)).isEmpty()
+    }
+
+    @Test
+    fun `test diagnostics spanning many lines`() {
+        val long = diagnostic(1, 0, 80, 0, "long")
+        val diagnostics = listOf(long) + List(50) { diagnostic(it * 2, 0, it * 2, 1, "short $it") }
+        val container = DiagnosticsContainer()
+        container.setDiagnostics(uri, diagnostics)
+        val snapshot = container.getDiagnostics(uri)
+        assertThat(snapshot.getDiagnosticsOnLine(0).describe()).containsExactly("0:0-0:1 short 0")
+        assertThat(snapshot.getDiagnosticsOnLine(50).describe()).containsExactly("1:0-80:0 long", "50:0-50:1 short 25").inOrder()
+        assertThat(snapshot.getDiagnosticsInLines(81, 85).describe()).containsExactly("82:0-82:1 short 41", "84:0-84:1 short 42").inOrder()
+    }
+
+    @Test
+    fun `test adding many diagnostics`() {
+        val container = DiagnosticsContainer()
+        val diagnostics = randomDiagnostics(Random(2), 100_000, 20_000)
+        container.addDiagnostics(uri, diagnostics)
+        container.addDiagnostics(uri, diagnostics)
+        assertThat(container.getDiagnostics(uri).size).isAtLeast(diagnostics.size)
+    }
+
+    @Test
+    fun `test concurrent writers and readers`() {
+        val container = DiagnosticsContainer()
+        val threadCount = 4
+        val executor = Executors.newFixedThreadPool(threadCount * 2)
+        val start = CountDownLatch(1)
+        try {
+            val writers = List(threadCount) { thread ->
+                executor.submit {
+                    start.await()
+                    val random = Random(thread.toLong())
+                    repeat(200) {
+                        // Only ranges, which are never replaced
+                        container.addDiagnostics(uri, List(10) { index ->
+                            val line = random.nextInt(1000)
+                            diagnostic(line, 0, line, 1 + random.nextInt(5), "$thread-$it-$index")
+                        })
+                    }
+                }
+            }
+            val readers = List(threadCount) {
+                executor.submit {
+                    start.await()
+                    repeat(2000) {
+                        val snapshot = container.getDiagnostics(uri)
+                        for (i in 1 until snapshot.size) {
+                            check(snapshot[i - 1].range.start.line <= snapshot[i].range.start.line)
+                        }
+                        check(snapshot.getDiagnosticsOnLine(500).all { it.range.start.line == 500 })
+                    }
+                }
+            }
+            start.countDown()
+            (writers + readers).forEach { it.get(1, TimeUnit.MINUTES) }
+        } finally {
+            executor.shutdownNow()
+        }
+        assertThat(container.getDiagnostics(uri).size).isEqualTo(threadCount * 200 * 10)
+    }
+
+}
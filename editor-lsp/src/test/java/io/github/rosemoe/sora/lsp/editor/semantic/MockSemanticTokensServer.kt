@@ -0,0 +1,211 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.editor.semantic
+
+import io.github.rosemoe.sora.lsp.requests.RequestMetrics
+import org.eclipse.lsp4j.DidChangeConfigurationParams
+import org.eclipse.lsp4j.DidChangeTextDocumentParams
+import org.eclipse.lsp4j.DidChangeWatchedFilesParams
+import org.eclipse.lsp4j.DidCloseTextDocumentParams
+import org.eclipse.lsp4j.DidOpenTextDocumentParams
+import org.eclipse.lsp4j.DidSaveTextDocumentParams
+import org.eclipse.lsp4j.Hover
+import org.eclipse.lsp4j.HoverParams
+import org.eclipse.lsp4j.InitializeParams
+import org.eclipse.lsp4j.InitializeResult
+import org.eclipse.lsp4j.MessageActionItem
+import org.eclipse.lsp4j.MessageParams
+import org.eclipse.lsp4j.PublishDiagnosticsParams
+import org.eclipse.lsp4j.SemanticTokens
+import org.eclipse.lsp4j.SemanticTokensDelta
+import org.eclipse.lsp4j.SemanticTokensDeltaParams
+import org.eclipse.lsp4j.SemanticTokensEdit
+import org.eclipse.lsp4j.SemanticTokensLegend
+import org.eclipse.lsp4j.SemanticTokensParams
+import org.eclipse.lsp4j.SemanticTokensServerFull
+import org.eclipse.lsp4j.SemanticTokensWithRegistrationOptions
+import org.eclipse.lsp4j.ServerCapabilities
+import org.eclipse.lsp4j.ShowMessageRequestParams
+import org.eclipse.lsp4j.TextDocumentSyncKind
+import org.eclipse.lsp4j.jsonrpc.messages.Either
+import org.eclipse.lsp4j.launch.LSPLauncher
+import org.eclipse.lsp4j.services.LanguageClient
+import org.eclipse.lsp4j.services.LanguageServer
+import org.eclipse.lsp4j.services.TextDocumentService
+import org.eclipse.lsp4j.services.WorkspaceService
+import java.io.PipedInputStream
+import java.io.PipedOutputStream
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Future
+
+/**
+ * Language server that returns scripted semantic tokens, and computes deltas from the previous
+ * result it sent
+ */
+class MockSemanticTokensServer : LanguageServer, TextDocumentService {
+
+    val legend = SemanticTokensLegend(listOf("keyword", "variable", "function"), listOf("deprecated"))
+
+    /**
+     * Tokens returned by next request
+     */
+    @Volatile
+    var tokens: List<Int> = emptyList()
+
+    /**
+     * Send an edit that does not match previous result in next delta
+     */
+    @Volatile
+    var corruptNextDelta = false
+
+    /**
+     * Never respond to requests of full tokens, which are kept in [heldRequests]
+     */
+    @Volatile
+    var holdFullTokens = false
+
+    val heldRequests = CopyOnWriteArrayList<CompletableFuture<SemanticTokens>>()
+
+    @Volatile
+    var fullRequests = 0
+        private set
+
+    @Volatile
+    var deltaRequests = 0
+        private set
+
+    private var resultId = 0
+    private var sentTokens: List<Int> = emptyList()
+
+    override fun initialize(params: InitializeParams): CompletableFuture<InitializeResult> {
+        val capabilities = ServerCapabilities()
+        capabilities.setTextDocumentSync(TextDocumentSyncKind.Incremental)
+        capabilities.semanticTokensProvider = SemanticTokensWithRegistrationOptions(legend, SemanticTokensServerFull(true))
+        return CompletableFuture.completedFuture(InitializeResult(capabilities))
+    }
+
+    override fun shutdown(): CompletableFuture<Any> = CompletableFuture.completedFuture(null)
+
+    override fun exit() {}
+
+    override fun getTextDocumentService() = this
+
+    override fun getWorkspaceService() = object : WorkspaceService {
+        override fun didChangeConfiguration(params: DidChangeConfigurationParams) {}
+        override fun didChangeWatchedFiles(params: DidChangeWatchedFilesParams) {}
+    }
+
+    override fun didOpen(params: DidOpenTextDocumentParams) {}
+    override fun didChange(params: DidChangeTextDocumentParams) {}
+    override fun didClose(params: DidCloseTextDocumentParams) {}
+    override fun didSave(params: DidSaveTextDocumentParams) {}
+
+    /**
+     * Never responds, for requests to be cancelled
+     */
+    override fun hover(params: HoverParams): CompletableFuture<Hover> = CompletableFuture()
+
+    @Synchronized
+    override fun semanticTokensFull(params: SemanticTokensParams): CompletableFuture<SemanticTokens> {
+        fullRequests++
+        if (holdFullTokens) {
+            return CompletableFuture<SemanticTokens>().also { heldRequests.add(it) }
+        }
+        return CompletableFuture.completedFuture(sendFull())
+    }
+
+    @Synchronized
+    override fun semanticTokensFullDelta(params: SemanticTokensDeltaParams): CompletableFuture<Either<SemanticTokens, SemanticTokensDelta>> {
+        deltaRequests++
+        if (params.previousResultId != resultId.toString()) {
+            return CompletableFuture.completedFuture(Either.forLeft(sendFull()))
+        }
+        val current = tokens
+        var prefix = 0
+        while (prefix < current.size && prefix < sentTokens.size && current[prefix] == sentTokens[prefix]) {
+            prefix++
+        }
+        var suffix = 0
+        while (suffix < current.size - prefix && suffix < sentTokens.size - prefix
+            && current[current.size - 1 - suffix] == sentTokens[sentTokens.size - 1 - suffix]) {
+            suffix++
+        }
+        val edit = SemanticTokensEdit(prefix, sentTokens.size - prefix - suffix, current.subList(prefix, current.size - suffix))
+        if (corruptNextDelta) {
+            corruptNextDelta = false
+            edit.start = sentTokens.size + 1
+        }
+        sentTokens = current
+        return CompletableFuture.completedFuture(Either.forRight(SemanticTokensDelta(listOf(edit), (++resultId).toString())))
+    }
+
+    private fun sendFull(): SemanticTokens {
+        sentTokens = tokens
+        return SemanticTokens((++resultId).toString(), sentTokens)
+    }
+
+    /**
+     * Connection between the mock server and a client in the same process
+     */
+    class Connection(server: MockSemanticTokensServer, metrics: RequestMetrics? = null) : AutoCloseable {
+
+        val remoteServer: LanguageServer
+        private val serverListening: Future<Void>
+        private val clientListening: Future<Void>
+
+        init {
+            val serverInput = PipedInputStream()
+            val clientOutput = PipedOutputStream(serverInput)
+            val clientInput = PipedInputStream()
+            val serverOutput = PipedOutputStream(clientInput)
+            val serverLauncher = LSPLauncher.createServerLauncher(server, serverInput, serverOutput)
+            val clientLauncher = LSPLauncher.Builder<LanguageServer>()
+                .setLocalService(NoOpClient())
+                .setRemoteInterface(LanguageServer::class.java)
+                .setInput(metrics?.wrapInputStream(clientInput) ?: clientInput)
+                .setOutput(metrics?.wrapOutputStream(clientOutput) ?: clientOutput)
+                .wrapMessages(metrics)
+                .create()
+            serverListening = serverLauncher.startListening()
+            clientListening = clientLauncher.startListening()
+            remoteServer = clientLauncher.remoteProxy
+        }
+
+        override fun close() {
+            clientListening.cancel(true)
+            serverListening.cancel(true)
+        }
+    }
+
+    private class NoOpClient : LanguageClient {
+        override fun telemetryEvent(`object`: Any?) {}
+        override fun publishDiagnostics(diagnostics: PublishDiagnosticsParams?) {}
+        override fun showMessage(messageParams: MessageParams?) {}
+        override fun showMessageRequest(requestParams: ShowMessageRequestParams?): CompletableFuture<MessageActionItem> =
+            CompletableFuture.completedFuture(null)
+        override fun logMessage(message: MessageParams?) {}
+    }
+
+}
@@ -0,0 +1,354 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.editor.semantic
+
+import android.os.Bundle
+import android.os.Looper
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.lang.EmptyLanguage
+import io.github.rosemoe.sora.lang.analysis.AnalyzeManager
+import io.github.rosemoe.sora.lang.analysis.SequenceUpdateRange
+import io.github.rosemoe.sora.lang.analysis.StyleReceiver
+import io.github.rosemoe.sora.lang.analysis.StyleUpdateRange
+import io.github.rosemoe.sora.lang.brackets.BracketsProvider
+import io.github.rosemoe.sora.lang.diagnostic.DiagnosticsContainer
+import io.github.rosemoe.sora.lang.styling.MappedSpans
+import io.github.rosemoe.sora.lang.styling.Span
+import io.github.rosemoe.sora.lang.styling.Styles
+import io.github.rosemoe.sora.lang.styling.TextStyle
+import io.github.rosemoe.sora.lsp.operations.semantic.SemanticTokensProvider
+import io.github.rosemoe.sora.text.CharPosition
+import io.github.rosemoe.sora.text.Content
+import io.github.rosemoe.sora.text.ContentReference
+import io.github.rosemoe.sora.widget.schemes.EditorColorScheme
+import org.eclipse.lsp4j.InitializeParams
+import org.eclipse.lsp4j.SemanticTokens
+import org.eclipse.lsp4j.SemanticTokensDelta
+import org.eclipse.lsp4j.SemanticTokensDeltaParams
+import org.eclipse.lsp4j.SemanticTokensParams
+import org.eclipse.lsp4j.TextDocumentIdentifier
+import org.eclipse.lsp4j.jsonrpc.messages.Either
+import org.eclipse.lsp4j.services.LanguageServer
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+
+@RunWith(RobolectricTestRunner::class)
+class SemanticTokensAnalyzeManagerTest {
+
+    private lateinit var server: MockSemanticTokensServer
+    private lateinit var connection: MockSemanticTokensServer.Connection
+    private lateinit var provider: RemoteProvider
+    private lateinit var receiver: RecordingReceiver
+
+    /**
+     * Sends requests to the remote server directly, with capabilities it reports
+     */
+    private class RemoteProvider(private val server: LanguageServer) : SemanticTokensProvider() {
+
+        private val capabilities = server.initialize(InitializeParams()).get(10, TimeUnit.SECONDS).capabilities
+        private val document = TextDocumentIdentifier("file:///test.txt")
+
+        /**
+         * Called before sending next request
+         */
+        var beforeRequest: (() -> Unit)? = null
+
+        override fun isSupported() = true
+
+        override fun isDeltaSupported() = capabilities.semanticTokensProvider.full.right.delta
+
+        override fun getLegend() = capabilities.semanticTokensProvider.legend
+
+        override fun execute(previousResultId: String?): CompletableFuture<Either<SemanticTokens, SemanticTokensDelta>> {
+            beforeRequest?.invoke()
+            beforeRequest = null
+            val sent = CompletableFuture.completedFuture(null)
+            return if (previousResultId != null && isDeltaSupported()) {
+                sendAfter(sent, { server.textDocumentService.semanticTokensFullDelta(SemanticTokensDeltaParams(document, previousResultId)) }) { it }
+            } else {
+                sendAfter(sent, { server.textDocumentService.semanticTokensFull(SemanticTokensParams(document)) }) { Either.forLeft(it) }
+            }
+        }
+    }
+
+    private class RecordingReceiver : StyleReceiver {
+
+        var source: AnalyzeManager? = null
+        var styles: Styles? = null
+        val updates = mutableListOf<StyleUpdateRange>()
+
+        override fun setStyles(sourceManager: AnalyzeManager, styles: Styles?) {
+            setStyles(sourceManager, styles, null)
+        }
+
+        override fun setStyles(sourceManager: AnalyzeManager, styles: Styles?, action: Runnable?) {
+            source = sourceManager
+            this.styles = styles
+        }
+
+        override fun updateStyles(sourceManager: AnalyzeManager, styles: Styles, range: StyleUpdateRange) {
+            source = sourceManager
+            this.styles = styles
+            updates.add(range)
+        }
+
+        override fun setDiagnostics(sourceManager: AnalyzeManager, diagnostics: DiagnosticsContainer?) {}
+
+        override fun updateBracketProvider(sourceManager: AnalyzeManager, provider: BracketsProvider?) {}
+    }
+
+    /**
+     * Base manager that highlights the whole text as comment
+     */
+    private class CommentAnalyzeManager : AnalyzeManager {
+
+        private var receiver: StyleReceiver? = null
+
+        override fun setReceiver(receiver: StyleReceiver?) {
+            this.receiver = receiver
+        }
+
+        override fun reset(content: ContentReference, extraArguments: Bundle) {
+            val builder = MappedSpans.Builder()
+            for (line in 0 until content.lineCount) {
+                builder.add(line, Span.obtain(0, TextStyle.makeStyle(EditorColorScheme.COMMENT, 0, false, true, false)))
+            }
+            receiver?.setStyles(this, Styles(builder.build()))
+        }
+
+        override fun insert(start: CharPosition, end: CharPosition, insertedContent: CharSequence) {}
+        override fun delete(start: CharPosition, end: CharPosition, deletedContent: CharSequence) {}
+        override fun rerun() {}
+        override fun destroy() {}
+    }
+
+    @Before
+    fun setUp() {
+        server = MockSemanticTokensServer()
+        connection = MockSemanticTokensServer.Connection(server)
+        provider = RemoteProvider(connection.remoteServer)
+        receiver = RecordingReceiver()
+    }
+
+    @After
+    fun tearDown() {
+        connection.close()
+    }
+
+    private fun awaitUntil(condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + 10000
+        while (!condition()) {
+            check(System.currentTimeMillis() < deadline) { "condition is not met in time" }
+            shadowOf(Looper.getMainLooper()).idle()
+            Thread.sleep(5)
+        }
+        shadowOf(Looper.getMainLooper()).idle()
+    }
+
+    private fun foregrounds(styles: Styles, line: Int): List<String> {
+        val reader = styles.spans.read()
+        reader.moveToLine(line)
+        return List(reader.spanCount) {
+            val span = reader.getSpanAt(it)
+            "${span.column}:${TextStyle.getForegroundColorId(span.style)}"
+        }
+    }
+
+    private fun createManager(base: AnalyzeManager = EmptyLanguage.EmptyAnalyzeManager.INSTANCE): SemanticTokensAnalyzeManager {
+        val manager = SemanticTokensAnalyzeManager(base) { provider }
+        manager.requestDelay = 0
+        manager.setReceiver(receiver)
+        return manager
+    }
+
+    @Test
+    fun `test full tokens then deltas`() {
+        val content = Content("int a = 1;\nfoo(a);\n")
+        server.tokens = listOf(
+            0, 0, 3, 0, 0,
+            0, 4, 1, 1, 0,
+            1, 0, 3, 2, 0,
+            0, 4, 1, 1, 1
+        )
+        val manager = createManager()
+        manager.reset(ContentReference(content), Bundle())
+        awaitUntil { manager.requestCount == 1 && receiver.styles != null }
+
+        assertThat(receiver.source).isSameInstanceAs(manager)
+        val styles = receiver.styles!!
+        assertThat(foregrounds(styles, 0)).containsExactly("0:${EditorColorScheme.KEYWORD}", "3:${EditorColorScheme.TEXT_NORMAL}",
+            "4:${EditorColorScheme.IDENTIFIER_VAR}", "5:${EditorColorScheme.TEXT_NORMAL}").inOrder()
+        val reader = styles.spans.read()
+        reader.moveToLine(1)
+        // Deprecated variable
+        assertThat(TextStyle.isStrikeThrough(reader.getSpanAt(2).style)).isTrue()
+
+        // Type before 'foo' and shift tokens locally, as editor does
+        content.insert(1, 0, "x")
+        val start = CharPosition(1, 0, content.getCharIndex(1, 0))
+        val end = CharPosition(1, 1, content.getCharIndex(1, 1))
+        styles.adjustOnInsert(start, end)
+        assertThat(foregrounds(styles, 1)[1]).isEqualTo("1:${EditorColorScheme.FUNCTION_NAME}")
+
+        server.tokens = listOf(
+            0, 0, 3, 0, 0,
+            0, 4, 1, 1, 0,
+            1, 0, 4, 2, 0,
+            0, 5, 1, 1, 1
+        )
+        manager.insert(start, end, "x")
+        awaitUntil { receiver.updates.isNotEmpty() }
+
+        assertThat(server.fullRequests).isEqualTo(1)
+        assertThat(server.deltaRequests).isEqualTo(1)
+        assertThat(manager.deltaCount).isEqualTo(1)
+        assertThat(receiver.styles).isSameInstanceAs(styles)
+        assertThat(receiver.updates).hasSize(1)
+        val range = receiver.updates[0] as SequenceUpdateRange
+        assertThat(range.startLine).isEqualTo(1)
+        assertThat(range.endLine).isEqualTo(1)
+        assertThat(foregrounds(styles, 1)).containsExactly("0:${EditorColorScheme.FUNCTION_NAME}", "4:${EditorColorScheme.TEXT_NORMAL}",
+            "5:${EditorColorScheme.IDENTIFIER_VAR}", "6:${EditorColorScheme.TEXT_NORMAL}").inOrder()
+        manager.destroy()
+    }
+
+    @Test
+    fun `test invalid delta falls back to full tokens`() {
+        val content = Content("a b c")
+        server.tokens = listOf(0, 0, 1, 0, 0)
+        val manager = createManager()
+        manager.reset(ContentReference(content), Bundle())
+        awaitUntil { manager.requestCount == 1 && receiver.styles != null }
+
+        server.tokens = listOf(0, 0, 1, 0, 0, 0, 2, 1, 1, 0)
+        server.corruptNextDelta = true
+        content.insert(0, 5, " ")
+        manager.insert(CharPosition(0, 5, 5), CharPosition(0, 6, 6), " ")
+        awaitUntil { manager.requestCount == 3 && receiver.updates.isNotEmpty() }
+
+        assertThat(server.deltaRequests).isEqualTo(1)
+        assertThat(server.fullRequests).isEqualTo(2)
+        assertThat(foregrounds(receiver.styles!!, 0)).containsExactly("0:${EditorColorScheme.KEYWORD}", "1:${EditorColorScheme.TEXT_NORMAL}",
+            "2:${EditorColorScheme.IDENTIFIER_VAR}", "3:${EditorColorScheme.TEXT_NORMAL}").inOrder()
+        manager.destroy()
+    }
+
+    @Test
+    fun `test stale tokens are not displayed`() {
+        val content = Content("abc")
+        server.tokens = listOf(0, 0, 3, 0, 0)
+        val manager = createManager()
+        // Text changes after the request is made
+        provider.beforeRequest = { content.insert(0, 0, "d") }
+        manager.reset(ContentReference(content), Bundle())
+        awaitUntil { manager.requestCount == 1 }
+        assertThat(manager.store.lineCount).isEqualTo(0)
+        assertThat(receiver.styles).isNull()
+
+        manager.insert(CharPosition(0, 0, 0), CharPosition(0, 1, 1), "d")
+        server.tokens = listOf(0, 1, 3, 0, 0)
+        awaitUntil { manager.requestCount == 2 && receiver.styles != null }
+        assertThat(foregrounds(receiver.styles!!, 0)).containsExactly("0:${EditorColorScheme.TEXT_NORMAL}", "1:${EditorColorScheme.KEYWORD}",
+            "4:${EditorColorScheme.TEXT_NORMAL}").inOrder()
+        manager.destroy()
+    }
+
+    @Test
+    fun `test tokens are layered over base styles`() {
+        val content = Content("int a\n// b")
+        server.tokens = listOf(0, 4, 1, 1, 0)
+        val manager = createManager(CommentAnalyzeManager())
+        manager.reset(ContentReference(content), Bundle())
+        val styles = receiver.styles!!
+        assertThat(receiver.source).isSameInstanceAs(manager)
+        assertThat(styles.spans).isInstanceOf(LayeredSpans::class.java)
+        assertThat(foregrounds(styles, 0)).containsExactly("0:${EditorColorScheme.COMMENT}")
+
+        awaitUntil { manager.requestCount == 1 && receiver.updates.isNotEmpty() }
+        assertThat(receiver.styles).isSameInstanceAs(styles)
+        assertThat(foregrounds(styles, 0)).containsExactly("0:${EditorColorScheme.COMMENT}", "4:${EditorColorScheme.IDENTIFIER_VAR}",
+            "5:${EditorColorScheme.COMMENT}").inOrder()
+        val reader = styles.spans.read()
+        reader.moveToLine(0)
+        // Font style of base spans is kept
+        assertThat(TextStyle.isItalics(reader.getSpanAt(1).style)).isTrue()
+        assertThat(foregrounds(styles, 1)).containsExactly("0:${EditorColorScheme.COMMENT}")
+        manager.destroy()
+    }
+
+    @Test
+    fun `test merged spans are reused until tokens change`() {
+        val content = Content("int a\n// b")
+        server.tokens = listOf(0, 4, 1, 1, 0)
+        val manager = createManager(CommentAnalyzeManager())
+        manager.reset(ContentReference(content), Bundle())
+        awaitUntil { manager.requestCount == 1 && receiver.updates.isNotEmpty() }
+        val styles = receiver.styles!!
+
+        val first = styles.spans.read().also { it.moveToLine(0) }.getSpanAt(1)
+        val second = styles.spans.read().also { it.moveToLine(0) }.getSpanAt(1)
+        assertThat(second).isSameInstanceAs(first)
+
+        content.insert(0, 1, "x")
+        styles.adjustOnInsert(CharPosition(0, 1, 1), CharPosition(0, 2, 2))
+        val reader = styles.spans.read()
+        reader.moveToLine(0)
+        assertThat(reader.getSpanAt(1)).isNotSameInstanceAs(first)
+        assertThat(foregrounds(styles, 0)).containsExactly("0:${EditorColorScheme.COMMENT}", "5:${EditorColorScheme.IDENTIFIER_VAR}",
+            "6:${EditorColorScheme.COMMENT}").inOrder()
+        manager.destroy()
+    }
+
+    @Test
+    fun `test pending request is cancelled on server`() {
+        server.holdFullTokens = true
+        val manager = createManager()
+        manager.reset(ContentReference(Content("abc")), Bundle())
+        awaitUntil { server.heldRequests.size == 1 }
+        manager.destroy()
+        awaitUntil { server.heldRequests[0].isCancelled }
+    }
+
+    @Test
+    fun `test detached manager stops requesting`() {
+        val content = Content("abc")
+        server.tokens = listOf(0, 0, 3, 0, 0)
+        val manager = createManager()
+        manager.reset(ContentReference(content), Bundle())
+        awaitUntil { manager.requestCount == 1 }
+
+        assertThat(manager.detach()).isSameInstanceAs(receiver)
+        content.insert(0, 0, "d")
+        manager.insert(CharPosition(0, 0, 0), CharPosition(0, 1, 1), "d")
+        shadowOf(Looper.getMainLooper()).idle()
+        assertThat(server.fullRequests + server.deltaRequests).isEqualTo(1)
+    }
+
+}
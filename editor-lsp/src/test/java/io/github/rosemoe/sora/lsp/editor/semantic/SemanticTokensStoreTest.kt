@@ -0,0 +1,155 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.editor.semantic
+
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.lang.styling.Span
+import io.github.rosemoe.sora.lang.styling.TextStyle
+import io.github.rosemoe.sora.text.CharPosition
+import org.eclipse.lsp4j.SemanticTokensEdit
+import org.junit.Assert.assertThrows
+import org.junit.Test
+
+class SemanticTokensStoreTest {
+
+    /**
+     * Uses token type plus one as style
+     */
+    private val resolver = SemanticTokensStore.StyleResolver { type, _ -> type + 1L }
+
+    private fun CharPosition(line: Int, column: Int) = CharPosition().also {
+        it.line = line
+        it.column = column
+    }
+
+    /**
+     * Describe tokens on a line as "column+length:style" entries
+     */
+    private fun SemanticTokensStore.describe(line: Int): List<String> {
+        val tokens = getTokensOnLine(line) ?: return emptyList()
+        return List(SemanticTokensStore.getTokenCount(tokens)) {
+            "${SemanticTokensStore.getColumn(tokens, it)}+${SemanticTokensStore.getLength(tokens, it)}:${SemanticTokensStore.getStyle(tokens, it)}"
+        }
+    }
+
+    private fun store(vararg data: Int) = SemanticTokensStore().also {
+        it.setLines(SemanticTokensStore.decode(data, resolver))
+    }
+
+    @Test
+    fun `test decode relative tokens`() {
+        val store = store(
+            0, 0, 3, 0, 0,
+            0, 4, 1, 1, 0,
+            2, 2, 3, 2, 0,
+            0, 5, 2, 0, 0
+        )
+        assertThat(store.lineCount).isEqualTo(3)
+        assertThat(store.describe(0)).containsExactly("0+3:1", "4+1:2").inOrder()
+        assertThat(store.getTokensOnLine(1)).isNull()
+        assertThat(store.describe(2)).containsExactly("2+3:3", "7+2:1").inOrder()
+    }
+
+    @Test
+    fun `test tokens without style are skipped`() {
+        val lines = SemanticTokensStore.decode(intArrayOf(0, 0, 3, 0, 0, 1, 0, 2, 1, 0), SemanticTokensStore.StyleResolver { type, _ -> if (type == 0) 0 else 9 })
+        assertThat(lines[0]).isNull()
+        assertThat(lines[1]).isEqualTo(longArrayOf((0L shl 32) or 2L, 9))
+    }
+
+    @Test
+    fun `test apply edits`() {
+        val data = IntArray(10) { it }
+        val result = SemanticTokensStore.applyEdits(data, listOf(
+            SemanticTokensEdit(7, 2, listOf(70, 71, 72)),
+            SemanticTokensEdit(0, 1, emptyList()),
+            SemanticTokensEdit(3, 0, listOf(30))
+        ))
+        assertThat(result.toList()).containsExactly(1, 2, 30, 3, 4, 5, 6, 70, 71, 72, 9).inOrder()
+        assertThrows(IllegalArgumentException::class.java) {
+            SemanticTokensStore.applyEdits(data, listOf(SemanticTokensEdit(8, 5, emptyList())))
+        }
+        assertThrows(IllegalArgumentException::class.java) {
+            SemanticTokensStore.applyEdits(data, listOf(SemanticTokensEdit(2, 3, emptyList()), SemanticTokensEdit(4, 1, emptyList())))
+        }
+    }
+
+    @Test
+    fun `test changed line range`() {
+        val store = store(0, 0, 3, 0, 0, 1, 0, 3, 0, 0, 1, 0, 3, 0, 0)
+        assertThat(store.setLines(SemanticTokensStore.decode(intArrayOf(0, 0, 3, 0, 0, 1, 0, 3, 0, 0, 1, 0, 3, 0, 0), resolver))).isNull()
+        assertThat(store.setLines(SemanticTokensStore.decode(intArrayOf(0, 0, 3, 0, 0, 1, 1, 3, 0, 0, 1, 0, 3, 0, 0), resolver)))
+            .isEqualTo(intArrayOf(1, 1))
+        assertThat(store.setLines(SemanticTokensStore.decode(intArrayOf(0, 0, 3, 0, 0), resolver)))
+            .isEqualTo(intArrayOf(1, Int.MAX_VALUE))
+    }
+
+    @Test
+    fun `test adjust on single line edits`() {
+        val store = store(0, 2, 3, 0, 0, 0, 4, 2, 1, 0)
+        // Insert inside the first token and before the second one
+        store.adjustOnInsert(CharPosition(0, 3), CharPosition(0, 5))
+        assertThat(store.describe(0)).containsExactly("2+5:1", "8+2:2").inOrder()
+        // Insert at the start of a token moves it
+        store.adjustOnInsert(CharPosition(0, 2), CharPosition(0, 3))
+        assertThat(store.describe(0)).containsExactly("3+5:1", "9+2:2").inOrder()
+        // Delete the end of first token and the start of second one
+        store.adjustOnDelete(CharPosition(0, 6), CharPosition(0, 10))
+        assertThat(store.describe(0)).containsExactly("3+3:1", "6+1:2").inOrder()
+        // Delete a whole token
+        store.adjustOnDelete(CharPosition(0, 6), CharPosition(0, 7))
+        assertThat(store.describe(0)).containsExactly("3+3:1")
+    }
+
+    @Test
+    fun `test adjust on multi-line edits`() {
+        val store = store(0, 0, 3, 0, 0, 0, 4, 4, 1, 0, 1, 1, 2, 2, 0)
+        // Break the second token on line 0 into two lines
+        store.adjustOnInsert(CharPosition(0, 6), CharPosition(2, 1))
+        assertThat(store.lineCount).isEqualTo(4)
+        assertThat(store.describe(0)).containsExactly("0+3:1", "4+2:2").inOrder()
+        assertThat(store.getTokensOnLine(1)).isNull()
+        assertThat(store.describe(2)).containsExactly("1+2:2")
+        assertThat(store.describe(3)).containsExactly("1+2:3")
+        // Join them again
+        store.adjustOnDelete(CharPosition(0, 6), CharPosition(2, 1))
+        assertThat(store.lineCount).isEqualTo(2)
+        assertThat(store.describe(0)).containsExactly("0+3:1", "4+2:2", "6+2:2").inOrder()
+        assertThat(store.describe(1)).containsExactly("1+2:3")
+        // Delete to the end of document
+        store.adjustOnDelete(CharPosition(0, 5), CharPosition(1, 3))
+        assertThat(store.lineCount).isEqualTo(1)
+        assertThat(store.describe(0)).containsExactly("0+3:1", "4+1:2").inOrder()
+    }
+
+    @Test
+    fun `test tokens layered over base spans`() {
+        val bold = TextStyle.makeStyle(1, 0, true, false, false)
+        val base = listOf(Span.obtain(0, TextStyle.makeStyle(1)), Span.obtain(5, bold), Span.obtain(10, TextStyle.makeStyle(2, 3, false, false, false)))
+        val tokens = longArrayOf((2L shl 32) or 5L, TextStyle.makeStyle(7), (11L shl 32) or 1L, TextStyle.makeStyle(8, 9, false, true, false))
+        val merged = LayeredSpans.merge(base, tokens).map { "${it.column}:${TextStyle.getForegroundColorId(it.style)}/${TextStyle.getBackgroundColorId(it.style)}${if (TextStyle.isBold(it.style)) "b" else ""}${if (TextStyle.isItalics(it.style)) "i" else ""}" }
+        assertThat(merged).containsExactly("0:1/0", "2:7/0", "5:7/0b", "7:1/0b", "10:2/3", "11:8/9i", "12:2/3").inOrder()
+    }
+
+}
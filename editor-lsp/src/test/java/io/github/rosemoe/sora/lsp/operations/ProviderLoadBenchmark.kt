@@ -0,0 +1,295 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.operations
+
+import android.app.Activity
+import android.os.Looper
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.lsp.client.connection.ScriptedLanguageServer
+import io.github.rosemoe.sora.lsp.client.languageserver.serverdefinition.CustomLanguageServerDefinition
+import io.github.rosemoe.sora.lsp.client.languageserver.wrapper.LanguageServerPool
+import io.github.rosemoe.sora.lsp.editor.LspEditor
+import io.github.rosemoe.sora.lsp.editor.LspEditorManager
+import io.github.rosemoe.sora.lsp.operations.completion.CompletionProvider
+import io.github.rosemoe.sora.lsp.operations.completion.CompletionResolveProvider
+import io.github.rosemoe.sora.lsp.operations.format.FullFormattingProvider
+import io.github.rosemoe.sora.lsp.operations.format.RangeFormattingProvider
+import io.github.rosemoe.sora.lsp.operations.hover.HoverProvider
+import io.github.rosemoe.sora.lsp.operations.semantic.SemanticTokensProvider
+import io.github.rosemoe.sora.lsp.operations.signature.SignatureHelpProvider
+import io.github.rosemoe.sora.lsp.operations.symbol.DocumentSymbolProvider
+import io.github.rosemoe.sora.lsp.requests.RequestMetrics
+import io.github.rosemoe.sora.text.CharPosition
+import io.github.rosemoe.sora.text.Content
+import io.github.rosemoe.sora.text.TextRange
+import io.github.rosemoe.sora.widget.CodeEditor
+import org.junit.After
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import java.util.Locale
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+/**
+ * Load benchmark of the providers against [ScriptedLanguageServer], which runs in the same process
+ * and answers with large payloads. Requests are sent through the providers one after another, as
+ * the editor does.
+ *
+ * Throughput and latency percentiles measured at the editor side are reported on standard output
+ * for each provider, together with the latencies recorded by [RequestMetrics] for the messages
+ * exchanged. The benchmark is skipped unless the system property `sora.benchmark.lsp.requests` is
+ * set to the request count of each provider, for example by
+ * `./gradlew :editor-lsp:testDebugUnitTest -Psora.benchmark.lsp.requests=100`. The latency of the
+ * server in milliseconds can be set by `sora.benchmark.lsp.latency`.
+ *
+ * Note that the messages are still serialized and parsed by lsp4j, so the numbers include the
+ * cost of JSON but not of a process boundary.
+ */
+@RunWith(RobolectricTestRunner::class)
+class ProviderLoadBenchmark {
+
+    companion object {
+        const val LINE_COUNT = 5000
+        val REQUESTS = System.getProperty("sora.benchmark.lsp.requests")?.toIntOrNull() ?: 0
+        val LATENCY = System.getProperty("sora.benchmark.lsp.latency")?.toLongOrNull() ?: 0L
+        const val WARMUP_REQUESTS = 10
+        const val TIMEOUT_SECONDS = 10L
+        const val PROJECT = "/benchmark"
+        const val URI = "file:///benchmark/Main.kt"
+    }
+
+    private val server = ScriptedLanguageServer()
+
+    private val definition = CustomLanguageServerDefinition(".kt", server.connectProvider)
+
+    private lateinit var codeEditor: CodeEditor
+
+    private lateinit var lspEditor: LspEditor
+
+    /**
+     * Text without empty lines, so that each of the diagnostics spread over lines has a distinct range
+     */
+    private fun sourceText(lines: Int) = (0 until lines).joinToString("\n") {
+        "    ".repeat(it % 4) + "val value$it = call($it, \"text\")"
+    }
+
+    private fun awaitUntil(condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS)
+        while (!condition()) {
+            check(System.currentTimeMillis() < deadline) { "condition is not met in time" }
+            shadowOf(Looper.getMainLooper()).idle()
+            Thread.sleep(1)
+        }
+    }
+
+    private inline fun <reified T : Provider<*, *>> provider(): T = lspEditor.providerManager.useProvider(T::class.java)!!
+
+    private val requestMetrics: RequestMetrics
+        get() = LanguageServerPool.get(definition, PROJECT)!!.requestMetrics
+
+    private fun ms(nanos: Long) = nanos / 1e6
+
+    /**
+     * Run the action for warmup and then for the given count of times, and report the durations
+     *
+     * @param methods Methods sent by the action, whose latencies in [RequestMetrics] are reported
+     */
+    private fun measure(name: String, vararg methods: String, requests: Int = REQUESTS, action: (Int) -> Unit): LongArray {
+        repeat(WARMUP_REQUESTS) { action(it) }
+        for (method in methods) {
+            requestMetrics.getMethodMetrics(method)?.latency?.clear()
+        }
+        val durations = LongArray(requests)
+        val start = System.nanoTime()
+        for (i in 0 until requests) {
+            val requestStart = System.nanoTime()
+            action(WARMUP_REQUESTS + i)
+            durations[i] = System.nanoTime() - requestStart
+        }
+        val elapsed = System.nanoTime() - start
+        durations.sort()
+        println(String.format(Locale.ROOT, "%-18s %5d ops %9.1f ops/s  p50 %8.3f ms  p99 %8.3f ms  max %8.3f ms",
+            name, requests, requests / (elapsed / 1e9), ms(durations[requests / 2]), ms(durations[(requests - 1) * 99 / 100]),
+            ms(durations.last())))
+        for (method in methods) {
+            val metrics = requestMetrics.getMethodMetrics(method) ?: continue
+            val latency = metrics.latency
+            val summary = if (latency.count > 0) {
+                String.format(Locale.ROOT, "p50 %8.3f ms  p99 %8.3f ms", latency.getPercentile(50.0) / 1e3, latency.getPercentile(99.0) / 1e3)
+            } else {
+                "${metrics.notificationCount} notifications"
+            }
+            println(String.format(Locale.ROOT, "    %-36s %s  sent %d KiB  received %d KiB", method, summary,
+                metrics.bytesSent / 1024, metrics.bytesReceived / 1024))
+        }
+        return durations
+    }
+
+    private fun position(index: Int) = CharPosition(index % LINE_COUNT, 4)
+
+    @Before
+    fun setup() {
+        assumeTrue("sora.benchmark.lsp.requests is not set", REQUESTS > 0)
+        server.latency = LATENCY
+        server.completionItemCount = 2000
+        server.semanticTokenCount = 2 * LINE_COUNT
+        server.symbolCount = 1000
+        server.formattingEditCount = 500
+
+        val activity = Robolectric.buildActivity(Activity::class.java).setup().get()
+        codeEditor = CodeEditor(activity)
+        activity.setContentView(codeEditor)
+        codeEditor.setText(sourceText(LINE_COUNT))
+        lspEditor = LspEditorManager.getOrCreateEditorManager(PROJECT).createEditor(URI, definition)
+        lspEditor.setEditor(codeEditor)
+        lspEditor.connect()
+        awaitUntil { server.getText(URI) != null }
+    }
+
+    @After
+    fun teardown() {
+        LspEditorManager.closeAllManager()
+        LanguageServerPool.get(definition, PROJECT)?.let { LanguageServerPool.release(it, lspEditor) }
+        LanguageServerPool.stopIdleServers()
+        server.close()
+    }
+
+    @Test
+    fun `test request providers under load`() {
+        println("Providers: $LINE_COUNT lines, server latency $LATENCY ms")
+        val cache = lspEditor.providerManager.responseCache
+
+        var completionList = emptyList<org.eclipse.lsp4j.CompletionItem>()
+        measure("completion", "textDocument/completion") {
+            completionList = provider<CompletionProvider>().execute(position(it)).get(TIMEOUT_SECONDS, TimeUnit.SECONDS).items
+        }
+        assertThat(completionList).hasSize(server.completionItemCount)
+
+        measure("completionResolve", "completionItem/resolve") {
+            val item = provider<CompletionResolveProvider>().execute(completionList[it]).get(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            assertThat(item.documentation).isNotNull()
+        }
+
+        // Distinct positions, so that the responses are not cached
+        measure("hover", "textDocument/hover") {
+            assertThat(provider<HoverProvider>().execute(position(it)).get(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isNotNull()
+        }
+
+        measure("signatureHelp", "textDocument/signatureHelp") {
+            provider<SignatureHelpProvider>().execute(position(it))
+        }
+
+        measure("documentSymbol", "textDocument/documentSymbol") {
+            cache.clear()
+            val symbols = provider<DocumentSymbolProvider>().execute(null).get(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            assertThat(symbols).hasSize(server.symbolCount)
+        }
+
+        measure("semanticTokens", "textDocument/semanticTokens/full") {
+            val tokens = provider<SemanticTokensProvider>().execute(null).get(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            assertThat(tokens.left.data).hasSize(server.semanticTokenCount * 5)
+        }
+
+        // The server only re-indents lines, so repeated formatting keeps the text
+        val target = Content(codeEditor.text)
+        measure("formatting", "textDocument/formatting") {
+            provider<FullFormattingProvider>().execute(target)
+        }
+        measure("rangeFormatting", "textDocument/rangeFormatting") {
+            val start = (it * 37) % (LINE_COUNT - 100)
+            val range = TextRange(target.indexer.getCharPosition(start, 0), target.indexer.getCharPosition(start + 100, 0))
+            provider<RangeFormattingProvider>().execute(android.util.Pair(target, range))
+        }
+        assertThat(target.toString()).isEqualTo(codeEditor.text.toString())
+
+        shadowOf(Looper.getMainLooper()).idle()
+        assertThat(server.injectedErrorCount).isEqualTo(0)
+        assertThat(requestMetrics.inFlightCount).isEqualTo(0)
+    }
+
+    @Test
+    fun `test document changes and diagnostics floods`() {
+        val text = codeEditor.text
+        // Typing at several places of the document, with changes sent in batches
+        measure("typing", "textDocument/didChange", requests = REQUESTS * 10) {
+            val line = (it * 7) % LINE_COUNT
+            text.insert(line, text.getColumnCount(line), "x")
+        }
+        val syncStart = System.nanoTime()
+        lspEditor.flushDocumentChanges().get(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+        awaitUntil { server.getText(URI) == text.toString() }
+        println(String.format(Locale.ROOT, "    %d edits sent in %d notifications, in sync %.3f ms after the last edit",
+            (REQUESTS + WARMUP_REQUESTS) * 10, server.changeCount, ms(System.nanoTime() - syncStart)))
+        assertThat(server.changeCount).isLessThan((REQUESTS + WARMUP_REQUESTS) * 10)
+
+        // Counts differ between floods, so that each of them is applied to the editor
+        val flood = 10 * LINE_COUNT
+        val floods = maxOf(1, REQUESTS / 10)
+        measure("diagnosticsFlood", "textDocument/publishDiagnostics", requests = floods) {
+            val count = flood - it % 2
+            server.publishDiagnostics(URI, count)
+            awaitUntil { codeEditor.diagnostics?.allDiagnostics?.size == count }
+        }
+        assertThat(lspEditor.diagnostics).hasSize(flood - (floods + WARMUP_REQUESTS - 1) % 2)
+    }
+
+    @Test
+    fun `test injected failures do not break the connection`() {
+        server.latency = 1
+        server.errorRate = 0.2
+        server.dropRate = 0.05
+        var succeeded = 0
+        var failed = 0
+        var timedOut = 0
+        measure("hoverWithFailures", "textDocument/hover") {
+            val future = provider<HoverProvider>().execute(position(it))
+            try {
+                future.get(200, TimeUnit.MILLISECONDS)
+                succeeded++
+            } catch (e: ExecutionException) {
+                failed++
+            } catch (e: TimeoutException) {
+                future.cancel(true)
+                timedOut++
+            }
+        }
+        println("    $succeeded succeeded, $failed failed, $timedOut timed out")
+        assertThat(succeeded + failed + timedOut).isEqualTo(REQUESTS + WARMUP_REQUESTS)
+        assertThat(failed).isEqualTo(server.injectedErrorCount)
+        assertThat(timedOut).isEqualTo(server.droppedRequestCount)
+        assertThat(requestMetrics.getMethodMetrics("textDocument/hover")!!.errorCount).isEqualTo(failed.toLong())
+
+        server.errorRate = 0.0
+        server.dropRate = 0.0
+        assertThat(provider<HoverProvider>().execute(position(LINE_COUNT - 1)).get(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isNotNull()
+        assertThat(provider<SemanticTokensProvider>().execute(null).get(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isNotNull()
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.operations.diagnostics
+
+import android.app.Activity
+import android.os.Looper
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.lang.diagnostic.DiagnosticDetail
+import io.github.rosemoe.sora.lang.diagnostic.DiagnosticRegion
+import io.github.rosemoe.sora.lsp.client.connection.ScriptedLanguageServer
+import io.github.rosemoe.sora.lsp.client.languageserver.serverdefinition.CustomLanguageServerDefinition
+import io.github.rosemoe.sora.lsp.editor.LspEditorManager
+import io.github.rosemoe.sora.widget.CodeEditor
+import org.eclipse.lsp4j.Diagnostic
+import org.eclipse.lsp4j.Position
+import org.eclipse.lsp4j.Range
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+
+@RunWith(RobolectricTestRunner::class)
+class PublishDiagnosticsProviderTest {
+
+    companion object {
+        const val PROJECT = "/diagnostics"
+        const val URI = "file:///diagnostics/Main.kt"
+    }
+
+    private val server = ScriptedLanguageServer()
+
+    private lateinit var codeEditor: CodeEditor
+
+    private lateinit var provider: PublishDiagnosticsProvider
+
+    @Before
+    fun setup() {
+        val activity = Robolectric.buildActivity(Activity::class.java).setup().get()
+        codeEditor = CodeEditor(activity)
+        activity.setContentView(codeEditor)
+        codeEditor.setText("line0\nline1\nline2")
+        val definition = CustomLanguageServerDefinition(".kt", server.connectProvider)
+        val lspEditor = LspEditorManager.getOrCreateEditorManager(PROJECT).createEditor(URI, definition)
+        lspEditor.setEditor(codeEditor)
+        provider = PublishDiagnosticsProvider()
+        provider.init(lspEditor)
+    }
+
+    @After
+    fun teardown() {
+        LspEditorManager.closeAllManager()
+        server.close()
+    }
+
+    private fun diagnostic(line: Int, startColumn: Int, endColumn: Int, message: String = "message") =
+        Diagnostic(Range(Position(line, startColumn), Position(line, endColumn)), message)
+
+    /**
+     * Run the provider off the main thread, as it is when diagnostics come from the server, and
+     * then run the update posted to the editor
+     */
+    private fun publish(vararg diagnostics: Diagnostic) {
+        val thread = Thread { provider.run(diagnostics.toList()) }
+        thread.start()
+        thread.join()
+        shadowOf(Looper.getMainLooper()).idle()
+    }
+
+    private fun region(start: Int, end: Int, message: String) =
+        DiagnosticRegion(start, end, DiagnosticRegion.SEVERITY_ERROR, 0, DiagnosticDetail("Error", message, null, null))
+
+    @Test
+    fun `test unchanged regions are kept`() {
+        val previous = mutableListOf(region(0, 1, "a"), region(2, 3, "b"), region(5, 6, "c"))
+        val regions = mutableListOf(region(0, 1, "a"), region(2, 3, "changed"), region(4, 5, "new"), region(5, 6, "c"))
+        val changed = regions[1]
+        assertThat(PublishDiagnosticsProvider.keepUnchangedRegions(previous, regions)).isEqualTo(2)
+        assertThat(regions[0]).isSameInstanceAs(previous[0])
+        assertThat(regions[1]).isSameInstanceAs(changed)
+        assertThat(regions[3]).isSameInstanceAs(previous[2])
+    }
+
+    @Test
+    fun `test same diagnostics do not replace the container`() {
+        publish(diagnostic(0, 0, 4), diagnostic(2, 1, 3))
+        val container = codeEditor.diagnostics
+        assertThat(container).isNotNull()
+        assertThat(container!!.allDiagnostics).hasSize(2)
+        // Equal diagnostics in another order
+        publish(diagnostic(2, 1, 3), diagnostic(0, 0, 4))
+        assertThat(codeEditor.diagnostics).isSameInstanceAs(container)
+    }
+
+    @Test
+    fun `test changed diagnostics keep unchanged regions`() {
+        publish(diagnostic(0, 0, 4), diagnostic(2, 1, 3))
+        val old = codeEditor.diagnostics!!.allDiagnostics.sortedBy { it.startIndex }
+        publish(diagnostic(0, 0, 4), diagnostic(2, 1, 3, "changed"), diagnostic(1, 0, 2))
+        val container = codeEditor.diagnostics!!
+        val regions = container.allDiagnostics.sortedBy { it.startIndex }
+        assertThat(regions).hasSize(3)
+        assertThat(regions[0]).isSameInstanceAs(old[0])
+        assertThat(regions[2]).isNotSameInstanceAs(old[1])
+        assertThat(regions[2].detail!!.detailedMessage).isEqualTo("changed")
+    }
+
+    @Test
+    fun `test empty diagnostics clear the editor`() {
+        publish(diagnostic(0, 0, 4))
+        publish()
+        assertThat(codeEditor.diagnostics!!.allDiagnostics).isEmpty()
+    }
+
+}
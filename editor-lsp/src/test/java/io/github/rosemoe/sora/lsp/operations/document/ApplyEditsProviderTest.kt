@@ -0,0 +1,127 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.operations.document
+
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.text.Content
+import org.eclipse.lsp4j.Position
+import org.eclipse.lsp4j.Range
+import org.eclipse.lsp4j.TextEdit
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.util.Random
+
+@RunWith(RobolectricTestRunner::class)
+class ApplyEditsProviderTest {
+
+    private fun edit(startLine: Int, startColumn: Int, endLine: Int, endColumn: Int, text: String) =
+        TextEdit(Range(Position(startLine, startColumn), Position(endLine, endColumn)), text)
+
+    /**
+     * Formatter-like edits that change indentation of lines, with ranges in the original text
+     */
+    private fun indentEdits(lines: List<String>, random: Random): List<TextEdit> {
+        val edits = mutableListOf<TextEdit>()
+        lines.forEachIndexed { line, text ->
+            val indent = text.length - text.trimStart().length
+            if (random.nextBoolean()) {
+                edits.add(edit(line, 0, line, indent, "\t".repeat(random.nextInt(3))))
+            }
+        }
+        // Servers may send edits in any order
+        edits.shuffle(random)
+        return edits
+    }
+
+    private fun expectedText(lines: List<String>, edits: List<TextEdit>): String {
+        val result = lines.toMutableList()
+        for (edit in edits.sortedByDescending { it.range.start.line }) {
+            val line = edit.range.start.line
+            result[line] = edit.newText + result[line].substring(edit.range.end.character)
+        }
+        return result.joinToString("\n")
+    }
+
+    private fun sourceLines(count: Int, random: Random) = List(count) {
+        " ".repeat(random.nextInt(9)) + "statement$it(${random.nextInt(100)});"
+    }
+
+    @Test
+    fun `test edits refer to original text`() {
+        val content = Content("abc\ndef\nghi")
+        val applied = ApplyEditsProvider.applyEdits(content, listOf(
+            edit(0, 0, 0, 1, "AA"),
+            edit(1, 1, 2, 1, "-"),
+            edit(2, 3, 2, 3, "!")
+        ))
+        assertThat(applied).isEqualTo(3)
+        assertThat(content.toString()).isEqualTo("AAbc\nd-hi!")
+        // Applied as one action
+        content.undo()
+        assertThat(content.toString()).isEqualTo("abc\ndef\nghi")
+    }
+
+    @Test
+    fun `test inserts at the same position keep their order`() {
+        val content = Content("abc")
+        ApplyEditsProvider.applyEdits(content, listOf(
+            edit(0, 1, 0, 1, "1"),
+            edit(0, 1, 0, 1, "2"),
+            edit(0, 1, 0, 2, "3"),
+            // Reversed range
+            edit(0, 3, 0, 2, "4")
+        ))
+        assertThat(content.toString()).isEqualTo("a1234")
+    }
+
+    @Test
+    fun `test overlapping edits are skipped`() {
+        val content = Content("abcdef")
+        val applied = ApplyEditsProvider.applyEdits(content, listOf(
+            edit(0, 0, 0, 3, "x"),
+            edit(0, 2, 0, 4, "y"),
+            edit(0, 4, 0, 6, "z")
+        ))
+        assertThat(applied).isEqualTo(2)
+        assertThat(content.toString()).isEqualTo("xdz")
+    }
+
+    @Test
+    fun `test formatting edits in batch and by diff`() {
+        val random = Random(0)
+        for (count in listOf(50, 5000)) {
+            val lines = sourceLines(count, random)
+            val original = lines.joinToString("\n")
+            val edits = indentEdits(lines, random)
+            val content = Content(original)
+            val applied = ApplyEditsProvider.applyEdits(content, edits)
+            assertThat(applied).isEqualTo(edits.size)
+            assertThat(content.toString()).isEqualTo(expectedText(lines, edits))
+            content.undo()
+            assertThat(content.toString()).isEqualTo(original)
+        }
+    }
+
+}
@@ -0,0 +1,240 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.requests
+
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.lsp.editor.semantic.MockSemanticTokensServer
+import org.eclipse.lsp4j.DidOpenTextDocumentParams
+import org.eclipse.lsp4j.HoverParams
+import org.eclipse.lsp4j.InitializeParams
+import org.eclipse.lsp4j.Position
+import org.eclipse.lsp4j.SemanticTokensParams
+import org.eclipse.lsp4j.TextDocumentIdentifier
+import org.eclipse.lsp4j.TextDocumentItem
+import org.eclipse.lsp4j.jsonrpc.Endpoint
+import org.eclipse.lsp4j.jsonrpc.MessageConsumer
+import org.eclipse.lsp4j.jsonrpc.RemoteEndpoint
+import org.eclipse.lsp4j.jsonrpc.messages.Message
+import org.eclipse.lsp4j.jsonrpc.messages.RequestMessage
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseMessage
+import org.junit.Test
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+
+class RequestMetricsTest {
+
+    private val document = TextDocumentIdentifier("file:///test.txt")
+
+    private class RecordingListener : RequestMetricsListener {
+
+        val records = mutableListOf<RequestRecord>()
+        val notifications = mutableListOf<String>()
+
+        @Synchronized
+        override fun onRequestFinished(record: RequestRecord) {
+            records.add(record)
+        }
+
+        @Synchronized
+        override fun onNotification(method: String, incoming: Boolean, payloadBytes: Long) {
+            notifications.add("${if (incoming) "in" else "out"}:$method:${payloadBytes > 0}")
+        }
+    }
+
+    private fun awaitUntil(condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + 10000
+        while (!condition()) {
+            check(System.currentTimeMillis() < deadline) { "condition is not met in time" }
+            Thread.sleep(5)
+        }
+    }
+
+    @Test
+    fun `test histogram percentiles`() {
+        val histogram = LatencyHistogram()
+        assertThat(histogram.getPercentile(50.0)).isEqualTo(0)
+        for (i in 1..1000) {
+            histogram.record(i.toLong(), TimeUnit.MILLISECONDS)
+        }
+        assertThat(histogram.count).isEqualTo(1000)
+        // Reported values are not less than actual ones, and at most 25% larger
+        assertThat(histogram.getPercentile(50.0)).isIn(500_000L..625_000L)
+        assertThat(histogram.getPercentile(99.0)).isIn(990_000L..1_237_500L)
+        assertThat(histogram.getPercentile(100.0)).isIn(1_000_000L..1_250_000L)
+        for (micros in listOf(0L, 1L, 3L, 4L, 7L, 8L, 1000L, 123_456_789L)) {
+            val index = LatencyHistogram.getBucketIndex(micros)
+            assertThat(LatencyHistogram.getBucketUpperBound(index)).isAtLeast(micros)
+            if (index > 0) {
+                assertThat(LatencyHistogram.getBucketUpperBound(index - 1)).isLessThan(micros)
+            }
+        }
+    }
+
+    @Test
+    fun `test requests to server`() {
+        val metrics = RequestMetrics()
+        val listener = RecordingListener()
+        metrics.addListener(listener)
+        MockSemanticTokensServer.Connection(MockSemanticTokensServer(), metrics).use { connection ->
+            val server = connection.remoteServer
+            server.initialize(InitializeParams()).get(10, TimeUnit.SECONDS)
+            server.textDocumentService.didOpen(DidOpenTextDocumentParams(TextDocumentItem(document.uri, "text", 1, "abc")))
+            repeat(5) {
+                server.textDocumentService.semanticTokensFull(SemanticTokensParams(document)).get(10, TimeUnit.SECONDS)
+            }
+            val hover = server.textDocumentService.hover(HoverParams(document, Position(0, 0)))
+            awaitUntil { metrics.getMethodMetrics("textDocument/hover")?.inFlightCount == 1L }
+            assertThat(metrics.inFlightCount).isEqualTo(1L)
+            hover.cancel(true)
+            awaitUntil { metrics.inFlightCount == 0L }
+        }
+
+        val tokens = metrics.getMethodMetrics("textDocument/semanticTokens/full")!!
+        assertThat(tokens.requestCount).isEqualTo(5)
+        assertThat(tokens.inFlightCount).isEqualTo(0)
+        assertThat(tokens.errorCount).isEqualTo(0)
+        assertThat(tokens.latency.count).isEqualTo(5)
+        assertThat(tokens.bytesSent).isGreaterThan(5 * "textDocument/semanticTokens/full".length.toLong())
+        assertThat(tokens.bytesReceived).isGreaterThan(0)
+
+        val hover = metrics.getMethodMetrics("textDocument/hover")!!
+        assertThat(hover.cancellationCount).isEqualTo(1)
+        assertThat(hover.latency.count).isEqualTo(0)
+        assertThat(metrics.getMethodMetrics("textDocument/didOpen")!!.notificationCount).isEqualTo(1)
+
+        synchronized(listener) {
+            assertThat(listener.records.map { "${it.method}:${it.outcome}" }).containsExactly(
+                "initialize:SUCCESS",
+                "textDocument/semanticTokens/full:SUCCESS",
+                "textDocument/semanticTokens/full:SUCCESS",
+                "textDocument/semanticTokens/full:SUCCESS",
+                "textDocument/semanticTokens/full:SUCCESS",
+                "textDocument/semanticTokens/full:SUCCESS",
+                "textDocument/hover:CANCELLED"
+            ).inOrder()
+            for (record in listener.records) {
+                assertThat(record.requestBytes).isGreaterThan(0)
+                // Sending and receiving may overlap
+                assertThat(record.latencyNanos).isAtLeast(record.sendNanos)
+                assertThat(record.latencyNanos).isAtLeast(record.receiveNanos)
+            }
+            assertThat(listener.notifications).containsAtLeast("out:textDocument/didOpen:true", "out:$/cancelRequest:true")
+        }
+    }
+
+    private fun request(id: String, method: String) = RequestMessage().also {
+        it.setId(id)
+        it.method = method
+    }
+
+    private fun response(id: String) = ResponseMessage().also {
+        it.setId(id)
+        it.result = "result"
+    }
+
+    /**
+     * Consumer of incoming messages. Responses are not delivered to the endpoint, as their
+     * requests are not sent actually.
+     */
+    private fun incomingConsumer(metrics: RequestMetrics) = metrics.apply(object : RemoteEndpoint(MessageConsumer { }, object : Endpoint {
+        override fun request(method: String, parameter: Any?) = CompletableFuture.completedFuture<Any>(null)
+        override fun notify(method: String, parameter: Any?) {}
+    }) {
+        override fun consume(message: Message) {}
+    })
+
+    @Test
+    fun `test adaptive timeouts`() {
+        var now = 0L
+        val metrics = RequestMetrics { now }
+        val outgoing = metrics.apply(MessageConsumer { })
+        val incoming = incomingConsumer(metrics)
+        var id = 0
+        fun completion(latencyMillis: Long) {
+            val requestId = (++id).toString()
+            outgoing.consume(request(requestId, "textDocument/completion"))
+            now += TimeUnit.MILLISECONDS.toNanos(latencyMillis)
+            incoming.consume(response(requestId))
+        }
+
+        val configured = Timeout.getTimeout(Timeouts.COMPLETION)
+        repeat(RequestMetrics.ADAPTIVE_MIN_SAMPLES - 1) { completion(100) }
+        assertThat(metrics.getTimeout(Timeouts.COMPLETION)).isEqualTo(configured)
+        // A fast server does not get shorter timeouts, as latencies of cancelled requests are unknown
+        completion(100)
+        assertThat(metrics.getTimeout(Timeouts.COMPLETION)).isEqualTo(configured)
+        assertThat(metrics.getMethodMetrics("textDocument/completion")!!.timeoutCount).isEqualTo(0)
+
+        // A slow server gets longer timeouts
+        repeat(10) { completion(configured.toLong() * 2) }
+        val timeout = metrics.getTimeout(Timeouts.COMPLETION)
+        assertThat(timeout).isIn(configured * 4..configured * RequestMetrics.ADAPTIVE_LIMIT)
+        assertThat(metrics.getMethodMetrics("textDocument/completion")!!.timeoutCount).isGreaterThan(0)
+        // Other kinds are not affected
+        assertThat(metrics.getTimeout(Timeouts.HOVER)).isEqualTo(Timeout.getTimeout(Timeouts.HOVER))
+
+        metrics.isAdaptiveTimeoutsEnabled = false
+        assertThat(metrics.getTimeout(Timeouts.COMPLETION)).isEqualTo(configured)
+    }
+
+    @Test
+    fun `test listeners can send messages`() {
+        val metrics = RequestMetrics()
+        val outgoing = metrics.apply(MessageConsumer { })
+        val incoming = incomingConsumer(metrics)
+        val sent = CompletableFuture<Unit>()
+        metrics.addListener(object : RequestMetricsListener {
+            override fun onRequestFinished(record: RequestRecord) {
+                // Sent by another thread, which must not wait for the thread receiving responses
+                val sender = Thread { outgoing.consume(request("2", "textDocument/hover")) }
+                sender.start()
+                sender.join(TimeUnit.SECONDS.toMillis(5))
+                if (!sender.isAlive) {
+                    sent.complete(Unit)
+                }
+            }
+
+            override fun onNotification(method: String, incoming: Boolean, payloadBytes: Long) {}
+        })
+        outgoing.consume(request("1", "textDocument/completion"))
+        incoming.consume(response("1"))
+        assertThat(sent.isDone).isTrue()
+    }
+
+    @Test
+    fun `test pending requests are forgotten on disconnect`() {
+        val metrics = RequestMetrics()
+        val outgoing = metrics.apply(MessageConsumer { })
+        outgoing.consume(request("1", "textDocument/completion"))
+        outgoing.consume(request("2", "textDocument/hover"))
+        assertThat(metrics.inFlightCount).isEqualTo(2)
+        metrics.onDisconnected()
+        assertThat(metrics.inFlightCount).isEqualTo(0)
+        // Late responses are ignored
+        incomingConsumer(metrics).consume(response("1"))
+        assertThat(metrics.getMethodMetrics("textDocument/completion")!!.inFlightCount).isEqualTo(0)
+        assertThat(metrics.getMethodMetrics("textDocument/completion")!!.latency.count).isEqualTo(0)
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lsp.utils
+
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.text.Content
+import org.eclipse.lsp4j.Diagnostic
+import org.eclipse.lsp4j.Position
+import org.eclipse.lsp4j.Range
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.util.Random
+
+@RunWith(RobolectricTestRunner::class)
+class LspUtilsTest {
+
+    private fun diagnostic(startLine: Int, startColumn: Int, endLine: Int, endColumn: Int) =
+        Diagnostic(Range(Position(startLine, startColumn), Position(endLine, endColumn)), "message")
+
+    /**
+     * Index of the position computed separately for each position
+     */
+    private fun expectedIndex(text: Content, position: Position): Int {
+        val line = maxOf(0, position.line)
+        if (line >= text.lineCount) {
+            return text.length
+        }
+        return text.getCharIndex(line, minOf(maxOf(0, position.character), text.getColumnCount(line)))
+    }
+
+    private fun assertTransformed(text: Content, diagnostics: List<Diagnostic>) {
+        val regions = LspUtils.transformToEditorDiagnostics(text, diagnostics, 100)
+        assertThat(regions).hasSize(diagnostics.size)
+        diagnostics.forEachIndexed { i, diagnostic ->
+            val start = expectedIndex(text, diagnostic.range.start)
+            val end = maxOf(start, expectedIndex(text, diagnostic.range.end))
+            assertThat(regions[i].startIndex).isEqualTo(start)
+            assertThat(regions[i].endIndex).isEqualTo(end)
+            assertThat(regions[i].id).isEqualTo(100L + i)
+        }
+    }
+
+    @Test
+    fun `test regions keep the order of diagnostics`() {
+        val text = Content("abc\r\ndefg\n\nhi")
+        // Later lines first, and positions on the same line in both orders
+        assertTransformed(text, listOf(
+            diagnostic(3, 0, 3, 2),
+            diagnostic(1, 3, 1, 4),
+            diagnostic(1, 1, 1, 2),
+            diagnostic(0, 0, 3, 1),
+            diagnostic(2, 0, 2, 0)
+        ))
+    }
+
+    @Test
+    fun `test positions out of text are clamped`() {
+        val text = Content("abc\r\ndefg\n\nhi")
+        assertTransformed(text, listOf(
+            // Negative positions
+            diagnostic(-1, -5, 0, -1),
+            // Columns after the end of line
+            diagnostic(0, 10, 1, 100),
+            // Reversed range
+            diagnostic(1, 3, 0, 1),
+            // Lines after the last line
+            diagnostic(3, 1, 4, 0),
+            diagnostic(10, 2, 20, 3)
+        ))
+        val regions = LspUtils.transformToEditorDiagnostics(text, listOf(diagnostic(10, 2, 20, 3)), 0)
+        assertThat(regions[0].startIndex).isEqualTo(text.length)
+        assertThat(regions[0].endIndex).isEqualTo(text.length)
+    }
+
+    @Test
+    fun `test random diagnostics match positions computed one by one`() {
+        val random = Random(0)
+        val text = Content(List(500) { "x".repeat(random.nextInt(40)) }.joinToString("\n"))
+        val diagnostics = List(2000) {
+            val startLine = random.nextInt(520) - 5
+            diagnostic(startLine, random.nextInt(50) - 5, startLine + random.nextInt(4) - 1, random.nextInt(50) - 5)
+        }
+        assertTransformed(text, diagnostics)
+    }
+
+    @Test
+    fun `test empty diagnostics`() {
+        assertThat(LspUtils.transformToEditorDiagnostics(Content("abc"), emptyList(), 0)).isEmpty()
+    }
+
+}
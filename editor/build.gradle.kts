@@ -48,6 +48,17 @@ android {
     kotlinOptions {
         jvmTarget = "11"
     }
+    testOptions {
+        // Editor views are created in Robolectric tests and benchmarks
+        unitTests.isIncludeAndroidResources = true
+    }
+}
+
+tasks.withType<Test>().configureEach {
+    // Frames per scenario in EditorRendererBenchmark, for example -Psora.benchmark.frames=2000
+    project.findProperty("sora.benchmark.frames")?.let {
+        systemProperty("sora.benchmark.frames", it)
+    }
 }
 
 dependencies {
@@ -0,0 +1,301 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.graphics;
+
+import android.graphics.Typeface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import io.github.rosemoe.sora.lang.styling.Span;
+import io.github.rosemoe.sora.text.ContentLine;
+import io.github.rosemoe.sora.util.IntPair;
+
+/**
+ * Bounded LRU cache of measured lines. A line's measure cache (prefix sums of its character
+ * advances, see {@link GraphicTextRow#buildMeasureCache()}) is saved here after measuring, together
+ * with the text of the line and everything else affecting the result ({@link Style}), such as the
+ * spans, soft breaks and paint config. Entries are found by hashes of them, and both the text and
+ * the style are compared before an entry is used.
+ * <p>
+ * The measure cache of a line is dropped when its float array is reused by other lines, and it is
+ * outdated after the line is changed. When the same text is displayed again with the same styles,
+ * the advances can be restored from this cache without measuring the text by {@link Paint}. Lines
+ * with identical text and styles, such as blank lines and closing brackets, also share one entry.
+ * <p>
+ * The cache is bounded by total count of characters saved. It is thread-safe.
+ */
+public class LineMeasureCache {
+
+    /**
+     * Default max count of characters saved in a cache
+     */
+    public final static int DEFAULT_MAX_CHARS = 64 * 1024;
+
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final int maxChars;
+    private int savedChars;
+    private long hitCount;
+    private long missCount;
+
+    public LineMeasureCache() {
+        this(DEFAULT_MAX_CHARS);
+    }
+
+    public LineMeasureCache(int maxChars) {
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Compute hash of the text in the given line
+     */
+    public static int hashText(@NonNull ContentLine line) {
+        var chars = line.getRawData();
+        int hash = 1;
+        for (int i = 0, length = line.length(); i < length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        return hash;
+    }
+
+    /**
+     * Restore the measure cache of the given line from this cache.
+     *
+     * @param line     The line to restore. Its width cache is replaced if it is too small
+     * @param textHash Hash of the line text, by {@link #hashText(ContentLine)}
+     * @param style    Other attributes used to measure the line
+     * @return Whether the measure cache is restored
+     */
+    public synchronized boolean restore(@NonNull ContentLine line, int textHash, @NonNull Style style) {
+        var entry = entries.get(IntPair.pack(textHash, style.hashCode()));
+        int length = line.length();
+        if (entry == null || !entry.matches(line) || !entry.style.equals(style)) {
+            missCount++;
+            return false;
+        }
+        hitCount++;
+        if (line.widthCache == null || line.widthCache.length < length + 1) {
+            line.widthCache = new float[Math.max(90, length + 16)];
+        }
+        System.arraycopy(entry.widths, 0, line.widthCache, 0, length + 1);
+        return true;
+    }
+
+    /**
+     * Save the measure cache of the given line in this cache.
+     *
+     * @param line     The line whose measure cache is built
+     * @param textHash Hash of the line text, by {@link #hashText(ContentLine)}
+     * @param style    Other attributes used to measure the line. It is copied by this cache
+     */
+    public synchronized void store(@NonNull ContentLine line, int textHash, @NonNull Style style) {
+        int length = line.length();
+        if (line.widthCache == null || line.widthCache.length < length + 1 || length > maxChars / 2) {
+            return;
+        }
+        var chars = new char[length];
+        System.arraycopy(line.getRawData(), 0, chars, 0, length);
+        var widths = new float[length + 1];
+        System.arraycopy(line.widthCache, 0, widths, 0, length + 1);
+        var old = entries.put(IntPair.pack(textHash, style.hashCode()), new Entry(chars, widths, style.copy()));
+        if (old != null) {
+            savedChars -= old.chars.length;
+        }
+        savedChars += length;
+        trimToSize();
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<Long, Entry>> itr = entries.entrySet().iterator();
+        while (savedChars > maxChars && itr.hasNext()) {
+            savedChars -= itr.next().getValue().chars.length;
+            itr.remove();
+        }
+    }
+
+    /**
+     * Remove all entries, for example when the paint is changed
+     */
+    public synchronized void clear() {
+        entries.clear();
+        savedChars = 0;
+    }
+
+    /**
+     * Get count of lines saved
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get count of successful {@link #restore(ContentLine, int, Style)} calls
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Get count of failed {@link #restore(ContentLine, int, Style)} calls
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Attributes, except the text, affecting the measure cache of a line. The object can be reused
+     * for lines by {@link #set(List, int, int, boolean, List, Paint)}, as the cache keeps a copy.
+     */
+    public static final class Style {
+
+        private List<Span> spans;
+        private int length;
+        private int tabWidth;
+        private boolean basicDisplayMode;
+        private List<Integer> softBreaks;
+        private int paintFlags;
+        private float textSize;
+        private float textScaleX;
+        private float letterSpacing;
+        private String fontFeatureSettings;
+        private Typeface typeface;
+        private int hash;
+
+        /**
+         * Set the attributes of a line. Spans and soft breaks are referenced until the next call.
+         */
+        public void set(@Nullable List<Span> spans, int length, int tabWidth, boolean basicDisplayMode,
+                        @Nullable List<Integer> softBreaks, @NonNull Paint paint) {
+            this.spans = spans;
+            this.length = length;
+            this.tabWidth = tabWidth;
+            this.basicDisplayMode = basicDisplayMode;
+            this.softBreaks = softBreaks;
+            paintFlags = paint.getFlags();
+            textSize = paint.getTextSize();
+            textScaleX = paint.getTextScaleX();
+            letterSpacing = paint.getLetterSpacing();
+            fontFeatureSettings = paint.getFontFeatureSettings();
+            typeface = paint.getTypeface();
+            hash = computeHash();
+        }
+
+        private int computeHash() {
+            int hash = 1;
+            hash = 31 * hash + Objects.hashCode(spans);
+            hash = 31 * hash + length;
+            hash = 31 * hash + tabWidth;
+            hash = 31 * hash + (basicDisplayMode ? 1231 : 1237);
+            hash = 31 * hash + Objects.hashCode(softBreaks);
+            hash = 31 * hash + paintFlags;
+            hash = 31 * hash + Float.floatToIntBits(textSize);
+            hash = 31 * hash + Float.floatToIntBits(textScaleX);
+            hash = 31 * hash + Float.floatToIntBits(letterSpacing);
+            hash = 31 * hash + Objects.hashCode(fontFeatureSettings);
+            hash = 31 * hash + Objects.hashCode(typeface);
+            return hash;
+        }
+
+        /**
+         * Copy the attributes, so that later changes to the spans and soft breaks do not affect it
+         */
+        @NonNull
+        Style copy() {
+            var copy = new Style();
+            if (spans != null) {
+                copy.spans = new ArrayList<>(spans.size());
+                for (var span : spans) {
+                    copy.spans.add(span.copy());
+                }
+            }
+            copy.length = length;
+            copy.tabWidth = tabWidth;
+            copy.basicDisplayMode = basicDisplayMode;
+            copy.softBreaks = softBreaks == null ? null : new ArrayList<>(softBreaks);
+            copy.paintFlags = paintFlags;
+            copy.textSize = textSize;
+            copy.textScaleX = textScaleX;
+            copy.letterSpacing = letterSpacing;
+            copy.fontFeatureSettings = fontFeatureSettings;
+            copy.typeface = typeface;
+            copy.hash = hash;
+            return copy;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            var style = (Style) o;
+            return hash == style.hash && length == style.length && tabWidth == style.tabWidth
+                    && basicDisplayMode == style.basicDisplayMode && paintFlags == style.paintFlags
+                    && Float.compare(textSize, style.textSize) == 0 && Float.compare(textScaleX, style.textScaleX) == 0
+                    && Float.compare(letterSpacing, style.letterSpacing) == 0
+                    && Objects.equals(fontFeatureSettings, style.fontFeatureSettings)
+                    && Objects.equals(typeface, style.typeface) && Objects.equals(softBreaks, style.softBreaks)
+                    && Objects.equals(spans, style.spans);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+    private static class Entry {
+
+        final char[] chars;
+        final float[] widths;
+        final Style style;
+
+        Entry(char[] chars, float[] widths, Style style) {
+            this.chars = chars;
+            this.widths = widths;
+            this.style = style;
+        }
+
+        boolean matches(@NonNull ContentLine line) {
+            if (line.length() != chars.length) {
+                return false;
+            }
+            var value = line.getRawData();
+            for (int i = 0; i < chars.length; i++) {
+                if (value[i] != chars[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+}
@@ -102,7 +102,8 @@ public interface Language {
      *
      * @param content        Read-only reference of content
      * @param position       The position for auto-complete
-     * @param publisher      The publisher used to update items
+     * @param publisher      The publisher used to update items. It is also the cancellation token of this request,
+     *                       check {@link CompletionPublisher#isCancelled()} to stop unnecessary work cooperatively
      * @param extraArguments Arguments set by {@link CodeEditor#setText(CharSequence, Bundle)}
      * @throws io.github.rosemoe.sora.lang.completion.CompletionCancelledException This thread can be abandoned
      *                                                                             by the editor framework because the auto-completion items of
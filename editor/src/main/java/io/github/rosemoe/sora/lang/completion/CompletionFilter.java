@@ -0,0 +1,57 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lang.completion;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Filter for refiltering completion items locally when the user extends the prefix of completion.
+ * <p>
+ * When a filter is set by {@link CompletionPublisher#setCompletionFilter(CompletionFilter)}, the
+ * language declares that its items for a longer prefix are a subset of its items for the current
+ * prefix. The editor then keeps the published items, and refilters them with the filter instead of
+ * calling the language again when only identifier characters are typed after the completion
+ * position. Items are matched by {@link CompletionItem#filterText}, or their labels if it is null.
+ * <p>
+ * Refiltered items are not modified. When such an item is committed, the typed characters are
+ * deleted first, and the item is committed at the original completion position.
+ *
+ * @see FuzzyCompletionFilter
+ */
+public interface CompletionFilter {
+
+    /**
+     * Check whether the item should be kept for the new prefix
+     *
+     * @param item      The completion item
+     * @param prefix    New prefix of this item
+     * @param lowPrefix Lower case of {@code prefix}
+     * @param lowText   Lower case of the item's filter text
+     * @param score     Fuzzy score of the filter text against the new prefix, or null if they do not match
+     */
+    boolean accept(@NonNull CompletionItem item, @NonNull String prefix, @NonNull String lowPrefix,
+                   @NonNull String lowText, @Nullable FuzzyScore score);
+
+}
@@ -25,7 +25,7 @@ package io.github.rosemoe.sora.lang.completion;
 
 import io.github.rosemoe.sora.text.CharPosition;
 import io.github.rosemoe.sora.text.ContentReference;
-import io.github.rosemoe.sora.widget.component.EditorAutoCompletion;
+import io.github.rosemoe.sora.widget.component.CompletionScheduler;
 
 /**
  * Helper class for completion
@@ -54,12 +54,8 @@ public class CompletionHelper {
      * Return true if it is cancelled by editor.
      */
     public static boolean checkCancelled() {
-        var thread = Thread.currentThread();
-        if (thread instanceof EditorAutoCompletion.CompletionThread) {
-            return ((EditorAutoCompletion.CompletionThread) thread).isCancelled();
-        } else {
-            return false;
-        }
+        var task = CompletionScheduler.getCurrentTask();
+        return task != null && task.isCancelled();
     }
 
     public interface PrefixChecker {
@@ -83,6 +83,14 @@ public abstract class CompletionItem {
     @Nullable
     public String sortText;
 
+    /**
+     * A string that should be used when filtering this item
+     * locally with a longer prefix. When null the {@link #label label}
+     * is used.
+     */
+    @Nullable
+    public String filterText;
+
     @Nullable
     protected Object extra;
 
@@ -120,6 +128,27 @@ public abstract class CompletionItem {
         return this;
     }
 
+    /**
+     * Get the icon to display. Subclasses can create the icon lazily here, so adapters should
+     * use this instead of reading {@link #icon} directly.
+     */
+    @Nullable
+    public Drawable getIcon() {
+        return icon;
+    }
+
+    /**
+     * Called on UI thread when this item is highlighted in the completion window.
+     * Items can load their details lazily here, and run {@code onUpdate} on UI thread after
+     * changing the displayed fields. Does nothing by default.
+     *
+     * @param editor   The editor
+     * @param onUpdate Refreshes the displayed completion list
+     */
+    public void onHighlighted(@NonNull CodeEditor editor, @NonNull Runnable onUpdate) {
+
+    }
+
     /**
      * Perform this completion.
      * You can implement custom logic to make your completion better(by updating selection and text
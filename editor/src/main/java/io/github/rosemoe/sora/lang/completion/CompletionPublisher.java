@@ -29,6 +29,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -53,8 +54,9 @@ import io.github.rosemoe.sora.lang.Language;
  * If you want to disable this feature, you may want to set it to {@link Integer#MAX_VALUE}
  * <p>
  * You can set a comparator by {@link CompletionPublisher#setComparator(Comparator)} to sort your
- * result items, but you should not make it too complex, which will cause laggy in UI thread. It is
- * recommended that you set the comparator before all your actions.
+ * result items. Items are sorted and merged into the displayed list by the thread that publishes
+ * them, and the UI thread only receives the new list. It is recommended that you set the comparator
+ * before all your actions.
  * Leaving the comparator null results the completion to be unsorted. They will be ordered by the order
  * you add them.
  * <p>
@@ -69,19 +71,25 @@ public class CompletionPublisher {
      * Default value for {@link CompletionPublisher#setUpdateThreshold(int)}
      */
     public final static int DEFAULT_UPDATE_THRESHOLD = 5;
-    private final List<CompletionItem> items;
+    /**
+     * Pending items are also kept until there are at least {@code 1 / MERGE_RATIO} as many items as
+     * displayed ones, so that merging many small batches into a large list stays linear in total
+     */
+    private final static int MERGE_RATIO = 4;
     private final List<CompletionItem> candidates;
     private final Lock lock;
     private final Handler handler;
     private final Runnable callback;
     private final int languageInterruptionLevel;
-    private Comparator<CompletionItem> comparator;
+    private volatile List<CompletionItem> items;
+    private volatile Comparator<CompletionItem> comparator;
+    private volatile CompletionFilter completionFilter;
     private int updateThreshold;
-    private boolean invalid = false;
+    private volatile boolean invalid = false;
 
     public CompletionPublisher(@NonNull Handler handler, @NonNull Runnable callback, int languageInterruptionLevel) {
         this.handler = handler;
-        this.items = new ArrayList<>();
+        this.items = Collections.emptyList();
         this.candidates = new ArrayList<>();
         lock = new ReentrantLock(true);
         updateThreshold = DEFAULT_UPDATE_THRESHOLD;
@@ -93,11 +101,18 @@ public class CompletionPublisher {
      * Checks whether there is data
      */
     public boolean hasData() {
-        return items.size() + candidates.size() > 0;
+        lock.lock();
+        try {
+            return items.size() + candidates.size() > 0;
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
-     * Get items currently in display
+     * Get items currently in display.
+     * <p>
+     * The list is an immutable snapshot, which is replaced by a new list on each update.
      */
     @UnsupportedUserUsage
     public List<CompletionItem> getItems() {
@@ -112,6 +127,34 @@ public class CompletionPublisher {
         this.updateThreshold = updateThreshold;
     }
 
+    /**
+     * Get the comparator of items
+     */
+    @Nullable
+    public Comparator<CompletionItem> getComparator() {
+        return comparator;
+    }
+
+    /**
+     * Set the filter used to refilter published items when the user extends the prefix, so that
+     * the editor does not need to call the language again. Null for disabling local refiltering.
+     *
+     * @see CompletionFilter
+     */
+    public void setCompletionFilter(@Nullable CompletionFilter completionFilter) {
+        this.completionFilter = completionFilter;
+    }
+
+    /**
+     * Get the filter for refiltering items locally
+     *
+     * @see #setCompletionFilter(CompletionFilter)
+     */
+    @Nullable
+    public CompletionFilter getCompletionFilter() {
+        return completionFilter;
+    }
+
     /**
      * Set the result's comparator.
      * <p>
@@ -122,16 +165,25 @@ public class CompletionPublisher {
         if (invalid) {
             return;
         }
-        this.comparator = comparator;
-        if (items.size() != 0 && comparator != null) {
-            handler.post(() -> {
-                if (invalid) {
-                    return;
-                }
-                Collections.sort(items, comparator);
-                callback.run();
-            });
+        lock.lock();
+        try {
+            this.comparator = comparator;
+            var current = items;
+            if (current.size() == 0 || comparator == null) {
+                return;
+            }
+            var sorted = current.toArray(new CompletionItem[0]);
+            Arrays.sort(sorted, comparator);
+            items = Collections.unmodifiableList(Arrays.asList(sorted));
+        } finally {
+            lock.unlock();
         }
+        handler.post(() -> {
+            if (invalid) {
+                return;
+            }
+            callback.run();
+        });
     }
 
     /**
@@ -147,13 +199,15 @@ public class CompletionPublisher {
         if (invalid) {
             return;
         }
+        boolean update;
         lock.lock();
         try {
             candidates.addAll(items);
+            update = shouldUpdate();
         } finally {
             lock.unlock();
         }
-        if (candidates.size() >= updateThreshold) {
+        if (update) {
             updateList();
         }
     }
@@ -171,19 +225,29 @@ public class CompletionPublisher {
         if (invalid) {
             return;
         }
+        boolean update;
         lock.lock();
         try {
             candidates.add(item);
+            update = shouldUpdate();
         } finally {
             lock.unlock();
         }
-        if (candidates.size() >= updateThreshold) {
+        if (update) {
             updateList();
         }
     }
 
     /**
-     * Try to update completion in main thread.
+     * Check whether pending items should be merged now. Called with the lock held.
+     */
+    private boolean shouldUpdate() {
+        int pending = candidates.size();
+        return pending >= updateThreshold && pending >= items.size() / MERGE_RATIO;
+    }
+
+    /**
+     * Try to update completion list.
      * <p>
      * If {@link Lock#tryLock()} failed, nothing will happen.
      */
@@ -192,71 +256,74 @@ public class CompletionPublisher {
     }
 
     /**
-     * Update completion items on main thread
+     * Update completion items. Pending items are sorted and merged into a new list on the calling
+     * thread, and then the new list is sent to the main thread for display.
      *
-     * @param forced If true, the main thread will wait for the lock. Otherwise, when the lock is
+     * @param forced If true, the caller will wait for the lock. Otherwise, when the lock is
      *               currently available for the thread, the update will be executed.
      */
     public void updateList(boolean forced) {
         if (invalid) {
             return;
         }
-        handler.post(() -> {
-            // Lock the candidate list accordingly
-            if (invalid) {
-                callback.run();
-                return;
-            }
-            var locked = false;
-            if (forced) {
-                lock.lock();
-                locked = true;
-            } else {
-                locked = lock.tryLock();
+        if (forced) {
+            lock.lock();
+        } else if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            if (candidates.size() != 0) {
+                items = merge(items, candidates, comparator);
+                candidates.clear();
             }
+        } finally {
+            lock.unlock();
+        }
+        handler.post(callback);
+    }
 
-            if (locked) {
-                try {
-                    if (candidates.size() == 0) {
-                        callback.run();
-                        return;
-                    }
-                    final var comparator = this.comparator;
-                    if (comparator != null) {
-                        while (!candidates.isEmpty()) {
-                            var candidate = candidates.remove(0);
-                            // Insert the value by binary search
-                            int left = 0, right = items.size();
-                            var size = right;
-                            while (left <= right) {
-                                var mid = (left + right) / 2;
-                                if (mid < 0 || mid >= size) {
-                                    left = mid;
-                                    break;
-                                }
-                                var cmp = comparator.compare(items.get(mid), candidate);
-                                if (cmp < 0) {
-                                    left = mid + 1;
-                                } else if (cmp > 0) {
-                                    right = mid - 1;
-                                } else {
-                                    left = mid;
-                                    break;
-                                }
-                            }
-                            left = Math.max(0, Math.min(size, left));
-                            items.add(left, candidate);
-                        }
-                    } else {
-                        items.addAll(candidates);
-                        candidates.clear();
-                    }
-                    callback.run();
-                } finally {
-                    lock.unlock();
+    /**
+     * Merge new items into the sorted list
+     *
+     * @param items      Displayed items, sorted by the comparator
+     * @param candidates New items in the order they are added
+     * @return New immutable list. Items that compare equal keep their previous order, and existing
+     * items go before new items.
+     */
+    @NonNull
+    private static List<CompletionItem> merge(@NonNull List<CompletionItem> items, @NonNull List<CompletionItem> candidates,
+                                              @Nullable Comparator<CompletionItem> comparator) {
+        var result = new CompletionItem[items.size() + candidates.size()];
+        if (comparator == null) {
+            int index = 0;
+            for (var item : items) {
+                result[index++] = item;
+            }
+            for (var item : candidates) {
+                result[index++] = item;
+            }
+        } else {
+            var sorted = candidates.toArray(new CompletionItem[0]);
+            Arrays.sort(sorted, comparator);
+            int i = 0, j = 0, index = 0;
+            int size = items.size();
+            while (i < size && j < sorted.length) {
+                var item = items.get(i);
+                if (comparator.compare(sorted[j], item) < 0) {
+                    result[index++] = sorted[j++];
+                } else {
+                    result[index++] = item;
+                    i++;
                 }
             }
-        });
+            while (i < size) {
+                result[index++] = items.get(i++);
+            }
+            while (j < sorted.length) {
+                result[index++] = sorted[j++];
+            }
+        }
+        return Collections.unmodifiableList(Arrays.asList(result));
     }
 
 
@@ -267,6 +334,14 @@ public class CompletionPublisher {
         invalid = true;
     }
 
+    /**
+     * Check whether the completion is cancelled, without throwing any exception. This can be used
+     * as the cancellation token of the request.
+     */
+    public boolean isCancelled() {
+        return invalid;
+    }
+
     /**
      * Check whether the completion is cancelled. If so, an instance of {@link CompletionCancelledException}
      * is thrown.
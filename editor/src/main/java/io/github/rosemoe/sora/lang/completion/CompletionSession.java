@@ -0,0 +1,175 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lang.completion;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import io.github.rosemoe.sora.lang.Language;
+import io.github.rosemoe.sora.text.CharPosition;
+import io.github.rosemoe.sora.text.Content;
+import io.github.rosemoe.sora.util.MyCharacter;
+
+/**
+ * Keeps the result of a completion request, so that it can be refiltered locally when the user
+ * extends the completion prefix, without requesting the language again.
+ * <p>
+ * A session is created only when the language sets a {@link CompletionFilter} for its result.
+ * The items are never modified by the session, as they may be displayed meanwhile. Committing
+ * a refiltered item is done at {@link #getPosition()}, after the typed text is deleted.
+ *
+ * @see CompletionPublisher#setCompletionFilter(CompletionFilter)
+ */
+public class CompletionSession {
+
+    private final Language language;
+    private final Content text;
+    private final CharPosition position;
+    private final int line;
+    private final int column;
+    private final String linePrefix;
+    private final CompletionItem[] items;
+    private final String[] filterTexts;
+    private final String[] lowFilterTexts;
+    private final int[] prefixLengths;
+    private final CompletionFilter filter;
+    private final Comparator<CompletionItem> comparator;
+
+    /**
+     * Create a session from the result of a completion request
+     *
+     * @param language   Language that provides the items
+     * @param text       Text of the request
+     * @param position   Position of the request
+     * @param linePrefix Text of the line before {@code position}
+     * @param items      All the items of the request
+     * @param filter     Filter of the language
+     * @param comparator Comparator of the items
+     */
+    public CompletionSession(@NonNull Language language, @NonNull Content text, @NonNull CharPosition position,
+                             @NonNull String linePrefix, @NonNull List<CompletionItem> items,
+                             @NonNull CompletionFilter filter, @Nullable Comparator<CompletionItem> comparator) {
+        this.language = language;
+        this.text = text;
+        this.position = position.fromThis();
+        this.line = position.line;
+        this.column = position.column;
+        this.linePrefix = linePrefix;
+        this.items = items.toArray(new CompletionItem[0]);
+        this.filter = filter;
+        this.comparator = comparator;
+        filterTexts = new String[this.items.length];
+        lowFilterTexts = new String[this.items.length];
+        prefixLengths = new int[this.items.length];
+        for (int i = 0; i < this.items.length; i++) {
+            var item = this.items[i];
+            var filterText = item.filterText != null ? item.filterText : (item.label == null ? "" : item.label.toString());
+            filterTexts[i] = filterText;
+            lowFilterTexts[i] = filterText.toLowerCase(Locale.ROOT);
+            prefixLengths[i] = item.prefixLength;
+        }
+    }
+
+    /**
+     * Get the position of the request that created this session. Refiltered items are committed
+     * at this position.
+     */
+    @NonNull
+    public CharPosition getPosition() {
+        return position.fromThis();
+    }
+
+    /**
+     * Get the text typed after the position of this session, if the session can serve a request
+     * at the given position. Otherwise, null is returned.
+     * <p>
+     * The session can serve the request only if nothing but identifier characters are typed after
+     * its position, on the same line.
+     */
+    @Nullable
+    public String getExtension(@NonNull Language language, @NonNull Content text, @NonNull CharPosition position) {
+        if (language != this.language || text != this.text || position.line != line || position.column < column
+                || line >= text.getLineCount()) {
+            return null;
+        }
+        var lineText = text.getLine(line);
+        if (lineText.length() < position.column) {
+            return null;
+        }
+        for (int i = column; i < position.column; i++) {
+            if (!MyCharacter.isJavaIdentifierPart(lineText.charAt(i))) {
+                return null;
+            }
+        }
+        for (int i = 0; i < column; i++) {
+            if (lineText.charAt(i) != linePrefix.charAt(i)) {
+                return null;
+            }
+        }
+        return lineText.subSequence(column, position.column).toString();
+    }
+
+    /**
+     * Refilter the items with the extended prefix, and publish matched items. Items are sorted by
+     * the comparator of the original request, without updating their scores.
+     *
+     * @param extension Text typed after the position of this session
+     * @param publisher Publisher of the new request
+     */
+    public void refilter(@NonNull String extension, @NonNull CompletionPublisher publisher) {
+        var calculator = FuzzyScoreCalculator.current();
+        var options = FuzzyScoreOptions.getDefault();
+        var result = new ArrayList<CompletionItem>();
+        int lastPrefixLength = -1;
+        String prefix = "", lowPrefix = "";
+        for (int i = 0; i < items.length; i++) {
+            if ((i & 255) == 0 && publisher.isCancelled()) {
+                return;
+            }
+            var item = items[i];
+            if (prefixLengths[i] != lastPrefixLength) {
+                lastPrefixLength = prefixLengths[i];
+                prefix = linePrefix.substring(Math.max(0, column - lastPrefixLength)) + extension;
+                lowPrefix = prefix.toLowerCase(Locale.ROOT);
+            }
+            if (prefix.length() == 0) {
+                result.add(item);
+                continue;
+            }
+            var score = calculator.fuzzyScoreGracefulAggressive(prefix, lowPrefix, 0, filterTexts[i], lowFilterTexts[i], 0, options);
+            if (filter.accept(item, prefix, lowPrefix, lowFilterTexts[i], score)) {
+                result.add(item);
+            }
+        }
+        publisher.setCompletionFilter(filter);
+        publisher.setComparator(comparator);
+        publisher.addItems(result);
+    }
+
+}
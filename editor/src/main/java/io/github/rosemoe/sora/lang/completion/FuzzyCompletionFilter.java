@@ -0,0 +1,55 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lang.completion;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Keeps items whose filter text starts with the prefix, ignoring case, or matches the prefix with
+ * a fuzzy score no less than the given minimum score.
+ */
+public class FuzzyCompletionFilter implements CompletionFilter {
+
+    /**
+     * Keeps items that match the prefix in any way
+     */
+    public final static FuzzyCompletionFilter ANY_MATCH = new FuzzyCompletionFilter(Integer.MIN_VALUE);
+
+    private final int minScore;
+
+    /**
+     * @param minScore Minimum fuzzy score for items that do not start with the prefix
+     */
+    public FuzzyCompletionFilter(int minScore) {
+        this.minScore = minScore;
+    }
+
+    @Override
+    public boolean accept(@NonNull CompletionItem item, @NonNull String prefix, @NonNull String lowPrefix,
+                          @NonNull String lowText, @Nullable FuzzyScore score) {
+        return lowText.startsWith(lowPrefix) || (score != null && score.getScore() >= minScore);
+    }
+
+}
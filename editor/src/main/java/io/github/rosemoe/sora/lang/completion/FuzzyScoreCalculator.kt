@@ -0,0 +1,696 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+package io.github.rosemoe.sora.lang.completion
+
+import io.github.rosemoe.sora.util.CharCode
+import kotlin.math.min
+
+/**
+ * Fuzzy scorer migrated from vscode, with its own scratch matrices.
+ *
+ * An instance must only be used by one thread at a time, while different instances can be used
+ * concurrently. Use [current] to get the instance of the calling thread. The functions in `Filters`
+ * delegate to that instance.
+ *
+ * Only the leading [MAX_LEN] characters of patterns and words are considered. They are copied into
+ * reusable buffers, so scoring does not allocate except for the returned [FuzzyScore]. Besides the
+ * [String] entry points, there are [CharArray] entry points and [scoreAll] which lower the characters
+ * one by one with [Character.toLowerCase] instead of requiring lower case strings from the caller.
+ */
+class FuzzyScoreCalculator : FuzzyScorer {
+
+    companion object {
+
+        /**
+         * Max length of patterns considered. Words are truncated to `MAX_LEN - 1` characters.
+         */
+        const val MAX_LEN = 32
+
+        /**
+         * Score stored by [scoreAll] for words that do not match
+         */
+        const val NO_MATCH = Int.MIN_VALUE
+
+        /**
+         * Score of characters that can not match. The same value as vscode uses
+         * (`Number.MIN_SAFE_INTEGER`), so that sums of it never overflow
+         */
+        private const val NO_SCORE = -9007199254740991L
+
+        /**
+         * Lower bound of scores reported, when a match is only possible with characters that do not match
+         */
+        private const val MIN_SCORE = Int.MIN_VALUE / 2
+
+        private val anyScoreOptions = FuzzyScoreOptions(firstMatchCanBeWeak = false, boostFullMatch = true)
+
+        private val threadCalculator = object : ThreadLocal<FuzzyScoreCalculator>() {
+            override fun initialValue() = FuzzyScoreCalculator()
+        }
+
+        /**
+         * Get the calculator bound to the calling thread
+         */
+        @JvmStatic
+        fun current(): FuzzyScoreCalculator = threadCalculator.get()!!
+
+    }
+
+    private val minWordMatchPosArray = IntArray(2 * MAX_LEN)
+    private val maxWordMatchPosArray = IntArray(2 * MAX_LEN)
+
+    private val diag = Array(MAX_LEN) { IntArray(MAX_LEN) } // the length of a contiguous diagonal match
+    private val table = Array(MAX_LEN) { LongArray(MAX_LEN) }
+    private val arrows = Array(MAX_LEN) { IntArray(MAX_LEN) }
+
+    // Leading characters of current pattern and word
+    private val pattern = CharArray(MAX_LEN)
+    private val patternLow = CharArray(MAX_LEN)
+    private val word = CharArray(MAX_LEN)
+    private val wordLow = CharArray(MAX_LEN)
+    private var patternLength = 0
+    private var patternLowLength = 0
+    private var wordLength = 0
+    private var wordLowLength = 0
+
+    /**
+     * The pattern strings, if the lower case form is of different length. Typo permutations must
+     * lower the permuted pattern again in that case.
+     */
+    private var unalignedPattern: String? = null
+    private var unalignedPatternLow: String? = null
+
+    private var hasStrongFirstMatch = false
+
+    // Matched columns of the last scoring, and of the best permutation
+    private var matches = IntArray(MAX_LEN)
+    private var matchCount = 0
+    private var topMatches = IntArray(MAX_LEN)
+    private var topMatchCount = 0
+
+    override fun calculateScore(
+        pattern: String,
+        lowPattern: String,
+        patternPos: Int,
+        word: String,
+        lowWord: String,
+        wordPos: Int,
+        options: FuzzyScoreOptions?
+    ): FuzzyScore? {
+        return fuzzyScore(pattern, lowPattern, patternPos, word, lowWord, wordPos, options)
+    }
+
+    @JvmOverloads
+    fun fuzzyScore(
+        pattern: String,
+        patternLow: String,
+        patternStart: Int,
+        word: String,
+        wordLow: String,
+        wordStart: Int,
+        options: FuzzyScoreOptions? = FuzzyScoreOptions.default
+    ): FuzzyScore? {
+        loadPattern(pattern, patternLow)
+        loadWord(word, wordLow)
+        return createResult(score(patternStart, wordStart, options, true), wordStart, matches, matchCount)
+    }
+
+    /**
+     * Score the leading [patternLength] characters of [pattern] against the leading [wordLength]
+     * characters of [word]
+     */
+    @JvmOverloads
+    fun fuzzyScore(
+        pattern: CharArray,
+        patternLength: Int,
+        word: CharArray,
+        wordLength: Int,
+        options: FuzzyScoreOptions? = FuzzyScoreOptions.default
+    ): FuzzyScore? {
+        loadPattern(pattern, patternLength)
+        loadWord(word, wordLength)
+        return createResult(score(0, 0, options, true), 0, matches, matchCount)
+    }
+
+    fun fuzzyScoreGracefulAggressive(
+        pattern: String,
+        lowPattern: String,
+        patternPos: Int,
+        word: String,
+        lowWord: String,
+        wordPos: Int,
+        options: FuzzyScoreOptions?
+    ): FuzzyScore? {
+        loadPattern(pattern, lowPattern)
+        loadWord(word, lowWord)
+        return createResult(scoreWithPermutations(patternPos, wordPos, true, options, true), wordPos, topMatches, topMatchCount)
+    }
+
+    /**
+     * Score the leading [patternLength] characters of [pattern] against the leading [wordLength]
+     * characters of [word], trying typo permutations of the pattern
+     */
+    fun fuzzyScoreGracefulAggressive(
+        pattern: CharArray,
+        patternLength: Int,
+        word: CharArray,
+        wordLength: Int,
+        options: FuzzyScoreOptions?
+    ): FuzzyScore? {
+        loadPattern(pattern, patternLength)
+        loadWord(word, wordLength)
+        return createResult(scoreWithPermutations(0, 0, true, options, true), 0, topMatches, topMatchCount)
+    }
+
+    fun fuzzyScoreGraceful(
+        pattern: String,
+        lowPattern: String,
+        patternPos: Int,
+        word: String,
+        lowWord: String,
+        wordPos: Int,
+        options: FuzzyScoreOptions?
+    ): FuzzyScore? {
+        loadPattern(pattern, lowPattern)
+        loadWord(word, lowWord)
+        return createResult(scoreWithPermutations(patternPos, wordPos, false, options, true), wordPos, topMatches, topMatchCount)
+    }
+
+    fun anyScore(
+        pattern: String,
+        lowPattern: String,
+        patternPos: Int,
+        word: String,
+        lowWord: String,
+        wordPos: Int,
+    ): FuzzyScore {
+        loadPattern(pattern, lowPattern)
+        loadWord(word, lowWord)
+        val max = 13.coerceAtMost(pattern.length)
+        var patternPos = patternPos
+        while (patternPos < max) {
+            val score = score(patternPos, wordPos, anyScoreOptions, true)
+            if (score != NO_MATCH) {
+                return createResult(score, wordPos, matches, matchCount)!!
+            }
+            patternPos++
+        }
+
+        return FuzzyScore(0, wordPos)
+    }
+
+    /**
+     * Score all the given words against one pattern. Matched positions are not collected.
+     *
+     * @param scores Destination of scores, indexed as [words]. [NO_MATCH] is stored for words that do not match.
+     * @param aggressive Try typo permutations of the pattern even if the pattern itself matches
+     * @return Count of matched words
+     */
+    @JvmOverloads
+    fun scoreAll(
+        pattern: CharSequence,
+        words: List<CharSequence>,
+        scores: IntArray,
+        aggressive: Boolean = true,
+        options: FuzzyScoreOptions? = FuzzyScoreOptions.default
+    ): Int {
+        require(scores.size >= words.size) { "scores is too small" }
+        patternLength = pattern.length
+        patternLowLength = patternLength
+        unalignedPattern = null
+        unalignedPatternLow = null
+        loadLowerCase(pattern, this.pattern, patternLow)
+        var matched = 0
+        for (i in words.indices) {
+            val word = words[i]
+            wordLength = word.length
+            wordLowLength = wordLength
+            loadLowerCase(word, this.word, wordLow)
+            val score = scoreWithPermutations(0, 0, aggressive, options, false)
+            scores[i] = score
+            if (score != NO_MATCH) {
+                matched++
+            }
+        }
+        return matched
+    }
+
+    private fun loadPattern(pattern: String, patternLow: String) {
+        patternLength = pattern.length
+        patternLowLength = patternLow.length
+        if (patternLength == patternLowLength) {
+            unalignedPattern = null
+            unalignedPatternLow = null
+        } else {
+            unalignedPattern = pattern
+            unalignedPatternLow = patternLow
+        }
+        copyLeading(pattern, this.pattern)
+        copyLeading(patternLow, this.patternLow)
+    }
+
+    private fun loadPattern(pattern: CharArray, length: Int) {
+        patternLength = length
+        patternLowLength = length
+        unalignedPattern = null
+        unalignedPatternLow = null
+        loadLowerCase(pattern, length, this.pattern, patternLow)
+    }
+
+    private fun loadWord(word: String, wordLow: String) {
+        wordLength = word.length
+        wordLowLength = wordLow.length
+        copyLeading(word, this.word)
+        copyLeading(wordLow, this.wordLow)
+    }
+
+    private fun loadWord(word: CharArray, length: Int) {
+        wordLength = length
+        wordLowLength = length
+        loadLowerCase(word, length, this.word, wordLow)
+    }
+
+    private fun copyLeading(src: String, dest: CharArray) {
+        src.toCharArray(dest, 0, 0, min(src.length, MAX_LEN))
+    }
+
+    private fun loadLowerCase(src: CharSequence, dest: CharArray, destLow: CharArray) {
+        val len = min(src.length, MAX_LEN)
+        for (i in 0 until len) {
+            val ch = src[i]
+            dest[i] = ch
+            destLow[i] = Character.toLowerCase(ch)
+        }
+    }
+
+    private fun loadLowerCase(src: CharArray, length: Int, dest: CharArray, destLow: CharArray) {
+        val len = min(length, MAX_LEN)
+        for (i in 0 until len) {
+            val ch = src[i]
+            dest[i] = ch
+            destLow[i] = Character.toLowerCase(ch)
+        }
+    }
+
+    private fun createResult(score: Int, wordStart: Int, matches: IntArray, matchCount: Int): FuzzyScore? {
+        if (score == NO_MATCH) {
+            return null
+        }
+        val list = ArrayList<Int>(matchCount)
+        for (i in 0 until matchCount) {
+            list.add(matches[i])
+        }
+        return FuzzyScore(score, wordStart, list)
+    }
+
+    private fun scoreWithPermutations(
+        patternPos: Int,
+        wordPos: Int,
+        aggressive: Boolean,
+        options: FuzzyScoreOptions?,
+        collectMatches: Boolean
+    ): Int {
+        var top = score(patternPos, wordPos, options ?: FuzzyScoreOptions.default, collectMatches)
+        swapMatches()
+
+        if (top != NO_MATCH && !aggressive) {
+            // when using the original pattern yield a result we`
+            // return it unless we are aggressive and try to find
+            // a better alignment, e.g. `cno` -> `^co^ns^ole` or `^c^o^nsole`.
+            return top
+        }
+
+        if (patternLength >= 3) {
+            // When the pattern is long enough then try a few (max 7)
+            // permutations of the pattern to find a better match. The
+            // permutations only swap neighbouring characters, e.g
+            // `cnoso` becomes `conso`, `cnsoo`, `cnoos`.
+            val tries = 7.coerceAtMost(patternLength - 1)
+
+            var movingPatternPos = patternPos + 1
+
+            while (movingPatternPos < tries) {
+                if (movingPatternPos + 1 < patternLength && pattern[movingPatternPos] != pattern[movingPatternPos + 1]) {
+                    val candidate = scorePermutation(movingPatternPos, patternPos, wordPos, options ?: FuzzyScoreOptions.default, collectMatches)
+                    if (candidate != NO_MATCH) {
+                        val score = candidate - 3 // permutation penalty
+                        if (top == NO_MATCH || score > top) {
+                            top = score
+                            swapMatches()
+                        }
+                    }
+                }
+                movingPatternPos++
+            }
+        }
+
+        return top
+    }
+
+    /**
+     * Score the pattern with characters at [swapPos] and `swapPos + 1` swapped
+     */
+    private fun scorePermutation(
+        swapPos: Int,
+        patternPos: Int,
+        wordPos: Int,
+        options: FuzzyScoreOptions,
+        collectMatches: Boolean
+    ): Int {
+        val original = unalignedPattern
+        val originalLow = unalignedPatternLow
+        if (original != null && originalLow != null) {
+            val newPattern = nextTypoPermutation(original, swapPos)!!
+            loadPattern(newPattern, newPattern.lowercase())
+            val score = score(patternPos, wordPos, options, collectMatches)
+            loadPattern(original, originalLow)
+            return score
+        }
+        swap(pattern, swapPos)
+        swap(patternLow, swapPos)
+        val score = score(patternPos, wordPos, options, collectMatches)
+        swap(pattern, swapPos)
+        swap(patternLow, swapPos)
+        return score
+    }
+
+    private fun swap(array: CharArray, pos: Int) {
+        val tmp = array[pos]
+        array[pos] = array[pos + 1]
+        array[pos + 1] = tmp
+    }
+
+    private fun swapMatches() {
+        val tmp = topMatches
+        topMatches = matches
+        matches = tmp
+        topMatchCount = matchCount
+    }
+
+    private fun isPatternInWord(patternPos: Int, patternLen: Int, wordPos: Int, wordLen: Int): Boolean {
+        var patternPos = patternPos
+        var wordPos = wordPos
+        while (patternPos < patternLen && wordPos < wordLen) {
+            if (patternLow[patternPos] == wordLow[wordPos]) {
+                // Remember the min word position for each pattern position
+                minWordMatchPosArray[patternPos] = wordPos
+                patternPos += 1
+            }
+            wordPos += 1
+        }
+        return patternPos == patternLen // pattern must be exhausted
+    }
+
+    private fun fillInMaxWordMatchPos(patternLen: Int, wordLen: Int, patternStart: Int, wordStart: Int) {
+        var patternPos = patternLen - 1
+        var wordPos = wordLen - 1
+        while (patternPos >= patternStart && wordPos >= wordStart) {
+            if (patternLow[patternPos] == wordLow[wordPos]) {
+                maxWordMatchPosArray[patternPos] = wordPos
+                patternPos--
+            }
+            wordPos--
+        }
+    }
+
+    /**
+     * Score the loaded pattern against the loaded word
+     *
+     * @return The score, or [NO_MATCH]
+     */
+    private fun score(patternStart: Int, wordStart: Int, options: FuzzyScoreOptions?, collectMatches: Boolean): Int {
+        matchCount = 0
+        val patternLen = if (patternLength > MAX_LEN) MAX_LEN else patternLength
+        val wordLen = if (wordLength > MAX_LEN - 1) MAX_LEN - 1 else wordLength
+
+        if (patternStart >= patternLen || wordStart >= wordLen || (patternLen - patternStart) > (wordLen - wordStart)) {
+            return NO_MATCH
+        }
+
+        // Run a simple check if the characters of pattern occur
+        // (in order) at all in word. If that isn't the case we
+        // stop because no match will be possible
+        if (!isPatternInWord(patternStart, patternLen, wordStart, wordLen)) {
+            return NO_MATCH
+        }
+
+        // Find the max matching word position for each pattern position
+        // NOTE: the min matching word position was filled in above, in the `isPatternInWord` call
+        fillInMaxWordMatchPos(patternLen, wordLen, patternStart, wordStart)
+
+        var row = 1
+        var column = 1
+        var patternPos = patternStart
+        var wordPos: Int
+
+        hasStrongFirstMatch = false
+
+        // There will be a match, fill in tables
+        while (patternPos < patternLen) {
+
+            // Reduce search space to possible matching word positions and to possible access from next row
+            val minWordMatchPos = minWordMatchPosArray[patternPos]
+            val maxWordMatchPos = maxWordMatchPosArray[patternPos]
+            val nextMaxWordMatchPos =
+                if (patternPos + 1 < patternLen) maxWordMatchPosArray[patternPos + 1] else wordLen
+
+            column = minWordMatchPos - wordStart + 1
+            wordPos = minWordMatchPos
+
+            val tableRow = table[row]
+            val diagRow = diag[row]
+            val arrowsRow = arrows[row]
+            while (wordPos < nextMaxWordMatchPos) {
+
+                var score = NO_SCORE
+
+                if (wordPos <= maxWordMatchPos) {
+                    score = doScore(
+                        patternPos, patternStart,
+                        wordPos, wordLen, wordStart,
+                        diag[row - 1][column - 1] == 0
+                    )
+                }
+
+                val diagScore = score + table[row - 1][column - 1]
+
+                val canComeLeft = wordPos > minWordMatchPos
+                val leftScore =
+                    if (canComeLeft) tableRow[column - 1] + (if (diagRow[column - 1] > 0) -5 else 0) else 0L // penalty for a gap start
+
+                val canComeLeftLeft = wordPos > minWordMatchPos + 1 && diagRow[column - 1] > 0
+                val leftLeftScore =
+                    if (canComeLeftLeft) tableRow[column - 2] + (if (diagRow[column - 2] > 0) -5 else 0) else 0L // penalty for a gap start
+
+                if (canComeLeftLeft && (!canComeLeft || leftLeftScore >= leftScore) && leftLeftScore >= diagScore) {
+                    // always prefer choosing left left to jump over a diagonal because that means a match is earlier in the word
+                    tableRow[column] = leftLeftScore
+                    arrowsRow[column] = Arrow.LeftLeft
+                    diagRow[column] = 0
+                } else if (canComeLeft && leftScore >= diagScore) {
+                    // always prefer choosing left since that means a match is earlier in the word
+                    tableRow[column] = leftScore
+                    arrowsRow[column] = Arrow.Left
+                    diagRow[column] = 0
+                } else {
+                    tableRow[column] = diagScore
+                    arrowsRow[column] = Arrow.Diag
+                    diagRow[column] = diag[row - 1][column - 1] + 1
+                }
+                column++
+                wordPos++
+            }
+            // The next row may look beyond the cells filled for this row. Clear them so that
+            // results never depend on previous calls
+            for (i in column..wordLen - wordStart) {
+                tableRow[i] = 0L
+                diagRow[i] = 0
+                arrowsRow[i] = 0
+            }
+            row++
+            patternPos++
+        }
+
+        if (!hasStrongFirstMatch && options?.firstMatchCanBeWeak == false) {
+            return NO_MATCH
+        }
+
+        row--
+        column--
+
+        var score = table[row][column].coerceAtLeast(MIN_SCORE.toLong()).toInt()
+
+        var backwardsDiagLength = 0
+        var maxMatchColumn = 0
+
+        while (row >= 1) {
+            // Find the column where we go diagonally up
+            var diagColumn = column
+            do {
+                val arrow = arrows[row][diagColumn]
+                if (arrow == Arrow.LeftLeft) {
+                    diagColumn -= 2
+                } else if (arrow == Arrow.Left) {
+                    diagColumn -= 1
+                } else {
+                    // found the diagonal
+                    break
+                }
+            } while (diagColumn >= 1)
+
+            // Overturn the "forwards" decision if keeping the "backwards" diagonal would give a better match
+            if (
+                backwardsDiagLength > 1 // only if we would have a contiguous match of 3 characters
+                && patternLow[patternStart + row - 1] == wordLow[wordStart + column - 1] // only if we can do a contiguous match diagonally
+                && !isUpperCaseAtPos(diagColumn + wordStart - 1) // only if the forwards chose diagonal is not an uppercase
+                && backwardsDiagLength + 1 > diag[row][diagColumn] // only if our contiguous match would be longer than the "forwards" contiguous match
+            ) {
+                diagColumn = column
+            }
+
+            if (diagColumn == column) {
+                // this is a contiguous match
+                backwardsDiagLength++
+            } else {
+                backwardsDiagLength = 1
+            }
+
+            if (maxMatchColumn == 0) {
+                // remember the last matched column
+                maxMatchColumn = diagColumn
+            }
+
+            row--
+            column = diagColumn - 1
+            if (collectMatches) {
+                matches[matchCount++] = column
+            }
+        }
+
+        if (wordLen == patternLen && options?.boostFullMatch == true) {
+            // the word matches the pattern with all characters!
+            // giving the score a total match boost (to come up ahead other words)
+            score += 2
+        }
+
+        // Add 1 penalty for each skipped character in the word
+        val skippedCharsCount = maxMatchColumn - patternLen
+        score -= skippedCharsCount
+
+        return score
+    }
+
+    private fun doScore(
+        patternPos: Int, patternStart: Int,
+        wordPos: Int, wordLen: Int, wordStart: Int,
+        newMatchStart: Boolean
+    ): Long {
+        if (patternLow[patternPos] != wordLow[wordPos]) {
+            return NO_SCORE
+        }
+
+        var score = 1
+        var isGapLocation = false
+        if (wordPos == patternPos - patternStart) {
+            // common prefix: `foobar <-> foobaz`
+            //                            ^^^^^
+            score = if (pattern[patternPos] == word[wordPos]) 7 else 5
+
+        } else if (isUpperCaseAtPos(wordPos) && (wordPos == 0 || !isUpperCaseAtPos(wordPos - 1))) {
+            // hitting upper-case: `foo <-> forOthers`
+            //                              ^^ ^
+            score = if (pattern[patternPos] == word[wordPos]) 7 else 5
+            isGapLocation = true
+
+        } else if (isSeparatorAtPos(wordPos) && (wordPos == 0 || !isSeparatorAtPos(wordPos - 1))) {
+            // hitting a separator: `. <-> foo.bar`
+            //                                ^
+            score = 5
+        } else if (isSeparatorAtPos(wordPos - 1) || isWhitespaceAtPos(wordPos - 1)) {
+            // post separator: `foo <-> bar_foo`
+            //                              ^^^
+            score = 5
+            isGapLocation = true
+        }
+
+        if (score > 1 && patternPos == patternStart) {
+            hasStrongFirstMatch = true
+        }
+
+        if (!isGapLocation) {
+            isGapLocation = isUpperCaseAtPos(wordPos) || isSeparatorAtPos(wordPos - 1) || isWhitespaceAtPos(wordPos - 1)
+        }
+
+        //
+        if (patternPos == patternStart) { // first character in pattern
+            if (wordPos > wordStart) {
+                // the first pattern character would match a word character that is not at the word start
+                // so introduce a penalty to account for the gap preceding this match
+                score -= if (isGapLocation) 3 else 5
+            }
+        } else {
+            if (newMatchStart) {
+                // this would be the beginning of a new match (i.e. there would be a gap before this location)
+                score += if (isGapLocation) 2 else 0
+            } else {
+                // this is part of a contiguous match, so give it a slight bonus, but do so only if it would not be a preferred gap location
+                score += if (isGapLocation) 0 else 1
+            }
+        }
+
+        if (wordPos + 1 == wordLen) {
+            // we always penalize gaps, but this gives unfair advantages to a match that would match the last character in the word
+            // so pretend there is a gap after the last character in the word to normalize things
+            score -= if (isGapLocation) 3 else 5
+        }
+
+        return score.toLong()
+    }
+
+    private fun isUpperCaseAtPos(pos: Int): Boolean {
+        return word[pos] != wordLow[pos]
+    }
+
+    private fun isSeparatorAtPos(index: Int): Boolean {
+        if (index < 0 || index >= wordLowLength) {
+            return false
+        }
+        return isSeparatorCode(Character.codePointAt(wordLow, index, min(wordLowLength, MAX_LEN)))
+    }
+
+    private fun isWhitespaceAtPos(index: Int): Boolean {
+        if (index < 0 || index >= wordLowLength) {
+            return false
+        }
+
+        return when (wordLow[index].code) {
+            CharCode.Space,
+            CharCode.Tab -> true
+
+            else -> false
+
+        }
+    }
+
+}
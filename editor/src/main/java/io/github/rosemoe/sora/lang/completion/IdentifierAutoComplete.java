@@ -23,7 +23,6 @@
  */
 package io.github.rosemoe.sora.lang.completion;
 
-import android.os.Build;
 import android.os.Bundle;
 
 import androidx.annotation.NonNull;
@@ -36,15 +35,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import io.github.rosemoe.sora.lang.Language;
 import io.github.rosemoe.sora.text.CharPosition;
 import io.github.rosemoe.sora.text.ContentReference;
 import io.github.rosemoe.sora.text.TextUtils;
-import io.github.rosemoe.sora.util.MutableInt;
 
 
 /**
@@ -72,9 +69,16 @@ public class IdentifierAutoComplete {
         }
         return asString(p1.label).compareTo(asString(p2.label));
     };
+    /**
+     * Same criterion as {@link #createCompletionItemList(String, Identifiers)}
+     *
+     * @see #setCompletionFilter(CompletionFilter)
+     */
+    public final static CompletionFilter FILTER = new FuzzyCompletionFilter(-20);
     private String[] keywords;
     private boolean keywordsAreLowCase;
     private Map<String, Object> keywordMap;
+    private CompletionFilter completionFilter;
 
     public IdentifierAutoComplete() {
     }
@@ -104,6 +108,22 @@ public class IdentifierAutoComplete {
         return keywords;
     }
 
+    /**
+     * Set the filter published with the items, null by default. Languages whose completion items
+     * all come from this object can set {@link #FILTER}, so that the editor refilters the items
+     * locally when the prefix grows.
+     *
+     * @see CompletionPublisher#setCompletionFilter(CompletionFilter)
+     */
+    public void setCompletionFilter(@Nullable CompletionFilter completionFilter) {
+        this.completionFilter = completionFilter;
+    }
+
+    @Nullable
+    public CompletionFilter getCompletionFilter() {
+        return completionFilter;
+    }
+
     /**
      * Make completion items for the given arguments.
      * Provide the required arguments passed by {@link Language#requireAutoComplete(ContentReference, CharPosition, CompletionPublisher, Bundle)}
@@ -122,6 +142,10 @@ public class IdentifierAutoComplete {
 
         publisher.setComparator(comparator);
 
+        if (completionFilter != null) {
+            publisher.setCompletionFilter(completionFilter);
+        }
+
     }
 
 
@@ -191,6 +215,9 @@ public class IdentifierAutoComplete {
             @NonNull String prefix, @NonNull CompletionPublisher publisher, @Nullable Identifiers userIdentifiers) {
         publisher.setComparator(COMPARATOR);
         publisher.setUpdateThreshold(0);
+        if (completionFilter != null) {
+            publisher.setCompletionFilter(completionFilter);
+        }
         publisher.addItems(createCompletionItemList(prefix, userIdentifiers));
     }
 
@@ -268,85 +295,191 @@ public class IdentifierAutoComplete {
         }
     }
 
+    /**
+     * Thread-safe identifier set with reference counts, indexed for fast filtering.
+     * <p>
+     * Each identifier is stored with its lower case form and a bit mask of the characters it contains.
+     * Identifiers are also put into buckets by the characters at positions where a fuzzy match can start
+     * strongly (word start, upper case letters and separators), so a query only visits the bucket of the
+     * first character of the prefix. The char masks then discard identifiers that can not contain the
+     * prefix before fuzzy scoring. Filtering never waits for updates, and sees a weakly consistent view
+     * of the identifiers while they are updated.
+     */
     public static class SyncIdentifiers implements Identifiers {
 
-        private final Lock lock = new ReentrantLock(true);
-        private final Map<String, MutableInt> identifierMap = new HashMap<>();
+        /**
+         * Max word length considered by {@link Filters#fuzzyScore}
+         */
+        private final static int MAX_FUZZY_WORD_LENGTH = 31;
+        /**
+         * Max pattern length considered by {@link Filters#fuzzyScore}
+         */
+        private final static int MAX_FUZZY_PATTERN_LENGTH = 32;
+
+        private final Map<String, Entry> identifierMap = new ConcurrentHashMap<>();
+        private final Map<Character, Set<Entry>> buckets = new ConcurrentHashMap<>();
 
         public void clear() {
-            lock.lock();
-            try {
+            synchronized (this) {
                 identifierMap.clear();
-            } finally {
-                lock.unlock();
+                buckets.clear();
             }
         }
 
         public void identifierIncrease(@NonNull String identifier) {
-            lock.lock();
-            try {
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-                    identifierMap.computeIfAbsent(identifier, (x) -> new MutableInt(0)).increase();
-                } else {
-                    var counter = identifierMap.get(identifier);
-                    if (counter == null) {
-                        counter = new MutableInt(0);
-                        identifierMap.put(identifier, counter);
+            synchronized (this) {
+                var entry = identifierMap.get(identifier);
+                if (entry == null) {
+                    entry = new Entry(identifier);
+                    for (char bucketKey : entry.bucketKeys) {
+                        var bucket = buckets.get(bucketKey);
+                        if (bucket == null) {
+                            bucket = Collections.newSetFromMap(new ConcurrentHashMap<>());
+                            buckets.put(bucketKey, bucket);
+                        }
+                        bucket.add(entry);
                     }
-                    counter.increase();
+                    identifierMap.put(identifier, entry);
                 }
-            } finally {
-                lock.unlock();
+                entry.count++;
             }
         }
 
         public void identifierDecrease(@NonNull String identifier) {
-            lock.lock();
-            try {
-                var count = identifierMap.get(identifier);
-                if (count != null) {
-                    if (count.decreaseAndGet() <= 0) {
-                        identifierMap.remove(identifier);
+            synchronized (this) {
+                var entry = identifierMap.get(identifier);
+                if (entry == null || --entry.count > 0) {
+                    return;
+                }
+                identifierMap.remove(identifier);
+                for (char bucketKey : entry.bucketKeys) {
+                    var bucket = buckets.get(bucketKey);
+                    if (bucket != null) {
+                        bucket.remove(entry);
                     }
                 }
-            } finally {
-                lock.unlock();
             }
         }
 
+        /**
+         * Filter identifiers with the given prefix
+         *
+         * @deprecated Reading identifiers never blocks, so there is no lock to wait for.
+         * Use {@link #filterIdentifiers(String, List)} instead.
+         */
+        @Deprecated
+        public void filterIdentifiers(@NonNull String prefix, @NonNull List<String> dest, boolean waitForLock) {
+            filterIdentifiers(prefix, dest);
+        }
+
         @Override
         public void filterIdentifiers(@NonNull String prefix, @NonNull List<String> dest) {
-            filterIdentifiers(prefix, dest, false);
+            if (prefix.isEmpty()) {
+                for (var entry : identifierMap.values()) {
+                    dest.add(entry.word);
+                }
+                return;
+            }
+            var lowPrefix = prefix.toLowerCase(Locale.ROOT);
+            // Typo permutations change the leading characters of the pattern if its lower case
+            // form has a different length, so the characters can only be checked otherwise
+            var patternMask = lowPrefix.length() == prefix.length() ? computeCharMask(lowPrefix, MAX_FUZZY_PATTERN_LENGTH) : 0L;
+            var key = Character.toLowerCase(prefix.charAt(0));
+            var lowKey = lowPrefix.charAt(0);
+            var bucket = buckets.get(key);
+            if (bucket != null) {
+                for (var entry : bucket) {
+                    if (matches(entry, prefix, lowPrefix, patternMask)) {
+                        dest.add(entry.word);
+                    }
+                }
+            }
+            if (lowKey != key && (bucket = buckets.get(lowKey)) != null) {
+                for (var entry : bucket) {
+                    // Skip identifiers visited in the first bucket
+                    if (!entry.hasBucketKey(key) && matches(entry, prefix, lowPrefix, patternMask)) {
+                        dest.add(entry.word);
+                    }
+                }
+            }
         }
 
-        public void filterIdentifiers(@NonNull String prefix, @NonNull List<String> dest, boolean waitForLock) {
-            boolean acquired;
-            if (waitForLock) {
-                lock.lock();
-                acquired = true;
-            } else {
-                try {
-                    acquired = lock.tryLock(3, TimeUnit.MILLISECONDS);
-                } catch (InterruptedException e) {
-                    acquired = false;
-                }
+        private static boolean matches(@NonNull Entry entry, @NonNull String prefix, @NonNull String lowPrefix, long patternMask) {
+            var word = entry.word;
+            if (prefix.length() == word.length() && TextUtils.startsWith(prefix, word, false)) {
+                return false;
+            }
+            if (TextUtils.startsWith(word, prefix, true)) {
+                return true;
             }
-            if (acquired) {
-                try {
-                    for (String s : identifierMap.keySet()) {
-                        var fuzzyScore = Filters.fuzzyScoreGracefulAggressive(prefix,
-                                prefix.toLowerCase(Locale.ROOT),
-                                0, s, s.toLowerCase(Locale.ROOT), 0, FuzzyScoreOptions.getDefault());
+            // Fuzzy score is null if the word is too short or does not contain all the characters
+            if (Math.min(prefix.length(), MAX_FUZZY_PATTERN_LENGTH) > Math.min(word.length(), MAX_FUZZY_WORD_LENGTH)
+                    || (patternMask & ~entry.charMask) != 0) {
+                return false;
+            }
+            var fuzzyScore = Filters.fuzzyScoreGracefulAggressive(prefix, lowPrefix,
+                    0, word, entry.lowWord, 0, FuzzyScoreOptions.getDefault());
+            return fuzzyScore != null && fuzzyScore.getScore() >= -20;
+        }
 
-                        var score = fuzzyScore == null ? -100 : fuzzyScore.getScore();
+        private static long computeCharMask(@NonNull String text, int length) {
+            long mask = 0;
+            int len = Math.min(text.length(), length);
+            for (int i = 0; i < len; i++) {
+                mask |= 1L << (text.charAt(i) & 63);
+            }
+            return mask;
+        }
 
-                        if ((TextUtils.startsWith(s, prefix, true) || score >= -20)  && !(prefix.length() == s.length() && TextUtils.startsWith(prefix, s, false))) {
-                            dest.add(s);
+        private static boolean isLetterOrDigitAt(@NonNull String text, int index) {
+            return Character.isLetterOrDigit(text.charAt(index));
+        }
+
+        private final static class Entry {
+
+            final String word;
+            final String lowWord;
+            final long charMask;
+            /**
+             * Lower case characters at positions where the first character of a pattern can
+             * match strongly in fuzzy scoring, and the lower case first character
+             */
+            final char[] bucketKeys;
+            /**
+             * Guarded by the lock of the owner {@link SyncIdentifiers}
+             */
+            int count;
+
+            Entry(@NonNull String word) {
+                this.word = word;
+                lowWord = word.toLowerCase(Locale.ROOT);
+                var keys = new StringBuilder();
+                if (!word.isEmpty()) {
+                    keys.append(Character.toLowerCase(word.charAt(0)));
+                }
+                // Fuzzy scoring only visits the leading characters of the word
+                int len = Math.min(Math.min(word.length(), lowWord.length()), MAX_FUZZY_WORD_LENGTH);
+                charMask = computeCharMask(lowWord, len);
+                for (int i = 0; i < len; i++) {
+                    var ch = lowWord.charAt(i);
+                    if (i == 0 || (i < word.length() && word.charAt(i) != ch) || !isLetterOrDigitAt(lowWord, i)
+                            || !isLetterOrDigitAt(lowWord, i - 1)) {
+                        if (keys.indexOf(String.valueOf(ch)) == -1) {
+                            keys.append(ch);
                         }
                     }
-                } finally {
-                    lock.unlock();
                 }
+                bucketKeys = new char[keys.length()];
+                keys.getChars(0, keys.length(), bucketKeys, 0);
+            }
+
+            boolean hasBucketKey(char key) {
+                for (char bucketKey : bucketKeys) {
+                    if (bucketKey == key) {
+                        return true;
+                    }
+                }
+                return false;
             }
         }
 
@@ -46,6 +46,7 @@ public class SimpleSnippetCompletionItem extends CompletionItem {
     public SimpleSnippetCompletionItem(CharSequence label, CharSequence desc, Drawable icon, SnippetDescription snippet) {
         super(label, desc, icon);
         this.snippet = snippet;
+        this.prefixLength = snippet.getSelectedLength();
         kind(CompletionItemKind.Snippet);
     }
 
@@ -30,15 +30,9 @@ import io.github.rosemoe.sora.util.MyCharacter
 
 // Migrating from vscode
 // https://github.com/microsoft/vscode/blob/main/src/vs/base/common/filters.ts
-
-
-private var maxLen = 32
-private val minWordMatchPosArray = IntArray(2 * maxLen)
-private val maxWordMatchPosArray = IntArray(2 * maxLen)
-
-val diag = Array(maxLen) { IntArray(maxLen) } // the length of a contiguous diagonal match
-val table = Array(maxLen) { IntArray(maxLen) }
-val arrows = Array(maxLen) { IntArray(maxLen) }
+//
+// The scoring functions below delegate to the FuzzyScoreCalculator bound to the calling thread,
+// which owns the scratch matrices used by the algorithm.
 
 
 object Arrow {
@@ -47,6 +41,12 @@ object Arrow {
     val LeftLeft = 3
 }
 
+/**
+ * Check if the characters of pattern occur (in order) in word
+ *
+ * @param fillMinWordPosArr Unused. Minimum word positions are kept by [FuzzyScoreCalculator] now.
+ */
+@Suppress("UNUSED_PARAMETER")
 @JvmOverloads
 fun isPatternInWord(
     patternLow: String,
@@ -61,10 +61,6 @@ fun isPatternInWord(
     var wordPos = wordPos
     while (patternPos < patternLen && wordPos < wordLen) {
         if (patternLow[patternPos] == wordLow[wordPos]) {
-            if (fillMinWordPosArr) {
-                // Remember the min word position for each pattern position
-                minWordMatchPosArray[patternPos] = wordPos
-            }
             patternPos += 1
         }
         wordPos += 1
@@ -72,26 +68,6 @@ fun isPatternInWord(
     return patternPos == patternLen // pattern must be exhausted
 }
 
-
-internal fun fillInMaxWordMatchPos(
-    patternLen: Int,
-    wordLen: Int,
-    patternStart: Int,
-    wordStart: Int,
-    patternLow: String,
-    wordLow: String
-) {
-    var patternPos = patternLen - 1
-    var wordPos = wordLen - 1
-    while (patternPos >= patternStart && wordPos >= wordStart) {
-        if (patternLow[patternPos] == wordLow[wordPos]) {
-            maxWordMatchPosArray[patternPos] = wordPos
-            patternPos--
-        }
-        wordPos--
-    }
-}
-
 fun isUpperCaseAtPos(pos: Int, word: String, wordLow: String): Boolean {
     return word[pos] != wordLow[pos]
 }
@@ -101,7 +77,11 @@ fun isSeparatorAtPos(value: String, index: Int): Boolean {
     if (index < 0 || index >= value.length) {
         return false
     }
-    return when (val code = value.codePointAt(index)) {
+    return isSeparatorCode(value.codePointAt(index))
+}
+
+internal fun isSeparatorCode(code: Int): Boolean {
+    return when (code) {
         CharCode.Underline,
         CharCode.Dash,
         CharCode.Period,
@@ -204,20 +184,7 @@ fun anyScore(
     lowWord: String,
     wordPos: Int,
 ): FuzzyScore {
-    val max = 13.coerceAtMost(pattern.length)
-    var patternPos = patternPos
-    while (patternPos < max) {
-        val result = fuzzyScore(
-            pattern, lowPattern, patternPos, word, lowWord, wordPos,
-            FuzzyScoreOptions(firstMatchCanBeWeak = false, boostFullMatch = true)
-        )
-        if (result != null) {
-            return result
-        }
-        patternPos++
-    }
-
-    return FuzzyScore(0, wordPos)
+    return FuzzyScoreCalculator.current().anyScore(pattern, lowPattern, patternPos, word, lowWord, wordPos)
 }
 
 
@@ -231,248 +198,7 @@ fun fuzzyScore(
     wordStart: Int,
     options: FuzzyScoreOptions? = FuzzyScoreOptions.default
 ): FuzzyScore? {
-
-    val patternLen = if (pattern.length > maxLen) maxLen else pattern.length
-    val wordLen = if (word.length > maxLen - 1) maxLen - 1 else word.length
-
-    if (patternStart >= patternLen || wordStart >= wordLen || (patternLen - patternStart) > (wordLen - wordStart)) {
-        return null
-    }
-
-    // Run a simple check if the characters of pattern occur
-    // (in order) at all in word. If that isn't the case we
-    // stop because no match will be possible
-    if (!isPatternInWord(patternLow, patternStart, patternLen, wordLow, wordStart, wordLen, true)) {
-        return null
-    }
-
-    // Find the max matching word position for each pattern position
-    // NOTE: the min matching word position was filled in above, in the `isPatternInWord` call
-    fillInMaxWordMatchPos(patternLen, wordLen, patternStart, wordStart, patternLow, wordLow)
-
-    var row = 1
-    var column = 1
-    var patternPos = patternStart
-    var wordPos: Int
-
-    val hasStrongFirstMatch = booleanArrayOf(false)
-
-    // There will be a match, fill in tables
-    while (patternPos < patternLen) {
-
-        // Reduce search space to possible matching word positions and to possible access from next row
-        val minWordMatchPos = minWordMatchPosArray[patternPos]
-        val maxWordMatchPos = maxWordMatchPosArray[patternPos]
-        val nextMaxWordMatchPos =
-            if (patternPos + 1 < patternLen) maxWordMatchPosArray[patternPos + 1] else wordLen
-
-        column = minWordMatchPos - wordStart + 1
-        wordPos = minWordMatchPos
-
-        while (wordPos < nextMaxWordMatchPos) {
-
-            var score = Int.MIN_VALUE
-            var canComeDiag = false
-
-            if (wordPos <= maxWordMatchPos) {
-                score = doScore(
-                    pattern, patternLow, patternPos, patternStart,
-                    word, wordLow, wordPos, wordLen, wordStart,
-                    diag[row - 1][column - 1] == 0,
-                    hasStrongFirstMatch
-                )
-            }
-
-            var diagScore = 0
-            if (score != Int.MAX_VALUE) {
-                canComeDiag = true
-                diagScore = score + table[row - 1][column - 1]
-            }
-
-            val canComeLeft = wordPos > minWordMatchPos
-            val leftScore =
-                if (canComeLeft) table[row][column - 1] + (if (diag[row][column - 1] > 0) -5 else 0) else 0 // penalty for a gap start
-
-            val canComeLeftLeft = wordPos > minWordMatchPos + 1 && diag[row][column - 1] > 0
-            val leftLeftScore =
-                if (canComeLeftLeft) table[row][column - 2] + (if (diag[row][column - 2] > 0) -5 else 0) else 0 // penalty for a gap start
-
-            if (canComeLeftLeft && (!canComeLeft || leftLeftScore >= leftScore) && (!canComeDiag || leftLeftScore >= diagScore)) {
-                // always prefer choosing left left to jump over a diagonal because that means a match is earlier in the word
-                table[row][column] = leftLeftScore
-                arrows[row][column] = Arrow.LeftLeft
-                diag[row][column] = 0
-            } else if (canComeLeft && (!canComeDiag || leftScore >= diagScore)) {
-                // always prefer choosing left since that means a match is earlier in the word
-                table[row][column] = leftScore
-                arrows[row][column] = Arrow.Left
-                diag[row][column] = 0
-            } else if (canComeDiag) {
-                table[row][column] = diagScore
-                arrows[row][column] = Arrow.Diag
-                diag[row][column] = diag[row - 1][column - 1] + 1
-            } else {
-                error("not possible")
-            }
-            column++
-            wordPos++
-        }
-        row++
-        patternPos++
-    }
-
-
-
-    if (!hasStrongFirstMatch[0] && options?.firstMatchCanBeWeak == false) {
-        return null
-    }
-
-    row--
-    column--
-
-    val result = FuzzyScore(table[row][column], wordStart)
-
-    var backwardsDiagLength = 0
-    var maxMatchColumn = 0
-
-    while (row >= 1) {
-        // Find the column where we go diagonally up
-        var diagColumn = column
-        do {
-            val arrow = arrows[row][diagColumn]
-            if (arrow == Arrow.LeftLeft) {
-                diagColumn -= 2
-            } else if (arrow == Arrow.Left) {
-                diagColumn -= 1
-            } else {
-                // found the diagonal
-                break
-            }
-        } while (diagColumn >= 1)
-
-        // Overturn the "forwards" decision if keeping the "backwards" diagonal would give a better match
-        if (
-            backwardsDiagLength > 1 // only if we would have a contiguous match of 3 characters
-            && patternLow[patternStart + row - 1] == wordLow[wordStart + column - 1] // only if we can do a contiguous match diagonally
-            && !isUpperCaseAtPos(
-                diagColumn + wordStart - 1,
-                word,
-                wordLow
-            ) // only if the forwards chose diagonal is not an uppercase
-            && backwardsDiagLength + 1 > diag[row][diagColumn] // only if our contiguous match would be longer than the "forwards" contiguous match
-        ) {
-            diagColumn = column
-        }
-
-        if (diagColumn == column) {
-            // this is a contiguous match
-            backwardsDiagLength++
-        } else {
-            backwardsDiagLength = 1
-        }
-
-        if (maxMatchColumn == 0) {
-            // remember the last matched column
-            maxMatchColumn = diagColumn
-        }
-
-        row--
-        column = diagColumn - 1
-        result.matches.add(column)
-    }
-
-    if (wordLen == patternLen && options?.boostFullMatch == true) {
-        // the word matches the pattern with all characters!
-        // giving the score a total match boost (to come up ahead other words)
-        result.score += 2
-    }
-
-    // Add 1 penalty for each skipped character in the word
-    val skippedCharsCount = maxMatchColumn - patternLen
-    result.score -= skippedCharsCount
-
-    return result
-}
-
-
-internal fun doScore(
-    pattern: String, patternLow: String, patternPos: Int, patternStart: Int,
-    word: String, wordLow: String, wordPos: Int, wordLen: Int, wordStart: Int,
-    newMatchStart: Boolean,
-    outFirstMatchStrong: BooleanArray
-): Int {
-    if (patternLow[patternPos] != wordLow[wordPos]) {
-        return Int.MIN_VALUE
-    }
-
-    var score = 1
-    var isGapLocation = false
-    if (wordPos == patternPos - patternStart) {
-        // common prefix: `foobar <-> foobaz`
-        //                            ^^^^^
-        score = if (pattern[patternPos] == word[wordPos]) 7 else 5
-
-    } else if (isUpperCaseAtPos(wordPos, word, wordLow) && (wordPos == 0 || !isUpperCaseAtPos(
-            wordPos - 1,
-            word,
-            wordLow
-        ))
-    ) {
-        // hitting upper-case: `foo <-> forOthers`
-        //                              ^^ ^
-        score = if (pattern[patternPos] == word[wordPos]) 7 else 5
-        isGapLocation = true
-
-    } else if (isSeparatorAtPos(wordLow, wordPos) && (wordPos == 0 || !isSeparatorAtPos(
-            wordLow,
-            wordPos - 1
-        ))
-    ) {
-        // hitting a separator: `. <-> foo.bar`
-        //                                ^
-        score = 5
-    } else if (isSeparatorAtPos(wordLow, wordPos - 1) || isWhitespaceAtPos(wordLow, wordPos - 1)) {
-        // post separator: `foo <-> bar_foo`
-        //                              ^^^
-        score = 5
-        isGapLocation = true
-    }
-
-    if (score > 1 && patternPos == patternStart) {
-        outFirstMatchStrong[0] = true
-    }
-
-    if (!isGapLocation) {
-        isGapLocation = isUpperCaseAtPos(wordPos, word, wordLow) || isSeparatorAtPos(
-            wordLow,
-            wordPos - 1
-        ) || isWhitespaceAtPos(wordLow, wordPos - 1)
-    }
-
-    //
-    if (patternPos == patternStart) { // first character in pattern
-        if (wordPos > wordStart) {
-            // the first pattern character would match a word character that is not at the word start
-            // so introduce a penalty to account for the gap preceding this match
-            score -= if (isGapLocation) 3 else 5
-        }
-    } else {
-        if (newMatchStart) {
-            // this would be the beginning of a new match (i.e. there would be a gap before this location)
-            score += if (isGapLocation) 2 else 0
-        } else {
-            // this is part of a contiguous match, so give it a slight bonus, but do so only if it would not be a preferred gap location
-            score += if (isGapLocation) 0 else 1
-        }
-    }
-
-    if (wordPos + 1 == wordLen) {
-        // we always penalize gaps, but this gives unfair advantages to a match that would match the last character in the word
-        // so pretend there is a gap after the last character in the word to normalize things
-        score -= if (isGapLocation) 3 else 5
-    }
-
-    return score
+    return FuzzyScoreCalculator.current().fuzzyScore(pattern, patternLow, patternStart, word, wordLow, wordStart, options)
 }
 
 
@@ -485,14 +211,13 @@ fun fuzzyScoreGracefulAggressive(
     wordPos: Int,
     options: FuzzyScoreOptions?
 ): FuzzyScore? {
-    return fuzzyScoreWithPermutations(
+    return FuzzyScoreCalculator.current().fuzzyScoreGracefulAggressive(
         pattern,
         lowPattern,
         patternPos,
         word,
         lowWord,
         wordPos,
-        true,
         options
     )
 }
@@ -506,80 +231,17 @@ fun fuzzyScoreGraceful(
     wordPos: Int,
     options: FuzzyScoreOptions?
 ): FuzzyScore? {
-    return fuzzyScoreWithPermutations(
+    return FuzzyScoreCalculator.current().fuzzyScoreGraceful(
         pattern,
         lowPattern,
         patternPos,
         word,
         lowWord,
         wordPos,
-        false,
         options
     )
 }
 
-internal fun fuzzyScoreWithPermutations(
-        pattern: String,
-        lowPattern: String,
-        patternPos: Int,
-        word: String,
-        lowWord: String,
-        wordPos: Int,
-        aggressive: Boolean,
-        options: FuzzyScoreOptions?
-    ): FuzzyScore? {
-    var top = fuzzyScore(
-        pattern,
-        lowPattern,
-        patternPos,
-        word,
-        lowWord,
-        wordPos,
-        options ?: FuzzyScoreOptions.default
-    )
-
-    if (top != null && !aggressive) {
-        // when using the original pattern yield a result we`
-        // return it unless we are aggressive and try to find
-        // a better alignment, e.g. `cno` -> `^co^ns^ole` or `^c^o^nsole`.
-        return top
-    }
-
-    if (pattern.length >= 3) {
-        // When the pattern is long enough then try a few (max 7)
-        // permutations of the pattern to find a better match. The
-        // permutations only swap neighbouring characters, e.g
-        // `cnoso` becomes `conso`, `cnsoo`, `cnoos`.
-        val tries = 7.coerceAtMost(pattern.length - 1)
-
-        var movingPatternPos = patternPos + 1
-
-        while (movingPatternPos < tries) {
-            val newPattern = nextTypoPermutation(pattern, movingPatternPos)
-            if (newPattern != null) {
-                val candidate = fuzzyScore(
-                    newPattern,
-                    newPattern.lowercase(),
-                    patternPos,
-                    word,
-                    lowWord,
-                    wordPos,
-                    options ?: FuzzyScoreOptions.default
-                )
-                if (candidate != null) {
-                    candidate.score -= 3 // permutation penalty
-                    if (top == null || candidate.score > top.score) {
-                        top = candidate
-                    }
-                }
-            }
-            movingPatternPos++
-        }
-    }
-
-    return top
-}
-
 internal fun nextTypoPermutation(pattern: String, patternPos: Int): String? {
 
     if (patternPos + 1 >= pattern.length) {
@@ -67,6 +67,20 @@ public class DiagnosticsContainer {
         regions.add(diagnostic);
     }
 
+    /**
+     * Get a copy of all diagnostics in this container
+     */
+    public synchronized List<DiagnosticRegion> getAllDiagnostics() {
+        return new ArrayList<>(regions);
+    }
+
+    /**
+     * Whether positions are shifted when text is modified
+     */
+    public boolean isShiftEnabled() {
+        return shiftEnabled;
+    }
+
     /**
      * Query diagnostics that can be displayed either partly or fully in the given region
      *
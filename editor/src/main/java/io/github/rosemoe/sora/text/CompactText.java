@@ -0,0 +1,310 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressed text for {@link UndoManager}. The text is stored as deflated UTF-16 code units, either
+ * in memory or in a spill file, and it is decoded on access.
+ * <p>
+ * Texts created by {@link #defer(CharSequence)} keep the plain text until {@link #compress()} is
+ * called, so that the compression can be done out of the editing thread. All state of the object
+ * is guarded by its monitor, except the compression itself.
+ * <p>
+ * Code units are encoded directly instead of using a charset, so that unpaired surrogates in the
+ * text are kept.
+ */
+final class CompactText implements CharSequence {
+
+    /**
+     * Memory used by the object itself, excluding its data
+     */
+    final static int OVERHEAD = 64;
+
+    private final int length;
+    /**
+     * Text that is not compressed yet
+     */
+    private String pending;
+    private byte[] data;
+    private int dataLength;
+    private UndoSpillFile spillFile;
+    private long spillOffset;
+    private volatile SoftReference<String> decoded;
+
+    private CompactText(int length, @NonNull byte[] data) {
+        this.length = length;
+        this.data = data;
+        this.dataLength = data.length;
+    }
+
+    private CompactText(@NonNull String text) {
+        this.length = text.length();
+        this.pending = text;
+    }
+
+    /**
+     * Create a text that is compressed later by {@link #compress()}
+     */
+    @NonNull
+    static CompactText defer(@NonNull CharSequence text) {
+        return new CompactText(text.toString());
+    }
+
+    /**
+     * Compress the text if it is not compressed yet. This can be called from any thread.
+     */
+    void compress() {
+        String text;
+        synchronized (this) {
+            text = pending;
+        }
+        if (text == null) {
+            return;
+        }
+        var data = deflate(text);
+        synchronized (this) {
+            if (pending == text) {
+                this.data = data;
+                dataLength = data.length;
+                pending = null;
+            }
+        }
+    }
+
+    synchronized boolean isCompressed() {
+        return pending == null;
+    }
+
+    @NonNull
+    private static byte[] deflate(@NonNull String text) {
+        final int length = text.length();
+        var bytes = new byte[length * 2];
+        for (int i = 0; i < length; i++) {
+            char ch = text.charAt(i);
+            bytes[i * 2] = (byte) (ch >> 8);
+            bytes[i * 2 + 1] = (byte) ch;
+        }
+        var deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            var out = new ByteArrayOutputStream(Math.max(64, bytes.length / 4));
+            var buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Create text from data obtained by {@link #getData()}
+     */
+    @NonNull
+    static CompactText fromData(int length, @NonNull byte[] data) {
+        return new CompactText(length, data);
+    }
+
+    /**
+     * Get compressed data of the text
+     */
+    @NonNull
+    byte[] getData() {
+        compress();
+        synchronized (this) {
+            return getDataLocked();
+        }
+    }
+
+    @NonNull
+    private byte[] getDataLocked() {
+        var data = this.data;
+        if (data != null) {
+            return data;
+        }
+        try {
+            return spillFile.read(spillOffset, dataLength);
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to read undo history from spill file", e);
+        }
+    }
+
+    /**
+     * Length of compressed data, or the size of plain text if it is not compressed yet
+     */
+    synchronized int getDataLength() {
+        return pending != null ? length * 2 : dataLength;
+    }
+
+    synchronized boolean isSpilled() {
+        return pending == null && data == null;
+    }
+
+    /**
+     * Drop the data in memory, after it is written to the given file at the given offset
+     *
+     * @param data The data written, as obtained by {@link #getData()}
+     * @return false if the text does not have that data in memory anymore
+     */
+    synchronized boolean onSpilled(@NonNull UndoSpillFile file, long offset, @NonNull byte[] data) {
+        if (this.data != data) {
+            return false;
+        }
+        spillFile = file;
+        spillOffset = offset;
+        this.data = null;
+        return true;
+    }
+
+    /**
+     * Move the data of the text to another file, which contains the data at the given offset
+     *
+     * @return false if the data of the text is not at the given position anymore
+     */
+    synchronized boolean relocate(@NonNull UndoSpillFile from, long fromOffset, @NonNull UndoSpillFile to, long toOffset) {
+        if (spillFile != from || spillOffset != fromOffset) {
+            return false;
+        }
+        spillFile = to;
+        spillOffset = toOffset;
+        return true;
+    }
+
+    /**
+     * Read the data back to memory
+     */
+    synchronized void unspill() {
+        if (pending != null || data != null) {
+            return;
+        }
+        data = getDataLocked();
+        release();
+    }
+
+    /**
+     * Release the data in spill file
+     */
+    synchronized void release() {
+        if (spillFile != null) {
+            spillFile.release(dataLength);
+            spillFile = null;
+        }
+    }
+
+    synchronized long getSpillOffset() {
+        return spillOffset;
+    }
+
+    synchronized UndoSpillFile getSpillFile() {
+        return spillFile;
+    }
+
+    /**
+     * Estimated memory used by this object
+     */
+    synchronized long getMemoryUsage() {
+        if (pending != null) {
+            return OVERHEAD + length * 2L;
+        }
+        return data == null ? OVERHEAD : OVERHEAD + dataLength;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @NonNull
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        byte[] data;
+        synchronized (this) {
+            if (pending != null) {
+                return pending;
+            }
+            var ref = decoded;
+            var text = ref == null ? null : ref.get();
+            if (text != null) {
+                return text;
+            }
+            data = getDataLocked();
+        }
+        return inflate(data);
+    }
+
+    @NonNull
+    private String inflate(@NonNull byte[] data) {
+        var bytes = new byte[length * 2];
+        var inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            int offset = 0;
+            while (offset < bytes.length) {
+                int count = inflater.inflate(bytes, offset, bytes.length - offset);
+                if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                offset += count;
+            }
+            if (offset != bytes.length) {
+                throw new IllegalStateException("corrupted undo history");
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("corrupted undo history", e);
+        } finally {
+            inflater.end();
+        }
+        var chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (((bytes[i * 2] & 0xff) << 8) | (bytes[i * 2 + 1] & 0xff));
+        }
+        var text = new String(chars);
+        decoded = new SoftReference<>(text);
+        return text;
+    }
+
+}
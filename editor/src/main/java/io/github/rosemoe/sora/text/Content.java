@@ -46,6 +46,10 @@ import io.github.rosemoe.sora.text.bidi.Directions;
 public class Content implements CharSequence {
 
     public final static int DEFAULT_MAX_UNDO_STACK_SIZE = 500;
+    /**
+     * Default memory limit of undo history, in bytes
+     */
+    public final static long DEFAULT_MAX_UNDO_MEMORY = 32L * 1024 * 1024;
     public final static int DEFAULT_LIST_CAPACITY = 1000;
 
     private static int sInitialListCapacity;
@@ -103,6 +107,7 @@ public class Content implements CharSequence {
         bidi = new ContentBidi(this);
         undoManager = new UndoManager();
         setMaxUndoStackSize(Content.DEFAULT_MAX_UNDO_STACK_SIZE);
+        undoManager.setMaxUndoMemory(Content.DEFAULT_MAX_UNDO_MEMORY);
         indexer = new CachedIndexer(this);
         if (src.length() == 0) {
             setUndoEnabled(true);
@@ -566,6 +571,64 @@ public class Content implements CharSequence {
         replace(start.line, start.column, end.line, end.column, text);
     }
 
+    /**
+     * Replace the whole text with the given one, by only editing the lines that actually changed.
+     * <p>
+     * Differences are computed line by line (see {@link LineDiff}) and applied in one batch edit,
+     * so that the modification is undone at once. Compared to replacing the whole text, listeners
+     * receive small edits, and styles, layouts and other states of unchanged lines can be kept.
+     * This is useful when reloading a modified file or applying a formatted text.
+     *
+     * @param text The new text
+     * @return Count of edits applied
+     */
+    public int replaceByDiff(@NonNull CharSequence text) {
+        var newLines = LineDiff.splitLines(text);
+        List<String> oldLines;
+        lock(false);
+        try {
+            oldLines = new ArrayList<>(lines.size());
+            for (var line : lines) {
+                oldLines.add(line.toString() + line.getLineSeparator().getContent());
+            }
+        } finally {
+            unlock(false);
+        }
+        var hunks = LineDiff.diff(oldLines, newLines);
+        if (hunks.isEmpty()) {
+            return 0;
+        }
+        beginBatchEdit();
+        try {
+            // Apply from bottom to top so that positions of previous hunks are unchanged
+            for (int i = hunks.size() - 1; i >= 0; i--) {
+                var hunk = hunks.get(i);
+                var sb = new StringBuilder();
+                for (int j = hunk.newStart; j < hunk.newEnd; j++) {
+                    sb.append(newLines.get(j));
+                }
+                int endLine = hunk.oldEnd, endColumn = 0;
+                if (endLine == oldLines.size()) {
+                    // The last line has no line separator
+                    endLine--;
+                    endColumn = getColumnCount(endLine);
+                }
+                if (hunk.oldStart > endLine) {
+                    insert(endLine, endColumn, sb);
+                } else if (sb.length() == 0) {
+                    delete(hunk.oldStart, 0, endLine, endColumn);
+                } else if (hunk.oldStart == hunk.oldEnd) {
+                    insert(hunk.oldStart, 0, sb);
+                } else {
+                    replace(hunk.oldStart, 0, endLine, endColumn, sb);
+                }
+            }
+        } finally {
+            endBatchEdit();
+        }
+        return hunks.size();
+    }
+
     /**
      * Get current document version. The returned value is increasing (if the modification count is
      * smaller than Long.MAX_VALUE).
@@ -652,6 +715,25 @@ public class Content implements CharSequence {
         undoManager.setMaxUndoStackSize(maxSize);
     }
 
+    /**
+     * Get current memory limit of UndoManager
+     *
+     * @return current memory limit in bytes
+     */
+    public long getMaxUndoMemory() {
+        return undoManager.getMaxUndoMemory();
+    }
+
+    /**
+     * Set the memory limit of UndoManager
+     *
+     * @param maxMemory New memory limit in bytes
+     * @see UndoManager#setMaxUndoMemory(long)
+     */
+    public void setMaxUndoMemory(long maxMemory) {
+        undoManager.setMaxUndoMemory(maxMemory);
+    }
+
     /**
      * A delegate method.
      * Notify the UndoManager to begin batch edit(enter a new layer).
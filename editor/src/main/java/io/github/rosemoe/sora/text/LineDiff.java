@@ -0,0 +1,258 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Line-level diff of two texts, based on Myers' O((N+M)D) algorithm over line hashes.
+ * <p>
+ * Lines are compared together with their line separators, so only the last line of a text can
+ * match the last line of the other one. Common leading and trailing lines are stripped before
+ * running the algorithm. If the edit distance of the remaining lines exceeds the given limit, they
+ * are reported as one single hunk, which keeps the time and memory bounded for texts that are
+ * totally different.
+ */
+public class LineDiff {
+
+    /**
+     * Default max edit distance for {@link #diff(List, List)}
+     */
+    public final static int DEFAULT_MAX_EDIT_DISTANCE = 1024;
+
+    /**
+     * Split the text into lines, each of them ends with its line separator (except the last one)
+     */
+    @NonNull
+    public static List<String> splitLines(@NonNull CharSequence text) {
+        var result = new ArrayList<String>();
+        var str = text.toString();
+        int start = 0, len = str.length();
+        for (int i = 0; i < len; i++) {
+            char ch = str.charAt(i);
+            if (ch == '\n' || ch == '\r') {
+                if (ch == '\r' && i + 1 < len && str.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                result.add(str.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        result.add(str.substring(start));
+        return result;
+    }
+
+    /**
+     * Compute the differences of two line lists
+     *
+     * @see #diff(List, List, int)
+     */
+    @NonNull
+    public static List<Hunk> diff(@NonNull List<? extends CharSequence> oldLines, @NonNull List<? extends CharSequence> newLines) {
+        return diff(oldLines, newLines, DEFAULT_MAX_EDIT_DISTANCE);
+    }
+
+    /**
+     * Compute the differences of two line lists
+     *
+     * @param oldLines        Lines of the original text
+     * @param newLines        Lines of the new text
+     * @param maxEditDistance Max count of inserted and deleted lines to search for a minimal diff
+     * @return Hunks ordered by their positions. Lines out of the hunks are unchanged.
+     */
+    @NonNull
+    public static List<Hunk> diff(@NonNull List<? extends CharSequence> oldLines, @NonNull List<? extends CharSequence> newLines, int maxEditDistance) {
+        int oldEnd = oldLines.size(), newEnd = newLines.size();
+        int start = 0;
+        while (start < oldEnd && start < newEnd && contentEquals(oldLines.get(start), newLines.get(start))) {
+            start++;
+        }
+        while (oldEnd > start && newEnd > start && contentEquals(oldLines.get(oldEnd - 1), newLines.get(newEnd - 1))) {
+            oldEnd--;
+            newEnd--;
+        }
+        if (start == oldEnd && start == newEnd) {
+            return Collections.emptyList();
+        }
+        if (start == oldEnd || start == newEnd) {
+            return Collections.singletonList(new Hunk(start, oldEnd, start, newEnd));
+        }
+        var a = hash(oldLines, start, oldEnd);
+        var b = hash(newLines, start, newEnd);
+        var matches = myers(oldLines, newLines, start, a, b, maxEditDistance);
+        if (matches == null) {
+            return Collections.singletonList(new Hunk(start, oldEnd, start, newEnd));
+        }
+        // Collect the gaps between matched lines
+        var result = new ArrayList<Hunk>();
+        int i = 0, j = 0, n = a.length, m = b.length;
+        while (i < n || j < m) {
+            if (i < n && matches[i] == j) {
+                i++;
+                j++;
+                continue;
+            }
+            int hunkOld = i, hunkNew = j;
+            while (i < n && matches[i] == -1) {
+                i++;
+            }
+            j = i < n ? matches[i] : m;
+            result.add(new Hunk(start + hunkOld, start + i, start + hunkNew, start + j));
+        }
+        return result;
+    }
+
+    /**
+     * Find the longest common subsequence of lines in range
+     *
+     * @return For each old line, the index of its matched new line or -1. Null if the edit distance
+     * is larger than the limit.
+     */
+    private static int[] myers(List<? extends CharSequence> oldLines, List<? extends CharSequence> newLines, int offset,
+                               int[] a, int[] b, int maxEditDistance) {
+        int n = a.length, m = b.length;
+        int maxD = Math.min(n + m, Math.max(0, maxEditDistance));
+        // v[k + maxD + 1] is the furthest x on diagonal k
+        var v = new int[2 * maxD + 3];
+        int base = maxD + 1;
+        // States of v before each round, trace[d] covers diagonals -d..d
+        var trace = new ArrayList<int[]>();
+        for (int d = 0; d <= maxD; d++) {
+            var snapshot = new int[2 * d + 1];
+            System.arraycopy(v, base - d, snapshot, 0, snapshot.length);
+            trace.add(snapshot);
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && v[base + k - 1] < v[base + k + 1])) {
+                    x = v[base + k + 1];
+                } else {
+                    x = v[base + k - 1] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m && a[x] == b[y] && contentEquals(oldLines.get(offset + x), newLines.get(offset + y))) {
+                    x++;
+                    y++;
+                }
+                v[base + k] = x;
+                if (x >= n && y >= m) {
+                    return backtrack(trace, n, m, d);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int[] backtrack(List<int[]> trace, int n, int m, int d) {
+        var matches = new int[n];
+        for (int i = 0; i < n; i++) {
+            matches[i] = -1;
+        }
+        int x = n, y = m;
+        for (; d > 0; d--) {
+            var v = trace.get(d);
+            // Index of diagonal k in the snapshot of round d
+            int k = x - y;
+            int prevK;
+            if (k == -d || (k != d && v[k - 1 + d] < v[k + 1 + d])) {
+                prevK = k + 1;
+            } else {
+                prevK = k - 1;
+            }
+            int prevX = v[prevK + d];
+            int prevY = prevX - prevK;
+            while (x > prevX && y > prevY) {
+                x--;
+                y--;
+                matches[x] = y;
+            }
+            x = prevX;
+            y = prevY;
+        }
+        while (x > 0 && y > 0) {
+            x--;
+            y--;
+            matches[x] = y;
+        }
+        return matches;
+    }
+
+    private static int[] hash(List<? extends CharSequence> lines, int start, int end) {
+        var result = new int[end - start];
+        for (int i = start; i < end; i++) {
+            var line = lines.get(i);
+            int h = 0;
+            for (int j = 0, len = line.length(); j < len; j++) {
+                h = 31 * h + line.charAt(j);
+            }
+            result[i - start] = h;
+        }
+        return result;
+    }
+
+    private static boolean contentEquals(CharSequence a, CharSequence b) {
+        int len = a.length();
+        if (len != b.length()) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (a.charAt(i) != b.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A changed region. Lines {@code [oldStart, oldEnd)} in the original text are replaced by lines
+     * {@code [newStart, newEnd)} in the new text.
+     */
+    public static class Hunk {
+
+        public final int oldStart;
+        public final int oldEnd;
+        public final int newStart;
+        public final int newEnd;
+
+        public Hunk(int oldStart, int oldEnd, int newStart, int newEnd) {
+            this.oldStart = oldStart;
+            this.oldEnd = oldEnd;
+            this.newStart = newStart;
+            this.newEnd = newEnd;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "Hunk{" +
+                    "old=[" + oldStart + ", " + oldEnd + ")" +
+                    ", new=[" + newStart + ", " + newEnd + ")" +
+                    '}';
+        }
+    }
+
+}
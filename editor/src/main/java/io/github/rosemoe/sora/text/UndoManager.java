@@ -27,13 +27,30 @@ import android.os.Parcel;
 import android.os.Parcelable;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Helper class for Content to take down modification
  * As well as provide Undo/Redo actions
+ * <p>
+ * The history is limited both by count of actions and by estimated memory. Texts of large actions
+ * are compressed once the actions can not be merged anymore, and replacements only keep the part
+ * that is actually changed. Old actions can optionally be moved to a file by
+ * {@link #setSpillFile(File)} instead of being discarded when the memory limit is exceeded.
+ * <p>
+ * Compression, spilling and the memory limit are handled by a background thread, so that editing
+ * does not wait for them. Methods of this class are synchronized for that, and the background
+ * thread only holds the lock to pick its work and to apply the results, not while compressing or
+ * writing the spill file.
  *
  * @author Rosemoe
  */
@@ -44,6 +61,7 @@ public final class UndoManager implements ContentListener, Parcelable {
         public UndoManager createFromParcel(Parcel parcel) {
             var o = new UndoManager();
             o.maxStackSize = parcel.readInt();
+            o.maxMemory = parcel.readLong();
             o.stackPointer = parcel.readInt();
             o.undoEnabled = parcel.readInt() > 0;
             var count = parcel.readInt();
@@ -51,6 +69,9 @@ public final class UndoManager implements ContentListener, Parcelable {
                 o.actionStack.add(parcel.readParcelable(UndoManager.class.getClassLoader()));
                 count--;
             }
+            for (int i = 0; i < o.actionStack.size() - 1; i++) {
+                o.settledMemory += memoryOf(o.actionStack.get(i));
+            }
             return o;
         }
 
@@ -63,9 +84,57 @@ public final class UndoManager implements ContentListener, Parcelable {
      * The max time span limit for merging actions
      */
     private static long sMergeTimeLimit = 8000L;
+    /**
+     * Texts with at least this count of chars are compressed. This is larger than the max length of
+     * mergeable actions, so compressed texts are never merged.
+     */
+    final static int COMPACT_THRESHOLD = 16 * 1024;
+    /**
+     * Estimated memory of an action without its text
+     */
+    private final static int ACTION_OVERHEAD = 48;
+    /**
+     * Max bytes of history written into a {@link Parcel}, as the transaction buffer of binder is small
+     */
+    private final static long MAX_PARCEL_SIZE = 256 * 1024;
+    /**
+     * Min size of spill file to be rewritten when most of its data is unused
+     */
+    private final static long MIN_SPILL_COMPACT_SIZE = 1024 * 1024;
+    /**
+     * Compresses and spills settled actions of all managers
+     */
+    private final static Executor sMaintenanceExecutor = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> {
+        var thread = new Thread(r, "UndoManagerMaintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
     private final List<ContentAction> actionStack;
     private boolean undoEnabled;
     private int maxStackSize;
+    private long maxMemory = Long.MAX_VALUE;
+    /**
+     * Estimated memory of actions in stack, except the last one which may still change
+     */
+    private long settledMemory;
+    private File spillFileBase;
+    private UndoSpillFile spillFile;
+    /**
+     * Actions before this index in stack have been moved to spill file
+     */
+    private int spillCursor;
+    /**
+     * Texts of actions before this index in stack have been compressed
+     */
+    private int compactCursor;
+    /**
+     * Incremented when actions are removed from stack, so that results of background work on
+     * them can be dropped
+     */
+    private int stackVersion;
+    private boolean spillFailed;
+    private boolean maintenanceScheduled;
     private InsertAction insertAction;
     private DeleteAction deleteAction;
     private Content targetContent;
@@ -108,20 +177,46 @@ public final class UndoManager implements ContentListener, Parcelable {
     }
 
     @Override
-    public void writeToParcel(Parcel parcel, int flags) {
+    public synchronized void writeToParcel(Parcel parcel, int flags) {
+        // Only actions around the stack pointer that fit in the size limit are saved, undo ones
+        // first. Spilled actions are not read back, the saved history stops before them.
+        long size = 0;
+        int start = stackPointer;
+        while (start > 0) {
+            var action = actionStack.get(start - 1);
+            size += encodedSizeOf(action);
+            if (size > MAX_PARCEL_SIZE || isSpilled(action)) {
+                break;
+            }
+            start--;
+        }
+        int end = stackPointer;
+        size = 0;
+        for (int i = start; i < stackPointer; i++) {
+            size += encodedSizeOf(actionStack.get(i));
+        }
+        while (end < actionStack.size()) {
+            var action = actionStack.get(end);
+            size += encodedSizeOf(action);
+            if (size > MAX_PARCEL_SIZE || isSpilled(action)) {
+                break;
+            }
+            end++;
+        }
         parcel.writeInt(maxStackSize);
-        parcel.writeInt(stackPointer);
+        parcel.writeLong(maxMemory);
+        parcel.writeInt(stackPointer - start);
         parcel.writeInt(undoEnabled ? 1 : 0);
-        parcel.writeInt(actionStack.size());
-        for (ContentAction contentAction : actionStack) {
-            parcel.writeParcelable(contentAction, flags);
+        parcel.writeInt(end - start);
+        for (int i = start; i < end; i++) {
+            parcel.writeParcelable(actionStack.get(i), flags);
         }
     }
 
     /**
      * Check whether we are currently in undo/redo operations
      */
-    public boolean isModifyingContent() {
+    public synchronized boolean isModifyingContent() {
         return ignoreModification;
     }
 
@@ -130,7 +225,7 @@ public final class UndoManager implements ContentListener, Parcelable {
      *
      * @param content Undo Target
      */
-    public void undo(Content content) {
+    public synchronized void undo(Content content) {
         if (canUndo() && !isModifyingContent()) {
             ignoreModification = true;
             actionStack.get(stackPointer - 1).undo(content);
@@ -144,7 +239,7 @@ public final class UndoManager implements ContentListener, Parcelable {
      *
      * @param content Redo Target
      */
-    public void redo(Content content) {
+    public synchronized void redo(Content content) {
         if (canRedo() && !isModifyingContent()) {
             ignoreModification = true;
             actionStack.get(stackPointer).redo(content);
@@ -153,7 +248,7 @@ public final class UndoManager implements ContentListener, Parcelable {
         }
     }
 
-    void onExitBatchEdit() {
+    synchronized void onExitBatchEdit() {
         forceNewMultiAction = true;
         if (!actionStack.isEmpty() && actionStack.get(actionStack.size() - 1) instanceof MultiAction) {
             var action = ((MultiAction) actionStack.get(actionStack.size() - 1));
@@ -166,14 +261,14 @@ public final class UndoManager implements ContentListener, Parcelable {
     /**
      * Whether it can undo
      */
-    public boolean canUndo() {
+    public synchronized boolean canUndo() {
         return isUndoEnabled() && (stackPointer > 0);
     }
 
     /**
      * Whether it can redo
      */
-    public boolean canRedo() {
+    public synchronized boolean canRedo() {
         return isUndoEnabled() && (stackPointer < actionStack.size());
     }
 
@@ -182,7 +277,7 @@ public final class UndoManager implements ContentListener, Parcelable {
      *
      * @return Whether enabled
      */
-    public boolean isUndoEnabled() {
+    public synchronized boolean isUndoEnabled() {
         return undoEnabled;
     }
 
@@ -191,7 +286,7 @@ public final class UndoManager implements ContentListener, Parcelable {
      *
      * @param enabled Enable or disable
      */
-    public void setUndoEnabled(boolean enabled) {
+    public synchronized void setUndoEnabled(boolean enabled) {
         undoEnabled = enabled;
         if (!enabled) {
             cleanStack();
@@ -203,7 +298,7 @@ public final class UndoManager implements ContentListener, Parcelable {
      *
      * @return max stack size
      */
-    public int getMaxUndoStackSize() {
+    public synchronized int getMaxUndoStackSize() {
         return maxStackSize;
     }
 
@@ -212,7 +307,7 @@ public final class UndoManager implements ContentListener, Parcelable {
      *
      * @param maxSize max stack size
      */
-    public void setMaxUndoStackSize(int maxSize) {
+    public synchronized void setMaxUndoStackSize(int maxSize) {
         if (maxSize <= 0) {
             throw new IllegalArgumentException(
                     "max size can not be zero or smaller.Did you want to disable undo module by calling setUndoEnabled()?");
@@ -221,20 +316,569 @@ public final class UndoManager implements ContentListener, Parcelable {
         cleanStack();
     }
 
+    /**
+     * Get current memory limit of the history
+     *
+     * @return Max memory in bytes
+     */
+    public synchronized long getMaxUndoMemory() {
+        return maxMemory;
+    }
+
+    /**
+     * Set the memory limit of the history. Memory of actions is estimated by the size of their
+     * texts, after compression.
+     * <p>
+     * When the limit is exceeded, oldest actions are moved to spill file if it is set, or
+     * discarded otherwise. The action to undo next is always kept. This is done in background after
+     * texts are compressed, so the usage can exceed the limit for a short time.
+     *
+     * @param maxMemory Max memory in bytes
+     */
+    public synchronized void setMaxUndoMemory(long maxMemory) {
+        if (maxMemory <= 0) {
+            throw new IllegalArgumentException("max memory must be positive");
+        }
+        this.maxMemory = maxMemory;
+        cleanStack();
+    }
+
+    /**
+     * Get estimated memory used by the history, in bytes
+     */
+    public synchronized long getMemoryUsage() {
+        return actionStack.isEmpty() ? 0 : settledMemory + memoryOf(actionStack.get(actionStack.size() - 1));
+    }
+
+    /**
+     * Get the file used to keep old actions out of memory
+     */
+    @Nullable
+    public synchronized File getSpillFile() {
+        return spillFileBase;
+    }
+
+    /**
+     * Set a file to keep old actions, instead of discarding them when the memory limit is exceeded.
+     * The file should be in private storage of the app, such as its cache directory. Its content is
+     * overwritten, and it is deleted when the spill file is changed.
+     * <p>
+     * Note that the file is not bounded by the memory limit, but data of discarded actions is
+     * reclaimed from time to time.
+     * Set to null to move spilled actions back to memory and delete the file.
+     *
+     * @param file The file, or null to disable spilling
+     */
+    public synchronized void setSpillFile(@Nullable File file) {
+        if (spillFile != null) {
+            for (var action : actionStack) {
+                forEachText(action, text -> {
+                    text.unspill();
+                    return true;
+                });
+            }
+            spillFile.delete();
+            spillFile = null;
+            spillCursor = 0;
+            stackVersion++;
+            recomputeMemory();
+        }
+        spillFailed = false;
+        spillFileBase = file;
+        if (file != null) {
+            spillFile = new UndoSpillFile(file);
+        }
+        cleanStack();
+    }
+
+    /**
+     * Get bytes of spill file that are still used by actions
+     */
+    public synchronized long getSpilledSize() {
+        return spillFile == null ? 0 : spillFile.getLiveBytes();
+    }
+
+    private void recomputeMemory() {
+        settledMemory = 0;
+        for (int i = 0; i < actionStack.size() - 1; i++) {
+            settledMemory += memoryOf(actionStack.get(i));
+        }
+    }
+
     /**
      * Clean stack after add or state change
      * This is to limit stack size
      */
     private void cleanStack() {
         if (!undoEnabled) {
-            actionStack.clear();
+            while (!actionStack.isEmpty()) {
+                releaseAction(actionStack.remove(actionStack.size() - 1));
+            }
             stackPointer = 0;
+            settledMemory = 0;
+            spillCursor = 0;
+            compactCursor = 0;
+            stackVersion++;
         } else {
+            boolean removed = false;
             while (stackPointer > 1 && actionStack.size() > maxStackSize) {
-                actionStack.remove(0);
-                stackPointer--;
+                removeOldest();
+                removed = true;
+            }
+            if (compactCursor < actionStack.size() - 1 || getMemoryUsage() > maxMemory || (removed && spillFile != null)) {
+                scheduleMaintenance();
+            }
+        }
+    }
+
+    private void removeOldest() {
+        var action = actionStack.remove(0);
+        settledMemory -= memoryOf(action);
+        releaseAction(action);
+        stackPointer--;
+        spillCursor = Math.max(0, spillCursor - 1);
+        compactCursor = Math.max(0, compactCursor - 1);
+        stackVersion++;
+    }
+
+    /**
+     * Apply the memory limit by spilling or discarding oldest actions. Runs in background.
+     *
+     * @return false if it should be done again, as the stack is changed while writing spill file
+     */
+    private boolean trimMemory() {
+        SpillPlan plan;
+        synchronized (this) {
+            if (!undoEnabled) {
+                return true;
+            }
+            plan = planSpill();
+        }
+        if (plan != null) {
+            plan.write();
+            synchronized (this) {
+                if (!commitSpill(plan)) {
+                    return false;
+                }
+            }
+        }
+        synchronized (this) {
+            while (stackPointer > 1 && getMemoryUsage() > maxMemory) {
+                removeOldest();
+            }
+        }
+        compactSpillFile();
+        return true;
+    }
+
+    private void scheduleMaintenance() {
+        if (!maintenanceScheduled) {
+            maintenanceScheduled = true;
+            sMaintenanceExecutor.execute(this::maintain);
+        }
+    }
+
+    /**
+     * Compress texts of settled actions and then apply the memory limit. Runs in background.
+     * Compression is done without holding the lock, as settled actions are not modified anymore.
+     * The limit is applied only when all settled actions are compressed, so that actions are not
+     * discarded for their uncompressed size.
+     */
+    private void maintain() {
+        boolean retry = false;
+        try {
+            retry = !compressSettled() || !trimMemory();
+        } finally {
+            synchronized (this) {
+                maintenanceScheduled = false;
+                if (retry || compactCursor < actionStack.size() - 1) {
+                    // More actions are settled or removed meanwhile
+                    scheduleMaintenance();
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Compress texts of settled actions
+     *
+     * @return Whether all settled actions are compressed
+     */
+    private boolean compressSettled() {
+        var texts = new ArrayList<CompactText>();
+        var multiActions = new ArrayList<MultiAction>();
+        synchronized (this) {
+            for (int i = compactCursor; i < actionStack.size() - 1; i++) {
+                var action = actionStack.get(i);
+                forEachText(action, text -> {
+                    if (!text.isCompressed()) {
+                        texts.add(text);
+                    }
+                    return true;
+                });
+                if (action instanceof MultiAction) {
+                    multiActions.add((MultiAction) action);
+                }
+            }
+            compactCursor = Math.max(compactCursor, actionStack.size() - 1);
+        }
+        for (var text : texts) {
+            text.compress();
+        }
+        synchronized (this) {
+            if (!texts.isEmpty()) {
+                for (var action : multiActions) {
+                    action.recomputeMemory();
+                }
+                recomputeMemory();
+            }
+            return compactCursor >= actionStack.size() - 1;
+        }
+    }
+
+    /**
+     * Wait until the background maintenance is done
+     */
+    synchronized void awaitMaintenance() throws InterruptedException {
+        while (maintenanceScheduled) {
+            wait();
+        }
+    }
+
+    /**
+     * Texts of oldest actions in memory to be written to spill file
+     */
+    private final static class SpillPlan {
+
+        final UndoSpillFile file;
+        final int stackVersion;
+        /**
+         * Index of the action after planned ones
+         */
+        final int end;
+        final List<CompactText> texts = new ArrayList<>();
+        final List<MultiAction> multiActions = new ArrayList<>();
+        byte[][] data;
+        long[] offsets;
+        int written;
+        boolean failed;
+
+        SpillPlan(UndoSpillFile file, int stackVersion, int end) {
+            this.file = file;
+            this.stackVersion = stackVersion;
+            this.end = end;
+        }
+
+        /**
+         * Write the texts to spill file, without holding the lock of manager
+         */
+        void write() {
+            data = new byte[texts.size()][];
+            offsets = new long[texts.size()];
+            try {
+                for (; written < texts.size(); written++) {
+                    data[written] = texts.get(written).getData();
+                    offsets[written] = file.write(data[written]);
+                }
+            } catch (IOException e) {
+                failed = true;
+            }
+        }
+
+        /**
+         * Mark the written data as unused
+         */
+        void release() {
+            for (int i = 0; i < written; i++) {
+                file.release(data[i].length);
+            }
+        }
+    }
+
+    /**
+     * Pick oldest actions in memory to be spilled, so that the memory limit is met
+     *
+     * @return The plan, or null if nothing can be spilled
+     */
+    @Nullable
+    private SpillPlan planSpill() {
+        long excess = getMemoryUsage() - maxMemory;
+        if (excess <= 0 || spillFile == null || spillFailed) {
+            return null;
+        }
+        var texts = new ArrayList<CompactText>();
+        var multiActions = new ArrayList<MultiAction>();
+        // The last action is not settled
+        int index = spillCursor;
+        while (index < actionStack.size() - 1 && excess > 0) {
+            var action = actionStack.get(index++);
+            int from = texts.size();
+            forEachText(action, text -> {
+                if (!text.isSpilled()) {
+                    texts.add(text);
+                }
+                return true;
+            });
+            for (int i = from; i < texts.size(); i++) {
+                excess -= texts.get(i).getMemoryUsage() - CompactText.OVERHEAD;
+            }
+            if (action instanceof MultiAction) {
+                multiActions.add((MultiAction) action);
+            }
+        }
+        if (texts.isEmpty()) {
+            spillCursor = index;
+            return null;
+        }
+        var plan = new SpillPlan(spillFile, stackVersion, index);
+        plan.texts.addAll(texts);
+        plan.multiActions.addAll(multiActions);
+        return plan;
+    }
+
+    /**
+     * Drop data of the written texts from memory
+     *
+     * @return false if the result is dropped, as the stack or spill file is changed meanwhile
+     */
+    private boolean commitSpill(@NonNull SpillPlan plan) {
+        if (plan.file != spillFile || plan.stackVersion != stackVersion) {
+            plan.release();
+            return false;
+        }
+        for (int i = 0; i < plan.written; i++) {
+            if (!plan.texts.get(i).onSpilled(plan.file, plan.offsets[i], plan.data[i])) {
+                plan.file.release(plan.data[i].length);
+            }
+        }
+        if (plan.failed) {
+            // Spill file is not writable, discard old actions instead
+            spillFailed = true;
+        } else {
+            spillCursor = plan.end;
+        }
+        for (var action : plan.multiActions) {
+            action.recomputeMemory();
+        }
+        recomputeMemory();
+        return true;
+    }
+
+    /**
+     * Rewrite spill file if most of its data is unused. The file is rewritten without holding the
+     * lock, and the new file is dropped if the spill file is changed meanwhile.
+     */
+    private void compactSpillFile() {
+        UndoSpillFile file;
+        File path;
+        var texts = new ArrayList<CompactText>();
+        long[] offsets;
+        int[] lengths;
+        synchronized (this) {
+            file = spillFile;
+            if (file == null || file.getLength() < MIN_SPILL_COMPACT_SIZE || file.getLength() < file.getLiveBytes() * 2) {
+                return;
+            }
+            path = file.getFile().equals(spillFileBase) ? new File(spillFileBase.getPath() + ".1") : spillFileBase;
+            for (var action : actionStack) {
+                forEachText(action, text -> {
+                    if (text.getSpillFile() == file) {
+                        texts.add(text);
+                    }
+                    return true;
+                });
+            }
+            offsets = new long[texts.size()];
+            lengths = new int[texts.size()];
+            for (int i = 0; i < texts.size(); i++) {
+                offsets[i] = texts.get(i).getSpillOffset();
+                lengths[i] = texts.get(i).getDataLength();
+            }
+        }
+        var newFile = new UndoSpillFile(path);
+        var newOffsets = new long[texts.size()];
+        try {
+            for (int i = 0; i < texts.size(); i++) {
+                newOffsets[i] = newFile.write(file.read(offsets[i], lengths[i]));
+            }
+        } catch (IOException e) {
+            newFile.delete();
+            return;
+        }
+        synchronized (this) {
+            if (spillFile != file) {
+                newFile.delete();
+                return;
+            }
+            // Texts are only spilled by maintenance, so no text is added to the file meanwhile
+            for (int i = 0; i < texts.size(); i++) {
+                if (!texts.get(i).relocate(file, offsets[i], newFile, newOffsets[i])) {
+                    newFile.release(lengths[i]);
+                }
+            }
+            file.delete();
+            spillFile = newFile;
+        }
+    }
+
+    private static void releaseAction(ContentAction action) {
+        forEachText(action, text -> {
+            text.release();
+            return true;
+        });
+    }
+
+    private interface TextVisitor {
+
+        boolean visit(CompactText text);
+
+    }
+
+    /**
+     * Visit compressed texts of the action
+     *
+     * @return false if the visitor fails
+     */
+    private static boolean forEachText(ContentAction action, TextVisitor visitor) {
+        if (action instanceof InsertAction) {
+            var text = ((InsertAction) action).text;
+            return !(text instanceof CompactText) || visitor.visit((CompactText) text);
+        } else if (action instanceof DeleteAction) {
+            var text = ((DeleteAction) action).text;
+            return !(text instanceof CompactText) || visitor.visit((CompactText) text);
+        } else if (action instanceof ReplaceAction) {
+            var rep = (ReplaceAction) action;
+            return forEachText(rep._delete, visitor) && forEachText(rep._insert, visitor);
+        } else if (action instanceof MultiAction) {
+            for (var sub : ((MultiAction) action)._actions) {
+                if (!forEachText(sub, visitor)) {
+                    return false;
+                }
             }
         }
+        return true;
+    }
+
+    /**
+     * Check whether any text of the action is in spill file
+     */
+    private static boolean isSpilled(ContentAction action) {
+        return !forEachText(action, text -> !text.isSpilled());
+    }
+
+    private static long memoryOfText(CharSequence text) {
+        if (text instanceof CompactText) {
+            return ((CompactText) text).getMemoryUsage();
+        }
+        return text == null ? 0 : 24 + text.length() * 2L;
+    }
+
+    /**
+     * Estimated memory used by the action
+     */
+    static long memoryOf(ContentAction action) {
+        if (action instanceof InsertAction) {
+            return ACTION_OVERHEAD + memoryOfText(((InsertAction) action).text);
+        } else if (action instanceof DeleteAction) {
+            return ACTION_OVERHEAD + memoryOfText(((DeleteAction) action).text);
+        } else if (action instanceof ReplaceAction) {
+            var rep = (ReplaceAction) action;
+            return ACTION_OVERHEAD + memoryOf(rep._insert) + memoryOf(rep._delete);
+        } else if (action instanceof MultiAction) {
+            return ((MultiAction) action).getMemoryUsage();
+        }
+        return ACTION_OVERHEAD;
+    }
+
+    private static long encodedSizeOfText(CharSequence text) {
+        if (text instanceof CompactText) {
+            return 8 + ((CompactText) text).getDataLength();
+        }
+        return text == null ? 0 : 8 + text.length() * 2L;
+    }
+
+    /**
+     * Estimated size of the action in {@link Parcel}
+     */
+    private static long encodedSizeOf(ContentAction action) {
+        if (action instanceof InsertAction) {
+            return 32 + encodedSizeOfText(((InsertAction) action).text);
+        } else if (action instanceof DeleteAction) {
+            return 32 + encodedSizeOfText(((DeleteAction) action).text);
+        } else if (action instanceof ReplaceAction) {
+            var rep = (ReplaceAction) action;
+            return encodedSizeOf(rep._insert) + encodedSizeOf(rep._delete);
+        } else if (action instanceof MultiAction) {
+            long size = 8;
+            for (var sub : ((MultiAction) action)._actions) {
+                size += encodedSizeOf(sub);
+            }
+            return size;
+        }
+        return 32;
+    }
+
+    /**
+     * Make the action compact, after it can not be merged anymore. Large texts are compressed later
+     * in background.
+     */
+    static ContentAction settle(ContentAction action) {
+        if (action instanceof InsertAction) {
+            var insert = (InsertAction) action;
+            insert.text = compact(insert.text);
+        } else if (action instanceof DeleteAction) {
+            var delete = (DeleteAction) action;
+            delete.text = compact(delete.text);
+        } else if (action instanceof ReplaceAction) {
+            var rep = (ReplaceAction) action;
+            rep.trim();
+            settle(rep._delete);
+            settle(rep._insert);
+        } else if (action instanceof MultiAction) {
+            var multi = (MultiAction) action;
+            if (!multi._actions.isEmpty()) {
+                settle(multi._actions.get(multi._actions.size() - 1));
+                multi.settledMemory += memoryOf(multi._actions.get(multi._actions.size() - 1));
+                multi.lastSettled = true;
+            }
+        }
+        return action;
+    }
+
+    private static CharSequence compact(CharSequence text) {
+        if (text == null || text instanceof CompactText || text.length() < COMPACT_THRESHOLD) {
+            return text instanceof StringBuilder ? text.toString() : text;
+        }
+        return CompactText.defer(text);
+    }
+
+    static void writeText(Parcel parcel, CharSequence text) {
+        // Texts not compressed yet are written as they are, instead of compressing them here
+        if (text instanceof CompactText && ((CompactText) text).isCompressed()) {
+            var compact = (CompactText) text;
+            parcel.writeInt(1);
+            parcel.writeInt(compact.length());
+            parcel.writeByteArray(compact.getData());
+        } else {
+            parcel.writeInt(0);
+            parcel.writeString(text.toString());
+        }
+    }
+
+    static CharSequence readText(Parcel parcel) {
+        if (parcel.readInt() == 1) {
+            var length = parcel.readInt();
+            return CompactText.fromData(length, parcel.createByteArray());
+        }
+        return parcel.readString();
+    }
+
+    /**
+     * Text passed to {@link Content} when undoing or redoing
+     */
+    static CharSequence expand(CharSequence text) {
+        return text instanceof CompactText ? text.toString() : text;
     }
 
     /**
@@ -242,8 +886,14 @@ public final class UndoManager implements ContentListener, Parcelable {
      * If we are not at the end(Undo action executed),remove those actions
      */
     private void cleanBeforePush() {
-        while (stackPointer < actionStack.size()) {
-            actionStack.remove(actionStack.size() - 1);
+        if (stackPointer < actionStack.size()) {
+            while (stackPointer < actionStack.size()) {
+                releaseAction(actionStack.remove(actionStack.size() - 1));
+            }
+            spillCursor = Math.min(spillCursor, Math.max(0, actionStack.size() - 1));
+            compactCursor = Math.min(compactCursor, Math.max(0, actionStack.size() - 1));
+            stackVersion++;
+            recomputeMemory();
         }
     }
 
@@ -272,8 +922,7 @@ public final class UndoManager implements ContentListener, Parcelable {
                 } else {
                     MultiAction ac = new MultiAction();
                     ac.addAction(action);
-                    actionStack.add(ac);
-                    stackPointer++;
+                    addSettling(ac);
                 }
             }
         } else {
@@ -285,16 +934,30 @@ public final class UndoManager implements ContentListener, Parcelable {
                 if (last.canMerge(action)) {
                     last.merge(action);
                 } else {
-                    actionStack.add(action);
-                    stackPointer++;
+                    addSettling(action);
                 }
             }
         }
         forceNewMultiAction = false;
+        var top = actionStack.get(actionStack.size() - 1);
+        if (top instanceof ReplaceAction) {
+            // Replacements are never merged
+            settle(top);
+        }
         cleanStack();
     }
 
-    public void exitReplaceMode() {
+    /**
+     * Add a new action to the stack, and settle the previous last action
+     */
+    private void addSettling(ContentAction action) {
+        var last = actionStack.get(actionStack.size() - 1);
+        settledMemory += memoryOf(settle(last));
+        actionStack.add(action);
+        stackPointer++;
+    }
+
+    public synchronized void exitReplaceMode() {
         if (replaceMark && deleteAction != null) {
             pushAction(targetContent, deleteAction);
         }
@@ -303,7 +966,7 @@ public final class UndoManager implements ContentListener, Parcelable {
     }
 
     @Override
-    public void beforeReplace(@NonNull Content content) {
+    public synchronized void beforeReplace(@NonNull Content content) {
         if (ignoreModification) {
             return;
         }
@@ -312,7 +975,7 @@ public final class UndoManager implements ContentListener, Parcelable {
     }
 
     @Override
-    public void afterInsert(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn,
+    public synchronized void afterInsert(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn,
                             @NonNull CharSequence insertedContent) {
         if (ignoreModification) {
             return;
@@ -337,7 +1000,7 @@ public final class UndoManager implements ContentListener, Parcelable {
     }
 
     @Override
-    public void afterDelete(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn,
+    public synchronized void afterDelete(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn,
                             @NonNull CharSequence deletedContent) {
         if (ignoreModification) {
             return;
@@ -406,7 +1069,7 @@ public final class UndoManager implements ContentListener, Parcelable {
                 o.startColumn = parcel.readInt();
                 o.endLine = parcel.readInt();
                 o.endColumn = parcel.readInt();
-                o.text = parcel.readString();
+                o.text = readText(parcel);
                 return o;
             }
 
@@ -426,7 +1089,7 @@ public final class UndoManager implements ContentListener, Parcelable {
 
         @Override
         public void redo(Content content) {
-            content.insert(startLine, startColumn, text);
+            content.insert(startLine, startColumn, expand(text));
         }
 
         @Override
@@ -482,7 +1145,7 @@ public final class UndoManager implements ContentListener, Parcelable {
             parcel.writeInt(startColumn);
             parcel.writeInt(endLine);
             parcel.writeInt(endColumn);
-            parcel.writeString(text.toString());
+            writeText(parcel, text);
         }
     }
 
@@ -502,6 +1165,10 @@ public final class UndoManager implements ContentListener, Parcelable {
                     o._actions.add(parcel.readParcelable(MultiAction.class.getClassLoader()));
                     count--;
                 }
+                for (var action : o._actions) {
+                    o.settledMemory += memoryOf(action);
+                }
+                o.lastSettled = true;
                 return o;
             }
 
@@ -511,20 +1178,47 @@ public final class UndoManager implements ContentListener, Parcelable {
             }
         };
         private final List<ContentAction> _actions = new ArrayList<>();
+        /**
+         * Estimated memory of settled actions
+         */
+        private long settledMemory;
+        private boolean lastSettled;
 
         public void addAction(ContentAction action) {
             if (_actions.isEmpty()) {
                 _actions.add(action);
             } else {
                 ContentAction last = _actions.get(_actions.size() - 1);
-                if (last.canMerge(action)) {
+                if (!lastSettled && last.canMerge(action)) {
                     last.merge(action);
                 } else {
+                    if (!lastSettled) {
+                        settledMemory += memoryOf(settle(last));
+                    }
+                    lastSettled = false;
                     _actions.add(action);
                 }
             }
         }
 
+        /**
+         * Update memory of settled actions, after their texts are compressed
+         */
+        void recomputeMemory() {
+            settledMemory = 0;
+            int count = lastSettled ? _actions.size() : _actions.size() - 1;
+            for (int i = 0; i < count; i++) {
+                settledMemory += memoryOf(_actions.get(i));
+            }
+        }
+
+        long getMemoryUsage() {
+            if (_actions.isEmpty()) {
+                return ACTION_OVERHEAD;
+            }
+            return ACTION_OVERHEAD + settledMemory + (lastSettled ? 0 : memoryOf(_actions.get(_actions.size() - 1)));
+        }
+
         @Override
         public void undo(Content content) {
             for (int i = _actions.size() - 1; i >= 0; i--) {
@@ -578,7 +1272,7 @@ public final class UndoManager implements ContentListener, Parcelable {
                 o.startColumn = parcel.readInt();
                 o.endLine = parcel.readInt();
                 o.endColumn = parcel.readInt();
-                o.text = parcel.readString();
+                o.text = readText(parcel);
                 return o;
             }
 
@@ -593,7 +1287,7 @@ public final class UndoManager implements ContentListener, Parcelable {
 
         @Override
         public void undo(Content content) {
-            content.insert(startLine, startColumn, text);
+            content.insert(startLine, startColumn, expand(text));
         }
 
         @Override
@@ -654,7 +1348,7 @@ public final class UndoManager implements ContentListener, Parcelable {
             parcel.writeInt(startColumn);
             parcel.writeInt(endLine);
             parcel.writeInt(endColumn);
-            parcel.writeString(text.toString());
+            writeText(parcel, text);
         }
     }
 
@@ -682,6 +1376,70 @@ public final class UndoManager implements ContentListener, Parcelable {
         public InsertAction _insert;
         public DeleteAction _delete;
 
+        /**
+         * Remove common prefix and suffix of deleted and inserted texts, so that only the changed
+         * part is kept. This is a great saving for replacing the whole text with a formatted one.
+         */
+        void trim() {
+            var deleted = _delete.text;
+            var inserted = _insert.text;
+            if (deleted instanceof CompactText || inserted instanceof CompactText
+                    || _delete.startLine != _insert.startLine || _delete.startColumn != _insert.startColumn) {
+                return;
+            }
+            int deletedLength = deleted.length(), insertedLength = inserted.length();
+            int max = Math.min(deletedLength, insertedLength);
+            int prefix = 0;
+            while (prefix < max && deleted.charAt(prefix) == inserted.charAt(prefix)) {
+                prefix++;
+            }
+            // Never split CRLF or surrogate pairs
+            while (prefix > 0 && (deleted.charAt(prefix - 1) == '\r' || Character.isHighSurrogate(deleted.charAt(prefix - 1)))) {
+                prefix--;
+            }
+            int suffix = 0;
+            while (suffix < max - prefix && deleted.charAt(deletedLength - 1 - suffix) == inserted.charAt(insertedLength - 1 - suffix)) {
+                suffix++;
+            }
+            while (suffix > 0 && (deleted.charAt(deletedLength - suffix) == '\n' || Character.isLowSurrogate(deleted.charAt(deletedLength - suffix)))) {
+                suffix--;
+            }
+            if (prefix == 0 && suffix == 0) {
+                return;
+            }
+            var start = advance(_delete.startLine, _delete.startColumn, deleted, 0, prefix);
+            var deleteEnd = advance(start[0], start[1], deleted, prefix, deletedLength - suffix);
+            var insertEnd = advance(start[0], start[1], inserted, prefix, insertedLength - suffix);
+            _delete.startLine = _insert.startLine = start[0];
+            _delete.startColumn = _insert.startColumn = start[1];
+            _delete.endLine = deleteEnd[0];
+            _delete.endColumn = deleteEnd[1];
+            _insert.endLine = insertEnd[0];
+            _insert.endColumn = insertEnd[1];
+            _delete.text = deleted.subSequence(prefix, deletedLength - suffix).toString();
+            _insert.text = inserted.subSequence(prefix, insertedLength - suffix).toString();
+        }
+
+        /**
+         * Get the position after the given region of text, which starts at the given position
+         */
+        private static int[] advance(int line, int column, CharSequence text, int start, int end) {
+            for (int i = start; i < end; i++) {
+                char ch = text.charAt(i);
+                if (ch == '\r' && i + 1 < end && text.charAt(i + 1) == '\n') {
+                    i++;
+                    line++;
+                    column = 0;
+                } else if (ch == '\r' || ch == '\n') {
+                    line++;
+                    column = 0;
+                } else {
+                    column++;
+                }
+            }
+            return new int[]{line, column};
+        }
+
         @Override
         public void undo(Content content) {
             _insert.undo(content);
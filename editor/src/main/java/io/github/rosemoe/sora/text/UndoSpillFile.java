@@ -0,0 +1,129 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Append-only file that keeps compressed texts of old undo actions out of the heap. It is written
+ * in background and read when undoing, so its methods are synchronized.
+ */
+final class UndoSpillFile {
+
+    private final File file;
+    private RandomAccessFile raf;
+    private long liveBytes;
+    private boolean deleted;
+
+    UndoSpillFile(@NonNull File file) {
+        this.file = file;
+    }
+
+    @NonNull
+    File getFile() {
+        return file;
+    }
+
+    private RandomAccessFile open() throws IOException {
+        if (deleted) {
+            throw new IOException("spill file is deleted");
+        }
+        if (raf == null) {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(0);
+        }
+        return raf;
+    }
+
+    /**
+     * Append the data to the file
+     *
+     * @return Offset of the data
+     */
+    synchronized long write(@NonNull byte[] data) throws IOException {
+        var raf = open();
+        long offset = raf.length();
+        raf.seek(offset);
+        raf.write(data);
+        liveBytes += data.length;
+        return offset;
+    }
+
+    @NonNull
+    synchronized byte[] read(long offset, int length) throws IOException {
+        var raf = open();
+        var data = new byte[length];
+        raf.seek(offset);
+        raf.readFully(data);
+        return data;
+    }
+
+    /**
+     * Mark data of the given length as no longer used
+     */
+    synchronized void release(int length) {
+        liveBytes -= length;
+    }
+
+    /**
+     * Bytes in the file that are still used
+     */
+    synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+
+    /**
+     * Current length of the file
+     */
+    synchronized long getLength() {
+        try {
+            return raf == null ? 0 : raf.length();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Close and delete the file
+     */
+    synchronized void delete() {
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException ignored) {
+                // ignored
+            }
+            raf = null;
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        liveBytes = 0;
+        deleted = true;
+    }
+
+}
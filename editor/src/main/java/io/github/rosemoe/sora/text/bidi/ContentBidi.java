@@ -25,19 +25,31 @@ package io.github.rosemoe.sora.text.bidi;
 
 import androidx.annotation.NonNull;
 
-import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
 
 import io.github.rosemoe.sora.text.Content;
 import io.github.rosemoe.sora.text.ContentListener;
 import io.github.rosemoe.sora.util.IntPair;
 
+/**
+ * Computes and caches {@link Directions} of lines in a {@link Content}.
+ * <p>
+ * Lines without characters that may affect RTL layout, which is tracked by the lines themselves
+ * (see {@link io.github.rosemoe.sora.text.ContentLine#mayNeedBidi()}), are answered directly without
+ * the cache. Directions of other lines are kept in an LRU cache indexed by line. The cache is updated
+ * on text changes: entries of modified lines are removed, and entries of lines after the change are
+ * moved to their new line indices.
+ */
 public class ContentBidi implements ContentListener {
 
-    public final static int MAX_BIDI_CACHE_ENTRY_COUNT = 64;
+    public final static int MAX_BIDI_CACHE_ENTRY_COUNT = 256;
+
+    private final static long[] LTR_RUNS = new long[]{IntPair.pack(0, 0)};
 
-    private final DirectionsEntry[] entries = new DirectionsEntry[MAX_BIDI_CACHE_ENTRY_COUNT];
     private final Content text;
+    private LinkedHashMap<Integer, Directions> entries = createEntryMap();
     private boolean enabled;
 
     public ContentBidi(@NonNull Content content) {
@@ -45,10 +57,21 @@ public class ContentBidi implements ContentListener {
         text.addContentListener(this);
     }
 
+    private static LinkedHashMap<Integer, Directions> createEntryMap() {
+        return new LinkedHashMap<>(MAX_BIDI_CACHE_ENTRY_COUNT * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Directions> eldest) {
+                return size() > MAX_BIDI_CACHE_ENTRY_COUNT;
+            }
+        };
+    }
+
     public void setEnabled(boolean enabled) {
         this.enabled = enabled;
         if (!enabled) {
-            Arrays.fill(entries, null);
+            synchronized (this) {
+                entries.clear();
+            }
         }
     }
 
@@ -58,57 +81,61 @@ public class ContentBidi implements ContentListener {
 
     @NonNull
     public Directions getLineDirections(int line) {
-        if (!enabled) {
-            return new Directions(new long[]{IntPair.pack(0, 0)}, text.getLine(line).length());
+        var lineObj = text.getLine(line);
+        if (!enabled || !lineObj.mayNeedBidi()) {
+            return new Directions(LTR_RUNS, lineObj.length());
         }
         synchronized (this) {
-            for (int i = 0; i < entries.length; i++) {
-                var entry = entries[i];
-                if (entry != null && entry.line == line) {
-                    return entry.dir;
-                }
+            var dir = entries.get(line);
+            if (dir == null) {
+                dir = TextBidi.getDirections(lineObj);
+                entries.put(line, dir);
             }
+            return dir;
         }
-        var dir = TextBidi.getDirections(text.getLine(line));
-        synchronized (this) {
-            System.arraycopy(entries, 0, entries, 1, entries.length - 1);
-            entries[0] = new DirectionsEntry(dir, line);
-        }
-        return dir;
     }
 
-    @Override
-    public synchronized void afterDelete(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn, @NonNull CharSequence deletedContent) {
-        var delta = endLine - startLine;
-        for (int i = 0; i < entries.length; i++) {
-            var entry = entries[i];
-            if (entry == null) {
-                continue;
+    /**
+     * Get count of lines whose directions are cached
+     */
+    public synchronized int getCachedLineCount() {
+        return entries.size();
+    }
+
+    /**
+     * Remove entries of lines in the given range, and move entries after that range by the given
+     * delta. Least recently used order of entries is kept.
+     */
+    private void shiftEntries(int removeStart, int removeEnd, int delta) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        if (delta == 0) {
+            for (int i = removeStart; i <= removeEnd; i++) {
+                entries.remove(i);
             }
-            if (entry.line >= startLine) {
-                if (entry.line > endLine) {
-                    entry.line -= delta;
-                } else {
-                    entries[i] = null;
-                }
+            return;
+        }
+        var shifted = createEntryMap();
+        for (var entry : entries.entrySet()) {
+            int line = entry.getKey();
+            if (line < removeStart) {
+                shifted.put(line, entry.getValue());
+            } else if (line > removeEnd) {
+                shifted.put(line + delta, entry.getValue());
             }
         }
+        entries = shifted;
+    }
+
+    @Override
+    public synchronized void afterDelete(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn, @NonNull CharSequence deletedContent) {
+        shiftEntries(startLine, endLine, startLine - endLine);
     }
 
     @Override
     public synchronized void afterInsert(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn, @NonNull CharSequence insertedContent) {
-        var delta = endLine - startLine;
-        for (int i = 0; i < entries.length; i++) {
-            var entry = entries[i];
-            if (entry == null) {
-                continue;
-            }
-            if (entry.line > startLine) {
-                entry.line += delta;
-            } else if (entry.line == startLine) {
-                entries[i] = null;
-            }
-        }
+        shiftEntries(startLine, startLine, endLine - startLine);
     }
 
     @Override
@@ -118,18 +145,8 @@ public class ContentBidi implements ContentListener {
 
     public void destroy() {
         text.removeContentListener(this);
-        Arrays.fill(entries, null);
-    }
-
-    private static class DirectionsEntry {
-
-        Directions dir;
-
-        int line;
-
-        public DirectionsEntry(Directions dir, int line) {
-            this.dir = dir;
-            this.line = line;
+        synchronized (this) {
+            entries.clear();
         }
     }
 
@@ -4665,11 +4665,7 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
             int x = getOffsetX();
             int y = getOffsetY();
             var string = (applyContent instanceof Content) ? ((Content) applyContent).toStringBuilder() : applyContent;
-            text.beginBatchEdit();
-            text.delete(0, 0, text.getLineCount() - 1,
-                    text.getColumnCount(text.getLineCount() - 1));
-            text.insert(0, 0, string);
-            text.endBatchEdit();
+            text.replaceByDiff(string);
             completionWindow.hide();
             inputConnection.invalid();
             if (cursorRange == null) {
@@ -141,6 +141,12 @@ public class DirectAccessProps implements Serializable {
      */
     public long cancelCompletionNs = 70 * 1000000;
 
+    /**
+     * Delay before a completion request is executed, in milliseconds. If another request is
+     * sent within this time, the previous one is dropped without being executed.
+     */
+    public long completionDebounceMs = 0;
+
     /**
      * Whether the editor should adjust its scroll position to make selection visible when its
      * layout height decreases.
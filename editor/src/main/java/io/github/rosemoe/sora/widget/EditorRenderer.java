@@ -54,6 +54,7 @@ import io.github.rosemoe.sora.annotations.UnsupportedUserUsage;
 import io.github.rosemoe.sora.graphics.BubbleHelper;
 import io.github.rosemoe.sora.graphics.BufferedDrawPoints;
 import io.github.rosemoe.sora.graphics.GraphicTextRow;
+import io.github.rosemoe.sora.graphics.LineMeasureCache;
 import io.github.rosemoe.sora.graphics.GraphicsConstants;
 import io.github.rosemoe.sora.graphics.Paint;
 import io.github.rosemoe.sora.lang.analysis.StyleUpdateRange;
@@ -77,7 +78,6 @@ import io.github.rosemoe.sora.text.Content;
 import io.github.rosemoe.sora.text.ContentLine;
 import io.github.rosemoe.sora.text.Cursor;
 import io.github.rosemoe.sora.text.FunctionCharacters;
-import io.github.rosemoe.sora.text.UnicodeIterator;
 import io.github.rosemoe.sora.text.bidi.Directions;
 import io.github.rosemoe.sora.util.IntPair;
 import io.github.rosemoe.sora.util.LongArrayList;
@@ -126,6 +126,28 @@ public class EditorRenderer {
     private final SparseArray<Directions> preloadedDirections = new SparseArray<>();
     private final CodeEditor editor;
     private final List<DiagnosticRegion> collectedDiagnostics = new ArrayList<>();
+    private final FrameArena frameArena = new FrameArena();
+    private final LineMeasureCache lineMeasureCache = new LineMeasureCache();
+    private final FrameArena.Pool<DrawCursorTask> cursorTaskPool = frameArena.newPool(DrawCursorTask::new);
+    private final FrameArena.Pool<TextDisplayPosition> textPositionPool = frameArena.newPool(TextDisplayPosition::new);
+    private final List<DrawCursorTask> postDrawCursor = new ArrayList<>();
+    private final List<TextDisplayPosition> textRegionPositions = new ArrayList<>();
+    private final MutableInt requiredFirstLine = new MutableInt(-1);
+    private final float[] visibleCharBuffer = new float[2];
+    private final EmptyReader emptyReader = new EmptyReader();
+    private final SpansReaderHolder textReader = new SpansReaderHolder();
+    private final SpansReaderHolder patchReader = new SpansReaderHolder();
+    private final LineMeasureCache.Style measureStyle = new LineMeasureCache.Style();
+    private final CharPosition tmpStartPosition = new CharPosition();
+    private final CharPosition tmpEndPosition = new CharPosition();
+    private final Content.ContentLineConsumer preloadAction = (int i, ContentLine line, Directions dirs) -> {
+        preloadedLines.put(i, line);
+        preloadedDirections.put(i, dirs);
+    };
+    private final PatchDraw colorPatch = this::drawColorPatch;
+    private int patchColor;
+    private int patchBackgroundColor;
+    private int patchUnderlineColor;
     Paint.FontMetricsInt metricsText;
     @Nullable
     private Drawable horizontalScrollbarThumbDrawable;
@@ -193,9 +215,11 @@ public class EditorRenderer {
         int saveCount = canvas.save();
         canvas.translate(editor.getOffsetX(), editor.getOffsetY());
         renderingFlag = true;
+        frameArena.beginFrame();
         try {
             drawView(canvas);
         } finally {
+            frameArena.endFrame();
             renderingFlag = false;
         }
         canvas.restoreToCount(saveCount);
@@ -274,6 +298,7 @@ public class EditorRenderer {
         metricsLineNumber = paintOther.getFontMetricsInt();
         metricsGraph = paintGraph.getFontMetricsInt();
         invalidateRenderNodes();
+        lineMeasureCache.clear();
         updateTimestamp();
     }
 
@@ -289,6 +314,7 @@ public class EditorRenderer {
         paintGeneral.setTypefaceWrapped(typefaceText);
         metricsText = paintGeneral.getFontMetricsInt();
         invalidateRenderNodes();
+        lineMeasureCache.clear();
         updateTimestamp();
         editor.createLayout();
         editor.invalidate();
@@ -321,6 +347,7 @@ public class EditorRenderer {
         metricsLineNumber = paintOther.getFontMetricsInt();
         metricsText = paintGeneral.getFontMetricsInt();
         invalidateRenderNodes();
+        lineMeasureCache.clear();
         updateTimestamp();
         editor.createLayout();
         editor.invalidate();
@@ -598,8 +625,13 @@ public class EditorRenderer {
         postDrawLineNumbers.clear();
         var postDrawCurrentLines = this.postDrawCurrentLines;
         postDrawCurrentLines.clear();
-        List<DrawCursorTask> postDrawCursor = new ArrayList<>(3);
-        MutableInt firstLn = editor.isFirstLineNumberAlwaysVisible() && editor.isWordwrap() ? new MutableInt(-1) : null;
+        var postDrawCursor = this.postDrawCursor;
+        postDrawCursor.clear();
+        MutableInt firstLn = null;
+        if (editor.isFirstLineNumberAlwaysVisible() && editor.isWordwrap()) {
+            firstLn = requiredFirstLine;
+            firstLn.value = -1;
+        }
 
         drawRows(canvas, textOffset, postDrawLineNumbers, postDrawCursor, postDrawCurrentLines, firstLn);
         patchHighlightedDelimiters(canvas, textOffset);
@@ -664,8 +696,8 @@ public class EditorRenderer {
         }
 
         if (!editor.getCursorAnimator().isRunning()) {
-            for (var action : postDrawCursor) {
-                action.execute(canvas);
+            for (int i = 0; i < postDrawCursor.size(); i++) {
+                postDrawCursor.get(i).execute(canvas);
             }
         } else {
             drawSelectionOnAnimation(canvas);
@@ -906,10 +938,7 @@ public class EditorRenderer {
 
     private void prepareLines(int start, int end) {
         releasePreloadedData();
-        content.runReadActionsOnLines(Math.max(0, start - 5), Math.min(content.getLineCount() - 1, end + 5), (int i, ContentLine line, Directions dirs) -> {
-            preloadedLines.put(i, line);
-            preloadedDirections.put(i, dirs);
-        });
+        content.runReadActionsOnLines(Math.max(0, start - 5), Math.min(content.getLineCount() - 1, end + 5), preloadAction);
     }
 
     private void releasePreloadedData() {
@@ -1006,7 +1035,7 @@ public class EditorRenderer {
                 lastPreparedLine = line;
             }
             // Get visible region on the line
-            float[] charPos = findDesiredVisibleChar(offset3, line, rowInf.startColumn, rowInf.endColumn);
+            float[] charPos = findDesiredVisibleChar(offset3, line, rowInf.startColumn, rowInf.endColumn, rowInf.startColumn, false, visibleCharBuffer);
             float paintingOffset = charPos[1] - offset2;
 
             var drawCurrentLineBg = line == currentLine && !editor.getCursorAnimator().isRunning() && editor.isEditable();
@@ -1066,6 +1095,8 @@ public class EditorRenderer {
 
         // Step 2 - Draw text and text decorations
         long lastStyle = 0;
+        // One reader is used for all the lines, and it is kept for later frames
+        Spans.Reader spansReader = spans == null ? null : textReader.get(spans);
         Spans.Reader reader = null;
         lastPreparedLine = -1;
         for (int row = firstVis; row <= editor.getLastVisibleRow() && rowIterator.hasNext(); row++) {
@@ -1084,29 +1115,29 @@ public class EditorRenderer {
                 lastPreparedLine = line;
                 prepareLine(line);
                 spanOffset = 0;
-                // Release old reader
-                if (reader != null) {
+                // Release old line
+                if (reader != null && spansReader != null) {
                     try {
-                        reader.moveToLine(-1);
+                        spansReader.moveToLine(-1);
                     } catch (Exception e) {
                         e.printStackTrace();
                     }
                 }
-                // Get new reader and lock
+                // Move reader to the line and lock
                 // Note that we should hold the reader during the **text line** rendering process
                 // Otherwise, the spans of that line can be changed during the inter rendering time
                 // between two **rows** because the spans could have been changed concurrently
                 // See #290
-                reader = spans == null ? new EmptyReader() : spans.read();
+                reader = spansReader == null ? emptyReader : spansReader;
                 try {
                     reader.moveToLine(line);
                 } catch (Exception e) {
                     e.printStackTrace();
-                    reader = new EmptyReader();
+                    reader = emptyReader;
                 }
                 if (reader.getSpanCount() == 0) {
                     // Unacceptable span count, use fallback reader
-                    reader = new EmptyReader();
+                    reader = emptyReader;
                 }
                 if (editor.shouldInitializeNonPrintable()) {
                     long positions = editor.findLeadingAndTrailingWhitespacePos(lineBuf);
@@ -1116,10 +1147,10 @@ public class EditorRenderer {
             }
 
             // Get visible region on the line
-            float[] charPos = findDesiredVisibleChar(offset3, line, rowInf.startColumn, rowInf.endColumn);
+            float[] charPos = findDesiredVisibleChar(offset3, line, rowInf.startColumn, rowInf.endColumn, rowInf.startColumn, false, visibleCharBuffer);
             int firstVisibleChar = (int) charPos[0];
             float paintingOffset = charPos[1] - offset2;
-            int lastVisibleChar = (int) findDesiredVisibleChar(editor.getWidth() - paintingOffset, line, firstVisibleChar, rowInf.endColumn, rowInf.startColumn, true)[0];
+            int lastVisibleChar = (int) findDesiredVisibleChar(editor.getWidth() - paintingOffset, line, firstVisibleChar, rowInf.endColumn, rowInf.startColumn, true, visibleCharBuffer)[0];
 
             float backupOffset = paintingOffset;
             int nonPrintableFlags = editor.getNonPrintablePaintingFlags();
@@ -1305,23 +1336,23 @@ public class EditorRenderer {
                 if (cursor.getLeftLine() == line && isInside(cursor.getLeftColumn(), rowInf.startColumn, rowInf.endColumn, line)) {
                     float centerX = editor.measureTextRegionOffset() + layout.getCharLayoutOffset(cursor.getLeftLine(), cursor.getLeftColumn())[1] - editor.getOffsetX();
                     var type = content.isRtlAt(cursor.getLeftLine(), cursor.getLeftColumn()) ? SelectionHandleStyle.HANDLE_TYPE_RIGHT : SelectionHandleStyle.HANDLE_TYPE_LEFT;
-                    postDrawCursor.add(new DrawCursorTask(centerX, getRowBottomForBackground(row) - editor.getOffsetY(), type, editor.getLeftHandleDescriptor()));
+                    postDrawCursor.add(obtainCursorTask(centerX, getRowBottomForBackground(row) - editor.getOffsetY(), type, editor.getLeftHandleDescriptor()));
                 }
                 if (cursor.getRightLine() == line && isInside(cursor.getRightColumn(), rowInf.startColumn, rowInf.endColumn, line)) {
                     float centerX = editor.measureTextRegionOffset() + layout.getCharLayoutOffset(cursor.getRightLine(), cursor.getRightColumn())[1] - editor.getOffsetX();
                     var type = content.isRtlAt(cursor.getRightLine(), cursor.getRightColumn()) ? SelectionHandleStyle.HANDLE_TYPE_LEFT : SelectionHandleStyle.HANDLE_TYPE_RIGHT;
-                    postDrawCursor.add(new DrawCursorTask(centerX, getRowBottomForBackground(row) - editor.getOffsetY(), type, editor.getRightHandleDescriptor()));
+                    postDrawCursor.add(obtainCursorTask(centerX, getRowBottomForBackground(row) - editor.getOffsetY(), type, editor.getRightHandleDescriptor()));
                 }
             } else if (cursor.getLeftLine() == line && isInside(cursor.getLeftColumn(), rowInf.startColumn, rowInf.endColumn, line)) {
                 float centerX = editor.measureTextRegionOffset() + layout.getCharLayoutOffset(cursor.getLeftLine(), cursor.getLeftColumn())[1] - editor.getOffsetX();
-                postDrawCursor.add(new DrawCursorTask(centerX, getRowBottomForBackground(row) - editor.getOffsetY(), editor.getEventHandler().shouldDrawInsertHandle() ? SelectionHandleStyle.HANDLE_TYPE_INSERT : SelectionHandleStyle.HANDLE_TYPE_UNDEFINED, editor.getInsertHandleDescriptor()));
+                postDrawCursor.add(obtainCursorTask(centerX, getRowBottomForBackground(row) - editor.getOffsetY(), editor.getEventHandler().shouldDrawInsertHandle() ? SelectionHandleStyle.HANDLE_TYPE_INSERT : SelectionHandleStyle.HANDLE_TYPE_UNDEFINED, editor.getInsertHandleDescriptor()));
             }
         }
 
-        // Release last used reader object
-        if (reader != null) {
+        // Release last used line
+        if (spansReader != null) {
             try {
-                reader.moveToLine(-1);
+                spansReader.moveToLine(-1);
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -1350,8 +1381,8 @@ public class EditorRenderer {
             final float waveLength = editor.getDpUnit() * editor.getProps().indicatorWaveLength;
             final float amplitude = editor.getDpUnit() * editor.getProps().indicatorWaveAmplitude;
             final float waveWidth = editor.getDpUnit() * editor.getProps().indicatorWaveWidth;
-            var start = new CharPosition();
-            var end = new CharPosition();
+            var start = tmpStartPosition;
+            var end = tmpEndPosition;
             var indexer = cursor.getIndexer();
             for (var region : collectedDiagnostics) {
                 var startIndex = Math.max(firstIndex, region.startIndex);
@@ -2152,50 +2183,65 @@ public class EditorRenderer {
         paintGeneral.setStyle(android.graphics.Paint.Style.FILL_AND_STROKE);
         paintGeneral.setFakeBoldText(editor.getProps().boldMatchingDelimiters);
         var positions = getTextRegionPositions(start, end);
-        Log.d(LOG_TAG, "positions = " + positions);
-        patchTextRegions(canvas, textOffset, positions, (canvasLocal, horizontalOffset, row, line, startCol, endCol, style) -> {
-            if (backgroundColor != 0) {
-                tmpRect.top = getRowTopForBackground(row) - editor.getOffsetY();
-                tmpRect.bottom = getRowBottomForBackground(row) - editor.getOffsetY();
-                tmpRect.left = 0;
-                tmpRect.right = editor.getWidth();
-                paintOther.setColor(backgroundColor);
-                if (editor.getProps().enableRoundTextBackground) {
-                    canvas.drawRoundRect(tmpRect, editor.getRowHeight() * editor.getProps().roundTextBackgroundFactor, editor.getRowHeight() * editor.getProps().roundTextBackgroundFactor, paintOther);
-                } else {
-                    canvas.drawRect(tmpRect, paintOther);
-                }
-            }
-            if (color != 0) {
-                paintGeneral.setTextSkewX(TextStyle.isItalics(style) ? GraphicsConstants.TEXT_SKEW_X : 0f);
-                paintGeneral.setStrikeThruText(TextStyle.isStrikeThrough(style));
-                drawText(canvas, getLine(line), startCol, endCol - startCol, startCol, endCol - startCol, false, horizontalOffset, editor.getRowBaseline(row) - editor.getOffsetY(), line);
-            }
-            if (underlineColor != 0) {
-                paintOther.setColor(underlineColor);
-                var bottom = editor.getRowBottomOfText(row) - editor.getOffsetY() - editor.getRowHeightOfText() * 0.05f;
-                canvas.drawLine(0, bottom, editor.getWidth(), bottom, paintOther);
-            }
-        });
+        patchColor = color;
+        patchBackgroundColor = backgroundColor;
+        patchUnderlineColor = underlineColor;
+        patchTextRegions(canvas, textOffset, positions, colorPatch);
         paintGeneral.setStyle(android.graphics.Paint.Style.FILL);
         paintGeneral.setFakeBoldText(false);
         paintGeneral.setTextSkewX(0f);
         paintGeneral.setStrikeThruText(false);
     }
 
+    /**
+     * Patch text region with colors set by {@link #patchTextRegionWithColor(Canvas, float, int, int, int, int, int)}
+     */
+    private void drawColorPatch(Canvas canvas, float horizontalOffset, int row, int line, int startCol, int endCol, long style) {
+        if (patchBackgroundColor != 0) {
+            tmpRect.top = getRowTopForBackground(row) - editor.getOffsetY();
+            tmpRect.bottom = getRowBottomForBackground(row) - editor.getOffsetY();
+            tmpRect.left = 0;
+            tmpRect.right = editor.getWidth();
+            paintOther.setColor(patchBackgroundColor);
+            if (editor.getProps().enableRoundTextBackground) {
+                canvas.drawRoundRect(tmpRect, editor.getRowHeight() * editor.getProps().roundTextBackgroundFactor, editor.getRowHeight() * editor.getProps().roundTextBackgroundFactor, paintOther);
+            } else {
+                canvas.drawRect(tmpRect, paintOther);
+            }
+        }
+        if (patchColor != 0) {
+            paintGeneral.setTextSkewX(TextStyle.isItalics(style) ? GraphicsConstants.TEXT_SKEW_X : 0f);
+            paintGeneral.setStrikeThruText(TextStyle.isStrikeThrough(style));
+            drawText(canvas, getLine(line), startCol, endCol - startCol, startCol, endCol - startCol, false, horizontalOffset, editor.getRowBaseline(row) - editor.getOffsetY(), line);
+        }
+        if (patchUnderlineColor != 0) {
+            paintOther.setColor(patchUnderlineColor);
+            var bottom = editor.getRowBottomOfText(row) - editor.getOffsetY() - editor.getRowHeightOfText() * 0.05f;
+            canvas.drawLine(0, bottom, editor.getWidth(), bottom, paintOther);
+        }
+    }
+
+    /**
+     * Compute display positions of the given text region on each row.
+     * <p>
+     * The returned list and its elements are reused by the next invocation and the next frame.
+     */
     protected List<TextDisplayPosition> getTextRegionPositions(int start, int end) {
         var layout = editor.getLayout();
         var startRow = layout.getRowIndexForPosition(start);
         var endRow = layout.getRowIndexForPosition(end);
-        var posStart = cursor.getIndexer().getCharPosition(start);
-        var posEnd = cursor.getIndexer().getCharPosition(end);
+        var posStart = tmpStartPosition;
+        var posEnd = tmpEndPosition;
+        cursor.getIndexer().getCharPosition(start, posStart);
+        cursor.getIndexer().getCharPosition(end, posEnd);
         var itr = layout.obtainRowIterator(startRow, preloadedLines);
-        var list = new ArrayList<TextDisplayPosition>();
+        var list = textRegionPositions;
+        list.clear();
         for (int i = startRow; i <= endRow && itr.hasNext(); i++) {
             var row = itr.next();
             var startOnRow = (i == startRow ? posStart.column : row.startColumn);
             var endOnRow = (i == endRow ? posEnd.column : row.endColumn);
-            var position = new TextDisplayPosition();
+            var position = renderingFlag ? textPositionPool.obtain() : new TextDisplayPosition();
             list.add(position);
             position.row = i;
             var line = content.getLine(row.lineIndex);
@@ -2212,10 +2258,11 @@ public class EditorRenderer {
     protected void patchTextRegions(Canvas canvas, float textOffset, List<TextDisplayPosition> positions, @NonNull PatchDraw patch) {
         var styles = editor.getStyles();
         var spans = styles != null ? styles.getSpans() : null;
-        var reader = spans != null ? spans.read() : new EmptyReader();
+        var reader = spans != null ? patchReader.get(spans) : emptyReader;
         var firstVisRow = editor.getFirstVisibleRow();
         var lastVisRow = editor.getLastVisibleRow();
-        for (var position : positions) {
+        for (int index = 0; index < positions.size(); index++) {
+            var position = positions.get(index);
             if (!(firstVisRow <= position.row && position.row <= lastVisRow)) {
                 continue;
             }
@@ -2260,7 +2307,8 @@ public class EditorRenderer {
                         first = false;
                     }
                     if (TextStyle.isItalics(span.getStyleBits())) {
-                        var path = new Path();
+                        var path = tmpPath;
+                        path.reset();
                         var y = editor.getRowBottomOfText(position.row) - editor.getOffsetY();
                         path.moveTo(textOffset + position.left, y);
                         path.lineTo(textOffset + position.left - GraphicsConstants.TEXT_SKEW_X * y, 0f);
@@ -2273,7 +2321,8 @@ public class EditorRenderer {
                     }
 
                     if (TextStyle.isItalics(span.getStyleBits())) {
-                        var path = new Path();
+                        var path = tmpPath;
+                        path.reset();
                         var y = editor.getRowBottomOfText(position.row) - editor.getOffsetY();
                         path.moveTo(textOffset + position.right, y);
                         path.lineTo(textOffset + position.right - GraphicsConstants.TEXT_SKEW_X * y, 0f);
@@ -2355,8 +2404,21 @@ public class EditorRenderer {
      */
     @UnsupportedUserUsage
     public float[] findDesiredVisibleChar(float target, int lineIndex, int start, int end, int contextStart, boolean forLast) {
+        return findDesiredVisibleChar(target, lineIndex, start, end, contextStart, forLast, new float[2]);
+    }
+
+    /**
+     * Find first visible character, and store the result in the given array
+     *
+     * @param result Array with at least 2 elements to store the result
+     * @return The given array. Element 0 is offset, Element 1 is measured width
+     */
+    @UnsupportedUserUsage
+    public float[] findDesiredVisibleChar(float target, int lineIndex, int start, int end, int contextStart, boolean forLast, @NonNull float[] result) {
         if (start >= end) {
-            return new float[]{end, 0};
+            result[0] = end;
+            result[1] = 0;
+            return result;
         }
         var line = getLine(lineIndex);
         if (line.widthCache != null && line.timestamp < displayTimestamp) {
@@ -2401,12 +2463,17 @@ public class EditorRenderer {
         } else {
             if (forLast) {
                 if (offset + 1 < end) {
-                    var itr = new UnicodeIterator(line, offset + 1, end);
-                    int codePoint;
+                    var chars = line.getRawData();
+                    int index = offset + 1;
                     var first = true;
-                    while ((codePoint = itr.nextCodePoint()) != 0) {
+                    while (index < end) {
+                        int codePoint = Character.codePointAt(chars, index, end);
+                        if (codePoint == 0) {
+                            break;
+                        }
+                        index += Character.charCount(codePoint);
                         if (isCombiningCharacter(codePoint) || first) {
-                            offset = itr.getEndIndex();
+                            offset = index;
                             first = false;
                         } else {
                             break;
@@ -2449,10 +2516,11 @@ public class EditorRenderer {
             }
         }
         offset = Math.min(end, Math.max(start, offset));
-        res = new float[]{offset, gtr.measureText(start, offset)};
+        result[0] = offset;
+        result[1] = gtr.measureText(start, offset);
 
         gtr.recycle();
-        return res;
+        return result;
     }
 
     /**
@@ -2476,6 +2544,7 @@ public class EditorRenderer {
      */
     protected void buildMeasureCacheForLines(int startLine, int endLine, long timestamp, boolean useCachedContent) {
         var text = content;
+        var style = measureStyle;
         while (startLine <= endLine && startLine < text.getLineCount()) {
             var line = useCachedContent ? getLine(startLine) : getLineDirect(startLine);
             if (line.timestamp < timestamp) {
@@ -2489,9 +2558,15 @@ public class EditorRenderer {
                 gtr.set(text, startLine, 0, line.length(), editor.getTabWidth(), spans, paintGeneral);
                 var softBreaks = (editor.layout instanceof WordwrapLayout) ? ((WordwrapLayout) editor.layout).getSoftBreaksForLine(startLine) : null;
                 gtr.setSoftBreaks(softBreaks);
-                var hash = Objects.hash(spans, line.length(), editor.getTabWidth(), basicDisplayMode, softBreaks, paintGeneral.getFlags(), paintGeneral.getTextSize(), paintGeneral.getTextScaleX(), paintGeneral.getLetterSpacing(), paintGeneral.getFontFeatureSettings());
+                style.set(spans, line.length(), editor.getTabWidth(), basicDisplayMode, softBreaks, paintGeneral);
+                var textHash = LineMeasureCache.hashText(line);
+                // Text is also checked, as the line can be modified without changing its length
+                var hash = 31 * style.hashCode() + textHash;
                 if (line.styleHash != hash || forced) {
-                    gtr.buildMeasureCache();
+                    if (!lineMeasureCache.restore(line, textHash, style)) {
+                        gtr.buildMeasureCache();
+                        lineMeasureCache.store(line, textHash, style);
+                    }
                     line.styleHash = hash;
                 }
                 gtr.recycle();
@@ -2535,12 +2610,57 @@ public class EditorRenderer {
 
     // END Measure---------------------------------------
 
+    /**
+     * Get a cursor task reused across frames
+     */
+    protected DrawCursorTask obtainCursorTask(float x, float y, int handleType, SelectionHandleStyle.HandleDescriptor descriptor) {
+        var task = renderingFlag ? cursorTaskPool.obtain() : new DrawCursorTask();
+        task.set(x, y, handleType, descriptor);
+        return task;
+    }
+
+    /**
+     * Get the arena of objects reused across frames. Its counters tell whether the pools grow.
+     */
+    @NonNull
+    public FrameArena getFrameArena() {
+        return frameArena;
+    }
+
+    /**
+     * Get the cache of measured lines, which is used to restore measure cache of lines
+     */
+    @NonNull
+    public LineMeasureCache getLineMeasureCache() {
+        return lineMeasureCache;
+    }
+
     protected interface PatchDraw {
 
         void draw(Canvas canvas, float horizontalOffset, int row, int line, int start, int end, long style);
 
     }
 
+    /**
+     * Reader of a {@link Spans} object, reused until the spans object is replaced. Readers are
+     * released by {@code moveToLine(-1)} after each use, so they can be used again in later frames.
+     */
+    private static class SpansReaderHolder {
+
+        private Spans spans;
+        private Spans.Reader reader;
+
+        @NonNull
+        Spans.Reader get(@NonNull Spans spans) {
+            if (this.spans != spans || reader == null) {
+                this.spans = spans;
+                reader = spans.read();
+            }
+            return reader;
+        }
+
+    }
+
     protected static class TextDisplayPosition {
 
         protected int row, startColumn, endColumn, line, rowStart;
@@ -2562,6 +2682,13 @@ public class EditorRenderer {
         protected SelectionHandleStyle.HandleDescriptor descriptor;
 
         public DrawCursorTask(float x, float y, int handleType, SelectionHandleStyle.HandleDescriptor descriptor) {
+            set(x, y, handleType, descriptor);
+        }
+
+        protected DrawCursorTask() {
+        }
+
+        protected void set(float x, float y, int handleType, SelectionHandleStyle.HandleDescriptor descriptor) {
             this.x = x;
             this.y = y;
             this.handleType = handleType;
@@ -334,7 +334,7 @@ public class EditorSearcher {
                 }
                 editor.postInLifecycle(() -> {
                     var pos = editor.getCursor().left();
-                    editor.getText().replace(0, 0, editor.getLineCount() - 1, editor.getText().getColumnCount(editor.getLineCount() - 1), sb);
+                    editor.getText().replaceByDiff(sb);
                     editor.setSelectionAround(pos.line, pos.column);
                     dialog.dismiss();
 
@@ -0,0 +1,164 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.widget;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Objects used by {@link EditorRenderer} during a frame. Pools created by the arena hand out the
+ * same objects again after {@link #beginFrame()}, so that drawing a frame does not create new
+ * objects once the pools are large enough.
+ * <p>
+ * The arena also counts objects its pools have to create, which is zero per frame once the pools
+ * are large enough. Note that this only tells whether the pools grow. Other allocations of the
+ * draw path are not counted, and have to be measured by allocated bytes of the UI thread.
+ * <p>
+ * Note that the arena is not thread-safe. It is only used on the UI thread.
+ */
+public class FrameArena {
+
+    private final List<Pool<?>> pools = new ArrayList<>();
+    private long frameCount;
+    private long allocationCount;
+    private int frameAllocationCount;
+    private int lastFrameAllocationCount;
+
+    /**
+     * Create a new pool, which is reset on each frame
+     */
+    @NonNull
+    public <T> Pool<T> newPool(@NonNull Factory<T> factory) {
+        var pool = new Pool<>(factory);
+        pools.add(pool);
+        return pool;
+    }
+
+    /**
+     * Start a new frame. All objects obtained in the previous frame are given back to their pools.
+     */
+    public void beginFrame() {
+        frameAllocationCount = 0;
+        for (int i = 0; i < pools.size(); i++) {
+            pools.get(i).reset();
+        }
+    }
+
+    /**
+     * End current frame
+     */
+    public void endFrame() {
+        lastFrameAllocationCount = frameAllocationCount;
+        frameCount++;
+    }
+
+    /**
+     * Record that an object or a buffer used by the frame has been created, because the reused one
+     * is absent or too small
+     */
+    public void recordAllocation() {
+        allocationCount++;
+        frameAllocationCount++;
+    }
+
+    /**
+     * Get count of frames drawn with this arena
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Get count of objects created by pools of this arena since it is created
+     */
+    public long getAllocationCount() {
+        return allocationCount;
+    }
+
+    /**
+     * Get count of objects created by pools of this arena during the last frame
+     */
+    public int getLastFrameAllocationCount() {
+        return lastFrameAllocationCount;
+    }
+
+    /**
+     * Creates objects for a {@link Pool}
+     */
+    public interface Factory<T> {
+
+        @NonNull
+        T create();
+
+    }
+
+    /**
+     * Pool of objects that are valid until the next frame begins
+     */
+    public class Pool<T> {
+
+        private final Factory<T> factory;
+        private final List<T> objects = new ArrayList<>();
+        private int used;
+
+        private Pool(@NonNull Factory<T> factory) {
+            this.factory = factory;
+        }
+
+        /**
+         * Get an unused object in this frame. The object keeps its state from its previous use,
+         * so callers should reinitialize it.
+         */
+        @NonNull
+        public T obtain() {
+            if (used == objects.size()) {
+                objects.add(factory.create());
+                recordAllocation();
+            }
+            return objects.get(used++);
+        }
+
+        /**
+         * Get count of objects obtained in this frame
+         */
+        public int getUsedCount() {
+            return used;
+        }
+
+        /**
+         * Get count of objects kept by the pool
+         */
+        public int getCapacity() {
+            return objects.size();
+        }
+
+        void reset() {
+            used = 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,434 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.widget.component;
+
+import android.os.Handler;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Schedules completion requests of an editor on an executor shared by all editors, instead
+ * of creating a thread for each request.
+ * <p>
+ * A new request replaces the previous one of the same editor: the previous task is cancelled if
+ * it is running, and dropped without running if it has not started yet. Requests can also be
+ * debounced, so that only the last request in a burst of typing is executed.
+ * <p>
+ * The executor has a few threads, which are created on demand and stopped after being idle for a
+ * while. Each editor has at most one task waiting in the queue of the executor, and a newer task
+ * takes the place of the waiting one. So providers that do not stop on cancellation occupy at most
+ * all the threads, instead of piling up a thread for each keystroke.
+ */
+public class CompletionScheduler {
+
+    private final static AtomicInteger threadCount = new AtomicInteger();
+    private final static AtomicLong executorStartCount = new AtomicLong();
+    private final static int MAX_WORKERS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private final static ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_WORKERS, MAX_WORKERS,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new WorkerFactory());
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private final static ThreadLocal<Task> currentTask = new ThreadLocal<>();
+
+    private final Handler handler;
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong startCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong cancelledCount = new AtomicLong();
+    private final AtomicLong firstItemCount = new AtomicLong();
+    private final AtomicLong firstItemLatencyTotalNs = new AtomicLong();
+    private volatile long lastFirstItemLatencyNs = -1;
+    private volatile Task current;
+    private Runnable pendingSubmit;
+    /**
+     * Task waiting in the queue of executor
+     */
+    private final AtomicReference<Task> queued = new AtomicReference<>();
+    private final Runnable runQueued = () -> {
+        var task = queued.getAndSet(null);
+        if (task != null) {
+            task.run();
+        }
+    };
+
+    /**
+     * Create a scheduler for an editor
+     *
+     * @param handler Handler of the main thread, used for debouncing
+     */
+    public CompletionScheduler(@NonNull Handler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Get the task running on current thread, if any
+     */
+    @Nullable
+    public static Task getCurrentTask() {
+        return currentTask.get();
+    }
+
+    /**
+     * Schedule the given task, and cancel the previous one. Called on main thread.
+     *
+     * @param task       The task to execute
+     * @param debounceMs The task is executed after this time, if no other task is scheduled meanwhile
+     */
+    public void schedule(@NonNull Task task, long debounceMs) {
+        cancel();
+        requestCount.incrementAndGet();
+        task.scheduler = this;
+        current = task;
+        if (debounceMs <= 0) {
+            submit(task);
+        } else {
+            pendingSubmit = () -> {
+                pendingSubmit = null;
+                if (!task.isCancelled()) {
+                    submit(task);
+                }
+            };
+            handler.postDelayed(pendingSubmit, debounceMs);
+        }
+    }
+
+    /**
+     * Put the task in the queue of executor, replacing the one of this editor that is not started
+     */
+    private void submit(@NonNull Task task) {
+        if (queued.getAndSet(task) == null) {
+            executor.execute(runQueued);
+        }
+    }
+
+    /**
+     * Cancel current task. Called on main thread.
+     */
+    public void cancel() {
+        if (pendingSubmit != null) {
+            handler.removeCallbacks(pendingSubmit);
+            pendingSubmit = null;
+        }
+        var task = current;
+        if (task != null) {
+            task.cancel();
+            current = null;
+        }
+    }
+
+    /**
+     * Get current task of the editor, or null if the last one is cancelled
+     */
+    @Nullable
+    public Task getTask() {
+        return current;
+    }
+
+    /**
+     * Get the metrics of this scheduler
+     */
+    @NonNull
+    public Metrics getMetrics() {
+        return new Metrics(requestCount.get(), startCount.get(), coalescedCount.get(), cancelledCount.get(),
+                executorStartCount.get(), threadCount.get(), firstItemCount.get(), firstItemLatencyTotalNs.get(), lastFirstItemLatencyNs);
+    }
+
+    /**
+     * A completion request executed by {@link CompletionScheduler}
+     */
+    public abstract static class Task implements Runnable {
+
+        private final long requestTime;
+        private volatile boolean cancelled;
+        private volatile boolean started;
+        private volatile boolean finished;
+        private Thread runner;
+        private volatile boolean firstItemRecorded;
+        private CompletionScheduler scheduler;
+
+        /**
+         * @param requestTime Time of request, in {@link System#nanoTime()}
+         */
+        public Task(long requestTime) {
+            this.requestTime = requestTime;
+        }
+
+        /**
+         * Time of request, in {@link System#nanoTime()}
+         */
+        public long getRequestTime() {
+            return requestTime;
+        }
+
+        /**
+         * Cancel the task. This only sets the cancellation flag, unless {@code interrupt} is
+         * true and the task is running, in which case its thread is also interrupted.
+         */
+        protected void cancel(boolean interrupt) {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                if (!finished) {
+                    if (scheduler != null) {
+                        if (started) {
+                            scheduler.cancelledCount.incrementAndGet();
+                        } else {
+                            scheduler.coalescedCount.incrementAndGet();
+                        }
+                    }
+                    if (interrupt && runner != null) {
+                        runner.interrupt();
+                    }
+                }
+            }
+            onCancel();
+        }
+
+        /**
+         * Cancel the task
+         */
+        public void cancel() {
+            cancel(false);
+        }
+
+        /**
+         * Check whether the task is cancelled. Tasks should check this regularly and stop their
+         * work once it is cancelled.
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Check whether the task has been executed or is being executed
+         */
+        public boolean isStarted() {
+            return started;
+        }
+
+        /**
+         * Check whether the task has been executed completely
+         */
+        public boolean isFinished() {
+            return finished;
+        }
+
+        /**
+         * Record the time that first items are displayed for this task
+         */
+        public void onFirstItemsShown() {
+            var scheduler = this.scheduler;
+            if (firstItemRecorded || scheduler == null) {
+                return;
+            }
+            firstItemRecorded = true;
+            var latency = System.nanoTime() - requestTime;
+            scheduler.firstItemCount.incrementAndGet();
+            scheduler.firstItemLatencyTotalNs.addAndGet(latency);
+            scheduler.lastFirstItemLatencyNs = latency;
+        }
+
+        /**
+         * Called when the task is cancelled
+         */
+        protected void onCancel() {
+
+        }
+
+        /**
+         * Do the actual work on worker thread
+         */
+        protected abstract void execute();
+
+        @Override
+        public final void run() {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                started = true;
+                runner = Thread.currentThread();
+            }
+            if (scheduler != null) {
+                scheduler.startCount.incrementAndGet();
+            }
+            executorStartCount.incrementAndGet();
+            currentTask.set(this);
+            try {
+                execute();
+            } finally {
+                currentTask.remove();
+                synchronized (this) {
+                    finished = true;
+                    runner = null;
+                }
+                // Do not leave the interruption to the next task on this thread
+                Thread.interrupted();
+            }
+        }
+
+    }
+
+    /**
+     * Metrics of completion requests
+     */
+    public static class Metrics {
+
+        private final long requestCount;
+        private final long startCount;
+        private final long coalescedCount;
+        private final long cancelledCount;
+        private final long executorStartCount;
+        private final long threadCreations;
+        private final long firstItemCount;
+        private final long firstItemLatencyTotalNs;
+        private final long lastFirstItemLatencyNs;
+
+        Metrics(long requestCount, long startCount, long coalescedCount, long cancelledCount, long executorStartCount,
+                long threadCreations, long firstItemCount, long firstItemLatencyTotalNs, long lastFirstItemLatencyNs) {
+            this.requestCount = requestCount;
+            this.startCount = startCount;
+            this.coalescedCount = coalescedCount;
+            this.cancelledCount = cancelledCount;
+            this.executorStartCount = executorStartCount;
+            this.threadCreations = threadCreations;
+            this.firstItemCount = firstItemCount;
+            this.firstItemLatencyTotalNs = firstItemLatencyTotalNs;
+            this.lastFirstItemLatencyNs = lastFirstItemLatencyNs;
+        }
+
+        /**
+         * Count of scheduled requests
+         */
+        public long getRequestCount() {
+            return requestCount;
+        }
+
+        /**
+         * Count of requests that have been executed
+         */
+        public long getStartCount() {
+            return startCount;
+        }
+
+        /**
+         * Count of requests replaced by newer ones before they were executed
+         */
+        public long getCoalescedCount() {
+            return coalescedCount;
+        }
+
+        /**
+         * Count of requests cancelled while they were running
+         */
+        public long getCancelledCount() {
+            return cancelledCount;
+        }
+
+        /**
+         * Ratio of requests that are cancelled or coalesced, or 0 if there is no request
+         */
+        public float getCancellationRate() {
+            return requestCount == 0 ? 0f : (float) (cancelledCount + coalescedCount) / requestCount;
+        }
+
+        /**
+         * Count of requests that have been executed by the shared executor, for all editors
+         */
+        public long getExecutorStartCount() {
+            return executorStartCount;
+        }
+
+        /**
+         * Count of worker threads created by the shared executor, for all editors
+         */
+        public long getThreadCreations() {
+            return threadCreations;
+        }
+
+        /**
+         * Count of thread creations avoided by reusing worker threads, compared to creating a
+         * thread for each executed request. This is for all editors, like {@link #getThreadCreations()}.
+         */
+        public long getThreadCreationsAvoided() {
+            return Math.max(0, executorStartCount - threadCreations);
+        }
+
+        /**
+         * Average time from request to first items shown, in nanoseconds. -1 if unavailable.
+         */
+        public long getAverageFirstItemLatencyNs() {
+            return firstItemCount == 0 ? -1 : firstItemLatencyTotalNs / firstItemCount;
+        }
+
+        /**
+         * Time from request to first items shown of the latest request that shows items, in
+         * nanoseconds. -1 if unavailable.
+         */
+        public long getLastFirstItemLatencyNs() {
+            return lastFirstItemLatencyNs;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "Metrics{" +
+                    "requestCount=" + requestCount +
+                    ", startCount=" + startCount +
+                    ", coalescedCount=" + coalescedCount +
+                    ", cancelledCount=" + cancelledCount +
+                    ", executorStartCount=" + executorStartCount +
+                    ", threadCreations=" + threadCreations +
+                    ", averageFirstItemLatencyNs=" + getAverageFirstItemLatencyNs() +
+                    ", lastFirstItemLatencyNs=" + lastFirstItemLatencyNs +
+                    '}';
+        }
+    }
+
+    private static class WorkerFactory implements ThreadFactory {
+
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            var thread = new Thread(r, "CompletionWorker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
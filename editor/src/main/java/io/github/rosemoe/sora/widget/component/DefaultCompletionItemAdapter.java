@@ -68,7 +68,7 @@ public final class DefaultCompletionItemAdapter extends EditorCompletionAdapter
             view.setBackgroundColor(0);
         }
         ImageView iv = view.findViewById(R.id.result_item_image);
-        iv.setImageDrawable(item.icon);
+        iv.setImageDrawable(item.getIcon());
         return view;
     }
 
@@ -38,6 +38,7 @@ import io.github.rosemoe.sora.lang.Language;
 import io.github.rosemoe.sora.lang.completion.CompletionCancelledException;
 import io.github.rosemoe.sora.lang.completion.CompletionItem;
 import io.github.rosemoe.sora.lang.completion.CompletionPublisher;
+import io.github.rosemoe.sora.lang.completion.CompletionSession;
 import io.github.rosemoe.sora.lang.styling.StylesUtils;
 import io.github.rosemoe.sora.text.CharPosition;
 import io.github.rosemoe.sora.text.ContentReference;
@@ -59,8 +60,10 @@ public class EditorAutoCompletion extends EditorPopupWindow implements EditorBui
     protected boolean cancelShowUp = false;
     protected long requestTime;
     protected int maxHeight;
-    protected CompletionThread completionThread;
+    protected final CompletionScheduler scheduler;
+    protected CompletionTask completionTask;
     protected CompletionPublisher publisher;
+    protected volatile CompletionSession session;
     protected WeakReference<List<CompletionItem>> lastAttachedItems;
     protected int currentSelection = -1;
     protected EditorCompletionAdapter adapter;
@@ -78,6 +81,7 @@ public class EditorAutoCompletion extends EditorPopupWindow implements EditorBui
     public EditorAutoCompletion(@NonNull CodeEditor editor) {
         super(editor, FEATURE_HIDE_WHEN_FAST_SCROLL);
         this.editor = editor;
+        scheduler = new CompletionScheduler(editor.getHandler());
         adapter = new DefaultCompletionItemAdapter();
         setLayout(new DefaultCompletionLayout());
         editor.subscribeEvent(ColorSchemeUpdateEvent.class, ((event, unsubscribe) -> applyColorScheme()));
@@ -108,8 +112,17 @@ public class EditorAutoCompletion extends EditorPopupWindow implements EditorBui
     }
 
     public boolean isCompletionInProgress() {
-        final var thread = completionThread;
-        return super.isShowing() || requestShow > requestHide || (thread != null && thread.isAlive());
+        final var task = completionTask;
+        return super.isShowing() || requestShow > requestHide || (task != null && !task.isCancelled() && !task.isFinished());
+    }
+
+    /**
+     * Get the scheduler that executes completion requests of this editor.
+     * Its metrics can be obtained by {@link CompletionScheduler#getMetrics()}
+     */
+    @NonNull
+    public CompletionScheduler getScheduler() {
+        return scheduler;
     }
 
     /**
@@ -197,6 +210,7 @@ public class EditorAutoCompletion extends EditorPopupWindow implements EditorBui
         currentSelection++;
         ((EditorCompletionAdapter) adpView.getAdapter()).notifyDataSetChanged();
         ensurePosition();
+        notifyHighlighted();
     }
 
     /**
@@ -210,6 +224,23 @@ public class EditorAutoCompletion extends EditorPopupWindow implements EditorBui
         currentSelection--;
         ((EditorCompletionAdapter) adpView.getAdapter()).notifyDataSetChanged();
         ensurePosition();
+        notifyHighlighted();
+    }
+
+    /**
+     * Notify the item at current selection that it is highlighted
+     */
+    private void notifyHighlighted() {
+        var adapter = (EditorCompletionAdapter) layout.getCompletionList().getAdapter();
+        if (currentSelection < 0 || currentSelection >= adapter.getCount()) {
+            return;
+        }
+        var item = adapter.getItem(currentSelection);
+        item.onHighlighted(editor, () -> {
+            if (isShowing() && layout.getCompletionList().getAdapter() == adapter) {
+                adapter.notifyDataSetChanged();
+            }
+        });
     }
 
     /**
@@ -249,12 +280,20 @@ public class EditorAutoCompletion extends EditorPopupWindow implements EditorBui
         var adpView = layout.getCompletionList();
         var item = ((EditorCompletionAdapter) adpView.getAdapter()).getItem(pos);
         Cursor cursor = editor.getCursor();
-        final var completionThread = this.completionThread;
-        if (!cursor.isSelected() && completionThread != null) {
+        final var completionTask = this.completionTask;
+        if (!cursor.isSelected() && completionTask != null) {
+            session = null;
             cancelShowUp = true;
             editor.restartInput();
             editor.getText().beginBatchEdit();
-            item.performCompletion(editor, editor.getText(), completionThread.requestPosition);
+            var position = completionTask.requestPosition;
+            var refilteredSession = completionTask.refilteredSession;
+            if (refilteredSession != null) {
+                // Items of the session are created for the text before the typed extension
+                position = refilteredSession.getPosition();
+                editor.getText().delete(position.line, position.column, position.line, position.column + completionTask.extension.length());
+            }
+            item.performCompletion(editor, editor.getText(), position);
             editor.getText().endBatchEdit();
             editor.updateCursor();
             cancelShowUp = false;
@@ -268,12 +307,8 @@ public class EditorAutoCompletion extends EditorPopupWindow implements EditorBui
      * Stop previous completion thread
      */
     public void cancelCompletion() {
-        var previous = completionThread;
-        if (previous != null && previous.isAlive()) {
-            previous.cancel();
-            previous.requestTimestamp = -1;
-        }
-        completionThread = null;
+        scheduler.cancel();
+        completionTask = null;
     }
 
     /**
@@ -306,15 +341,25 @@ public class EditorAutoCompletion extends EditorPopupWindow implements EditorBui
         cancelCompletion();
         requestTime = System.nanoTime();
         currentSelection = -1;
+        lastAttachedItems = null;
         publisher = new CompletionPublisher(editor.getHandler(), () -> {
             var items = publisher.getItems();
-            if (lastAttachedItems == null || lastAttachedItems.get() != items) {
+            if (lastAttachedItems == null) {
                 adapter.attachValues(this, items);
                 adapter.notifyDataSetInvalidated();
                 lastAttachedItems = new WeakReference<>(items);
+            } else if (lastAttachedItems.get() != items) {
+                // Publisher replaces its list on update, and it is still the same completion session
+                adapter.attachValues(this, items);
+                adapter.notifyDataSetChanged();
+                lastAttachedItems = new WeakReference<>(items);
             } else {
                 adapter.notifyDataSetChanged();
             }
+            var task = completionTask;
+            if (task != null && items.size() != 0) {
+                task.onFirstItemsShown();
+            }
             float newHeight = adapter.getItemHeight() * adapter.getCount();
             if (newHeight == 0) {
                 hide();
@@ -325,9 +370,17 @@ public class EditorAutoCompletion extends EditorPopupWindow implements EditorBui
                 show();
             }
         }, editor.getEditorLanguage().getInterruptionLevel());
-        completionThread = new CompletionThread(requestTime, publisher);
+        var session = this.session;
+        String extension = null;
+        if (session != null) {
+            extension = session.getExtension(editor.getEditorLanguage(), text, text.getCursor().left());
+            if (extension == null) {
+                this.session = null;
+            }
+        }
+        completionTask = extension == null ? new CompletionTask(requestTime, publisher) : new CompletionTask(requestTime, publisher, session, extension);
         setLoading(true);
-        completionThread.start();
+        scheduler.schedule(completionTask, editor.getProps().completionDebounceMs);
     }
 
     public void setMaxHeight(int height) {
@@ -335,61 +388,82 @@ public class EditorAutoCompletion extends EditorPopupWindow implements EditorBui
     }
 
     /**
-     * Auto-completion Analyzing thread
+     * Auto-completion analyzing task, executed by {@link CompletionScheduler}
      *
      * @author Rosemoe
      */
-    public final class CompletionThread extends Thread implements TextReference.Validator {
+    public final class CompletionTask extends CompletionScheduler.Task implements TextReference.Validator {
 
         private final Bundle extraData;
         private final CharPosition requestPosition;
         private final Language targetLanguage;
         private final ContentReference contentRef;
         private final CompletionPublisher localPublisher;
-        private long requestTimestamp;
-        private boolean isAborted;
+        private final CompletionSession refilteredSession;
+        private final String extension;
+        private final String linePrefix;
 
-        public CompletionThread(long requestTime, @NonNull CompletionPublisher publisher) {
-            requestTimestamp = requestTime;
+        public CompletionTask(long requestTime, @NonNull CompletionPublisher publisher) {
+            this(requestTime, publisher, null, null);
+        }
+
+        /**
+         * Create a task that refilters the items of the given session, instead of requesting the
+         * language
+         *
+         * @param session   The session to refilter, or null to request the language
+         * @param extension Text typed after the position of the session
+         */
+        public CompletionTask(long requestTime, @NonNull CompletionPublisher publisher, @Nullable CompletionSession session, @Nullable String extension) {
+            super(requestTime);
+            refilteredSession = session;
+            this.extension = extension;
             requestPosition = editor.getCursor().left();
+            linePrefix = session == null ? editor.getText().getLine(requestPosition.line).subSequence(0, requestPosition.column).toString() : null;
             targetLanguage = editor.getEditorLanguage();
             contentRef = new ContentReference(editor.getText());
             contentRef.setValidator(this);
             localPublisher = publisher;
             extraData = editor.getExtraArguments();
-            isAborted = false;
         }
 
         /**
-         * Abort the completion thread
+         * Abort the completion task
          */
+        @Override
         public void cancel() {
-            isAborted = true;
-            var level = targetLanguage.getInterruptionLevel();
-            if (level == Language.INTERRUPTION_LEVEL_STRONG) {
-                interrupt();
-            }
-            localPublisher.cancel();
+            cancel(targetLanguage.getInterruptionLevel() == Language.INTERRUPTION_LEVEL_STRONG);
         }
 
-        public boolean isCancelled() {
-            return isAborted;
+        @Override
+        protected void onCancel() {
+            localPublisher.cancel();
         }
 
         @Override
         public void validate() {
-            if (requestTime != requestTimestamp || isAborted) {
+            if (requestTime != getRequestTime() || isCancelled()) {
                 throw new CompletionCancelledException();
             }
         }
 
         @Override
-        public void run() {
+        protected void execute() {
             try {
-                targetLanguage.requireAutoComplete(contentRef, requestPosition, localPublisher, extraData);
+                if (refilteredSession != null) {
+                    refilteredSession.refilter(extension, localPublisher);
+                } else {
+                    targetLanguage.requireAutoComplete(contentRef, requestPosition, localPublisher, extraData);
+                }
                 if (localPublisher.hasData()) {
-                    if (completionThread == Thread.currentThread()) {
+                    if (scheduler.getTask() == this) {
                         localPublisher.updateList(true);
+                        if (refilteredSession == null) {
+                            var filter = localPublisher.getCompletionFilter();
+                            session = filter == null || localPublisher.isCancelled() ? null :
+                                    new CompletionSession(targetLanguage, contentRef.getReference(), requestPosition, linePrefix,
+                                            localPublisher.getItems(), filter, localPublisher.getComparator());
+                        }
                     }
                 } else {
                     editor.postInLifecycle(EditorAutoCompletion.this::hide);
@@ -397,7 +471,7 @@ public class EditorAutoCompletion extends EditorPopupWindow implements EditorBui
                 editor.postInLifecycle(() -> setLoading(false));
             } catch (Exception e) {
                 if (e instanceof CompletionCancelledException) {
-                    Log.v("CompletionThread", "Completion is cancelled");
+                    Log.v("CompletionTask", "Completion is cancelled");
                 } else {
                     e.printStackTrace();
                 }
@@ -408,4 +482,3 @@ public class EditorAutoCompletion extends EditorPopupWindow implements EditorBui
     }
 
 }
-
@@ -0,0 +1,107 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.graphics
+
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.lang.styling.Span
+import io.github.rosemoe.sora.text.ContentLine
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class LineMeasureCacheTest {
+
+    private val paint = Paint(false)
+
+    private fun style(tabWidth: Int = 4, spans: List<Span>? = null) = LineMeasureCache.Style().apply {
+        set(spans, 0, tabWidth, false, null, paint)
+    }
+
+    private fun measuredLine(text: String): ContentLine {
+        val line = ContentLine(text)
+        line.widthCache = FloatArray(text.length + 1) { it * 2f }
+        return line
+    }
+
+    @Test
+    fun `test restore measured line`() {
+        val cache = LineMeasureCache()
+        val line = measuredLine("hello")
+        cache.store(line, LineMeasureCache.hashText(line), style())
+
+        val other = ContentLine("hello")
+        assertThat(cache.restore(other, LineMeasureCache.hashText(other), style())).isTrue()
+        assertThat(other.widthCache!!.copyOf(6).toList()).containsExactly(0f, 2f, 4f, 6f, 8f, 10f).inOrder()
+        // Different style
+        assertThat(cache.restore(ContentLine("hello"), LineMeasureCache.hashText(other), style(tabWidth = 8))).isFalse()
+        assertThat(cache.hitCount).isEqualTo(1)
+        assertThat(cache.missCount).isEqualTo(1)
+    }
+
+    @Test
+    fun `test text is checked on hash collision`() {
+        val cache = LineMeasureCache()
+        // "Aa" and "BB" have the same hash
+        val line = measuredLine("Aa")
+        val collided = ContentLine("BB")
+        assertThat(LineMeasureCache.hashText(collided)).isEqualTo(LineMeasureCache.hashText(line))
+        cache.store(line, LineMeasureCache.hashText(line), style())
+        assertThat(cache.restore(collided, LineMeasureCache.hashText(collided), style())).isFalse()
+        assertThat(collided.widthCache).isNull()
+    }
+
+    @Test
+    fun `test style is checked on hash collision`() {
+        val cache = LineMeasureCache()
+        val line = measuredLine("hello")
+        // Both styles of the spans have the same hash
+        val spans = mutableListOf(Span.obtain(0, 0x1_0000_0001L))
+        val stored = style(spans = spans)
+        val collided = style(spans = listOf(Span.obtain(0, 0L)))
+        assertThat(collided.hashCode()).isEqualTo(stored.hashCode())
+        cache.store(line, LineMeasureCache.hashText(line), stored)
+        assertThat(cache.restore(ContentLine("hello"), LineMeasureCache.hashText(line), collided)).isFalse()
+        // The cache keeps its own copy of the spans
+        spans[0].style = 0L
+        assertThat(cache.restore(ContentLine("hello"), LineMeasureCache.hashText(line), style(spans = spans))).isFalse()
+        assertThat(cache.restore(ContentLine("hello"), LineMeasureCache.hashText(line), style(spans = listOf(Span.obtain(0, 0x1_0000_0001L))))).isTrue()
+    }
+
+    @Test
+    fun `test least recently used lines are evicted`() {
+        val cache = LineMeasureCache(15)
+        val lines = List(4) { measuredLine("line$it") }
+        lines.take(3).forEach { cache.store(it, LineMeasureCache.hashText(it), style()) }
+        // Use the first line, so that the second one is the eldest
+        assertThat(cache.restore(ContentLine(lines[0]), LineMeasureCache.hashText(lines[0]), style())).isTrue()
+        cache.store(lines[3], LineMeasureCache.hashText(lines[3]), style())
+        assertThat(cache.size()).isEqualTo(3)
+        assertThat(cache.restore(ContentLine(lines[1]), LineMeasureCache.hashText(lines[1]), style())).isFalse()
+        for (i in listOf(0, 2, 3)) {
+            assertThat(cache.restore(ContentLine(lines[i]), LineMeasureCache.hashText(lines[i]), style())).isTrue()
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lang.completion
+
+import android.os.Handler
+import android.os.Looper
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import java.util.Random
+import java.util.concurrent.atomic.AtomicInteger
+
+@RunWith(RobolectricTestRunner::class)
+class CompletionPublisherTest {
+
+    private val comparator = Comparator<CompletionItem> { a, b ->
+        a.label.toString().compareTo(b.label.toString())
+    }
+
+    private fun randomItems(seed: Long, count: Int): List<CompletionItem> {
+        val random = Random(seed)
+        val parts = arrayOf("get", "set", "on", "Click", "Listener", "Text", "Editor", "Line", "Span")
+        return List(count) {
+            val label = buildString {
+                repeat(1 + random.nextInt(4)) {
+                    append(parts[random.nextInt(parts.size)])
+                }
+            }
+            SimpleCompletionItem(label, "desc $it", 0, label)
+        }
+    }
+
+    /**
+     * Publish items from a worker thread, like the completion thread does
+     */
+    private fun publish(publisher: CompletionPublisher, items: List<CompletionItem>, batchSize: Int) {
+        val thread = Thread {
+            for (i in items.indices step batchSize) {
+                publisher.addItems(items.subList(i, minOf(items.size, i + batchSize)))
+            }
+            publisher.updateList(true)
+        }
+        thread.start()
+        thread.join()
+    }
+
+    @Test
+    fun `test items are sorted and stable`() {
+        val snapshots = mutableListOf<List<CompletionItem>>()
+        lateinit var publisher: CompletionPublisher
+        publisher = CompletionPublisher(Handler(Looper.getMainLooper()), {
+            snapshots.add(publisher.items)
+        }, 0)
+        publisher.setComparator(comparator)
+        val items = randomItems(0, 5000)
+        publish(publisher, items, 37)
+        shadowOf(Looper.getMainLooper()).idle()
+
+        val expected = items.sortedWith(comparator)
+        assertThat(publisher.items).containsExactlyElementsIn(expected).inOrder()
+        // Every snapshot delivered to the main thread is sorted already
+        assertThat(snapshots).isNotEmpty()
+        for (snapshot in snapshots) {
+            assertThat(snapshot).isInOrder(comparator)
+        }
+    }
+
+    @Test
+    fun `test items without comparator keep their order`() {
+        val publisher = CompletionPublisher(Handler(Looper.getMainLooper()), {}, 0)
+        val items = randomItems(1, 1000)
+        publish(publisher, items, 10)
+        shadowOf(Looper.getMainLooper()).idle()
+        assertThat(publisher.items).containsExactlyElementsIn(items).inOrder()
+    }
+
+    @Test
+    fun `test set comparator after items are published`() {
+        val publisher = CompletionPublisher(Handler(Looper.getMainLooper()), {}, 0)
+        val items = randomItems(2, 1000)
+        publish(publisher, items, 100)
+        publisher.setComparator(comparator)
+        shadowOf(Looper.getMainLooper()).idle()
+        assertThat(publisher.items).containsExactlyElementsIn(items.sortedWith(comparator)).inOrder()
+    }
+
+    @Test
+    fun `test large payload is not sorted on main thread`() {
+        val mainThread = Looper.getMainLooper().thread
+        val mainThreadCompares = AtomicInteger()
+        val workerCompares = AtomicInteger()
+        val countingComparator = Comparator<CompletionItem> { a, b ->
+            if (Thread.currentThread() === mainThread) {
+                mainThreadCompares.incrementAndGet()
+            } else {
+                workerCompares.incrementAndGet()
+            }
+            comparator.compare(a, b)
+        }
+        var updates = 0
+        lateinit var publisher: CompletionPublisher
+        publisher = CompletionPublisher(Handler(Looper.getMainLooper()), {
+            updates++
+            publisher.items.size
+        }, 0)
+        publisher.setComparator(countingComparator)
+        // Similar to a large response from a language server, which is published in one batch
+        val items = randomItems(3, 20000)
+        publish(publisher, items, items.size)
+        shadowOf(Looper.getMainLooper()).idle()
+
+        assertThat(updates).isGreaterThan(0)
+        assertThat(workerCompares.get()).isGreaterThan(0)
+        // The main thread only receives the sorted list
+        assertThat(mainThreadCompares.get()).isEqualTo(0)
+        assertThat(publisher.items).hasSize(items.size)
+        assertThat(publisher.items).isInOrder(comparator)
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lang.completion
+
+import android.os.Handler
+import android.os.Looper
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.lang.EmptyLanguage
+import io.github.rosemoe.sora.text.CharPosition
+import io.github.rosemoe.sora.text.Content
+import io.github.rosemoe.sora.text.ContentReference
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+
+@RunWith(RobolectricTestRunner::class)
+class CompletionSessionTest {
+
+    private val language = EmptyLanguage()
+
+    private fun item(label: String, prefixLength: Int, filterText: String? = null) =
+        SimpleCompletionItem(label, null, prefixLength, label).also { it.filterText = filterText }
+
+    private fun session(text: Content, position: CharPosition, items: List<CompletionItem>,
+                        filter: CompletionFilter = FuzzyCompletionFilter.ANY_MATCH): CompletionSession {
+        val linePrefix = text.getLine(position.line).subSequence(0, position.column).toString()
+        return CompletionSession(language, text, position, linePrefix, items, filter, null)
+    }
+
+    private fun refilter(session: CompletionSession, extension: String): List<CompletionItem> {
+        val publisher = CompletionPublisher(Handler(Looper.getMainLooper()), {}, 0)
+        val thread = Thread {
+            session.refilter(extension, publisher)
+            publisher.updateList(true)
+        }
+        thread.start()
+        thread.join()
+        shadowOf(Looper.getMainLooper()).idle()
+        return publisher.items
+    }
+
+    @Test
+    fun `extension is the identifier text typed after the position`() {
+        val text = Content("val x = foo")
+        val position = text.indexer.getCharPosition(0, 11)
+        val session = session(text, position, listOf(item("fooBar", 3)))
+        assertThat(session.getExtension(language, text, text.indexer.getCharPosition(0, 11))).isEqualTo("")
+
+        text.insert(0, 11, "Ba_1")
+        assertThat(session.getExtension(language, text, text.indexer.getCharPosition(0, 15))).isEqualTo("Ba_1")
+        // Cursor in the middle of the extension
+        assertThat(session.getExtension(language, text, text.indexer.getCharPosition(0, 13))).isEqualTo("Ba")
+        // Cursor before the position of the session
+        assertThat(session.getExtension(language, text, text.indexer.getCharPosition(0, 10))).isNull()
+        // Other languages and texts
+        assertThat(session.getExtension(EmptyLanguage(), text, text.indexer.getCharPosition(0, 15))).isNull()
+        assertThat(session.getExtension(language, Content(text.toString()), text.indexer.getCharPosition(0, 15))).isNull()
+    }
+
+    @Test
+    fun `extension is rejected after other characters or changes`() {
+        val text = Content("val x = foo\nnext")
+        val position = text.indexer.getCharPosition(0, 11)
+        val session = session(text, position, listOf(item("fooBar", 3)))
+
+        text.insert(0, 11, "B.")
+        assertThat(session.getExtension(language, text, text.indexer.getCharPosition(0, 13))).isNull()
+        text.delete(0, 12, 0, 13)
+        assertThat(session.getExtension(language, text, text.indexer.getCharPosition(0, 12))).isEqualTo("B")
+
+        // Other lines
+        assertThat(session.getExtension(language, text, text.indexer.getCharPosition(1, 4))).isNull()
+
+        // Text before the position is changed
+        text.replace(0, 4, 0, 5, "y")
+        assertThat(session.getExtension(language, text, text.indexer.getCharPosition(0, 12))).isNull()
+    }
+
+    @Test
+    fun `prefix of each item is its original prefix followed by the extension`() {
+        val text = Content("val x = foo")
+        val position = text.indexer.getCharPosition(0, 11)
+        val prefixes = mutableMapOf<String, String>()
+        val recording = CompletionFilter { item, prefix, lowPrefix, _, _ ->
+            prefixes[item.label.toString()] = prefix
+            assertThat(lowPrefix).isEqualTo(prefix.lowercase())
+            true
+        }
+        val items = listOf(item("fooBar", 3), item("= fooBaz", 5), item("Bar", 0))
+        val session = session(text, position, items, recording)
+
+        refilter(session, "B")
+        assertThat(prefixes).containsExactly("fooBar", "fooB", "= fooBaz", "= fooB", "Bar", "B")
+    }
+
+    @Test
+    fun `items are filtered by filter text`() {
+        val text = Content("foo")
+        val position = text.indexer.getCharPosition(0, 3)
+        val items = listOf(
+            item("fooBar", 3),
+            item("fooBaz()", 3, filterText = "fooQux"),
+            item("other", 3, filterText = "fooBarOther")
+        )
+        val session = session(text, position, items, FuzzyCompletionFilter(0))
+
+        assertThat(refilter(session, "Bar").map { it.label.toString() }).containsExactly("fooBar", "other").inOrder()
+        assertThat(refilter(session, "q").map { it.label.toString() }).containsExactly("fooBaz()")
+    }
+
+    @Test
+    fun `refiltering does not modify items`() {
+        val text = Content("foo")
+        val position = text.indexer.getCharPosition(0, 3)
+        val items = listOf(item("fooBar", 3), item("fooBaz", 3))
+        val comparator = getCompletionItemComparator(
+            ContentReference(text), position, items)
+        val extras = items.map { it.extra }
+        val session = CompletionSession(language, text, position, "foo", items, FuzzyCompletionFilter.ANY_MATCH, comparator)
+
+        assertThat(refilter(session, "Baz").map { it.label.toString() }).contains("fooBaz")
+        assertThat(items.map { it.prefixLength }).containsExactly(3, 3)
+        for (i in items.indices) {
+            val extra = items[i].extra as SortedCompletionItem
+            assertThat(extra).isSameInstanceAs(extras[i])
+            assertThat(extra.score).isSameInstanceAs((extras[i] as SortedCompletionItem).score)
+        }
+        assertThat(session.position).isEqualTo(position)
+    }
+
+    @Test
+    fun `cancelled publisher receives no items`() {
+        val text = Content("foo")
+        val session = session(text, text.indexer.getCharPosition(0, 3), listOf(item("fooBar", 3)))
+        val publisher = CompletionPublisher(Handler(Looper.getMainLooper()), {}, 0)
+        publisher.cancel()
+        session.refilter("B", publisher)
+        assertThat(publisher.hasData()).isFalse()
+    }
+
+    @Test
+    fun `fuzzy filter accepts prefix matches and good fuzzy matches`() {
+        val filter = FuzzyCompletionFilter(-20)
+        val item = item("getLineCount", 0)
+        fun score(prefix: String, text: String) =
+            fuzzyScoreGracefulAggressive(prefix, prefix.lowercase(), 0, text, text.lowercase(), 0, FuzzyScoreOptions.default)
+
+        // Prefix matches are accepted regardless of the score
+        assertThat(filter.accept(item, "GETL", "getl", "getlinecount", null)).isTrue()
+        assertThat(filter.accept(item, "glc", "glc", "getlinecount", score("glc", "getLineCount"))).isTrue()
+        assertThat(filter.accept(item, "xyz", "xyz", "getlinecount", score("xyz", "getLineCount"))).isFalse()
+        val weak = FuzzyScore(-21, 0)
+        assertThat(filter.accept(item, "gnt", "gnt", "getlinecount", weak)).isFalse()
+        assertThat(FuzzyCompletionFilter.ANY_MATCH.accept(item, "gnt", "gnt", "getlinecount", weak)).isTrue()
+        assertThat(FuzzyCompletionFilter.ANY_MATCH.accept(item, "gnt", "gnt", "getlinecount", null)).isFalse()
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lang.completion
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import java.util.Random
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class FuzzyScoreCalculatorTest {
+
+    private fun score(pattern: String, word: String): FuzzyScore? {
+        return fuzzyScore(pattern, pattern.lowercase(), 0, word, word.lowercase(), 0)
+    }
+
+    private fun FuzzyScore?.describe(): String {
+        return if (this == null) "null" else "$score@$wordStart:$matches"
+    }
+
+    private fun randomWords(seed: Long, count: Int, maxLength: Int): List<String> {
+        val alphabet = "abcdeABCDE_.$ 1"
+        val random = Random(seed)
+        return List(count) {
+            val length = 1 + random.nextInt(maxLength)
+            buildString {
+                repeat(length) {
+                    append(alphabet[random.nextInt(alphabet.length)])
+                }
+            }
+        }
+    }
+
+    @Test
+    fun `test matched positions`() {
+        assertThat(score("BK", "the_black_knight")!!.matches).containsExactly(10, 4).inOrder()
+        assertThat(score("ccm", "cacmelCase")!!.matches).containsExactly(3, 2, 0).inOrder()
+        assertThat(score("fob", "foobar")!!.matches).containsExactly(3, 1, 0).inOrder()
+        assertThat(score("xyz", "foobar")).isNull()
+    }
+
+    @Test
+    fun `test typo permutations`() {
+        val calculator = FuzzyScoreCalculator()
+        assertThat(calculator.fuzzyScore("cnoso", "cnoso", 0, "console", "console", 0)).isNull()
+        assertThat(calculator.fuzzyScoreGracefulAggressive("cnoso", "cnoso", 0, "console", "console", 0, null)).isNotNull()
+    }
+
+    @Test
+    fun `test scores do not depend on previous calls`() {
+        val words = randomWords(1, 2000, 40)
+        val patterns = randomWords(2, 50, 6)
+        val expected = patterns.map { pattern ->
+            words.map { word -> FuzzyScoreCalculator().fuzzyScoreGracefulAggressive(pattern, pattern.lowercase(), 0, word, word.lowercase(), 0, null).describe() }
+        }
+        val calculator = FuzzyScoreCalculator()
+        for (i in patterns.indices.reversed()) {
+            val pattern = patterns[i]
+            for (j in words.indices.reversed()) {
+                val word = words[j]
+                val actual = calculator.fuzzyScoreGracefulAggressive(pattern, pattern.lowercase(), 0, word, word.lowercase(), 0, null)
+                assertThat(actual.describe()).isEqualTo(expected[i][j])
+            }
+        }
+    }
+
+    @Test
+    fun `test char array and batch entry points`() {
+        val words = randomWords(3, 2000, 40)
+        val calculator = FuzzyScoreCalculator()
+        val scores = IntArray(words.size)
+        for (pattern in randomWords(4, 50, 6)) {
+            val matched = calculator.scoreAll(pattern, words, scores)
+            var expectedMatched = 0
+            for (i in words.indices) {
+                val word = words[i]
+                val expected = calculator.fuzzyScoreGracefulAggressive(pattern, pattern.lowercase(), 0, word, word.lowercase(), 0, FuzzyScoreOptions.default)
+                if (expected != null) {
+                    expectedMatched++
+                }
+                assertThat(scores[i]).isEqualTo(expected?.score ?: FuzzyScoreCalculator.NO_MATCH)
+                val fromChars = calculator.fuzzyScoreGracefulAggressive(pattern.toCharArray(), pattern.length, word.toCharArray(), word.length, FuzzyScoreOptions.default)
+                assertThat(fromChars.describe()).isEqualTo(expected.describe())
+            }
+            assertThat(matched).isEqualTo(expectedMatched)
+        }
+    }
+
+    @Test
+    fun `test concurrent scoring`() {
+        val words = randomWords(5, 1000, 40)
+        val patterns = randomWords(6, 20, 6)
+        val expected = patterns.map { pattern -> words.map { word -> score(pattern, word).describe() } }
+
+        val threadCount = 8
+        val executor = Executors.newFixedThreadPool(threadCount)
+        val start = CountDownLatch(1)
+        val failures = mutableListOf<String>()
+        try {
+            val tasks = List(threadCount) { thread ->
+                executor.submit {
+                    start.await()
+                    // Every thread visits the words in a different order
+                    val random = Random(thread.toLong())
+                    repeat(words.size * patterns.size) {
+                        val i = random.nextInt(patterns.size)
+                        val j = random.nextInt(words.size)
+                        val actual = score(patterns[i], words[j]).describe()
+                        if (actual != expected[i][j]) {
+                            synchronized(failures) {
+                                failures.add("${patterns[i]} | ${words[j]}: expected ${expected[i][j]} but was $actual")
+                            }
+                        }
+                    }
+                }
+            }
+            start.countDown()
+            tasks.forEach { it.get(1, TimeUnit.MINUTES) }
+        } finally {
+            executor.shutdownNow()
+        }
+        assertThat(failures).isEmpty()
+    }
+
+}
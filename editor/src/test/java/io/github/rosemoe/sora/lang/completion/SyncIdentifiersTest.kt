@@ -0,0 +1,122 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lang.completion
+
+import com.google.common.truth.Truth.assertThat
+import com.google.common.truth.Truth.assertWithMessage
+import io.github.rosemoe.sora.text.TextUtils
+import org.junit.Test
+import java.util.Random
+
+class SyncIdentifiersTest {
+
+    /**
+     * The full scan done by [IdentifierAutoComplete.SyncIdentifiers] before identifiers were indexed
+     */
+    private fun fullScan(identifiers: Collection<String>, prefix: String): List<String> {
+        return identifiers.filter { s ->
+            val fuzzyScore = fuzzyScoreGracefulAggressive(
+                prefix, prefix.lowercase(), 0,
+                s, s.lowercase(), 0, FuzzyScoreOptions.default
+            )
+            val score = fuzzyScore?.score ?: -100
+            (TextUtils.startsWith(s, prefix, true) || score >= -20)
+                    && !(prefix.length == s.length && TextUtils.startsWith(prefix, s, false))
+        }
+    }
+
+    private fun randomIdentifier(random: Random): String {
+        val alphabet = "abcdefgxyzABCDEFGXYZ_$019ßİ"
+        return buildString {
+            repeat(1 + random.nextInt(if (random.nextInt(10) == 0) 40 else 12)) {
+                append(alphabet[random.nextInt(alphabet.length)])
+            }
+        }
+    }
+
+    private fun randomPrefix(random: Random, identifiers: List<String>): String {
+        if (identifiers.isEmpty() || random.nextInt(4) == 0) {
+            return randomIdentifier(random).take(1 + random.nextInt(4))
+        }
+        val word = identifiers[random.nextInt(identifiers.size)]
+        val start = if (random.nextInt(3) == 0) random.nextInt(word.length) else 0
+        var prefix = word.substring(start, start + 1 + random.nextInt(word.length - start))
+        when (random.nextInt(4)) {
+            // Typo: swap two adjacent characters
+            0 -> if (prefix.length >= 2) {
+                val i = random.nextInt(prefix.length - 1)
+                prefix = prefix.substring(0, i) + prefix[i + 1] + prefix[i] + prefix.substring(i + 2)
+            }
+            1 -> prefix = prefix.uppercase()
+            2 -> prefix = prefix.lowercase()
+        }
+        return prefix
+    }
+
+    @Test
+    fun `filtering matches full scan on random identifiers`() {
+        val random = Random(29)
+        repeat(20) {
+            val identifiers = IdentifierAutoComplete.SyncIdentifiers()
+            val counts = HashMap<String, Int>()
+            repeat(500) {
+                if (counts.isNotEmpty() && random.nextInt(3) == 0) {
+                    val word = counts.keys.elementAt(random.nextInt(counts.size))
+                    identifiers.identifierDecrease(word)
+                    counts[word] = counts[word]!! - 1
+                    if (counts[word] == 0) {
+                        counts.remove(word)
+                    }
+                } else {
+                    val word = randomIdentifier(random)
+                    identifiers.identifierIncrease(word)
+                    counts[word] = (counts[word] ?: 0) + 1
+                }
+            }
+            val words = counts.keys.toList()
+            repeat(200) {
+                val prefix = randomPrefix(random, words)
+                val dest = ArrayList<String>()
+                identifiers.filterIdentifiers(prefix, dest)
+                assertWithMessage("prefix '$prefix'").that(dest).containsExactlyElementsIn(fullScan(words, prefix))
+            }
+        }
+    }
+
+    @Test
+    fun `decreased identifiers are removed after the last reference`() {
+        val identifiers = IdentifierAutoComplete.SyncIdentifiers()
+        identifiers.identifierIncrease("fooBar")
+        identifiers.identifierIncrease("fooBar")
+        identifiers.identifierDecrease("fooBar")
+        val dest = ArrayList<String>()
+        identifiers.filterIdentifiers("fb", dest)
+        assertThat(dest).containsExactly("fooBar")
+
+        identifiers.identifierDecrease("fooBar")
+        dest.clear()
+        identifiers.filterIdentifiers("fb", dest)
+        assertThat(dest).isEmpty()
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.util.Random
+
+@RunWith(RobolectricTestRunner::class)
+class LineDiffTest {
+
+    private val separators = arrayOf("\n", "\r\n", "\r")
+
+    private fun randomLine(random: Random): String {
+        return "line " + random.nextInt(50) + separators[random.nextInt(separators.size)]
+    }
+
+    private fun randomText(random: Random, lines: Int): String {
+        return buildString {
+            repeat(lines) {
+                append(randomLine(random))
+            }
+            append("last")
+        }
+    }
+
+    /**
+     * Insert, delete and modify some lines of the text
+     */
+    private fun mutate(random: Random, text: String, edits: Int): String {
+        val lines = LineDiff.splitLines(text).toMutableList()
+        repeat(edits) {
+            val index = random.nextInt(lines.size)
+            when (random.nextInt(3)) {
+                0 -> lines.add(index, randomLine(random))
+                1 -> if (lines.size > 1) lines.removeAt(index)
+                else -> lines[index] = if (index == lines.size - 1) "changed" else randomLine(random)
+            }
+        }
+        if (random.nextInt(4) == 0) {
+            // Trailing line separator changes
+            lines.add("")
+            lines[lines.size - 2] = lines[lines.size - 2] + "\n"
+        }
+        return lines.joinToString("")
+    }
+
+    @Test
+    fun `test replace by diff`() {
+        val random = Random(0)
+        repeat(200) {
+            val original = randomText(random, random.nextInt(40))
+            val modified = mutate(random, original, random.nextInt(10))
+            val content = Content(original)
+            content.replaceByDiff(modified)
+            assertThat(content.toString()).isEqualTo(modified)
+            assertThat(content.length).isEqualTo(modified.length)
+            content.undo()
+            assertThat(content.toString()).isEqualTo(original)
+            content.redo()
+            assertThat(content.toString()).isEqualTo(modified)
+        }
+    }
+
+    @Test
+    fun `test edit distance limit`() {
+        val random = Random(1)
+        repeat(20) {
+            val original = randomText(random, 200)
+            val modified = randomText(random, 200)
+            val hunks = LineDiff.diff(LineDiff.splitLines(original), LineDiff.splitLines(modified), 8)
+            assertThat(hunks.size).isAtMost(1)
+            val content = Content(original)
+            content.replaceByDiff(modified)
+            assertThat(content.toString()).isEqualTo(modified)
+        }
+    }
+
+    @Test
+    fun `test minimal edits`() {
+        val lines = List(10000) { "fun f$it() = $it\n" }
+        val original = lines.joinToString("")
+        val modified = lines.toMutableList().apply {
+            set(10, "changed\n")
+            removeAt(5000)
+            add(9000, "inserted\n")
+        }.joinToString("")
+
+        val hunks = LineDiff.diff(LineDiff.splitLines(original), LineDiff.splitLines(modified))
+        assertThat(hunks.map { it.toString() }).containsExactly(
+            LineDiff.Hunk(10, 11, 10, 11).toString(),
+            LineDiff.Hunk(5000, 5001, 5000, 5000).toString(),
+            LineDiff.Hunk(9001, 9001, 9000, 9001).toString()
+        ).inOrder()
+
+        val content = Content(original)
+        val changedLines = mutableListOf<Int>()
+        content.addContentListener(object : ContentListener {
+            override fun beforeReplace(content: Content) {}
+
+            override fun afterInsert(content: Content, startLine: Int, startColumn: Int, endLine: Int, endColumn: Int, insertedContent: CharSequence) {
+                changedLines.add(endLine - startLine)
+            }
+
+            override fun afterDelete(content: Content, startLine: Int, startColumn: Int, endLine: Int, endColumn: Int, deletedContent: CharSequence) {
+                changedLines.add(endLine - startLine)
+            }
+        })
+        assertThat(content.replaceByDiff(modified)).isEqualTo(3)
+        assertThat(content.toString()).isEqualTo(modified)
+        assertThat(changedLines.sum()).isEqualTo(4)
+        assertThat(content.replaceByDiff(modified)).isEqualTo(0)
+    }
+
+}
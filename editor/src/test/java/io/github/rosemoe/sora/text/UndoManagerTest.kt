@@ -0,0 +1,292 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text
+
+import android.os.Parcel
+import com.google.common.truth.Truth.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.util.Random
+
+@RunWith(RobolectricTestRunner::class)
+class UndoManagerTest {
+
+    @get:Rule
+    val tempFolder = TemporaryFolder()
+
+    /**
+     * Source-like text with about the given count of lines. Blocks are indented by the given unit,
+     * so that two texts with different units look like the same file before and after formatting.
+     */
+    private fun sourceText(lines: Int, indent: String, lineSeparator: String = "\n"): String {
+        val random = Random(0)
+        val words = arrayOf("val", "value", "editor", "content", "line", "column", "return", "if", "else", "=", "+", "(", ")")
+        return buildString {
+            var depth = 0
+            repeat(lines) {
+                if (depth > 0 && random.nextInt(5) == 0) {
+                    depth--
+                    append(indent.repeat(depth)).append('}').append(lineSeparator)
+                    return@repeat
+                }
+                append(indent.repeat(depth))
+                repeat(2 + random.nextInt(6)) {
+                    append(words[random.nextInt(words.size)]).append(' ')
+                }
+                if (depth < 6 && random.nextInt(4) == 0) {
+                    append('{')
+                    depth++
+                }
+                append(lineSeparator)
+            }
+        }
+    }
+
+    private fun randomText(random: Random, length: Int): String {
+        val chars = "abcdefghijklmnopqrstuvwxyz \n\r\t{}();😀"
+        return buildString {
+            while (this.length < length) {
+                append(chars[random.nextInt(chars.length)])
+            }
+        }
+    }
+
+    private fun Content.replaceAll(text: CharSequence) {
+        val lastLine = lineCount - 1
+        replace(0, 0, lastLine, getColumnCount(lastLine), text)
+    }
+
+    private fun usedHeap(): Long {
+        val runtime = Runtime.getRuntime()
+        repeat(3) {
+            System.gc()
+            Thread.sleep(20)
+        }
+        return runtime.totalMemory() - runtime.freeMemory()
+    }
+
+    @Test
+    fun `test heap use across whole-file reformat cycles`() {
+        val original = sourceText(10000, "    ")
+        val formatted = sourceText(10000, "\t")
+        val cycles = 100
+        val content = Content(original)
+        val undoManager = content.undoManager
+        val before = usedHeap()
+        repeat(cycles) {
+            content.replaceAll(if (it % 2 == 0) formatted else original)
+        }
+        undoManager.awaitMaintenance()
+        val after = usedHeap()
+        val uncompacted = cycles * (original.length + formatted.length) * 2L
+
+        // Trimmed replacements keep the whole history, within a small part of the memory of full texts
+        assertThat(undoManager.memoryUsage).isLessThan(uncompacted / 4)
+        assertThat(after - before).isLessThan(uncompacted / 4)
+        repeat(cycles) {
+            assertThat(content.canUndo()).isTrue()
+            content.undo()
+        }
+        assertThat(content.toString()).isEqualTo(original)
+        repeat(cycles) {
+            content.redo()
+        }
+        assertThat(content.toString()).isEqualTo(if (cycles % 2 == 1) formatted else original)
+    }
+
+    @Test
+    fun `test memory limit discards oldest actions`() {
+        val content = Content()
+        content.maxUndoMemory = 1024 * 1024
+        val random = Random(1)
+        repeat(50) {
+            content.insert(0, 0, randomText(random, 40000))
+            content.undoManager.awaitMaintenance()
+            assertThat(content.undoManager.memoryUsage).isAtMost(content.maxUndoMemory + 2 * 40000 + 1024)
+        }
+        var undoCount = 0
+        while (content.canUndo()) {
+            content.undo()
+            undoCount++
+        }
+        assertThat(undoCount).isLessThan(50)
+        assertThat(undoCount).isGreaterThan(1)
+    }
+
+    @Test
+    fun `test texts are compressed in background`() {
+        val content = Content()
+        val undoManager = content.undoManager
+        val text = sourceText(2000, "    ")
+        synchronized(undoManager) {
+            content.insert(0, 0, text)
+            content.insert(0, 0, "x")
+            // The background thread can not take the settled action while the lock is held
+            assertThat(undoManager.memoryUsage).isAtLeast(text.length * 2L)
+        }
+        undoManager.awaitMaintenance()
+        assertThat(undoManager.memoryUsage).isLessThan(text.length.toLong())
+        content.undo()
+        content.undo()
+        assertThat(content.toString()).isEmpty()
+        content.redo()
+        assertThat(content.toString()).isEqualTo(text)
+    }
+
+    @Test
+    fun `test compressed and spilled actions restore text`() {
+        val content = Content()
+        val undoManager = content.undoManager
+        undoManager.setSpillFile(tempFolder.newFile("undo"))
+        // Texts shorter than the compression threshold stay in memory, which takes about half of the limit
+        content.maxUndoMemory = 1024 * 1024
+        val random = Random(2)
+        val states = mutableListOf(content.toString())
+        repeat(40) {
+            val line = random.nextInt(content.lineCount)
+            val column = random.nextInt(content.getColumnCount(line) + 1)
+            if (it % 3 == 2 && content.length > 0) {
+                val start = random.nextInt(content.length)
+                val end = minOf(content.length, start + random.nextInt(30000))
+                val startPos = content.indexer.getCharPosition(start)
+                val endPos = content.indexer.getCharPosition(end)
+                content.replace(startPos.line, startPos.column, endPos.line, endPos.column, randomText(random, random.nextInt(30000)))
+            } else {
+                content.insert(line, column, randomText(random, UndoManager.COMPACT_THRESHOLD + random.nextInt(30000)))
+            }
+            states.add(content.toString())
+            // Keep every action apart from merging
+            content.undoManager.exitReplaceMode()
+        }
+        undoManager.awaitMaintenance()
+        assertThat(undoManager.spilledSize).isGreaterThan(0L)
+        assertThat(undoManager.memoryUsage).isAtMost(content.maxUndoMemory + 4 * 40000 + 1024)
+        for (i in states.indices.reversed().drop(1)) {
+            content.undo()
+            assertThat(content.toString()).isEqualTo(states[i])
+        }
+        assertThat(content.canUndo()).isFalse()
+        for (i in 1 until states.size) {
+            content.redo()
+            assertThat(content.toString()).isEqualTo(states[i])
+        }
+        undoManager.setSpillFile(null)
+        assertThat(undoManager.spilledSize).isEqualTo(0L)
+        content.undo()
+        assertThat(content.toString()).isEqualTo(states[states.size - 2])
+    }
+
+    @Test
+    fun `test trimmed replacements with line separators`() {
+        val random = Random(3)
+        val original = sourceText(500, "  ", "\r\n")
+        val content = Content(original)
+        val states = mutableListOf(original)
+        repeat(200) {
+            val current = states.last()
+            val start = random.nextInt(current.length + 1)
+            val end = minOf(current.length, start + random.nextInt(200))
+            val replacement = current.substring(start, end).replace("  ", if (random.nextBoolean()) "\t" else "\r\n ")
+            val next = current.substring(0, start) + replacement + current.substring(end)
+            content.replaceAll(next)
+            assertThat(content.toString()).isEqualTo(next)
+            states.add(content.toString())
+        }
+        for (i in states.indices.reversed().drop(1)) {
+            content.undo()
+            assertThat(content.toString()).isEqualTo(states[i])
+        }
+        for (i in 1 until states.size) {
+            content.redo()
+            assertThat(content.toString()).isEqualTo(states[i])
+        }
+    }
+
+    @Test
+    fun `test parcel keeps compressed history`() {
+        val original = sourceText(5000, "    ")
+        val formatted = sourceText(5000, "\t")
+        val content = Content(original)
+        content.replaceAll(formatted)
+        content.insert(0, 0, randomText(Random(4), 20000))
+        content.insert(0, 0, "x")
+        // Texts are written as they are until they are compressed
+        content.undoManager.awaitMaintenance()
+
+        val parcel = Parcel.obtain()
+        try {
+            parcel.writeParcelable(content.undoManager, 0)
+            assertThat(parcel.dataSize()).isLessThan(original.length)
+            parcel.setDataPosition(0)
+            val restored = parcel.readParcelable<UndoManager>(UndoManager::class.java.classLoader)!!
+            val copy = Content(content)
+            copy.undoManager = restored
+            repeat(3) {
+                content.undo()
+                copy.undo()
+                assertThat(copy.toString()).isEqualTo(content.toString())
+            }
+            assertThat(copy.toString()).isEqualTo(original)
+        } finally {
+            parcel.recycle()
+        }
+    }
+
+    @Test
+    fun `test parcel size is limited for undo and redo actions`() {
+        val content = Content()
+        val random = Random(5)
+        repeat(60) {
+            content.insert(0, 0, randomText(random, UndoManager.COMPACT_THRESHOLD + 4000))
+            content.undoManager.exitReplaceMode()
+        }
+        content.undoManager.awaitMaintenance()
+        // Most of the history is redo actions
+        repeat(40) {
+            content.undo()
+        }
+
+        val parcel = Parcel.obtain()
+        try {
+            parcel.writeParcelable(content.undoManager, 0)
+            assertThat(parcel.dataSize()).isAtMost(256 * 1024 + 1024)
+            parcel.setDataPosition(0)
+            val restored = parcel.readParcelable<UndoManager>(UndoManager::class.java.classLoader)!!
+            val copy = Content(content)
+            copy.undoManager = restored
+            assertThat(copy.canUndo()).isTrue()
+            repeat(2) {
+                copy.undo()
+                content.undo()
+                assertThat(copy.toString()).isEqualTo(content.toString())
+            }
+        } finally {
+            parcel.recycle()
+        }
+    }
+
+}
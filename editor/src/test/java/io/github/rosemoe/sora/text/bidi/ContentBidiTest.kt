@@ -0,0 +1,89 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text.bidi
+
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.text.Content
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.util.Random
+
+@RunWith(RobolectricTestRunner::class)
+class ContentBidiTest {
+
+    private val words = arrayOf("hello", "world", "שלום", "עולם", "مرحبا", "123", " ", "\n")
+
+    private fun randomText(random: Random, count: Int): String {
+        return buildString {
+            repeat(count) {
+                append(words[random.nextInt(words.size)])
+            }
+        }
+    }
+
+    private fun Directions.describe(): String {
+        return (0 until runCount).joinToString(",", postfix = "/$length") { "${getRunStart(it)}-${getRunEnd(it)}:${isRunRtl(it)}" }
+    }
+
+    private fun assertDirections(content: Content, bidi: ContentBidi) {
+        for (line in 0 until content.lineCount) {
+            assertThat(bidi.getLineDirections(line).describe()).isEqualTo(TextBidi.getDirections(content.getLine(line)).describe())
+        }
+    }
+
+    @Test
+    fun `test ltr lines are not cached`() {
+        val content = Content("abc\nשלום\ndef\n")
+        val bidi = ContentBidi(content)
+        bidi.isEnabled = true
+        assertDirections(content, bidi)
+        assertThat(bidi.cachedLineCount).isEqualTo(1)
+        bidi.isEnabled = false
+        assertThat(bidi.getLineDirections(1).runCount).isEqualTo(1)
+        assertThat(bidi.cachedLineCount).isEqualTo(0)
+        bidi.destroy()
+    }
+
+    @Test
+    fun `test cache follows edits`() {
+        val random = Random(0)
+        val content = Content(randomText(random, 400))
+        val bidi = ContentBidi(content)
+        bidi.isEnabled = true
+        repeat(300) {
+            // Fill the cache before editing, so that entries have to be moved or removed
+            assertDirections(content, bidi)
+            val start = random.nextInt(content.length + 1)
+            when (random.nextInt(3)) {
+                0 -> content.insert(content.indexer.getCharLine(start), content.indexer.getCharColumn(start), randomText(random, random.nextInt(6)))
+                1 -> content.delete(start, minOf(content.length, start + random.nextInt(30)))
+                else -> content.replace(start, minOf(content.length, start + random.nextInt(10)), randomText(random, random.nextInt(4)))
+            }
+        }
+        assertDirections(content, bidi)
+        bidi.destroy()
+    }
+
+}
@@ -0,0 +1,391 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.widget
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Paint
+import android.graphics.Path
+import android.graphics.RectF
+import android.view.View
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.lang.diagnostic.DiagnosticRegion
+import io.github.rosemoe.sora.lang.diagnostic.DiagnosticsContainer
+import io.github.rosemoe.sora.lang.styling.MappedSpans
+import io.github.rosemoe.sora.lang.styling.Span
+import io.github.rosemoe.sora.lang.styling.Styles
+import io.github.rosemoe.sora.lang.styling.TextStyle
+import io.github.rosemoe.sora.widget.schemes.EditorColorScheme
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import java.lang.management.ManagementFactory
+import java.util.Locale
+import java.util.Random
+
+/**
+ * Headless rendering benchmark. The editor is laid out in a phone-sized viewport and drawn onto a
+ * recording canvas, while scrolling through a large document in several scenarios.
+ *
+ * Per-frame time, allocated bytes per frame, draw calls per frame and hit rate of line measure
+ * cache are reported on standard output. The benchmark is skipped unless the system property
+ * `sora.benchmark.frames` is set to the frame count of each scenario, for example by
+ * `./gradlew :editor:testDebugUnitTest -Psora.benchmark.frames=120`.
+ *
+ * Note that Robolectric does not rasterize texts, so the numbers are for the editor's own code
+ * in [EditorRenderer], [io.github.rosemoe.sora.graphics.GraphicTextRow] and the layouts, rather
+ * than the cost of real drawing on device.
+ */
+@RunWith(RobolectricTestRunner::class)
+class EditorRendererBenchmark {
+
+    companion object {
+        const val LINE_COUNT = 100_000
+        const val WIDTH = 1080
+        const val HEIGHT = 1920
+        val FRAMES = System.getProperty("sora.benchmark.frames")?.toIntOrNull() ?: 0
+        const val WARMUP_FRAMES = 20
+    }
+
+    /**
+     * Renderer counting lines requested for measure cache and lines actually re-measured
+     */
+    class CountingRenderer(private val codeEditor: CodeEditor) : EditorRenderer(codeEditor) {
+
+        var requestedLines = 0L
+        var measuredLines = 0L
+
+        override fun buildMeasureCacheForLines(startLine: Int, endLine: Int, timestamp: Long, useCachedContent: Boolean) {
+            val text = codeEditor.text
+            for (line in startLine..minOf(endLine, text.lineCount - 1)) {
+                requestedLines++
+                if (text.getLine(line).timestamp < timestamp) {
+                    measuredLines++
+                }
+            }
+            super.buildMeasureCacheForLines(startLine, endLine, timestamp, useCachedContent)
+        }
+    }
+
+    class BenchmarkEditor(context: Context) : CodeEditor(context) {
+        override fun onCreateRenderer(): EditorRenderer {
+            return CountingRenderer(this)
+        }
+    }
+
+    /**
+     * Canvas counting the draw operations issued by the editor
+     */
+    class RecordingCanvas(bitmap: Bitmap) : Canvas(bitmap) {
+
+        var drawCalls = 0L
+        var textRuns = 0L
+
+        override fun drawText(text: CharArray, index: Int, count: Int, x: Float, y: Float, paint: Paint) {
+            textRuns++
+            drawCalls++
+        }
+
+        override fun drawText(text: String, x: Float, y: Float, paint: Paint) {
+            textRuns++
+            drawCalls++
+        }
+
+        override fun drawText(text: String, start: Int, end: Int, x: Float, y: Float, paint: Paint) {
+            textRuns++
+            drawCalls++
+        }
+
+        override fun drawText(text: CharSequence, start: Int, end: Int, x: Float, y: Float, paint: Paint) {
+            textRuns++
+            drawCalls++
+        }
+
+        override fun drawTextRun(text: CharArray, index: Int, count: Int, contextIndex: Int, contextCount: Int, x: Float, y: Float, isRtl: Boolean, paint: Paint) {
+            textRuns++
+            drawCalls++
+        }
+
+        override fun drawTextRun(text: CharSequence, start: Int, end: Int, contextStart: Int, contextEnd: Int, x: Float, y: Float, isRtl: Boolean, paint: Paint) {
+            textRuns++
+            drawCalls++
+        }
+
+        override fun drawRect(rect: RectF, paint: Paint) {
+            drawCalls++
+        }
+
+        override fun drawRect(left: Float, top: Float, right: Float, bottom: Float, paint: Paint) {
+            drawCalls++
+        }
+
+        override fun drawRoundRect(rect: RectF, rx: Float, ry: Float, paint: Paint) {
+            drawCalls++
+        }
+
+        override fun drawLine(startX: Float, startY: Float, stopX: Float, stopY: Float, paint: Paint) {
+            drawCalls++
+        }
+
+        override fun drawPath(path: Path, paint: Paint) {
+            drawCalls++
+        }
+
+        override fun drawColor(color: Int) {
+            drawCalls++
+        }
+    }
+
+    class Result(
+        val scenario: String,
+        val frameNanos: LongArray,
+        val frameBytes: LongArray,
+        val drawCalls: Long,
+        val textRuns: Long,
+        val requestedLines: Long,
+        val measuredLines: Long,
+        val poolGrowth: Long,
+        val restoredLines: Long
+    ) {
+
+        val hitRate: Double
+            get() = if (requestedLines == 0L) 1.0 else 1.0 - measuredLines.toDouble() / requestedLines
+
+        private fun percentile(values: LongArray, p: Double): Long {
+            val sorted = values.sortedArray()
+            return sorted[((sorted.size - 1) * p).toInt()]
+        }
+
+        /**
+         * Allocated bytes of the median frame
+         */
+        val medianFrameBytes: Long
+            get() = percentile(frameBytes, 0.5)
+
+        override fun toString(): String {
+            val frames = frameNanos.size
+            return String.format(
+                Locale.ROOT,
+                "%-16s frames=%d avg=%.3fms p50=%.3fms p95=%.3fms max=%.3fms alloc(avg=%.1fKiB p50=%.1fKiB max=%.1fKiB)/frame draws=%d/frame texts=%d/frame measureCacheHit=%.1f%% restored=%d poolGrowth=%d",
+                scenario, frames, frameNanos.average() / 1e6, percentile(frameNanos, 0.5) / 1e6, percentile(frameNanos, 0.95) / 1e6,
+                percentile(frameNanos, 1.0) / 1e6, frameBytes.average() / 1024, medianFrameBytes / 1024.0, percentile(frameBytes, 1.0) / 1024.0,
+                drawCalls / frames, textRuns / frames, hitRate * 100, restoredLines, poolGrowth
+            )
+        }
+    }
+
+    private fun sourceText(lineCount: Int, bidi: Boolean = false): String {
+        val random = Random(0)
+        val words = arrayOf("val", "value", "editor", "content", "line", "column", "return", "if", "else", "=", "+", "(", ")", "\"text\"", "// comment")
+        val rtlWords = arrayOf("مرحبا", "بالعالم", "שלום", "עולם", "النص")
+        return buildString(lineCount * 48) {
+            var depth = 0
+            repeat(lineCount) {
+                if (depth > 0 && random.nextInt(5) == 0) {
+                    depth--
+                }
+                append("    ".repeat(depth))
+                repeat(2 + random.nextInt(8)) {
+                    if (bidi && random.nextInt(3) == 0) {
+                        append(rtlWords[random.nextInt(rtlWords.size)])
+                    } else {
+                        append(words[random.nextInt(words.size)])
+                    }
+                    append(' ')
+                }
+                if (depth < 6 && random.nextInt(4) == 0) {
+                    append('{')
+                    depth++
+                }
+                append('\n')
+            }
+        }
+    }
+
+    /**
+     * A span for every word, with a different style from its neighbours
+     */
+    private fun heavyStyles(text: String): Styles {
+        val colors = intArrayOf(EditorColorScheme.KEYWORD, EditorColorScheme.OPERATOR, EditorColorScheme.IDENTIFIER_VAR,
+            EditorColorScheme.LITERAL, EditorColorScheme.COMMENT, EditorColorScheme.FUNCTION_NAME)
+        val builder = MappedSpans.Builder(LINE_COUNT)
+        var line = 0
+        var column = 0
+        var word = 0
+        var inWord = false
+        for (ch in text) {
+            if (ch == '\n') {
+                line++
+                column = 0
+                inWord = false
+                continue
+            }
+            if (ch != ' ' && !inWord) {
+                val color = colors[word++ % colors.size]
+                builder.add(line, Span.obtain(column, TextStyle.makeStyle(color, 0, word % 3 == 0, word % 5 == 0, false)))
+            }
+            inWord = ch != ' '
+            column++
+        }
+        builder.determine(line)
+        return Styles(builder.build())
+    }
+
+    private fun diagnostics(text: String): DiagnosticsContainer {
+        val container = DiagnosticsContainer()
+        val severities = shortArrayOf(DiagnosticRegion.SEVERITY_TYPO, DiagnosticRegion.SEVERITY_WARNING, DiagnosticRegion.SEVERITY_ERROR)
+        var index = 0
+        var count = 0
+        while (index + 10 < text.length) {
+            container.addDiagnostic(DiagnosticRegion(index, index + 10, severities[count % severities.size], count.toLong()))
+            count++
+            index += 97
+        }
+        return container
+    }
+
+    private fun createEditor(): BenchmarkEditor {
+        val editor = BenchmarkEditor(RuntimeEnvironment.getApplication())
+        editor.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY), View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY))
+        editor.layout(0, 0, WIDTH, HEIGHT)
+        return editor
+    }
+
+    private fun allocatedBytes(): Long {
+        val bean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        return bean.getThreadAllocatedBytes(Thread.currentThread().id)
+    }
+
+    /**
+     * Scroll down by a quarter of viewport every frame, starting over at the end of text or at the
+     * given max scroll position
+     */
+    private fun run(scenario: String, editor: BenchmarkEditor, maxY: Int = Int.MAX_VALUE): Result {
+        val canvas = RecordingCanvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888))
+        val renderer = editor.renderer as CountingRenderer
+        val step = HEIGHT / 4
+        var y = 0
+        fun scrollAndDraw() {
+            val target = if (y + step > minOf(editor.scrollMaxY, maxY)) 0 else y + step
+            editor.scroller.forceFinished(true)
+            editor.scroller.startScroll(0, y, 0, target - y, 0)
+            editor.scroller.abortAnimation()
+            y = target
+            editor.draw(canvas)
+        }
+        repeat(WARMUP_FRAMES) {
+            scrollAndDraw()
+        }
+        renderer.requestedLines = 0
+        renderer.measuredLines = 0
+        canvas.drawCalls = 0
+        canvas.textRuns = 0
+        val frames = LongArray(FRAMES)
+        val frameBytes = LongArray(FRAMES)
+        val arenaStart = renderer.frameArena.allocationCount
+        val restoredStart = renderer.lineMeasureCache.hitCount
+        for (i in 0 until FRAMES) {
+            val allocationStart = allocatedBytes()
+            val start = System.nanoTime()
+            scrollAndDraw()
+            frames[i] = System.nanoTime() - start
+            frameBytes[i] = allocatedBytes() - allocationStart
+        }
+        val poolGrowth = renderer.frameArena.allocationCount - arenaStart
+        val restoredLines = renderer.lineMeasureCache.hitCount - restoredStart
+        return Result(scenario, frames, frameBytes, canvas.drawCalls, canvas.textRuns, renderer.requestedLines, renderer.measuredLines, poolGrowth, restoredLines)
+            .also { println("EditorRendererBenchmark: $it") }
+    }
+
+    private fun check(result: Result) {
+        assertThat(result.frameNanos.size).isEqualTo(FRAMES)
+        assertThat(result.textRuns).isGreaterThan(0L)
+        assertThat(result.requestedLines).isGreaterThan(0L)
+        // Objects reused across frames are all created during warm-up
+        assertThat(result.poolGrowth).isEqualTo(0L)
+    }
+
+    @Before
+    fun requireFrames() {
+        assumeTrue("sora.benchmark.frames is not set", FRAMES > 0)
+    }
+
+    @Test
+    fun `scroll plain text`() {
+        val editor = createEditor()
+        editor.setText(sourceText(LINE_COUNT))
+        check(run("plain", editor))
+    }
+
+    /**
+     * Scroll over the same part of text, so that width caches of lines scrolled out are reused by
+     * other lines and lines scrolled in again are restored from the measure cache
+     */
+    @Test
+    fun `scroll back and forth`() {
+        val editor = createEditor()
+        editor.setText(sourceText(LINE_COUNT))
+        val result = run("revisit", editor, maxY = HEIGHT * 4)
+        check(result)
+        assertThat(result.restoredLines).isGreaterThan(0L)
+    }
+
+    @Test
+    fun `scroll with word wrap`() {
+        val editor = createEditor()
+        editor.setText(sourceText(LINE_COUNT))
+        editor.isWordwrap = true
+        check(run("wordwrap", editor))
+    }
+
+    @Test
+    fun `scroll with heavy spans`() {
+        val editor = createEditor()
+        val text = sourceText(LINE_COUNT)
+        editor.setText(text)
+        editor.styles = heavyStyles(text)
+        check(run("heavySpans", editor))
+    }
+
+    @Test
+    fun `scroll with diagnostics`() {
+        val editor = createEditor()
+        val text = sourceText(LINE_COUNT)
+        editor.setText(text)
+        editor.diagnostics = diagnostics(text)
+        check(run("diagnostics", editor))
+    }
+
+    @Test
+    fun `scroll bidi text`() {
+        val editor = createEditor()
+        editor.setText(sourceText(LINE_COUNT, bidi = true))
+        check(run("bidi", editor))
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.widget
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+class FrameArenaTest {
+
+    @Test
+    fun `test objects are reused across frames`() {
+        val arena = FrameArena()
+        val pool = arena.newPool { IntArray(1) }
+        arena.beginFrame()
+        val first = List(3) { pool.obtain() }
+        arena.endFrame()
+        assertThat(arena.lastFrameAllocationCount).isEqualTo(3)
+
+        arena.beginFrame()
+        val second = List(3) { pool.obtain() }
+        arena.endFrame()
+        assertThat(arena.lastFrameAllocationCount).isEqualTo(0)
+        for (i in first.indices) {
+            assertThat(second[i]).isSameInstanceAs(first[i])
+        }
+
+        arena.beginFrame()
+        repeat(5) { pool.obtain() }
+        arena.endFrame()
+        assertThat(arena.lastFrameAllocationCount).isEqualTo(2)
+        assertThat(arena.allocationCount).isEqualTo(5)
+        assertThat(arena.frameCount).isEqualTo(3)
+        assertThat(pool.capacity).isEqualTo(5)
+        assertThat(pool.usedCount).isEqualTo(5)
+    }
+
+    @Test
+    fun `test objects in a frame are distinct`() {
+        val arena = FrameArena()
+        val pool = arena.newPool { Any() }
+        repeat(3) {
+            arena.beginFrame()
+            val objects = List(10) { pool.obtain() }
+            arena.endFrame()
+            assertThat(objects.toSet()).hasSize(10)
+        }
+    }
+
+}
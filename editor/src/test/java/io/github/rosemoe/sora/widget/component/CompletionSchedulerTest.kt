@@ -0,0 +1,151 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.widget.component
+
+import android.os.Handler
+import android.os.Looper
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import java.time.Duration
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+@RunWith(RobolectricTestRunner::class)
+class CompletionSchedulerTest {
+
+    private class TestTask(private val work: (TestTask) -> Unit = {}) : CompletionScheduler.Task(System.nanoTime()) {
+
+        val started = CountDownLatch(1)
+        val finished = CountDownLatch(1)
+        @Volatile
+        var runCount = 0
+
+        override fun execute() {
+            runCount++
+            started.countDown()
+            try {
+                work(this)
+            } finally {
+                finished.countDown()
+            }
+        }
+    }
+
+    private fun newScheduler() = CompletionScheduler(Handler(Looper.getMainLooper()))
+
+    @Test
+    fun `debounced requests are coalesced`() {
+        val scheduler = newScheduler()
+        val tasks = List(5) { TestTask() }
+        for (task in tasks) {
+            scheduler.schedule(task, 50)
+            shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(10))
+        }
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(50))
+
+        assertThat(tasks.last().finished.await(5, TimeUnit.SECONDS)).isTrue()
+        for (task in tasks.dropLast(1)) {
+            assertThat(task.isCancelled).isTrue()
+            assertThat(task.isStarted).isFalse()
+            assertThat(task.runCount).isEqualTo(0)
+        }
+        val metrics = scheduler.metrics
+        assertThat(metrics.requestCount).isEqualTo(5)
+        assertThat(metrics.startCount).isEqualTo(1)
+        assertThat(metrics.coalescedCount).isEqualTo(4)
+        assertThat(metrics.cancelledCount).isEqualTo(0)
+    }
+
+    @Test
+    fun `running request is cancelled by a new one`() {
+        val scheduler = newScheduler()
+        val first = TestTask { task ->
+            while (!task.isCancelled) {
+                Thread.sleep(1)
+            }
+        }
+        scheduler.schedule(first, 0)
+        assertThat(first.started.await(5, TimeUnit.SECONDS)).isTrue()
+
+        val second = TestTask()
+        scheduler.schedule(second, 0)
+        assertThat(first.finished.await(5, TimeUnit.SECONDS)).isTrue()
+        assertThat(second.finished.await(5, TimeUnit.SECONDS)).isTrue()
+        assertThat(first.isCancelled).isTrue()
+        assertThat(second.isCancelled).isFalse()
+        assertThat(scheduler.task).isSameInstanceAs(second)
+
+        scheduler.cancel()
+        assertThat(scheduler.task).isNull()
+        val metrics = scheduler.metrics
+        assertThat(metrics.startCount).isEqualTo(2)
+        assertThat(metrics.cancelledCount).isEqualTo(1)
+        assertThat(metrics.coalescedCount).isEqualTo(0)
+    }
+
+    @Test
+    fun `slow providers do not pile up threads`() {
+        val release = CountDownLatch(1)
+        val scheduler = newScheduler()
+        val before = scheduler.metrics
+        // Tasks that ignore cancellation, one for each keystroke
+        val tasks = List(20) {
+            TestTask { release.await(10, TimeUnit.SECONDS) }
+        }
+        try {
+            for (task in tasks) {
+                scheduler.schedule(task, 0)
+                Thread.sleep(2)
+            }
+            assertThat(scheduler.metrics.threadCreations - before.threadCreations).isAtMost(4)
+        } finally {
+            release.countDown()
+        }
+        assertThat(tasks.last().finished.await(5, TimeUnit.SECONDS)).isTrue()
+        // Tasks waiting for a thread are replaced by newer ones
+        assertThat(tasks.count { it.isStarted }).isAtMost(5)
+        assertThat(scheduler.metrics.coalescedCount).isAtLeast(15)
+    }
+
+    @Test
+    fun `worker threads are reused`() {
+        val scheduler = newScheduler()
+        val before = scheduler.metrics
+        repeat(20) {
+            val task = TestTask()
+            scheduler.schedule(task, 0)
+            assertThat(task.finished.await(5, TimeUnit.SECONDS)).isTrue()
+            // Let the worker return to the pool
+            Thread.sleep(5)
+        }
+        val after = scheduler.metrics
+        assertThat(after.startCount - before.startCount).isEqualTo(20)
+        assertThat(after.executorStartCount - before.executorStartCount).isAtLeast(20)
+        assertThat(after.threadCreations - before.threadCreations).isLessThan(20)
+        assertThat(after.threadCreationsAvoided).isAtMost(after.executorStartCount)
+    }
+}
@@ -67,7 +67,10 @@ dependencies {
     implementation(libs.jdt.annotation)
     implementation(libs.guava)
 
+    testImplementation(projects.editor)
     testImplementation(libs.junit)
+    testImplementation(libs.tests.google.truth)
+    testImplementation(libs.tests.robolectric)
     androidTestImplementation(libs.androidx.test.junit)
     androidTestImplementation(libs.androidx.test.espresso)
 }
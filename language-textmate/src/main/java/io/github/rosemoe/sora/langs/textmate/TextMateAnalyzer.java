@@ -24,7 +24,6 @@
 package io.github.rosemoe.sora.langs.textmate;
 
 import android.annotation.SuppressLint;
-import android.graphics.Color;
 import android.os.Bundle;
 
 import androidx.annotation.NonNull;
@@ -40,8 +39,8 @@ import io.github.rosemoe.sora.lang.brackets.OnlineBracketsMatcher;
 import io.github.rosemoe.sora.lang.completion.IdentifierAutoComplete;
 import io.github.rosemoe.sora.lang.styling.CodeBlock;
 import io.github.rosemoe.sora.lang.styling.Span;
-import io.github.rosemoe.sora.lang.styling.TextStyle;
 import io.github.rosemoe.sora.langs.textmate.folding.FoldingHelper;
+import io.github.rosemoe.sora.langs.textmate.folding.IncrementalIndentRanges;
 import io.github.rosemoe.sora.langs.textmate.folding.IndentRange;
 import io.github.rosemoe.sora.langs.textmate.registry.ThemeRegistry;
 import io.github.rosemoe.sora.langs.textmate.registry.model.ThemeModel;
@@ -69,6 +68,11 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
 
     private final IGrammar grammar;
     private Theme theme;
+    private volatile ThemeStyleTable styleTable;
+    /**
+     * UTF-16 start offsets of tokens of the line being tokenized. Guarded by tokenizeLine's lock.
+     */
+    private int[] tokenOffsets = new int[64];
     private final TextMateLanguage language;
     private final LanguageConfiguration configuration;
 
@@ -78,6 +82,7 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
 
     private OnigRegExp cachedRegExp;
     private boolean foldingOffside;
+    private final IncrementalIndentRanges foldingRegions = new IncrementalIndentRanges();
     private BracketsProvider bracketsProvider;
     final IdentifierAutoComplete.SyncIdentifiers syncIdentifiers = new IdentifierAutoComplete.SyncIdentifiers();
 
@@ -86,6 +91,7 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
         this.language = language;
 
         this.theme = themeRegistry.getCurrentThemeModel().getTheme();
+        this.styleTable = new ThemeStyleTable(theme);
 
         this.grammar = grammar;
 
@@ -176,30 +182,36 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
         if (cachedRegExp == null) {
             return;
         }
+        var foldingRegions = this.foldingRegions;
         try {
-            var foldingRegions = IndentRange.computeRanges(model, language.getTabSize(), foldingOffside, this, cachedRegExp, delegate);
-            blocks.ensureCapacity(foldingRegions.length());
-            for (int i = 0; i < foldingRegions.length() && delegate.isNotCancelled(); i++) {
-                int startLine = foldingRegions.getStartLineNumber(i);
-                int endLine = foldingRegions.getEndLineNumber(i);
-                if (startLine != endLine) {
-                    CodeBlock codeBlock = new CodeBlock();
-                    codeBlock.toBottomOfEndLine = true;
-                    codeBlock.startLine = startLine;
-                    codeBlock.endLine = endLine;
-
-                    // It's safe here to use raw data because the Content is only held by this thread
-                    var length = model.getColumnCount(startLine);
-                    var chars = model.getLine(startLine).getRawData();
-
-                    codeBlock.startColumn = IndentRange.computeStartColumn(chars, length, language.getTabSize());
-                    codeBlock.endColumn = codeBlock.startColumn;
-                    blocks.add(codeBlock);
+            if (foldingRegions.update(model, language.getTabSize(), foldingOffside, this, cachedRegExp, delegate)
+                    && foldingRegions.length() <= IndentRange.MAX_FOLDING_REGIONS) {
+                blocks.ensureCapacity(foldingRegions.length());
+                for (int i = 0; i < foldingRegions.length() && delegate.isNotCancelled(); i++) {
+                    int startLine = foldingRegions.getStartLineNumber(i);
+                    int endLine = foldingRegions.getEndLineNumber(i);
+                    if (startLine != endLine) {
+                        CodeBlock codeBlock = new CodeBlock();
+                        codeBlock.toBottomOfEndLine = true;
+                        codeBlock.startLine = startLine;
+                        codeBlock.endLine = endLine;
+
+                        // It's safe here to use raw data because the Content is only held by this thread
+                        var length = model.getColumnCount(startLine);
+                        var chars = model.getLine(startLine).getRawData();
+
+                        codeBlock.startColumn = IndentRange.computeStartColumn(chars, length, language.getTabSize());
+                        codeBlock.endColumn = codeBlock.startColumn;
+                        blocks.add(codeBlock);
+                    }
                 }
+                Collections.sort(blocks, CodeBlock.COMPARATOR_END);
             }
-            Collections.sort(blocks, CodeBlock.COMPARATOR_END);
         } catch (Exception e) {
             e.printStackTrace();
+            // No folding for this run, and compute everything again in the next run
+            foldingRegions.invalidate();
+            blocks.clear();
         }
         getManagedStyles().setIndentCountMode(true);
     }
@@ -207,25 +219,35 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
     @Override
     @SuppressLint("NewApi")
     public synchronized LineTokenizeResult<MyState, Span> tokenizeLine(CharSequence lineC, MyState state, int lineIndex) {
+        // Folding inputs of the line are computed again below
+        foldingRegions.markLineChanged(lineIndex);
         String line = (lineC instanceof ContentLine) ? ((ContentLine) lineC).toStringWithNewline() : lineC.toString();
-        var tokens = new ArrayList<Span>();
         var surrogate = StringUtils.checkSurrogate(line);
         var lineTokens = grammar.tokenizeLine2(line, state == null ? null : state.tokenizeState, Duration.ofSeconds(2));
-        int tokensLength = lineTokens.getTokens().length / 2;
+        var rawTokens = lineTokens.getTokens();
+        int tokensLength = rawTokens.length / 2;
+        if (tokenOffsets.length < tokensLength) {
+            tokenOffsets = new int[Math.max(tokensLength, tokenOffsets.length * 2)];
+        }
+        var offsets = tokenOffsets;
+        StringUtils.convertUnicodeOffsetsToUtf16(line, rawTokens, surrogate, offsets);
+        var table = styleTable;
+        // The span list is stored as the line's spans directly
+        var tokens = new ArrayList<Span>(tokensLength + 1);
         var identifiers = language.createIdentifiers ? new ArrayList<String>() : null;
         for (int i = 0; i < tokensLength; i++) {
-            int startIndex = StringUtils.convertUnicodeOffsetToUtf16(line, lineTokens.getTokens()[2 * i], surrogate);
+            int startIndex = offsets[i];
             if (i == 0 && startIndex != 0) {
                 tokens.add(Span.obtain(0, EditorColorScheme.TEXT_NORMAL));
             }
-            int metadata = lineTokens.getTokens()[2 * i + 1];
+            int metadata = rawTokens[2 * i + 1];
             int foreground = EncodedTokenAttributes.getForeground(metadata);
             int fontStyle = EncodedTokenAttributes.getFontStyle(metadata);
             var tokenType = EncodedTokenAttributes.getTokenType(metadata);
             if (language.createIdentifiers) {
 
                 if (tokenType == StandardTokenType.Other) {
-                    var end = i + 1 == tokensLength ? lineC.length() : StringUtils.convertUnicodeOffsetToUtf16(line, lineTokens.getTokens()[2 * (i + 1)], surrogate);
+                    var end = i + 1 == tokensLength ? lineC.length() : offsets[i + 1];
                     if (end > startIndex && MyCharacter.isJavaIdentifierStart(line.charAt(startIndex))) {
                         var flag = true;
                         for (int j = startIndex + 1; j < end; j++) {
@@ -240,15 +262,12 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
                     }
                 }
             }
-            Span span = Span.obtain(startIndex, TextStyle.makeStyle(foreground + 255, 0, (fontStyle & FontStyle.Bold) != 0, (fontStyle & FontStyle.Italic) != 0, false));
+            Span span = Span.obtain(startIndex, table.getStyle(foreground, fontStyle));
 
             span.extra = tokenType;
 
-            if ((fontStyle & FontStyle.Underline) != 0) {
-                String color = theme.getColor(foreground);
-                if (color != null) {
-                    span.underlineColor = Color.parseColor(color);
-                }
+            if ((fontStyle & FontStyle.Underline) != 0 && table.hasColor(foreground)) {
+                span.underlineColor = table.getColor(foreground);
             }
 
             tokens.add(span);
@@ -296,5 +315,6 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
     @Override
     public void onChangeTheme(ThemeModel newTheme) {
         this.theme = newTheme.getTheme();
+        this.styleTable = new ThemeStyleTable(theme);
     }
 }
@@ -88,6 +88,8 @@ public class TextMateLanguage extends EmptyLanguage {
         // this.grammar = grammar;
 
         autoCompleteEnabled = true;
+        // All completion items come from the identifier completion, so they can be refiltered by editor
+        autoComplete.setCompletionFilter(IdentifierAutoComplete.FILTER);
 
         this.createIdentifiers = createIdentifiers;
 
@@ -0,0 +1,100 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.langs.textmate;
+
+import android.graphics.Color;
+
+import androidx.annotation.Nullable;
+
+import org.eclipse.tm4e.core.internal.theme.FontStyle;
+import org.eclipse.tm4e.core.internal.theme.Theme;
+
+import io.github.rosemoe.sora.lang.styling.TextStyle;
+
+/**
+ * Resolved colors and text styles of a {@link Theme}, indexed by foreground id.
+ * <p>
+ * Created once per theme, so that span emission only needs array lookups instead of
+ * building styles and parsing color strings for every token.
+ */
+final class ThemeStyleTable {
+
+    /**
+     * Offset of theme color ids in the editor color scheme
+     *
+     * @see TextMateColorScheme#getColor(int)
+     */
+    static final int COLOR_ID_OFFSET = 255;
+
+    private final int[] colors;
+    private final boolean[] colorResolved;
+    private final long[] styles;
+
+    ThemeStyleTable(@Nullable Theme theme) {
+        int count = theme == null ? 0 : theme.getColorMap().size();
+        colors = new int[count];
+        colorResolved = new boolean[count];
+        styles = new long[count << 2];
+        for (int i = 0; i < count; i++) {
+            var color = theme.getColor(i);
+            if (color != null) {
+                try {
+                    colors[i] = Color.parseColor(color);
+                    colorResolved[i] = true;
+                } catch (IllegalArgumentException e) {
+                    // Unsupported color format, leave unresolved
+                }
+            }
+            for (int j = 0; j < 4; j++) {
+                styles[(i << 2) | j] = TextStyle.makeStyle(i + COLOR_ID_OFFSET, 0, (j & 1) != 0, (j & 2) != 0, false);
+            }
+        }
+    }
+
+    /**
+     * Get the packed {@link TextStyle} for the given foreground id and tm4e font style
+     */
+    long getStyle(int foreground, int fontStyle) {
+        int index = (foreground << 2) | ((fontStyle & FontStyle.Bold) != 0 ? 1 : 0) | ((fontStyle & FontStyle.Italic) != 0 ? 2 : 0);
+        if (foreground >= 0 && index < styles.length) {
+            return styles[index];
+        }
+        return TextStyle.makeStyle(foreground + COLOR_ID_OFFSET, 0, (fontStyle & FontStyle.Bold) != 0, (fontStyle & FontStyle.Italic) != 0, false);
+    }
+
+    /**
+     * Check whether the given foreground id has a valid color
+     */
+    boolean hasColor(int foreground) {
+        return foreground >= 0 && foreground < colorResolved.length && colorResolved[foreground];
+    }
+
+    /**
+     * Get the ARGB color of the given foreground id. Only valid if {@link #hasColor(int)} returns true.
+     */
+    int getColor(int foreground) {
+        return colors[foreground];
+    }
+
+}
@@ -0,0 +1,470 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.langs.textmate.folding;
+
+import org.eclipse.tm4e.core.internal.oniguruma.OnigRegExp;
+import org.eclipse.tm4e.core.internal.oniguruma.OnigResult;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.github.rosemoe.sora.lang.analysis.AsyncIncrementalAnalyzeManager;
+import io.github.rosemoe.sora.text.Content;
+
+/**
+ * Incremental version of {@link IndentRange#computeRanges}.
+ * <p>
+ * The per-line inputs of the folding computation (indent level and folding marker kind) are kept
+ * from the last run, together with snapshots of the scan state taken every few lines. On the next
+ * run, inputs are read again only for the lines marked by {@link #markLineChanged(int)}, and the
+ * others are moved by the line count delta. The changed line window is narrowed by comparing the
+ * inputs read again with the old ones. The bottom-up scan is then resumed
+ * from the nearest snapshot below the window, and stops as soon as its state matches an old snapshot
+ * above the window. Regions outside of that range are taken from the last run, shifted by the line
+ * count delta. So only the edited lines and the chain of regions enclosing them are scanned again.
+ * <p>
+ * Results are the same as {@link IndentRange#computeRanges}, in the same order.
+ */
+public class IncrementalIndentRanges {
+
+    private static final int CHECKPOINT_INTERVAL = 128;
+
+    private static final byte MARKER_NONE = 0;
+    private static final byte MARKER_START = 1;
+    private static final byte MARKER_END = 2;
+
+    private static final int INVALID_LINE = Integer.MIN_VALUE;
+
+    private int lineCount = -1;
+    private int[] indents = new int[0];
+    private byte[] markers = new byte[0];
+    private int tabSize;
+    private boolean offSide;
+    private boolean hasPattern;
+
+    /**
+     * Regions in emission order (descending start line)
+     */
+    private RegionList regions = new RegionList();
+
+    /**
+     * Checkpoints in creation order (descending line)
+     */
+    private List<Checkpoint> checkpoints = new ArrayList<>();
+
+    /**
+     * The scan stack, 3 ints for each entry: indent, endAbove and line. See {@link PreviousRegion}
+     */
+    private int[] stack = new int[48];
+    private int stackSize;
+
+    /**
+     * Lines marked as changed since the last update
+     */
+    private int dirtyStart = Integer.MAX_VALUE;
+    private int dirtyEnd = -1;
+
+    /**
+     * Mark the folding inputs of the given line as changed, for the next {@link #update}. Lines
+     * not marked between two updates must be unchanged, or only moved by lines inserted or deleted
+     * above them. The line number is in the text after the modification.
+     */
+    public synchronized void markLineChanged(int line) {
+        dirtyStart = Math.min(dirtyStart, line);
+        dirtyEnd = Math.max(dirtyEnd, line);
+    }
+
+    /**
+     * Update folding ranges for the given text. Only inputs of lines marked by {@link #markLineChanged(int)}
+     * are read again, and the others are moved from the last run.
+     *
+     * @return false if the computation is cancelled. In that case, cached results are dropped and
+     * the next update computes everything again.
+     */
+    public synchronized boolean update(Content model, int tabSize, boolean offSide, FoldingHelper helper, OnigRegExp pattern, AsyncIncrementalAnalyzeManager<?, ?>.CodeBlockAnalyzeDelegate delegate) {
+        int n = model.getLineCount();
+        int oldN = lineCount;
+        boolean reusable = oldN >= 0 && this.tabSize == tabSize && this.offSide == offSide && this.hasPattern == (pattern != null);
+        // Lines in [windowStart, windowEnd) are read again
+        int windowStart = 0, windowEnd = n;
+        if (reusable) {
+            if (dirtyEnd >= dirtyStart) {
+                windowStart = Math.min(dirtyStart, n);
+                windowEnd = Math.max(windowStart, Math.min(dirtyEnd + 1, n));
+                if (windowStart > oldN || n - windowEnd > oldN - windowStart) {
+                    // Marks do not match the line count change
+                    windowStart = 0;
+                    windowEnd = n;
+                }
+            } else if (n == oldN) {
+                // Inputs are unchanged
+                return true;
+            }
+        }
+        dirtyStart = Integer.MAX_VALUE;
+        dirtyEnd = -1;
+
+        int windowSize = windowEnd - windowStart;
+        var windowIndents = new int[windowSize];
+        var windowMarkers = new byte[windowSize];
+        for (int line = windowStart; line < windowEnd; line++) {
+            int indent = helper.getIndentFor(line);
+            windowIndents[line - windowStart] = indent;
+            if (indent != -1 && pattern != null) {
+                OnigResult m = helper.getResultFor(line);
+                windowMarkers[line - windowStart] = m == null ? MARKER_NONE : (m.count() >= 2 ? MARKER_START : MARKER_END);
+            }
+        }
+
+        int prefix = windowStart, suffix = n - windowEnd;
+        if (reusable) {
+            // Narrow the window to the lines whose inputs differ
+            while (prefix < windowEnd && prefix < oldN && windowIndents[prefix - windowStart] == indents[prefix]
+                    && windowMarkers[prefix - windowStart] == markers[prefix]) {
+                prefix++;
+            }
+            while (suffix < n - prefix && suffix < oldN - prefix && windowIndents[n - 1 - suffix - windowStart] == indents[oldN - 1 - suffix]
+                    && windowMarkers[n - 1 - suffix - windowStart] == markers[oldN - 1 - suffix]) {
+                suffix++;
+            }
+            if (prefix == n && n == oldN) {
+                // Inputs are unchanged
+                return true;
+            }
+        }
+
+        // Lines out of the window are moved from the last run
+        int[] newIndents;
+        byte[] newMarkers;
+        if (reusable && n == oldN) {
+            newIndents = indents;
+            newMarkers = markers;
+        } else {
+            newIndents = new int[n];
+            newMarkers = new byte[n];
+            if (reusable) {
+                int tail = n - windowEnd;
+                System.arraycopy(indents, 0, newIndents, 0, windowStart);
+                System.arraycopy(markers, 0, newMarkers, 0, windowStart);
+                System.arraycopy(indents, oldN - tail, newIndents, windowEnd, tail);
+                System.arraycopy(markers, oldN - tail, newMarkers, windowEnd, tail);
+            }
+        }
+        System.arraycopy(windowIndents, 0, newIndents, windowStart, windowSize);
+        System.arraycopy(windowMarkers, 0, newMarkers, windowStart, windowSize);
+
+        int delta = n - oldN;
+        int suffixStart = oldN - suffix;
+
+        var newRegions = new RegionList();
+        var newCheckpoints = new ArrayList<Checkpoint>();
+        int from;
+        int oldCheckpointIndex = 0;
+        // Resume from the checkpoint closest to the edited window
+        Checkpoint resume = null;
+        if (reusable) {
+            for (; oldCheckpointIndex < checkpoints.size(); oldCheckpointIndex++) {
+                var cp = checkpoints.get(oldCheckpointIndex);
+                if (cp.line < suffixStart) {
+                    break;
+                }
+                resume = cp;
+            }
+        }
+        if (resume != null) {
+            newRegions.appendShifted(regions, 0, resume.regionCount, delta);
+            for (int i = 0; i < oldCheckpointIndex; i++) {
+                newCheckpoints.add(checkpoints.get(i).shifted(delta));
+            }
+            stackSize = resume.stack.length / 3;
+            ensureStackCapacity(stackSize);
+            for (int i = 0; i < resume.stack.length; i += 3) {
+                stack[i] = resume.stack[i];
+                stack[i + 1] = resume.stack[i + 1] + delta;
+                stack[i + 2] = resume.stack[i + 2] + delta;
+            }
+            from = resume.line + delta;
+        } else {
+            stackSize = 0;
+            // sentinel, to make sure there's at least one entry
+            push(-1, n + 1, n + 1);
+            from = n;
+        }
+
+        int sinceCheckpoint = 0;
+        for (int line = from - 1; line >= 0; line--) {
+            if (delegate.isCancelled()) {
+                lineCount = -1;
+                return false;
+            }
+            int scanned = line + 1;
+            // Try to reuse the results above the edited window
+            Checkpoint candidate = null;
+            if (reusable) {
+                while (oldCheckpointIndex < checkpoints.size() && checkpoints.get(oldCheckpointIndex).line > scanned) {
+                    oldCheckpointIndex++;
+                }
+                if (oldCheckpointIndex < checkpoints.size() && checkpoints.get(oldCheckpointIndex).line == scanned && scanned <= prefix) {
+                    candidate = checkpoints.get(oldCheckpointIndex);
+                }
+            }
+            if (candidate != null || sinceCheckpoint >= CHECKPOINT_INTERVAL) {
+                newCheckpoints.add(new Checkpoint(scanned, newRegions.size, Arrays.copyOf(stack, stackSize * 3)));
+                sinceCheckpoint = 0;
+                if (candidate != null && spliceIfMatches(candidate, oldCheckpointIndex, newRegions, newCheckpoints, prefix, suffixStart, delta)) {
+                    break;
+                }
+            }
+            sinceCheckpoint++;
+            scanLine(line, newIndents[line], newMarkers[line], offSide, pattern != null, newRegions);
+        }
+
+        this.indents = newIndents;
+        this.markers = newMarkers;
+        this.lineCount = n;
+        this.tabSize = tabSize;
+        this.offSide = offSide;
+        this.hasPattern = pattern != null;
+        this.regions = newRegions;
+        this.checkpoints = newCheckpoints;
+        return true;
+    }
+
+    /**
+     * Get the count of folding ranges
+     */
+    public synchronized int length() {
+        return regions.size;
+    }
+
+    public synchronized int getStartLineNumber(int index) {
+        return regions.starts[index];
+    }
+
+    public synchronized int getEndLineNumber(int index) {
+        return regions.getEnd(index);
+    }
+
+    /**
+     * Drop cached results
+     */
+    public synchronized void invalidate() {
+        lineCount = -1;
+        regions = new RegionList();
+        checkpoints = new ArrayList<>();
+    }
+
+    /**
+     * Same as the loop body of {@link IndentRange#computeRanges}
+     */
+    private void scanLine(int line, int indent, byte marker, boolean offSide, boolean hasPattern, RegionList result) {
+        int top = (stackSize - 1) * 3;
+        if (indent == -1) {
+            if (offSide) {
+                // for offSide languages, empty lines are associated to the previous block
+                // note: the next block is already written to the results, so this only
+                // impacts the end position of the block before
+                stack[top + 1] = line;
+            }
+            return; // only whitespace
+        }
+        if (hasPattern && marker != MARKER_NONE) {
+            if (marker == MARKER_START) {
+                // discard all regions until the folding pattern
+                int i = stackSize - 1;
+                while (i > 0 && stack[i * 3] != -2) {
+                    i--;
+                }
+                if (i > 0) {
+                    int entry = i * 3;
+                    // new folding range from pattern, includes the end line
+                    result.add(line, stack[entry + 2], true);
+                    stack[entry] = indent;
+                    stack[entry + 1] = line;
+                    stack[entry + 2] = line;
+                    return;
+                }
+                // no end marker found, treat line as a regular line
+            } else {
+                push(-2, line, line);
+                return;
+            }
+        }
+        if (stack[top] > indent) {
+            // discard all regions with larger indent
+            do {
+                stackSize--;
+                top = (stackSize - 1) * 3;
+            } while (stack[top] > indent);
+
+            // new folding range
+            int endAbove = stack[top + 1];
+            if (endAbove - 1 - line >= 1) { // needs at east size 1
+                result.add(line, endAbove, false);
+            }
+        }
+        if (stack[top] == indent) {
+            stack[top + 1] = line;
+        } else {
+            // new region with a bigger indent
+            push(indent, line, line);
+        }
+    }
+
+    /**
+     * Check whether the current scan state is equivalent to the old checkpoint. If so, append old results
+     * after that checkpoint to the new results.
+     */
+    private boolean spliceIfMatches(Checkpoint old, int oldIndex, RegionList newRegions, List<Checkpoint> newCheckpoints,
+                                    int prefix, int suffixStart, int delta) {
+        if (old.stack.length != stackSize * 3) {
+            return false;
+        }
+        for (int i = 0; i < old.stack.length; i += 3) {
+            if (old.stack[i] != stack[i]
+                    || mapLine(old.stack[i + 1], prefix, suffixStart, delta) != stack[i + 1]
+                    || mapLine(old.stack[i + 2], prefix, suffixStart, delta) != stack[i + 2]) {
+                return false;
+            }
+        }
+        var oldRegions = regions;
+        for (int i = old.regionCount; i < oldRegions.size; i++) {
+            if (mapLine(oldRegions.endRefs[i], prefix, suffixStart, delta) == INVALID_LINE) {
+                return false;
+            }
+        }
+        int base = newRegions.size;
+        for (int i = old.regionCount; i < oldRegions.size; i++) {
+            newRegions.add(oldRegions.starts[i], mapLine(oldRegions.endRefs[i], prefix, suffixStart, delta), oldRegions.markers[i]);
+        }
+        for (int i = oldIndex + 1; i < checkpoints.size(); i++) {
+            var cp = checkpoints.get(i);
+            var mapped = new int[cp.stack.length];
+            for (int j = 0; j < mapped.length; j += 3) {
+                mapped[j] = cp.stack[j];
+                mapped[j + 1] = mapLine(cp.stack[j + 1], prefix, suffixStart, delta);
+                mapped[j + 2] = mapLine(cp.stack[j + 2], prefix, suffixStart, delta);
+            }
+            newCheckpoints.add(new Checkpoint(cp.line, base + cp.regionCount - old.regionCount, mapped));
+        }
+        return true;
+    }
+
+    /**
+     * Map a line number of the last run to current line number
+     */
+    private static int mapLine(int line, int prefix, int suffixStart, int delta) {
+        if (line < prefix) {
+            return line;
+        }
+        if (line >= suffixStart) {
+            return line + delta;
+        }
+        return INVALID_LINE;
+    }
+
+    private void push(int indent, int endAbove, int line) {
+        ensureStackCapacity(stackSize + 1);
+        int entry = stackSize * 3;
+        stack[entry] = indent;
+        stack[entry + 1] = endAbove;
+        stack[entry + 2] = line;
+        stackSize++;
+    }
+
+    private void ensureStackCapacity(int entries) {
+        if (stack.length < entries * 3) {
+            stack = Arrays.copyOf(stack, Math.max(entries * 3, stack.length * 2));
+        }
+    }
+
+    /**
+     * Scan state after all lines from {@link #line} to the end are processed
+     */
+    private static class Checkpoint {
+
+        final int line;
+        final int regionCount;
+        final int[] stack;
+
+        Checkpoint(int line, int regionCount, int[] stack) {
+            this.line = line;
+            this.regionCount = regionCount;
+            this.stack = stack;
+        }
+
+        Checkpoint shifted(int delta) {
+            if (delta == 0) {
+                return this;
+            }
+            var newStack = new int[stack.length];
+            for (int i = 0; i < stack.length; i += 3) {
+                newStack[i] = stack[i];
+                newStack[i + 1] = stack[i + 1] + delta;
+                newStack[i + 2] = stack[i + 2] + delta;
+            }
+            return new Checkpoint(line + delta, regionCount, newStack);
+        }
+    }
+
+    /**
+     * Folding regions. The end of a region is stored as the value it is derived from in the scan state:
+     * the line of the end marker for marker regions, or the line after the region for indent regions.
+     */
+    private static class RegionList {
+
+        int[] starts = new int[16];
+        int[] endRefs = new int[16];
+        boolean[] markers = new boolean[16];
+        int size;
+
+        int getEnd(int index) {
+            return markers[index] ? endRefs[index] : endRefs[index] - 1;
+        }
+
+        void add(int start, int endRef, boolean marker) {
+            int end = marker ? endRef : endRef - 1;
+            if (start > IndentRange.MAX_LINE_NUMBER || end > IndentRange.MAX_LINE_NUMBER) {
+                return;
+            }
+            if (size == starts.length) {
+                int newLength = size * 2;
+                starts = Arrays.copyOf(starts, newLength);
+                endRefs = Arrays.copyOf(endRefs, newLength);
+                markers = Arrays.copyOf(markers, newLength);
+            }
+            starts[size] = start;
+            endRefs[size] = endRef;
+            markers[size] = marker;
+            size++;
+        }
+
+        void appendShifted(RegionList src, int from, int to, int delta) {
+            for (int i = from; i < to; i++) {
+                add(src.starts[i] + delta, src.endRefs[i] + delta, src.markers[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.langs.textmate.utils;
+
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * A thread-safe memoization cache with an upper bound on its entry count.
+ * <p>
+ * The cache is made of two generations. New entries go into the young generation. When it is full,
+ * it becomes the old generation and the previous old generation is dropped. Entries read from the
+ * old generation are promoted back, so frequently used keys survive while rarely used ones are
+ * evicted in bulk. This avoids per-access bookkeeping of a strict LRU while keeping memory bounded.
+ * <p>
+ * Values computed concurrently for the same key may be computed more than once, the mapping function
+ * is therefore expected to be pure.
+ */
+public final class BoundedCache<K, V> {
+
+    private final int maxSizePerGeneration;
+    private volatile ConcurrentHashMap<K, V> young;
+    private volatile ConcurrentHashMap<K, V> old;
+
+    /**
+     * @param maxSize maximum count of entries kept in this cache
+     */
+    public BoundedCache(final int maxSize) {
+        if (maxSize < 2) {
+            throw new IllegalArgumentException("maxSize must be at least 2");
+        }
+        this.maxSizePerGeneration = maxSize / 2;
+        this.young = new ConcurrentHashMap<>();
+        this.old = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Get the cached value for the given key, or null if absent
+     */
+    @Nullable
+    public V get(final K key) {
+        var value = young.get(key);
+        if (value != null) {
+            return value;
+        }
+        value = old.get(key);
+        if (value != null) {
+            put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Store the given value
+     */
+    public void put(final K key, final V value) {
+        var map = young;
+        if (map.size() >= maxSizePerGeneration) {
+            synchronized (this) {
+                map = young;
+                if (map.size() >= maxSizePerGeneration) {
+                    old = map;
+                    map = young = new ConcurrentHashMap<>();
+                }
+            }
+        }
+        map.put(key, value);
+    }
+
+    /**
+     * Get the cached value for the given key, computing and storing it if absent
+     */
+    public V computeIfAbsent(final K key, final Function<? super K, ? extends V> mappingFunction) {
+        var value = get(key);
+        if (value == null) {
+            value = mappingFunction.apply(key);
+            put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Remove all entries
+     */
+    public synchronized void clear() {
+        young = new ConcurrentHashMap<>();
+        old = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Approximate count of entries
+     */
+    public int size() {
+        return young.size() + old.size();
+    }
+}
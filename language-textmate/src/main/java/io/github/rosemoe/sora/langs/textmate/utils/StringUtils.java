@@ -53,6 +53,37 @@ public class StringUtils {
         return offset;
     }
 
+    /**
+     * Convert the code point offsets of tm4e tokens to UTF-16 offsets in a single pass
+     *
+     * @param tokens Token array, where offsets are stored at even indices in ascending order
+     * @param dest   Destination for converted offsets, at least {@code tokens.length / 2} long
+     */
+    public static void convertUnicodeOffsetsToUtf16(String text, int[] tokens, boolean hasSurrogate, int[] dest) {
+        int count = tokens.length / 2;
+        if (!hasSurrogate) {
+            for (int t = 0; t < count; t++) {
+                dest[t] = tokens[2 * t];
+            }
+            return;
+        }
+        int i = 0;
+        int j = 0;
+        int length = text.length();
+        for (int t = 0; t < count; t++) {
+            int offset = tokens[2 * t];
+            while (j < offset && i < length) {
+                var ch = text.charAt(i);
+                if (Character.isHighSurrogate(ch) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    i++;
+                }
+                i++;
+                j++;
+            }
+            dest[t] = j == offset && i < length ? i : offset;
+        }
+    }
+
 
     private static final Pattern MATCH_PATTERN = Pattern.compile(".*/|\\..*");
 
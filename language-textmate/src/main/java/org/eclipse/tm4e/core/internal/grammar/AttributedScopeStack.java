@@ -145,14 +145,8 @@ public final class AttributedScopeStack {
 		final AttributedScopeStack target,
 		final String scopeName,
 		final Grammar grammar) {
-		final var rawMetadata = grammar.getMetadataForScope(scopeName);
-
 		final var newPath = target.scopePath.push(scopeName);
-		final var scopeThemeMatchResult = grammar.themeProvider.themeMatch(newPath);
-		final var metadata = mergeAttributes(
-			target.tokenAttributes,
-			rawMetadata,
-			scopeThemeMatchResult);
+		final var metadata = grammar.getTokenAttributesForPath(newPath, target.tokenAttributes);
 		return new AttributedScopeStack(target, newPath, metadata);
 	}
 
@@ -28,6 +28,8 @@ import org.eclipse.tm4e.core.TMException;
 import org.eclipse.tm4e.core.internal.grammar.tokenattrs.OptionalStandardTokenType;
 import org.eclipse.tm4e.core.internal.utils.RegexSource;
 
+import io.github.rosemoe.sora.langs.textmate.utils.BoundedCache;
+
 /**
  * @see <a href=
  *      "https://github.com/microsoft/vscode-textmate/blob/e8d1fc5d04b2fc91384c7a895f6c9ff296a38ac8/src/basicScopesAttributeProvider.ts#L18">
@@ -38,7 +40,9 @@ final class BasicScopeAttributesProvider {
 	private final BasicScopeAttributes _defaultAttributes;
 	private final ScopeMatcher<Integer /* languageId */> _embeddedLanguagesMatcher;
 
-	private final Map<String /*scopeName*/, BasicScopeAttributes> cache = new HashMap<>();
+	private static final int MAX_CACHED_SCOPE_NAMES = 4096;
+
+	private final BoundedCache<String /*scopeName*/, BasicScopeAttributes> cache = new BoundedCache<>(MAX_CACHED_SCOPE_NAMES);
 
 	BasicScopeAttributesProvider(final int initialLanguage, @Nullable final Map<String, Integer> embeddedLanguages) {
 		this._defaultAttributes = new BasicScopeAttributes(initialLanguage, OptionalStandardTokenType.NotSet);
@@ -42,6 +42,7 @@ import org.eclipse.tm4e.core.internal.rule.IRuleFactoryHelper;
 import org.eclipse.tm4e.core.internal.rule.Rule;
 import org.eclipse.tm4e.core.internal.rule.RuleFactory;
 import org.eclipse.tm4e.core.internal.rule.RuleId;
+import org.eclipse.tm4e.core.internal.theme.Theme;
 import org.eclipse.tm4e.core.internal.types.IRawGrammar;
 import org.eclipse.tm4e.core.internal.types.IRawRepository;
 import org.eclipse.tm4e.core.internal.types.IRawRule;
@@ -49,6 +50,7 @@ import org.eclipse.tm4e.core.internal.utils.ObjectCloner;
 import org.eclipse.tm4e.core.internal.utils.StringUtils;
 
 import io.github.rosemoe.sora.langs.textmate.BuildConfig;
+import io.github.rosemoe.sora.langs.textmate.utils.BoundedCache;
 import io.github.rosemoe.sora.util.Logger;
 
 /**
@@ -77,6 +79,8 @@ public final class Grammar implements IGrammar, IRuleFactoryHelper {
     private List<Injection> _injections;
     private final BasicScopeAttributesProvider _basicScopeAttributesProvider;
     private final List<TokenTypeMatcher> _tokenTypeMatchers = new ArrayList<>();
+    @Nullable
+    private volatile TokenAttributesCache _tokenAttributesCache;
 
     @Nullable
     private final BalancedBracketSelectors balancedBracketSelectors;
@@ -115,6 +119,54 @@ public final class Grammar implements IGrammar, IRuleFactoryHelper {
         return this._basicScopeAttributesProvider.getBasicScopeAttributes(scope);
     }
 
+    /**
+     * Get the encoded token attributes for the given scope path, whose parent path is resolved to
+     * {@code parentTokenAttributes}.
+     * <p>
+     * Results are cached per theme, so repeated scope paths are resolved without matching the theme
+     * again. When the theme is swapped, the cache is replaced and paths are re-resolved lazily on use.
+     */
+    int getTokenAttributesForPath(final ScopeStack scopePath, final int parentTokenAttributes) {
+        final var theme = this.themeProvider.getTheme();
+        if (theme == null) {
+            return AttributedScopeStack.mergeAttributes(
+                    parentTokenAttributes,
+                    getMetadataForScope(scopePath.scopeName),
+                    this.themeProvider.themeMatch(scopePath));
+        }
+        var cache = this._tokenAttributesCache;
+        if (cache == null || cache.theme != theme) {
+            cache = new TokenAttributesCache(theme);
+            this._tokenAttributesCache = cache;
+        }
+        final var cached = cache.entries.get(scopePath);
+        if (cached != null && (int) (cached >>> 32) == parentTokenAttributes) {
+            return (int) cached.longValue();
+        }
+        final int tokenAttributes = AttributedScopeStack.mergeAttributes(
+                parentTokenAttributes,
+                getMetadataForScope(scopePath.scopeName),
+                theme.match(scopePath));
+        cache.entries.put(scopePath, ((long) parentTokenAttributes << 32) | (tokenAttributes & 0xFFFFFFFFL));
+        return tokenAttributes;
+    }
+
+    /**
+     * Scope path to encoded token attributes, valid for a single theme.
+     * Values pack the parent attributes in the high 32 bits and the result in the low 32 bits.
+     */
+    private static final class TokenAttributesCache {
+
+        private static final int MAX_CACHED_SCOPE_PATHS = 8192;
+
+        final Theme theme;
+        final BoundedCache<ScopeStack, Long> entries = new BoundedCache<>(MAX_CACHED_SCOPE_PATHS);
+
+        TokenAttributesCache(final Theme theme) {
+            this.theme = theme;
+        }
+    }
+
     private void collectInjections(final List<Injection> result, final String selector, final IRawRule rule,
                                    final IRuleFactoryHelper ruleFactoryHelper, final IRawGrammar grammar) {
         final var matchers = Matcher.createMatchers(selector);
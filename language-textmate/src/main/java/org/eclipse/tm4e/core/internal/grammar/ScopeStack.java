@@ -54,10 +54,12 @@ public class ScopeStack {
 	@Nullable
 	public final ScopeStack parent;
 	public final String scopeName;
+	private final int hash;
 
 	public ScopeStack(@Nullable final ScopeStack parent, final String scopeName) {
 		this.parent = parent;
 		this.scopeName = scopeName;
+		this.hash = (parent == null ? 0 : parent.hash) * 31 + scopeName.hashCode();
 	}
 
 	public ScopeStack push(final String scopeName) {
@@ -76,6 +78,38 @@ public class ScopeStack {
 		return result;
 	}
 
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	/**
+	 * Two scope stacks are equal when they have the same segments. The hash of the whole
+	 * path is computed when the stack is created, so mismatches are usually detected without
+	 * walking the parents.
+	 */
+	@Override
+	public boolean equals(@Nullable final Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof ScopeStack)) {
+			return false;
+		}
+		@Nullable
+		ScopeStack a = this;
+		@Nullable
+		ScopeStack b = (ScopeStack) obj;
+		while (a != b) {
+			if (a == null || b == null || a.hash != b.hash || !a.scopeName.equals(b.scopeName)) {
+				return false;
+			}
+			a = a.parent;
+			b = b.parent;
+		}
+		return true;
+	}
+
 	@Override
 	public String toString() {
 		return String.join(" ", getSegments());
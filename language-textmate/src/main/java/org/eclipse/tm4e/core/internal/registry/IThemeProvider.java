@@ -14,6 +14,7 @@ package org.eclipse.tm4e.core.internal.registry;
 import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.tm4e.core.internal.grammar.ScopeStack;
 import org.eclipse.tm4e.core.internal.theme.StyleAttributes;
+import org.eclipse.tm4e.core.internal.theme.Theme;
 
 /**
  * @see <a href=
@@ -26,4 +27,13 @@ public interface IThemeProvider {
 	StyleAttributes themeMatch(ScopeStack scopePath);
 
 	StyleAttributes getDefaults();
+
+	/**
+	 * Get the theme currently used for matching, if known. Caches derived from match
+	 * results are only valid as long as this returns the same instance.
+	 */
+	@Nullable
+	default Theme getTheme() {
+		return null;
+	}
 }
@@ -40,7 +40,7 @@ public final class SyncRegistry implements IGrammarRepository, IThemeProvider {
     private final Map<String, Grammar> _grammars = new HashMap<>();
     private final Map<String, IRawGrammar> _rawGrammars = new HashMap<>();
     private final Map<String, Collection<String>> _injectionGrammars = new HashMap<>();
-    private Theme _theme;
+    private volatile Theme _theme;
 
     public SyncRegistry(final Theme theme) {
         this._theme = theme;
@@ -92,6 +92,11 @@ public final class SyncRegistry implements IGrammarRepository, IThemeProvider {
         return this._theme.getDefaults();
     }
 
+    @Override
+    public Theme getTheme() {
+        return this._theme;
+    }
+
     /**
      * Match a scope in the theme.
      */
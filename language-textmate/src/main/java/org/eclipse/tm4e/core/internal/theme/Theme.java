@@ -17,9 +17,7 @@ import static org.eclipse.tm4e.core.internal.utils.StringUtils.*;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 
 import org.eclipse.jdt.annotation.Nullable;
@@ -28,6 +26,8 @@ import org.eclipse.tm4e.core.internal.grammar.ScopeStack;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Lists;
 
+import io.github.rosemoe.sora.langs.textmate.utils.BoundedCache;
+
 /**
  * TextMate theme.
  *
@@ -52,7 +52,16 @@ public final class Theme {
         return resolveParsedThemeRules(source, colorMap);
     }
 
-    private final Map<String /* scopeName */, List<ThemeTrieElementRule>> _cachedMatchRoot = new HashMap<>();
+    private static final int MAX_CACHED_SCOPE_NAMES = 4096;
+    private static final int MAX_CACHED_SCOPE_PATHS = 8192;
+
+    /**
+     * Marks scope paths that have no matching rule, as the cache can not hold null values
+     */
+    private static final StyleAttributes NO_MATCH = new StyleAttributes(FontStyle.NotSet, 0, 0);
+
+    private final BoundedCache<String /* scopeName */, List<ThemeTrieElementRule>> _cachedMatchRoot = new BoundedCache<>(MAX_CACHED_SCOPE_NAMES);
+    private final BoundedCache<ScopeStack /* scopePath */, StyleAttributes> _cachedMatchPath = new BoundedCache<>(MAX_CACHED_SCOPE_PATHS);
 
     private final ColorMap _colorMap;
     private final StyleAttributes _defaults;
@@ -77,6 +86,18 @@ public final class Theme {
         if (scopePath == null) {
             return this._defaults;
         }
+        var result = this._cachedMatchPath.get(scopePath);
+        if (result == null) {
+            result = _match(scopePath);
+            this._cachedMatchPath.put(scopePath, result == null ? NO_MATCH : result);
+        } else if (result == NO_MATCH) {
+            result = null;
+        }
+        return result;
+    }
+
+    @Nullable
+    private StyleAttributes _match(final ScopeStack scopePath) {
         final var scopeName = scopePath.scopeName;
 
         final var matchingTrieElements = this._cachedMatchRoot.computeIfAbsent(
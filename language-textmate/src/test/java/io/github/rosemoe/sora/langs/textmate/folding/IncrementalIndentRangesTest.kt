@@ -0,0 +1,190 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.langs.textmate.folding
+
+import android.os.Bundle
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.lang.analysis.AsyncIncrementalAnalyzeManager
+import io.github.rosemoe.sora.lang.analysis.IncrementalAnalyzeManager.LineTokenizeResult
+import io.github.rosemoe.sora.lang.styling.CodeBlock
+import io.github.rosemoe.sora.lang.styling.Span
+import io.github.rosemoe.sora.text.Content
+import io.github.rosemoe.sora.text.ContentLine
+import io.github.rosemoe.sora.text.ContentReference
+import org.eclipse.tm4e.core.internal.oniguruma.OnigRegExp
+import org.eclipse.tm4e.core.internal.oniguruma.OnigResult
+import org.eclipse.tm4e.core.internal.oniguruma.OnigString
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.util.Random
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+
+@RunWith(RobolectricTestRunner::class)
+class IncrementalIndentRangesTest {
+
+    private class LineState(val indent: Int, val result: OnigResult?)
+
+    /**
+     * Feeds folding inputs the same way as TextMateAnalyzer, and compares incremental results
+     * with a full computation after each modification
+     */
+    private class ComparingAnalyzer(private val offSide: Boolean, private val pattern: OnigRegExp?) :
+        AsyncIncrementalAnalyzeManager<LineState, Any>(), FoldingHelper {
+
+        val ranges = IncrementalIndentRanges()
+        val processed = Semaphore(0)
+        val mismatches = mutableListOf<String>()
+        var comparisons = 0
+
+        override fun getInitialState() = LineState(-1, null)
+
+        override fun stateEquals(state: LineState?, another: LineState?) = true
+
+        override fun tokenizeLine(line: CharSequence, state: LineState, lineIndex: Int): LineTokenizeResult<LineState, Any> {
+            ranges.markLineChanged(lineIndex)
+            val text = line.toString()
+            val indent = IndentRange.computeIndentLevel((line as ContentLine).rawData, text.length - 1, TAB_SIZE)
+            val result = pattern?.search(OnigString.of(text), 0)
+            return LineTokenizeResult(LineState(indent, result), null, mutableListOf(Span.obtain(0, 0L)))
+        }
+
+        override fun generateSpansForLine(tokens: LineTokenizeResult<LineState, Any>) = mutableListOf(Span.obtain(0, 0L))
+
+        override fun getIndentFor(line: Int) = getState(line).state.indent
+
+        override fun getResultFor(line: Int) = getState(line).state.result
+
+        override fun computeBlocks(text: Content, delegate: CodeBlockAnalyzeDelegate): List<CodeBlock> {
+            try {
+                val expected = IndentRange.computeRanges(text, TAB_SIZE, offSide, this, pattern, delegate)
+                val completed = ranges.update(text, TAB_SIZE, offSide, this, pattern, delegate)
+                if (completed && delegate.isNotCancelled) {
+                    comparisons++
+                    val actual = (0 until ranges.length()).map { ranges.getStartLineNumber(it) to ranges.getEndLineNumber(it) }
+                    val wanted = (0 until expected.length()).map { expected.getStartLineNumber(it) to expected.getEndLineNumber(it) }
+                    if (actual != wanted) {
+                        mismatches.add("text:\n$text\nexpected: $wanted\nactual: $actual")
+                    }
+                }
+            } catch (e: Exception) {
+                mismatches.add(e.toString())
+            } finally {
+                processed.release()
+            }
+            return emptyList()
+        }
+    }
+
+    private fun randomLine(random: Random, withMarkers: Boolean): String {
+        if (withMarkers && random.nextInt(8) == 0) {
+            return " ".repeat(random.nextInt(3) * 2) + if (random.nextBoolean()) "// #region" else "// #endregion"
+        }
+        return when (random.nextInt(6)) {
+            0 -> ""
+            1 -> "   "
+            else -> " ".repeat(random.nextInt(5) * 2) + (if (random.nextInt(4) == 0) "\t" else "") + "x"
+        }
+    }
+
+    private fun randomText(random: Random, lines: Int, withMarkers: Boolean) =
+        (0 until lines).joinToString("\n") { randomLine(random, withMarkers) }
+
+    private fun Content.randomPosition(random: Random): Pair<Int, Int> {
+        val line = random.nextInt(lineCount)
+        return line to random.nextInt(getColumnCount(line) + 1)
+    }
+
+    private fun runRandomEdits(seed: Long, offSide: Boolean, withMarkers: Boolean) {
+        val random = Random(seed)
+        val pattern = if (withMarkers) OnigRegExp("(//\\s*#region\\b)|(?://\\s*#endregion\\b)") else null
+        val text = Content(randomText(random, 40 + random.nextInt(200), withMarkers))
+        text.isUndoEnabled = false
+        val analyzer = ComparingAnalyzer(offSide, pattern)
+        analyzer.reset(ContentReference(text), Bundle())
+        try {
+            assertThat(analyzer.processed.tryAcquire(10, TimeUnit.SECONDS)).isTrue()
+            repeat(300) {
+                // Edits in a burst are not waited for, so some runs are cancelled by the next edit
+                val burst = if (random.nextInt(5) == 0) 1 + random.nextInt(4) else 1
+                repeat(burst) {
+                    val (line, column) = text.randomPosition(random)
+                    if (random.nextInt(3) == 0 && text.lineCount > 1) {
+                        val (endLine, endColumn) = text.randomPosition(random)
+                        val start = text.indexer.getCharPosition(line, column)
+                        val end = text.indexer.getCharPosition(endLine, endColumn)
+                        val (from, to) = if (start.index <= end.index) start to end else end to start
+                        if (from.index != to.index) {
+                            val deleted = text.subContent(from.line, from.column, to.line, to.column)
+                            text.delete(from.line, from.column, to.line, to.column)
+                            analyzer.delete(from, to, deleted)
+                            return@repeat
+                        }
+                    }
+                    val inserted = if (random.nextBoolean()) {
+                        "\n" + randomText(random, 1 + random.nextInt(5), withMarkers)
+                    } else {
+                        randomLine(random, withMarkers).take(1 + random.nextInt(3))
+                    }
+                    val start = text.indexer.getCharPosition(line, column)
+                    text.insert(line, column, inserted)
+                    val end = text.indexer.getCharPosition(text.indexer.getCharIndex(line, column) + inserted.length)
+                    analyzer.insert(start, end, inserted)
+                }
+                assertThat(analyzer.processed.tryAcquire(burst, 10, TimeUnit.SECONDS)).isTrue()
+            }
+            assertThat(analyzer.mismatches).isEmpty()
+            assertThat(analyzer.comparisons).isGreaterThan(200)
+        } finally {
+            analyzer.destroy()
+        }
+    }
+
+    @Test
+    fun `random edits match full computation`() {
+        for (seed in 0L until 4L) {
+            runRandomEdits(seed, offSide = false, withMarkers = false)
+        }
+    }
+
+    @Test
+    fun `random edits match full computation for off-side languages`() {
+        for (seed in 10L until 14L) {
+            runRandomEdits(seed, offSide = true, withMarkers = false)
+        }
+    }
+
+    @Test
+    fun `random edits match full computation with folding markers`() {
+        for (seed in 20L until 24L) {
+            runRandomEdits(seed, offSide = false, withMarkers = true)
+            runRandomEdits(seed, offSide = true, withMarkers = true)
+        }
+    }
+
+    companion object {
+        const val TAB_SIZE = 4
+    }
+}
@@ -52,5 +52,6 @@ include(
     ":language-java",
     ":language-textmate",
     ":editor-lsp",
-    ":language-treesitter"
+    ":language-treesitter",
+    ":benchmark"
 )